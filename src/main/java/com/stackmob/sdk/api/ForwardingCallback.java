@@ -0,0 +1,66 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.api;
+
+import com.stackmob.sdk.callback.StackMobRawCallback;
+import com.stackmob.sdk.exception.StackMobException;
+import com.stackmob.sdk.net.HttpVerb;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Passes everything through to the callback the request was made with. Extend it to step in on the way
+ */
+class ForwardingCallback extends StackMobRawCallback {
+    private final StackMobRawCallback callback;
+
+    ForwardingCallback(StackMobRawCallback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public void unsent(StackMobException e) {
+        callback.unsent(e);
+    }
+
+    @Override
+    public void temporaryPasswordResetRequired(StackMobException e) {
+        callback.temporaryPasswordResetRequired(e);
+    }
+
+    @Override
+    public void done(HttpVerb requestVerb, String requestURL, List<Map.Entry<String, String>> requestHeaders, String requestBody,
+                     Integer responseStatusCode, List<Map.Entry<String, String>> responseHeaders, byte[] responseBody) {
+        callback.setDone(requestVerb, requestURL, requestHeaders, requestBody, responseStatusCode, responseHeaders, responseBody);
+    }
+
+    @Override
+    public boolean retry(int afterMilliseconds) {
+        return callback.retry(afterMilliseconds);
+    }
+
+    @Override
+    public int getRetriesRemaining() {
+        return callback.getRetriesRemaining();
+    }
+
+    @Override
+    public void setRetriesRemaining(int remaining) {
+        callback.setRetriesRemaining(remaining);
+    }
+}
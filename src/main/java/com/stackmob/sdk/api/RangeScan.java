@@ -0,0 +1,283 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.api;
+
+import com.stackmob.sdk.callback.StackMobCallback;
+import com.stackmob.sdk.callback.StackMobCountCallback;
+import com.stackmob.sdk.callback.StackMobScanCallback;
+import com.stackmob.sdk.exception.StackMobException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads every result of a query by counting them, then fetching the pages that cover the count with a fixed number
+ * of requests out at once. Pages are handed out in order to whichever request slot frees up first, so the slow page
+ * holding up ordered delivery is never more than a few pages behind the rest; in ordered mode no more than twice the
+ * concurrency is fetched past the next page to deliver, which bounds how much is buffered.
+ * <p>
+ * Callbacks are queued while holding the lock and called after letting go of it, one at a time and in order, by
+ * whichever thread finds the queue idle.
+ */
+class RangeScan {
+
+    private static final String RangeHeader = "Range";
+
+    private final StackMobDatastore datastore;
+    private final StackMobQuery query;
+    private final int concurrency;
+    private final int pageSize;
+    private final boolean ordered;
+    private final StackMobScanCallback callback;
+    private final StackMobRequestHandle handle;
+
+    // Guarded by this
+    private int pageCount;
+    private int nextPage = 0;
+    private int delivered = 0;
+    private int inFlight = 0;
+    private boolean finished = false;
+    private boolean delivering = false;
+    private final Map<Integer, String> buffered = new HashMap<Integer, String>();
+    private final LinkedList<Runnable> ready = new LinkedList<Runnable>();
+    private final Set<StackMobRequestHandle> requests = new HashSet<StackMobRequestHandle>();
+
+    RangeScan(StackMobDatastore datastore, StackMobQuery query, int concurrency, int pageSize, boolean ordered, StackMobScanCallback callback, StackMobRequestHandle handle) {
+        this.datastore = datastore;
+        this.query = copyWithoutRange(query);
+        this.concurrency = concurrency;
+        this.pageSize = pageSize;
+        this.ordered = ordered;
+        this.callback = callback;
+        this.handle = handle;
+    }
+
+    void start() {
+        handle.stopWith(new Runnable() {
+            @Override
+            public void run() {
+                cancel();
+            }
+        });
+        track(datastore.count(copyWithoutRange(query), new StackMobCountCallback() {
+            @Override
+            public void success(final long count) {
+                synchronized(RangeScan.this) {
+                    if(finished) return;
+                    pageCount = (int) ((count + pageSize - 1) / pageSize);
+                    ready.add(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.total(count);
+                        }
+                    });
+                    if(pageCount == 0) {
+                        finished = true;
+                        succeed();
+                    }
+                }
+                deliver();
+                fill();
+            }
+
+            @Override
+            public void failure(StackMobException e) {
+                fail(e);
+            }
+        }));
+    }
+
+    private static StackMobQuery copyWithoutRange(StackMobQuery query) {
+        StackMobQuery copy = new StackMobQuery(query.getObjectName()).add(query);
+        copy.getHeaders().remove(RangeHeader);
+        return copy;
+    }
+
+    /*
+     * Sends requests for the next pages until every slot is in use
+     */
+    private void fill() {
+        List<Integer> pages = new ArrayList<Integer>();
+        synchronized(this) {
+            while(!finished && inFlight < concurrency && nextPage < pageCount && (!ordered || nextPage < delivered + 2 * concurrency)) {
+                pages.add(nextPage++);
+                inFlight++;
+            }
+        }
+        for(int page : pages) {
+            fetch(page);
+        }
+    }
+
+    private void fetch(final int page) {
+        int start = page * pageSize;
+        StackMobQuery pageQuery = new StackMobQuery(query.getObjectName()).add(query).isInRange(start, start + pageSize - 1);
+        track(datastore.get(pageQuery, new StackMobCallback() {
+            @Override
+            public void success(String responseBody) {
+                arrived(page, responseBody);
+            }
+
+            @Override
+            public void failure(StackMobException e) {
+                fail(e);
+            }
+        }));
+    }
+
+    /*
+     * Keeps hold of a request that's still out, so cancelling the scan can stop it
+     */
+    private synchronized void track(StackMobRequestHandle request) {
+        if(finished) {
+            request.cancel();
+        } else if(!request.isDone()) {
+            requests.add(request);
+        }
+        for(Iterator<StackMobRequestHandle> i = requests.iterator(); i.hasNext();) {
+            if(i.next().isDone()) i.remove();
+        }
+    }
+
+    private void arrived(int page, String responseBody) {
+        synchronized(this) {
+            inFlight--;
+            if(finished) return;
+            if(ordered) {
+                buffered.put(page, responseBody);
+                String next;
+                while((next = buffered.remove(delivered)) != null) {
+                    queuePage(delivered * pageSize, next);
+                    delivered++;
+                }
+            } else {
+                queuePage(page * pageSize, responseBody);
+                delivered++;
+            }
+            if(delivered == pageCount) {
+                finished = true;
+                succeed();
+            }
+        }
+        deliver();
+        fill();
+    }
+
+    private void fail(final StackMobException e) {
+        synchronized(this) {
+            if(finished) return;
+            finished = true;
+            buffered.clear();
+            if(!handle.finish()) return;
+            ready.add(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        callback.failure(e);
+                    } finally {
+                        handle.released();
+                    }
+                }
+            });
+        }
+        deliver();
+    }
+
+    /*
+     * Queues the end of the scan. Called holding the lock
+     */
+    private void succeed() {
+        if(!handle.finish()) return;
+        ready.add(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    callback.success();
+                } finally {
+                    handle.released();
+                }
+            }
+        });
+    }
+
+    /*
+     * Queues a page for the callback. Called holding the lock
+     */
+    private void queuePage(final int start, final String responseBody) {
+        ready.add(new Runnable() {
+            @Override
+            public void run() {
+                callback.page(start, responseBody);
+            }
+        });
+    }
+
+    /*
+     * Calls the queued callbacks outside the lock. Only one thread delivers at a time, so they're still called in order
+     * and never at once; a thread that finds another already delivering leaves its callbacks for that one
+     */
+    private void deliver() {
+        synchronized(this) {
+            if(delivering) return;
+            delivering = true;
+        }
+        boolean drained = false;
+        try {
+            while(true) {
+                Runnable next;
+                synchronized(this) {
+                    next = ready.poll();
+                    if(next == null) {
+                        delivering = false;
+                        drained = true;
+                        return;
+                    }
+                }
+                next.run();
+            }
+        } finally {
+            if(!drained) {
+                synchronized(this) {
+                    delivering = false;
+                }
+            }
+        }
+    }
+
+    /*
+     * Stops the scan and every request it has out, without calling the callback again
+     */
+    private void cancel() {
+        List<StackMobRequestHandle> out;
+        synchronized(this) {
+            finished = true;
+            buffered.clear();
+            ready.clear();
+            out = new ArrayList<StackMobRequestHandle>(requests);
+            requests.clear();
+        }
+        for(StackMobRequestHandle request : out) {
+            request.cancel();
+        }
+    }
+}
@@ -18,7 +18,13 @@ package com.stackmob.sdk.api;
 
 import com.stackmob.sdk.callback.*;
 import com.stackmob.sdk.exception.StackMobException;
+import com.stackmob.sdk.model.StackMobIdentityMap;
+import com.stackmob.sdk.model.StackMobSaveBatcher;
 import com.stackmob.sdk.net.HttpVerbWithPayload;
+import com.stackmob.sdk.net.StackMobConnectionPool;
+import com.stackmob.sdk.net.StackMobNIOTransport;
+import com.stackmob.sdk.net.StackMobTimeouts;
+import com.stackmob.sdk.net.StackMobTransport;
 import com.stackmob.sdk.push.StackMobPush;
 import com.stackmob.sdk.request.*;
 import com.stackmob.sdk.util.Pair;
@@ -30,7 +36,6 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * The StackMob object is your interface for accessing StackMob's many features. Its functions include:
@@ -69,6 +74,13 @@ public class StackMob {
     private String apiUrlFormat;
     private String pushUrlFormat;
     private ExecutorService executor;
+    private StackMobConnectionPool connectionPool;
+    // What this object created, and so has to shut down. A copy shares these but owns none of them
+    private StackMobTransport ownTransport;
+    private ExecutorService ownCallbackExecutor;
+    private boolean ownExecutor = false;
+    private volatile StackMobIdentityMap identityMap;
+    private volatile StackMobSaveBatcher saveBatcher;
 
 
     private final Object urlFormatLock = new Object();
@@ -147,10 +159,6 @@ public class StackMob {
         }
     };
 
-    private static ExecutorService createNewExecutor() {
-        return Executors.newCachedThreadPool();
-    }
-
     private static StackMob stackmob;
 
     /**
@@ -189,6 +197,16 @@ public class StackMob {
         this(oauthVersion, apiVersionNumber, apiKey, apiSecret, DEFAULT_API_HOST, DEFAULT_USER_SCHEMA_NAME, DEFAULT_USER_ID, DEFAULT_PASSWORD_FIELD, DEFAULT_REDIRECTED_CALLBACK);
     }
 
+    /**
+     * a StackMob constructor allowing you to control the threads used for requests and callbacks.
+     * @param apiVersionNumber the version of your app's API that you want to use with this StackMob session. pass 0 for sandbox
+     * @param apiKey the api key for your app
+     * @param executionConfig the thread configuration
+     */
+    public StackMob(Integer apiVersionNumber, String apiKey, StackMobExecutionConfig executionConfig) {
+        this(OAuthVersion.Two, apiVersionNumber, apiKey, null, DEFAULT_API_HOST, DEFAULT_USER_SCHEMA_NAME, DEFAULT_USER_ID, DEFAULT_PASSWORD_FIELD, DEFAULT_REDIRECTED_CALLBACK, executionConfig);
+    }
+
     /**
      * the most complete StackMob constructor allowing you to set values for everything
      * @param oauthVersion whether to use oauth1 or oauth2
@@ -225,8 +243,42 @@ public class StackMob {
                     String userIdName,
                     String passwordFieldName,
                     StackMobRedirectedCallback redirectedCallback) {
+        this(oauthVersion, apiVersionNumber, apiKey, apiSecret, apiHost, userSchema, userIdName, passwordFieldName, redirectedCallback, StackMobExecutionConfig.unbounded());
+    }
+
+    /**
+     * the most complete StackMob constructor, with control over the threads used for requests and callbacks.
+     * See {@link #StackMob(OAuthVersion, Integer, String, String, String, String, String, String, StackMobRedirectedCallback)}
+     * for the other parameters
+     * @param oauthVersion whether to use oauth1 or oauth2
+     * @param apiVersionNumber the version of your app's API that you want to use with this StackMob session. pass 0 for sandbox
+     * @param apiKey the api key for your app
+     * @param apiSecret the api secret for your app. Can be null if you're using OAuth2
+     * @param apiHost the base of the url for api requests
+     * @param userSchema the name of your app's user object
+     * @param userIdName the name of your app's user object primary key
+     * @param passwordFieldName the name of your app's user object primary key
+     * @param redirectedCallback callback to be called if the StackMob platform issues a redirect
+     * @param executionConfig the thread configuration
+     */
+    public StackMob(OAuthVersion oauthVersion,
+                    Integer apiVersionNumber,
+                    String apiKey,
+                    String apiSecret,
+                    String apiHost,
+                    String userSchema,
+                    String userIdName,
+                    String passwordFieldName,
+                    StackMobRedirectedCallback redirectedCallback,
+                    StackMobExecutionConfig executionConfig) {
         this.session = new StackMobSession(oauthVersion, apiVersionNumber, apiKey, apiSecret, userSchema, userIdName);
-        this.executor = createNewExecutor();
+        this.connectionPool = new StackMobConnectionPool();
+        this.ownTransport = new StackMobNIOTransport(connectionPool);
+        this.session.setTransport(ownTransport);
+        this.executor = executionConfig.createRequestExecutor();
+        this.ownExecutor = true;
+        this.ownCallbackExecutor = executionConfig.createCallbackExecutor();
+        this.session.setCallbackExecutor(ownCallbackExecutor);
         this.apiUrlFormat = apiHost;
         this.userSchema = userSchema;
         this.userIdName = userIdName;
@@ -237,7 +289,8 @@ public class StackMob {
     }
 
     /**
-     * Copy constructor
+     * Copy constructor. The copy shares the original's transport and executors, and shutting it down leaves them
+     * alone; only the original can shut them down
      * @param other the StackMob to copy
      */
     public StackMob(StackMob other) {
@@ -246,6 +299,9 @@ public class StackMob {
         this.apiUrlFormat = other.apiUrlFormat;
         this.pushUrlFormat = other.pushUrlFormat;
         this.executor = other.executor;
+        this.connectionPool = other.connectionPool;
+        this.identityMap = other.identityMap;
+        this.saveBatcher = other.saveBatcher;
     }
 
     /**
@@ -328,6 +384,7 @@ public class StackMob {
                                      callback,
                                      this.redirectedCallback).setUrlFormat(this.apiUrlFormat).sendRequest();
         session.setOAuth2TokensAndExpiration(null, null, null, 0);
+        if(datastore != null && datastore.getResponseCache() != null) datastore.getResponseCache().clear();
     }
 
     ////////////////////
@@ -711,6 +768,145 @@ public class StackMob {
         return executor;
     }
 
+    /**
+     * set the transport used to send requests. The default is {@link StackMobNIOTransport}, which doesn't
+     * hold a thread per request. Use {@link com.stackmob.sdk.net.StackMobScribeTransport} if you need to go
+     * through an http proxy. If the transport being replaced is the one this object created, it's shut down and
+     * any requests still in flight on it fail
+     * @param transport the transport to use
+     */
+    public synchronized void setTransport(StackMobTransport transport) {
+        StackMobTransport previous = session.getTransport();
+        session.setTransport(transport);
+        if(previous == ownTransport && previous != transport) {
+            ownTransport = null;
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * release the threads and connections this object created: the default transport, the request executor and
+     * the callback executor. A transport passed to {@link #setTransport(StackMobTransport)} is left alone, and so is
+     * everything a copy shares with the object it was copied from. Requests in flight fail, and no requests can be
+     * sent afterwards
+     */
+    public synchronized void shutdown() {
+        if(ownTransport != null) {
+            ownTransport.shutdown();
+            ownTransport = null;
+        }
+        if(ownExecutor) executor.shutdown();
+        if(ownCallbackExecutor != null) ownCallbackExecutor.shutdown();
+    }
+
+    /**
+     * get the pool of connections kept open to the StackMob servers. Use this to tune the per host limits and
+     * idle timeout, or to look at hit and miss stats. The pool is shared with any
+     * {@link com.stackmob.sdk.push.StackMobPush} created from this object
+     * @return the connection pool
+     */
+    public StackMobConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * resolve models loaded from the server to one instance per schema and id. Off by default
+     * @param identityMap the identity map to use, or null to create a new instance for every object loaded
+     */
+    public void setIdentityMap(StackMobIdentityMap identityMap) {
+        this.identityMap = identityMap;
+    }
+
+    /**
+     * get the identity map models loaded from the server are resolved through
+     * @return the identity map, or null if there isn't one
+     */
+    public StackMobIdentityMap getIdentityMap() {
+        return identityMap;
+    }
+
+    /**
+     * send saves of the same schema made close together in one request. Off by default
+     * @param saveBatcher the batcher to use, or null to send every save on its own
+     */
+    public void setSaveBatcher(StackMobSaveBatcher saveBatcher) {
+        this.saveBatcher = saveBatcher;
+    }
+
+    /**
+     * get the batcher saves are sent through
+     * @return the batcher, or null if every save is sent on its own
+     */
+    public StackMobSaveBatcher getSaveBatcher() {
+        return saveBatcher;
+    }
+
+    /**
+     * retry failed requests with backoff, within a budget. Without a policy only a 503 with a Retry-After header is
+     * retried. A policy on {@link StackMobOptions} takes the place of this one for a single call
+     * @param retryPolicy the policy to use, or null for none
+     */
+    public void setRetryPolicy(StackMobRetryPolicy retryPolicy) {
+        session.setRetryPolicy(retryPolicy);
+    }
+
+    /**
+     * get the policy failed requests are retried under
+     * @return the policy, or null if there isn't one
+     */
+    public StackMobRetryPolicy getRetryPolicy() {
+        return session.getRetryPolicy();
+    }
+
+    /**
+     * fail requests straight away, without sending them, while the host or schema they're going to keeps failing
+     * @param circuitBreaker the breaker to use, or null for none
+     */
+    public void setCircuitBreaker(StackMobCircuitBreaker circuitBreaker) {
+        session.setCircuitBreaker(circuitBreaker);
+    }
+
+    /**
+     * get the circuit breaker requests go through
+     * @return the breaker, or null if there isn't one
+     */
+    public StackMobCircuitBreaker getCircuitBreaker() {
+        return session.getCircuitBreaker();
+    }
+
+    /**
+     * limit how long requests can take. Timeouts on {@link StackMobOptions} take the place of these for a single call
+     * @param timeouts the timeouts to use, or null for no limits
+     */
+    public void setTimeouts(StackMobTimeouts timeouts) {
+        session.setTimeouts(timeouts);
+    }
+
+    /**
+     * get the timeouts requests are sent with
+     * @return the timeouts, or null if there aren't any
+     */
+    public StackMobTimeouts getTimeouts() {
+        return session.getTimeouts();
+    }
+
+    /**
+     * get the transport used to send requests
+     * @return the transport
+     */
+    public StackMobTransport getTransport() {
+        return session.getTransport();
+    }
+
+    /**
+     * get the executor callbacks run on
+     * @return the callback executor, which is the request executor unless a separate callback pool was configured
+     * or the request pool is bounded
+     */
+    public ExecutorService getCallbackExecutor() {
+        return session.getCallbackExecutor() == null ? executor : session.getCallbackExecutor();
+    }
+
     /**
      * get the callback used for redirected requests
      * @return the redirected callback
@@ -0,0 +1,334 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.api;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stops sending requests to a host that's failing, so callers find out straight away rather than each waiting on a
+ * request that's likely to fail. Set one with {@link StackMob#setCircuitBreaker(StackMobCircuitBreaker)}.
+ * <p>
+ * Each host, or each schema on each host with {@link #setPerSchema(boolean)}, has its own circuit. A circuit watches the
+ * outcome of its most recent requests, and once enough of them have failed or been slow it opens. While it's open
+ * requests go straight to {@link com.stackmob.sdk.callback.StackMobRawCallback#unsent(com.stackmob.sdk.exception.StackMobException)}
+ * without being sent. After a while it lets a few probe requests through; if they succeed it closes again, and if any
+ * fails it stays open for another while. A 5xx response or a request that couldn't get a response counts as a failure.
+ */
+public class StackMobCircuitBreaker {
+
+    /**
+     * The state of a circuit
+     */
+    public enum State {
+        // Requests are sent
+        CLOSED,
+        // Requests fail without being sent
+        OPEN,
+        // A few probe requests are sent to see whether the host has recovered
+        HALF_OPEN
+    }
+
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+    public static final int DEFAULT_MINIMUM_REQUESTS = 10;
+    public static final double DEFAULT_FAILURE_RATE = 0.5;
+    public static final long DEFAULT_SLOW_CALL_MILLIS = 10000;
+    public static final double DEFAULT_SLOW_CALL_RATE = 0.8;
+    public static final long DEFAULT_OPEN_MILLIS = 30000;
+    public static final int DEFAULT_PROBES = 2;
+
+    private volatile int windowSize = DEFAULT_WINDOW_SIZE;
+    private volatile int minimumRequests = DEFAULT_MINIMUM_REQUESTS;
+    private volatile double failureRate = DEFAULT_FAILURE_RATE;
+    private volatile long slowCallMillis = DEFAULT_SLOW_CALL_MILLIS;
+    private volatile double slowCallRate = DEFAULT_SLOW_CALL_RATE;
+    private volatile long openMillis = DEFAULT_OPEN_MILLIS;
+    private volatile int probes = DEFAULT_PROBES;
+    private volatile boolean perSchema = false;
+
+    private final ConcurrentHashMap<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong trips = new AtomicLong();
+
+    /**
+     * set how many of the most recent requests a circuit looks at
+     * @param windowSize the number of requests
+     * @return this breaker
+     */
+    public StackMobCircuitBreaker setWindowSize(int windowSize) {
+        if(windowSize < 1) throw new IllegalArgumentException("windowSize must be at least 1");
+        this.windowSize = windowSize;
+        return this;
+    }
+
+    /**
+     * set how many requests a circuit needs to have seen before it can open
+     * @param minimumRequests the number of requests
+     * @return this breaker
+     */
+    public StackMobCircuitBreaker setMinimumRequests(int minimumRequests) {
+        if(minimumRequests < 1) throw new IllegalArgumentException("minimumRequests must be at least 1");
+        this.minimumRequests = minimumRequests;
+        return this;
+    }
+
+    /**
+     * set the share of failed requests that opens a circuit
+     * @param failureRate the failure rate, from 0 to 1
+     * @return this breaker
+     */
+    public StackMobCircuitBreaker setFailureRate(double failureRate) {
+        if(failureRate <= 0 || failureRate > 1) throw new IllegalArgumentException("failureRate must be more than 0 and at most 1");
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    /**
+     * set when slow requests open a circuit
+     * @param slowCallMillis how long a request can take before it counts as slow
+     * @param slowCallRate the share of slow requests that opens a circuit, from 0 to 1
+     * @return this breaker
+     */
+    public StackMobCircuitBreaker setSlowCalls(long slowCallMillis, double slowCallRate) {
+        if(slowCallMillis < 1) throw new IllegalArgumentException("slowCallMillis must be at least 1");
+        if(slowCallRate <= 0 || slowCallRate > 1) throw new IllegalArgumentException("slowCallRate must be more than 0 and at most 1");
+        this.slowCallMillis = slowCallMillis;
+        this.slowCallRate = slowCallRate;
+        return this;
+    }
+
+    /**
+     * set how long a circuit stays open before it lets probe requests through
+     * @param openMillis the time in milliseconds
+     * @return this breaker
+     */
+    public StackMobCircuitBreaker setOpenMillis(long openMillis) {
+        if(openMillis < 0) throw new IllegalArgumentException("openMillis can't be negative");
+        this.openMillis = openMillis;
+        return this;
+    }
+
+    /**
+     * set how many probe requests have to succeed to close a circuit. No more than this are in flight at once
+     * @param probes the number of probes
+     * @return this breaker
+     */
+    public StackMobCircuitBreaker setProbes(int probes) {
+        if(probes < 1) throw new IllegalArgumentException("probes must be at least 1");
+        this.probes = probes;
+        return this;
+    }
+
+    /**
+     * give each schema its own circuit, so one failing schema doesn't stop requests to the others on the same host
+     * @param perSchema whether to have a circuit per schema
+     * @return this breaker
+     */
+    public StackMobCircuitBreaker setPerSchema(boolean perSchema) {
+        this.perSchema = perSchema;
+        return this;
+    }
+
+    /**
+     * get the state of a circuit
+     * @param host the host
+     * @param schema the schema, which is ignored unless there's a circuit per schema
+     * @return the state
+     */
+    public State getState(String host, String schema) {
+        Circuit circuit = circuits.get(key(host, schema));
+        return circuit == null ? State.CLOSED : circuit.state(System.nanoTime());
+    }
+
+    /**
+     * get permission to send a request. Called by the sdk before each request is sent
+     * @param host the host the request is going to
+     * @param schema the first segment of the request's path
+     * @return a permit to report the outcome to, or null if the circuit is open and the request shouldn't be sent
+     */
+    public Permit tryAcquire(String host, String schema) {
+        String key = key(host, schema);
+        Circuit circuit = circuits.get(key);
+        if(circuit == null) {
+            circuit = new Circuit();
+            Circuit existing = circuits.putIfAbsent(key, circuit);
+            if(existing != null) circuit = existing;
+        }
+        Permit permit = circuit.tryAcquire();
+        if(permit == null) rejected.incrementAndGet();
+        return permit;
+    }
+
+    /**
+     * get the number of requests turned away by an open circuit
+     * @return the number of requests not sent
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * get the number of times a circuit has opened
+     * @return the number of trips
+     */
+    public long getTrips() {
+        return trips.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StackMobCircuitBreaker(rejected=%d, trips=%d, circuits=%d)", getRejected(), getTrips(), circuits.size());
+    }
+
+    private String key(String host, String schema) {
+        return perSchema && schema != null ? host + "/" + schema : host;
+    }
+
+    /**
+     * Permission to send one request. Report how it went with {@link #completed(int)}, {@link #failed()}, or
+     * {@link #cancelled()} if it wasn't sent after all. Only the first report counts
+     */
+    public static class Permit {
+        private final Circuit circuit;
+        private final long generation;
+        private final boolean probe;
+        private final long started = System.nanoTime();
+        private final AtomicBoolean reported = new AtomicBoolean(false);
+
+        private Permit(Circuit circuit, long generation, boolean probe) {
+            this.circuit = circuit;
+            this.generation = generation;
+            this.probe = probe;
+        }
+
+        /**
+         * the request got a response
+         * @param statusCode the response status
+         */
+        public void completed(int statusCode) {
+            if(reported.compareAndSet(false, true)) circuit.record(this, statusCode >= 500);
+        }
+
+        /**
+         * the request didn't get a response
+         */
+        public void failed() {
+            if(reported.compareAndSet(false, true)) circuit.record(this, true);
+        }
+
+        /**
+         * the request wasn't sent
+         */
+        public void cancelled() {
+            if(reported.compareAndSet(false, true)) circuit.cancel(this);
+        }
+    }
+
+    /*
+     * One host or schema's state, and the outcomes of its recent requests in a ring
+     */
+    private class Circuit {
+        private State state = State.CLOSED;
+        // Changes whenever the state does, so outcomes from requests sent before then are ignored
+        private long generation = 0;
+        private long openedAt;
+        private boolean[] failures = new boolean[windowSize];
+        private boolean[] slow = new boolean[windowSize];
+        private int next = 0;
+        private int count = 0;
+        private int failureCount = 0;
+        private int slowCount = 0;
+        private int probesInFlight = 0;
+        private int probesSucceeded = 0;
+
+        synchronized State state(long now) {
+            if(state == State.OPEN && now - openedAt >= openMillis * 1000000L) return State.HALF_OPEN;
+            return state;
+        }
+
+        synchronized Permit tryAcquire() {
+            long now = System.nanoTime();
+            if(state == State.OPEN) {
+                if(now - openedAt < openMillis * 1000000L) return null;
+                moveTo(State.HALF_OPEN, now);
+            }
+            if(state == State.HALF_OPEN) {
+                if(probesInFlight >= probes) return null;
+                probesInFlight++;
+                return new Permit(this, generation, true);
+            }
+            return new Permit(this, generation, false);
+        }
+
+        synchronized void record(Permit permit, boolean failed) {
+            if(permit.generation != generation) return;
+            long now = System.nanoTime();
+            boolean wasSlow = now - permit.started > slowCallMillis * 1000000L;
+            if(permit.probe) {
+                probesInFlight--;
+                if(failed || wasSlow) {
+                    trip(now);
+                } else if(++probesSucceeded >= probes) {
+                    moveTo(State.CLOSED, now);
+                }
+                return;
+            }
+            if(count == failures.length) {
+                if(failures[next]) failureCount--;
+                if(slow[next]) slowCount--;
+            } else {
+                count++;
+            }
+            failures[next] = failed;
+            slow[next] = wasSlow;
+            if(failed) failureCount++;
+            if(wasSlow) slowCount++;
+            next = (next + 1) % failures.length;
+            if(count >= Math.min(minimumRequests, failures.length) &&
+                    (failureCount >= failureRate * count || slowCount >= slowCallRate * count)) {
+                trip(now);
+            }
+        }
+
+        synchronized void cancel(Permit permit) {
+            if(permit.probe && permit.generation == generation) probesInFlight--;
+        }
+
+        private void trip(long now) {
+            trips.incrementAndGet();
+            moveTo(State.OPEN, now);
+        }
+
+        private void moveTo(State newState, long now) {
+            state = newState;
+            generation++;
+            probesInFlight = 0;
+            probesSucceeded = 0;
+            if(newState == State.OPEN) openedAt = now;
+            if(newState == State.CLOSED) {
+                // Start over with a clean window, picking up any change to its size
+                failures = new boolean[windowSize];
+                slow = new boolean[windowSize];
+                next = 0;
+                count = 0;
+                failureCount = 0;
+                slowCount = 0;
+            }
+        }
+    }
+}
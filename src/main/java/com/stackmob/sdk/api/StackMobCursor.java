@@ -0,0 +1,187 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.api;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+/**
+ * A position in the results of a query, for reading them a page at a time without {@link StackMobQuery#isInRange(Integer, Integer)}.
+ * Rather than asking the server to skip past every earlier result, which gets slower the further in you are, each
+ * page asks for the results after the last one seen. Results are ordered by a sort field, createddate by default,
+ * and then by id, so the last object seen is always a precise place to continue from.
+ * <pre>
+ * {@code
+ * StackMobCursor cursor = new StackMobCursor(new StackMobQuery("task").fieldIsEqualTo("done", "false"));
+ * StackMob.getStackMob().getDatastore().get(cursor, new StackMobCallback() {
+ *     public void success(String responseBody) {
+ *         // handle the page, then get the next one if cursor.hasMore()
+ *     }
+ *
+ *     public void failure(StackMobException e) {
+ *         // the cursor hasn't moved, so the same page can be tried again
+ *     }
+ * });
+ * }
+ * </pre>
+ * A cursor is Serializable, so it can be saved and the query picked up where it left off later. It replaces any
+ * ordering or range on the query it was made from. A cursor isn't thread-safe; only get one page at a time with it.
+ */
+public class StackMobCursor implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final String RangeHeader = "Range";
+    private static final String OrderByHeader = "X-StackMob-OrderBy";
+
+    /*
+     * How the next page picks up from the last object seen
+     */
+    private enum Mode {
+        // No page has been read yet
+        START,
+        // After the last sort value seen, or equal to it with a greater id. The server can't express that, so this
+        // asks for everything from the last sort value on and drops the objects already seen
+        FROM_LAST,
+        // Equal to the last sort value with a greater id, for when more objects share a sort value than fit in a page
+        SAME_VALUE,
+        // After the last sort value seen, once every object with that value has been read
+        AFTER_LAST
+    }
+
+    private final String objectName;
+    private final HashMap<String, String> headers = new HashMap<String, String>();
+    private final HashMap<String, String> args = new HashMap<String, String>();
+    private final String sortField;
+    private final String idField;
+    private final int pageSize;
+
+    private Mode mode = Mode.START;
+    private String lastValue;
+    private String lastId;
+    private boolean hasMore = true;
+
+    /**
+     * create a cursor over a query's results ordered by createddate, 100 at a time. The id field is assumed to be the
+     * schema name followed by _id
+     * @param query the query to read the results of
+     */
+    public StackMobCursor(StackMobQuery query) {
+        this(query, "createddate", query.getObjectName() + "_id", 100);
+    }
+
+    /**
+     * create a cursor over a query's results
+     * @param query the query to read the results of
+     * @param sortField the field to order by. Its values should rarely change, as an object whose value changes while
+     *                  the results are being read can be seen twice or missed
+     * @param idField the schema's id field, used to order objects with the same sort value
+     * @param pageSize the number of results in each page
+     */
+    public StackMobCursor(StackMobQuery query, String sortField, String idField, int pageSize) {
+        if(pageSize < 1) throw new IllegalArgumentException("pageSize must be at least 1");
+        this.objectName = query.getObjectName();
+        this.headers.putAll(query.getHeaders());
+        this.headers.remove(RangeHeader);
+        this.headers.remove(OrderByHeader);
+        this.args.putAll(query.getArgumentMap());
+        this.sortField = sortField;
+        this.idField = idField;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * whether there may be more results after the pages already read
+     * @return false once a page has come back short
+     */
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    /**
+     * get the number of results in each page
+     * @return the page size
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /*
+     * The query for the page after the last one read
+     */
+    StackMobQuery nextQuery() {
+        StackMobQuery query = new StackMobQuery(objectName);
+        query.getHeaders().putAll(headers);
+        query.getArgumentMap().putAll(args);
+        query.fieldIsOrderedBy(sortField, StackMobQuery.Ordering.ASCENDING);
+        if(!sortField.equals(idField)) query.fieldIsOrderedBy(idField, StackMobQuery.Ordering.ASCENDING);
+        switch(mode) {
+            case FROM_LAST: query.fieldIsGreaterThanOrEqualTo(sortField, lastValue); break;
+            case SAME_VALUE: query.fieldIsEqualTo(sortField, lastValue).fieldIsGreaterThan(idField, lastId); break;
+            case AFTER_LAST: query.fieldIsGreaterThan(sortField, lastValue); break;
+            default: break;
+        }
+        return query.isInRange(0, pageSize - 1);
+    }
+
+    /*
+     * Moves past a page returned for nextQuery(). Returns the objects in it that weren't seen before, or null if there
+     * weren't any and the next query should be sent straight away
+     */
+    String advance(String responseBody) {
+        JsonArray results = new JsonParser().parse(responseBody).getAsJsonArray();
+        boolean full = results.size() >= pageSize;
+        JsonArray page = new JsonArray();
+        boolean skipping = mode == Mode.FROM_LAST;
+        for(JsonElement result : results) {
+            if(skipping) {
+                JsonObject object = result.getAsJsonObject();
+                if(lastValue.equals(valueOf(object, sortField)) && valueOf(object, idField).compareTo(lastId) <= 0) continue;
+                skipping = false;
+            }
+            page.add(result);
+        }
+        if(page.size() > 0) {
+            JsonObject last = page.get(page.size() - 1).getAsJsonObject();
+            String value = valueOf(last, sortField);
+            lastId = valueOf(last, idField);
+            lastValue = value;
+        }
+        if(mode == Mode.SAME_VALUE) {
+            if(!full) mode = Mode.AFTER_LAST;
+            if(page.size() == 0) return null;
+        } else if(page.size() == 0 && full) {
+            // A whole page of objects already seen, all with the last sort value. Walk through those by id instead
+            mode = Mode.SAME_VALUE;
+            return null;
+        } else {
+            hasMore = full;
+            mode = Mode.FROM_LAST;
+        }
+        return page.toString();
+    }
+
+    private static String valueOf(JsonObject object, String field) {
+        JsonElement value = object.get(field);
+        if(value == null || value.isJsonNull()) throw new IllegalStateException("Can't page by " + field + ", an object has no value for it");
+        return value.getAsString();
+    }
+}
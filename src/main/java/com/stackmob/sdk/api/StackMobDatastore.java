@@ -16,8 +16,10 @@
 package com.stackmob.sdk.api;
 
 import com.google.gson.*;
+import com.stackmob.sdk.callback.StackMobCallback;
 import com.stackmob.sdk.callback.StackMobRawCallback;
 import com.stackmob.sdk.callback.StackMobRedirectedCallback;
+import com.stackmob.sdk.callback.StackMobScanCallback;
 import com.stackmob.sdk.exception.StackMobException;
 import com.stackmob.sdk.net.HttpVerb;
 import com.stackmob.sdk.net.HttpVerbWithPayload;
@@ -44,6 +46,8 @@ public class StackMobDatastore {
     private StackMobSession session;
     private String host;
     private StackMobRedirectedCallback redirectedCallback;
+    private volatile StackMobResponseCache responseCache;
+    private volatile StackMobRequestCoalescer requestCoalescer;
 
     public StackMobDatastore(ExecutorService executor, StackMobSession session, String host, StackMobRedirectedCallback redirectedCallback) {
         this.executor = executor;
@@ -58,22 +62,51 @@ public class StackMobDatastore {
      */
     public void setSession(StackMobSession session) {
         this.session = session;
+        StackMobResponseCache cache = this.responseCache;
+        if(cache != null) cache.clear();
+    }
+
+    /**
+     * cache the responses to GETs made through this datastore. See {@link StackMobResponseCache} for details
+     * @param responseCache the cache to use, or null to stop caching
+     */
+    public void setResponseCache(StackMobResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * send only one of several identical GETs made through this datastore at the same time. See
+     * {@link StackMobRequestCoalescer} for details
+     * @param requestCoalescer the coalescer to use, or null to send every GET
+     */
+    public void setRequestCoalescer(StackMobRequestCoalescer requestCoalescer) {
+        this.requestCoalescer = requestCoalescer;
+    }
+
+    /**
+     * get the coalescer identical GETs go through
+     * @return the coalescer, or null if every GET is sent
+     */
+    public StackMobRequestCoalescer getRequestCoalescer() {
+        return requestCoalescer;
+    }
+
+    /**
+     * get the cache GET responses are kept in
+     * @return the cache, or null if responses aren't cached
+     */
+    public StackMobResponseCache getResponseCache() {
+        return responseCache;
     }
 
     /**
      * do a get request on the StackMob platform
      * @param path the path to get
      * @param callback callback to be called when the server returns. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
      */
-    public void get(String path, StackMobRawCallback callback) {
-        new StackMobRequestWithoutPayload(this.executor,
-                                          this.session,
-                                          HttpVerbWithoutPayload.GET,
-                                          StackMobOptions.none(),
-                                          StackMobRequest.EmptyParams,
-                                          path,
-                                          callback,
-                                          this.redirectedCallback).setUrlFormat(this.host).sendRequest();
+    public StackMobRequestHandle get(String path, StackMobRawCallback callback) {
+        return get(path, StackMobRequest.EmptyParams, StackMobOptions.none(), callback);
     }
 
     /**
@@ -81,9 +114,10 @@ public class StackMobDatastore {
      * @param path the path to get
      * @param options additional options, such as headers, to modify the request
      * @param callback callback to be called when the server returns. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
      */
-    public void get(String path, StackMobOptions options, StackMobRawCallback callback) {
-        get(path, StackMobRequest.EmptyParams, options, callback);
+    public StackMobRequestHandle get(String path, StackMobOptions options, StackMobRawCallback callback) {
+        return get(path, StackMobRequest.EmptyParams, options, callback);
     }
 
     /**
@@ -93,15 +127,8 @@ public class StackMobDatastore {
      * @param headers any additional headers to send
      * @param callback callback to be called when the server returns. may execute in a separate thread
      */
-    private void get(String path, List<Map.Entry<String, String>> arguments, List<Map.Entry<String, String>> headers, StackMobRawCallback callback) {
-        new StackMobRequestWithoutPayload(this.executor,
-                                          this.session,
-                                          HttpVerbWithoutPayload.GET,
-                                          StackMobOptions.headers(headers),
-                                          arguments,
-                                          path,
-                                          callback,
-                                          this.redirectedCallback).setUrlFormat(this.host).sendRequest();
+    private StackMobRequestHandle get(String path, List<Map.Entry<String, String>> arguments, List<Map.Entry<String, String>> headers, StackMobRawCallback callback) {
+        return get(path, arguments, StackMobOptions.headers(headers), callback);
     }
 
     /**
@@ -111,25 +138,57 @@ public class StackMobDatastore {
      * @param options additional options, such as headers, to modify the request
      * @param callback callback to be called when the server returns. may execute in a separate thread
      */
-    private void get(String path, List<Map.Entry<String, String>> arguments, StackMobOptions options, StackMobRawCallback callback) {
-        new StackMobRequestWithoutPayload(this.executor,
+    private StackMobRequestHandle get(String path, List<Map.Entry<String, String>> arguments, StackMobOptions options, StackMobRawCallback callback) {
+        StackMobRequestHandle handle = new StackMobRequestHandle();
+        get(path, arguments, options, handle.wrap(callback), handle);
+        return handle;
+    }
+
+    /*
+     * Sends a GET for a call, unless it's answered by the cache or joins an identical GET already out
+     */
+    private void get(String path, List<Map.Entry<String, String>> arguments, StackMobOptions options, StackMobRawCallback callback, StackMobRequestHandle handle) {
+        // A request shared with other GETs is left alone when the call is cancelled, so they still get their response
+        boolean shared = false;
+        StackMobRequestCoalescer coalescer = this.requestCoalescer;
+        if(coalescer != null) {
+            String key = StackMobResponseCache.key(session, StackMobResponseCache.canonicalPath(path), arguments, options.getHeaders());
+            callback = coalescer.join(key, callback);
+            if(callback == null) return;
+            shared = true;
+        }
+        StackMobResponseCache cache = this.responseCache;
+        if(cache != null) {
+            ExecutorService callbackExecutor = session.getCallbackExecutor() == null ? executor : session.getCallbackExecutor();
+            StackMobResponseCache.Miss miss = cache.beforeGet(session, path, arguments, options.getHeaders(), callbackExecutor, callback);
+            if(miss == null) return;
+            callback = miss.callback;
+            if(!miss.validators.isEmpty()) options = options.copy().withHeaders(miss.validators);
+        }
+        StackMobRequest request = new StackMobRequestWithoutPayload(this.executor,
                 this.session,
                 HttpVerbWithoutPayload.GET,
                 options,
                 arguments,
                 path,
                 callback,
-                this.redirectedCallback).setUrlFormat(this.host).sendRequest();
+                this.redirectedCallback);
+        if(shared) {
+            request.setUrlFormat(this.host).sendRequest();
+        } else {
+            send(handle, request);
+        }
     }
 
     /**
      * do a get request on the StackMob platform
      * @param query the query to run
      * @param callback callback to be called when the server returns. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
      */
-    public void get(StackMobQuery query, StackMobRawCallback callback) {
+    public StackMobRequestHandle get(StackMobQuery query, StackMobRawCallback callback) {
         StackMobOptions options = StackMobOptions.headers(query.getHeaders());
-        this.get("/"+query.getObjectName(), query.getArguments(), options.getHeaders(), callback);
+        return this.get("/"+query.getObjectName(), query.getArguments(), options.getHeaders(), callback);
     }
 
     /**
@@ -137,9 +196,10 @@ public class StackMobDatastore {
      * @param query the query to run
      * @param options additional options, such as headers, to modify the request
      * @param callback callback to be called when the server returns. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
      */
-    public void get(StackMobQuery query, StackMobOptions options, StackMobRawCallback callback) {
-        this.get("/"+query.getObjectName(), query.getArguments(), options.withHeaders(query.getHeaders()).getHeaders(), callback);
+    public StackMobRequestHandle get(StackMobQuery query, StackMobOptions options, StackMobRawCallback callback) {
+        return this.get("/"+query.getObjectName(), query.getArguments(), options.withHeaders(query.getHeaders()).getHeaders(), callback);
     }
 
 
@@ -148,17 +208,19 @@ public class StackMobDatastore {
      * @param path the path to get
      * @param requestObject the object to serialize and send in the POST body. this object will be serialized with Gson
      * @param callback callback to be called when the server returns. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
      */
-    public void post(String path, Object requestObject, StackMobRawCallback callback) {
-        new StackMobRequestWithPayload(this.executor,
-                                       this.session,
-                                       HttpVerbWithPayload.POST,
-                                       StackMobOptions.none(),
-                                       StackMobRequest.EmptyParams,
-                                       requestObject,
-                                       path,
-                                       callback,
-                                       this.redirectedCallback).setUrlFormat(this.host).sendRequest();
+    public StackMobRequestHandle post(String path, Object requestObject, StackMobRawCallback callback) {
+        StackMobRequestHandle handle = new StackMobRequestHandle();
+        return send(handle, new StackMobRequestWithPayload(this.executor,
+                                                           this.session,
+                                                           HttpVerbWithPayload.POST,
+                                                           StackMobOptions.none(),
+                                                           StackMobRequest.EmptyParams,
+                                                           requestObject,
+                                                           path,
+                                                           writeCallback(path, handle.wrap(callback)),
+                                                           this.redirectedCallback));
     }
 
     /**
@@ -167,17 +229,19 @@ public class StackMobDatastore {
      * @param requestObject the object to serialize and send in the POST body. this object will be serialized with Gson
      * @param options additional options, such as headers, to modify the request
      * @param callback callback to be called when the server returns. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
      */
-    public void post(String path, Object requestObject, StackMobOptions options, StackMobRawCallback callback) {
-        new StackMobRequestWithPayload(this.executor,
-                                       this.session,
-                                       HttpVerbWithPayload.POST,
-                                       options,
-                                       StackMobRequest.EmptyParams,
-                                       requestObject,
-                                       path,
-                                       callback,
-                                       this.redirectedCallback).setUrlFormat(this.host).sendRequest();
+    public StackMobRequestHandle post(String path, Object requestObject, StackMobOptions options, StackMobRawCallback callback) {
+        StackMobRequestHandle handle = new StackMobRequestHandle();
+        return send(handle, new StackMobRequestWithPayload(this.executor,
+                                                           this.session,
+                                                           HttpVerbWithPayload.POST,
+                                                           options,
+                                                           StackMobRequest.EmptyParams,
+                                                           requestObject,
+                                                           path,
+                                                           writeCallback(path, handle.wrap(callback)),
+                                                           this.redirectedCallback));
     }
 
     /**
@@ -185,17 +249,19 @@ public class StackMobDatastore {
      * @param path the path to get
      * @param body the json body
      * @param callback callback to be called when the server returns. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
      */
-    public void post(String path, String body, StackMobRawCallback callback) {
-        new StackMobRequestWithPayload(this.executor,
-                                       this.session,
-                                       HttpVerbWithPayload.POST,
-                                       StackMobOptions.none(),
-                                       StackMobRequest.EmptyParams,
-                                       body,
-                                       path,
-                                       callback,
-                                       this.redirectedCallback).setUrlFormat(this.host).sendRequest();
+    public StackMobRequestHandle post(String path, String body, StackMobRawCallback callback) {
+        StackMobRequestHandle handle = new StackMobRequestHandle();
+        return send(handle, new StackMobRequestWithPayload(this.executor,
+                                                           this.session,
+                                                           HttpVerbWithPayload.POST,
+                                                           StackMobOptions.none(),
+                                                           StackMobRequest.EmptyParams,
+                                                           body,
+                                                           path,
+                                                           writeCallback(path, handle.wrap(callback)),
+                                                           this.redirectedCallback));
     }
 
     /**
@@ -204,17 +270,19 @@ public class StackMobDatastore {
      * @param body the json body
      * @param options any additional headers to send
      * @param callback callback to be called when the server returns. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
      */
-    public void post(String path, String body, StackMobOptions options, StackMobRawCallback callback) {
-        new StackMobRequestWithPayload(this.executor,
-                                       this.session,
-                                       HttpVerbWithPayload.POST,
-                                       options,
-                                       StackMobRequest.EmptyParams,
-                                       body,
-                                       path,
-                                       callback,
-                                       this.redirectedCallback).setUrlFormat(this.host).sendRequest();
+    public StackMobRequestHandle post(String path, String body, StackMobOptions options, StackMobRawCallback callback) {
+        StackMobRequestHandle handle = new StackMobRequestHandle();
+        return send(handle, new StackMobRequestWithPayload(this.executor,
+                                                           this.session,
+                                                           HttpVerbWithPayload.POST,
+                                                           options,
+                                                           StackMobRequest.EmptyParams,
+                                                           body,
+                                                           path,
+                                                           writeCallback(path, handle.wrap(callback)),
+                                                           this.redirectedCallback));
     }
 
     /**
@@ -222,17 +290,19 @@ public class StackMobDatastore {
      * @param path the path to get
      * @param requestObjects List of objects to serialize and send in the POST body. the list will be serialized with Gson
      * @param callback callback to be called when the server returns. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
      */
-    public <T> void postBulk(String path, List<T> requestObjects, StackMobRawCallback callback) {
-        new StackMobRequestWithPayload(this.executor,
-                                       this.session,
-                                       HttpVerbWithPayload.POST,
-                                       StackMobOptions.none(),
-                                       StackMobRequest.EmptyParams,
-                                       requestObjects,
-                                       path,
-                                       callback,
-                                       this.redirectedCallback).setUrlFormat(this.host).sendRequest();
+    public <T> StackMobRequestHandle postBulk(String path, List<T> requestObjects, StackMobRawCallback callback) {
+        StackMobRequestHandle handle = new StackMobRequestHandle();
+        return send(handle, new StackMobRequestWithPayload(this.executor,
+                                                           this.session,
+                                                           HttpVerbWithPayload.POST,
+                                                           StackMobOptions.none(),
+                                                           StackMobRequest.EmptyParams,
+                                                           requestObjects,
+                                                           path,
+                                                           writeCallback(path, handle.wrap(callback)),
+                                                           this.redirectedCallback));
     }
 
     /**
@@ -242,17 +312,20 @@ public class StackMobDatastore {
      * @param relatedField name of the relation
      * @param relatedObject related object to post
      * @param callback callback to be called when the server returns. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
      */
-    public void postRelated(String path, String primaryId, String relatedField, Object relatedObject, StackMobRawCallback callback) {
-        new StackMobRequestWithPayload(this.executor,
-                                       this.session,
-                                       HttpVerbWithPayload.POST,
-                                       StackMobOptions.none(),
-                                       StackMobRequest.EmptyParams,
-                                       relatedObject,
-                                       String.format("%s/%s/%s", path, primaryId, relatedField),
-                                       callback,
-                                       this.redirectedCallback).setUrlFormat(this.host).sendRequest();
+    public StackMobRequestHandle postRelated(String path, String primaryId, String relatedField, Object relatedObject, StackMobRawCallback callback) {
+        String relationPath = String.format("%s/%s/%s", path, primaryId, relatedField);
+        StackMobRequestHandle handle = new StackMobRequestHandle();
+        return send(handle, new StackMobRequestWithPayload(this.executor,
+                                                           this.session,
+                                                           HttpVerbWithPayload.POST,
+                                                           StackMobOptions.none(),
+                                                           StackMobRequest.EmptyParams,
+                                                           relatedObject,
+                                                           relationPath,
+                                                           writeCallback(relationPath, handle.wrap(callback)),
+                                                           this.redirectedCallback));
     }
 
     /**
@@ -262,17 +335,20 @@ public class StackMobDatastore {
      * @param relatedField name of the relation
      * @param relatedObject related object to post
      * @param callback callback to be called when the server returns. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
      */
-    public void postRelated(String path, String primaryId, String relatedField, String relatedObject, StackMobRawCallback callback) {
-        new StackMobRequestWithPayload(this.executor,
-                                       this.session,
-                                       HttpVerbWithPayload.POST,
-                                       StackMobOptions.none(),
-                                       StackMobRequest.EmptyParams,
-                                       relatedObject,
-                                       String.format("%s/%s/%s", path, primaryId, relatedField),
-                                       callback,
-                                       this.redirectedCallback).setUrlFormat(this.host).sendRequest();
+    public StackMobRequestHandle postRelated(String path, String primaryId, String relatedField, String relatedObject, StackMobRawCallback callback) {
+        String relationPath = String.format("%s/%s/%s", path, primaryId, relatedField);
+        StackMobRequestHandle handle = new StackMobRequestHandle();
+        return send(handle, new StackMobRequestWithPayload(this.executor,
+                                                           this.session,
+                                                           HttpVerbWithPayload.POST,
+                                                           StackMobOptions.none(),
+                                                           StackMobRequest.EmptyParams,
+                                                           relatedObject,
+                                                           relationPath,
+                                                           writeCallback(relationPath, handle.wrap(callback)),
+                                                           this.redirectedCallback));
     }
 
     /**
@@ -282,9 +358,10 @@ public class StackMobDatastore {
      * @param relatedField name of the relation
      * @param relatedObjects list of related objects to post. the list will be serialized with Gson
      * @param callback callback to be called when the server returns. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
      */
-    public <T> void postRelatedBulk(String path, String primaryId, String relatedField, List<T> relatedObjects, StackMobRawCallback callback) {
-        postRelated(path, primaryId, relatedField, relatedObjects, callback);
+    public <T> StackMobRequestHandle postRelatedBulk(String path, String primaryId, String relatedField, List<T> relatedObjects, StackMobRawCallback callback) {
+        return postRelated(path, primaryId, relatedField, relatedObjects, callback);
     }
 
 
@@ -294,17 +371,19 @@ public class StackMobDatastore {
      * @param id the id of the object to PUT
      * @param requestObject the object to serialize and send in the PUT body. this object will be serialized with Gson
      * @param callback callback to be called when the server returns. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
      */
-    public void put(String path, String id, Object requestObject, StackMobRawCallback callback) {
-        new StackMobRequestWithPayload(this.executor,
-                                       this.session,
-                                       HttpVerbWithPayload.PUT,
-                                       StackMobOptions.none(),
-                                       StackMobRequest.EmptyParams,
-                                       requestObject,
-                                       path + "/" + id,
-                                       callback,
-                                       this.redirectedCallback).setUrlFormat(this.host).sendRequest();
+    public StackMobRequestHandle put(String path, String id, Object requestObject, StackMobRawCallback callback) {
+        StackMobRequestHandle handle = new StackMobRequestHandle();
+        return send(handle, new StackMobRequestWithPayload(this.executor,
+                                                           this.session,
+                                                           HttpVerbWithPayload.PUT,
+                                                           StackMobOptions.none(),
+                                                           StackMobRequest.EmptyParams,
+                                                           requestObject,
+                                                           path + "/" + id,
+                                                           writeCallback(path + "/" + id, handle.wrap(callback)),
+                                                           this.redirectedCallback));
     }
 
     /**
@@ -313,17 +392,19 @@ public class StackMobDatastore {
      * @param id the id of the object to put
      * @param body the json body
      * @param callback callback to be called when the server returns. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
      */
-    public void put(String path, String id, String body, StackMobRawCallback callback) {
-        new StackMobRequestWithPayload(this.executor,
-                                       this.session,
-                                       HttpVerbWithPayload.PUT,
-                                       StackMobOptions.none(),
-                                       StackMobRequest.EmptyParams,
-                                       body,
-                                       path + "/" + id,
-                                       callback,
-                                       this.redirectedCallback).setUrlFormat(this.host).sendRequest();
+    public StackMobRequestHandle put(String path, String id, String body, StackMobRawCallback callback) {
+        StackMobRequestHandle handle = new StackMobRequestHandle();
+        return send(handle, new StackMobRequestWithPayload(this.executor,
+                                                           this.session,
+                                                           HttpVerbWithPayload.PUT,
+                                                           StackMobOptions.none(),
+                                                           StackMobRequest.EmptyParams,
+                                                           body,
+                                                           path + "/" + id,
+                                                           writeCallback(path + "/" + id, handle.wrap(callback)),
+                                                           this.redirectedCallback));
     }
 
     /**
@@ -334,12 +415,13 @@ public class StackMobDatastore {
      * @param requestObject the object to serialize and send in the PUT body. this object will be serialized with Gson
      * @param counterFields a list of the fields in the object to be treated as counters being incremented
      * @param callback callback to be called when the server returns. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
      */
-    public void putAndUpdateAtomicCounters(String path,
-                                           String id,
-                                           Object requestObject,
-                                           List<String> counterFields,
-                                           StackMobRawCallback callback) {
+    public StackMobRequestHandle putAndUpdateAtomicCounters(String path,
+                                                            String id,
+                                                            Object requestObject,
+                                                            List<String> counterFields,
+                                                            StackMobRawCallback callback) {
         JsonObject obj = new Gson().toJsonTree(requestObject).getAsJsonObject();
         for(Map.Entry<String, JsonElement> field : new HashSet<Map.Entry<String, JsonElement>>(obj.entrySet())) {
             if(counterFields.contains(field.getKey())) {
@@ -347,7 +429,7 @@ public class StackMobDatastore {
                 obj.add(field.getKey() + "[inc]", field.getValue());
             }
         }
-        put(path, id, obj.toString(), callback);
+        return put(path, id, obj.toString(), callback);
     }
 
     /**
@@ -357,15 +439,16 @@ public class StackMobDatastore {
      * @param field the field to increment
      * @param value the value to increment by
      * @param callback callback to be called when the server returns. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
      */
-    public void updateAtomicCounter(String path,
-                                    String id,
-                                    String field,
-                                    int value,
-                                    StackMobRawCallback callback) {
+    public StackMobRequestHandle updateAtomicCounter(String path,
+                                                     String id,
+                                                     String field,
+                                                     int value,
+                                                     StackMobRawCallback callback) {
         JsonObject body = new JsonObject();
         body.add(field + "[inc]", new JsonPrimitive(value));
-        put(path, id, body.toString(), callback);
+        return put(path, id, body.toString(), callback);
     }
 
     /**
@@ -376,21 +459,24 @@ public class StackMobDatastore {
      * @param relatedIds list of ids to atomically add to the relation. The type should be the same type as the primary
      *                   key field of the related object
      * @param callback callback to be called when the server returns. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
      */
-    public <T> void putRelated(String path,
-                               String primaryId,
-                               String relatedField,
-                               List<T> relatedIds,
-                               StackMobRawCallback callback) {
-        new StackMobRequestWithPayload(this.executor,
-                                       this.session,
-                                       HttpVerbWithPayload.PUT,
-                                       StackMobOptions.none(),
-                                       StackMobRequest.EmptyParams,
-                                       relatedIds,
-                                       String.format("%s/%s/%s", path, primaryId, relatedField),
-                                       callback,
-                                       this.redirectedCallback).setUrlFormat(this.host).sendRequest();
+    public <T> StackMobRequestHandle putRelated(String path,
+                                                String primaryId,
+                                                String relatedField,
+                                                List<T> relatedIds,
+                                                StackMobRawCallback callback) {
+        String relationPath = String.format("%s/%s/%s", path, primaryId, relatedField);
+        StackMobRequestHandle handle = new StackMobRequestHandle();
+        return send(handle, new StackMobRequestWithPayload(this.executor,
+                                                           this.session,
+                                                           HttpVerbWithPayload.PUT,
+                                                           StackMobOptions.none(),
+                                                           StackMobRequest.EmptyParams,
+                                                           relatedIds,
+                                                           relationPath,
+                                                           writeCallback(relationPath, handle.wrap(callback)),
+                                                           this.redirectedCallback));
     }
 
 
@@ -399,16 +485,18 @@ public class StackMobDatastore {
      * @param path the path to delete
      * @param id the id of the object to put
      * @param callback callback to be called when the server returns. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
      */
-    public void delete(String path, String id, StackMobRawCallback callback) {
-        new StackMobRequestWithoutPayload(this.executor,
-                                          this.session,
-                                          HttpVerbWithoutPayload.DELETE,
-                                          StackMobOptions.none(),
-                                          StackMobRequest.EmptyParams,
-                                          path + "/" + id,
-                                          callback,
-                                          this.redirectedCallback).setUrlFormat(this.host).sendRequest();
+    public StackMobRequestHandle delete(String path, String id, StackMobRawCallback callback) {
+        StackMobRequestHandle handle = new StackMobRequestHandle();
+        return send(handle, new StackMobRequestWithoutPayload(this.executor,
+                                                              this.session,
+                                                              HttpVerbWithoutPayload.DELETE,
+                                                              StackMobOptions.none(),
+                                                              StackMobRequest.EmptyParams,
+                                                              path + "/" + id,
+                                                              writeCallback(path + "/" + id, handle.wrap(callback)),
+                                                              this.redirectedCallback));
     }
 
     /**
@@ -420,13 +508,14 @@ public class StackMobDatastore {
      *                    ids should be same type as the primary id of the related type (most likely String or Integer)
      * @param cascadeDeletes true if related objects specified in idsToDelete should also be deleted
      * @param callback callback to be called when the server returns. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
      */
-    public <T> void deleteIdsFrom(String path,
-                                  String primaryId,
-                                  String field,
-                                  List<T> idsToDelete,
-                                  boolean cascadeDeletes,
-                                  StackMobRawCallback callback) {
+    public <T> StackMobRequestHandle deleteIdsFrom(String path,
+                                                   String primaryId,
+                                                   String field,
+                                                   List<T> idsToDelete,
+                                                   boolean cascadeDeletes,
+                                                   StackMobRawCallback callback) {
         StringBuilder ids = new StringBuilder();
         for (int i = 0; i < idsToDelete.size(); i++) {
             ids.append(idsToDelete.get(i).toString());
@@ -438,14 +527,16 @@ public class StackMobDatastore {
         if (cascadeDeletes) {
             headers.add(new Pair<String, String>("X-StackMob-CascadeDelete", "true"));
         }
-        new StackMobRequestWithoutPayload(this.executor,
-                                          this.session,
-                                          HttpVerbWithoutPayload.DELETE,
-                                          StackMobOptions.headers(headers),
-                                          StackMobRequest.EmptyParams,
-                                          String.format("%s/%s/%s/%s", path, primaryId, field, ids.toString()),
-                                          callback,
-                                          this.redirectedCallback).setUrlFormat(this.host).sendRequest();
+        String relationPath = String.format("%s/%s/%s/%s", path, primaryId, field, ids.toString());
+        StackMobRequestHandle handle = new StackMobRequestHandle();
+        return send(handle, new StackMobRequestWithoutPayload(this.executor,
+                                                              this.session,
+                                                              HttpVerbWithoutPayload.DELETE,
+                                                              StackMobOptions.headers(headers),
+                                                              StackMobRequest.EmptyParams,
+                                                              relationPath,
+                                                              writeCallback(relationPath, handle.wrap(callback)),
+                                                              this.redirectedCallback));
     }
 
     /**
@@ -457,44 +548,161 @@ public class StackMobDatastore {
      *                   should be same type as the primary id of the related type (most likely String or Integer)
      * @param cascadeDelete true if related object specified in idToDelete should also be deleted
      * @param callback callback to be called when the server returns. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
      */
-    public <T> void deleteIdFrom(String path,
-                                 String primaryId,
-                                 String field,
-                                 T idToDelete,
-                                 boolean cascadeDelete,
-                                 StackMobRawCallback callback) {
+    public <T> StackMobRequestHandle deleteIdFrom(String path,
+                                                  String primaryId,
+                                                  String field,
+                                                  T idToDelete,
+                                                  boolean cascadeDelete,
+                                                  StackMobRawCallback callback) {
         List<Map.Entry<String, String>> headers = new ArrayList<Map.Entry<String, String>>();
         if (cascadeDelete) {
             headers.add(new Pair<String, String>("X-StackMob-CascadeDelete", "true"));
         }
-        new StackMobRequestWithoutPayload(this.executor,
-                                          this.session,
-                                          HttpVerbWithoutPayload.DELETE,
-                                          StackMobOptions.headers(headers),
-                                          StackMobRequest.EmptyParams,
-                                          String.format("%s/%s/%s/%s", path, primaryId, field, idToDelete),
-                                          callback,
-                                          this.redirectedCallback).setUrlFormat(this.host).sendRequest();
+        String relationPath = String.format("%s/%s/%s/%s", path, primaryId, field, idToDelete);
+        StackMobRequestHandle handle = new StackMobRequestHandle();
+        return send(handle, new StackMobRequestWithoutPayload(this.executor,
+                                                              this.session,
+                                                              HttpVerbWithoutPayload.DELETE,
+                                                              StackMobOptions.headers(headers),
+                                                              StackMobRequest.EmptyParams,
+                                                              relationPath,
+                                                              writeCallback(relationPath, handle.wrap(callback)),
+                                                              this.redirectedCallback));
+    }
+
+    /*
+     * Sends a request for a call, so cancelling the call stops it
+     */
+    private StackMobRequestHandle send(StackMobRequestHandle handle, StackMobRequest request) {
+        handle.attach(request);
+        request.setUrlFormat(this.host).sendRequest();
+        return handle;
+    }
+
+    /*
+     * Writes through this datastore invalidate whatever they change in the response cache
+     */
+    private StackMobRawCallback writeCallback(String path, StackMobRawCallback callback) {
+        StackMobResponseCache cache = this.responseCache;
+        return cache == null ? callback : cache.beforeWrite(path, callback);
+    }
+
+    /**
+     * get the next page of results for a cursor, and move the cursor past it. If the request fails the cursor
+     * doesn't move, so the same page can be asked for again
+     * @param cursor the cursor to get a page with
+     * @param callback callback to be given the page as a json array. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
+     */
+    public StackMobRequestHandle get(StackMobCursor cursor, StackMobCallback callback) {
+        StackMobRequestHandle handle = new StackMobRequestHandle();
+        get(cursor, callback, handle);
+        return handle;
+    }
+
+    /*
+     * Gets pages until one has something in it. Every page's request is part of the one call
+     */
+    private void get(final StackMobCursor cursor, final StackMobCallback callback, final StackMobRequestHandle handle) {
+        if(!cursor.hasMore()) {
+            if(!handle.finish()) return;
+            try {
+                callback.success("[]");
+            } finally {
+                handle.released();
+            }
+            return;
+        }
+        StackMobQuery query = cursor.nextQuery();
+        StackMobOptions options = StackMobOptions.headers(query.getHeaders());
+        get("/" + query.getObjectName(), query.getArguments(), options, new StackMobCallback() {
+            @Override
+            public void success(String responseBody) {
+                // Leave the cursor where it is once the call has been cancelled
+                if(handle.isDone()) return;
+                String page;
+                try {
+                    page = cursor.advance(responseBody);
+                } catch(RuntimeException e) {
+                    failure(new StackMobException(e.getMessage()));
+                    return;
+                }
+                if(page == null) {
+                    get(cursor, callback, handle);
+                } else if(handle.finish()) {
+                    try {
+                        callback.success(page);
+                    } finally {
+                        handle.released();
+                    }
+                }
+            }
+
+            @Override
+            public void failure(StackMobException e) {
+                if(!handle.finish()) return;
+                try {
+                    callback.failure(e);
+                } finally {
+                    handle.released();
+                }
+            }
+        }, handle);
+    }
+
+    /**
+     * read every result of a query as fast as possible. The results are counted first, then fetched a page at a
+     * time with several requests out at once. Pages are delivered to the callback in order, four at a time with 100
+     * objects each
+     * @param query the query to read the results of. Any range on it is ignored
+     * @param callback callback to be given each page and called when the scan ends. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
+     */
+    public StackMobRequestHandle scan(StackMobQuery query, StackMobScanCallback callback) {
+        return scan(query, 4, 100, true, callback);
+    }
+
+    /**
+     * read every result of a query as fast as possible. The results are counted first, then fetched a page at a
+     * time with up to concurrency requests out at once. Ordering the query, for instance by its id, keeps objects from
+     * moving between pages while the scan runs
+     * @param query the query to read the results of. Any range on it is ignored
+     * @param concurrency the most requests to have out at once
+     * @param pageSize the number of objects to read in each request
+     * @param ordered true to deliver pages in order, holding back pages that arrive early, false to deliver each page as
+     *                soon as it arrives
+     * @param callback callback to be given each page and called when the scan ends. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
+     */
+    public StackMobRequestHandle scan(StackMobQuery query, int concurrency, int pageSize, boolean ordered, StackMobScanCallback callback) {
+        if(concurrency < 1) throw new IllegalArgumentException("concurrency must be at least 1");
+        if(pageSize < 1) throw new IllegalArgumentException("pageSize must be at least 1");
+        StackMobRequestHandle handle = new StackMobRequestHandle();
+        new RangeScan(this, query, concurrency, pageSize, ordered, callback, handle).start();
+        return handle;
     }
 
     /**
      * retrieve the number of objects for a schema on the StackMob platform
      * @param path the path to get
      * @param callback callback to be called when the server returns. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
      */
-    public void count(String path, StackMobRawCallback callback) {
-        count(new StackMobQuery(path), callback);
+    public StackMobRequestHandle count(String path, StackMobRawCallback callback) {
+        return count(new StackMobQuery(path), callback);
     }
 
     /**
      * retrieve the number of objects for a query on the StackMob platform
      * @param query the query to send
      * @param callback callback to be called when the server returns. may execute in a separate thread
+     * @return a handle to cancel or wait on the call
      */
-    public void count(StackMobQuery query, StackMobRawCallback callback) {
+    public StackMobRequestHandle count(StackMobQuery query, StackMobRawCallback callback) {
         final StackMobRawCallback userCallback = callback;
-        get(query.isInRange(0, 0), new StackMobRawCallback() {
+        return get(query.isInRange(0, 0), new StackMobRawCallback() {
             @Override
             public void unsent(StackMobException e) {
                 userCallback.unsent(e);
@@ -0,0 +1,262 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.api;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Controls the threads a {@link StackMob} object uses to send requests and run callbacks. Calls can be chained
+ * like {@link StackMobOptions}
+ *
+ * <pre>
+ * {@code
+ * StackMobExecutionConfig.bounded(8, 100).withBackPressure(BackPressure.FAIL_FAST).withCallbackThreads(2)
+ * }
+ * </pre>
+ *
+ * By default requests are sent from an unbounded cached thread pool and callbacks run on the same threads, which
+ * is how the sdk has always worked. With a bounded pool, a request that arrives when every thread is busy and the
+ * queue is full is handled according to the {@link BackPressure} policy, and callbacks get a pool of their own so
+ * handing one off never has to wait for room in the request pool.
+ */
+public class StackMobExecutionConfig {
+
+    /**
+     * What to do with a request when the bounded pool and its queue are full
+     */
+    public static enum BackPressure {
+        /**
+         * block the calling thread until there's room in the queue
+         */
+        BLOCK,
+        /**
+         * don't send the request, and call {@link com.stackmob.sdk.callback.StackMobRawCallback#unsent} instead
+         */
+        FAIL_FAST,
+        /**
+         * send the request from the calling thread
+         */
+        CALLER_RUNS
+    }
+
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private int maxThreads = 0;
+    private int queueSize = 0;
+    private BackPressure backPressure = BackPressure.BLOCK;
+    private int callbackThreads = 0;
+    private boolean virtualThreads = false;
+
+    /**
+     * the default configuration: an unbounded pool that grows with demand
+     * @return the default configuration
+     */
+    public static StackMobExecutionConfig unbounded() {
+        return new StackMobExecutionConfig();
+    }
+
+    /**
+     * send requests from a fixed number of threads, with a queue for requests waiting on a thread
+     * @param maxThreads the most threads to use for sending requests
+     * @param queueSize how many requests can wait for a thread before the back-pressure policy kicks in
+     * @return the new configuration
+     */
+    public static StackMobExecutionConfig bounded(int maxThreads, int queueSize) {
+        return new StackMobExecutionConfig().withBounds(maxThreads, queueSize);
+    }
+
+    /**
+     * send each request from its own virtual thread when running on a JVM that has them, falling back to the
+     * default otherwise
+     * @return the new configuration
+     */
+    public static StackMobExecutionConfig virtualThreads() {
+        return new StackMobExecutionConfig().withVirtualThreads(true);
+    }
+
+    /**
+     * send requests from a fixed number of threads, with a queue for requests waiting on a thread
+     * @param maxThreads the most threads to use for sending requests
+     * @param queueSize how many requests can wait for a thread before the back-pressure policy kicks in
+     * @return the configuration with the bounds set
+     */
+    public StackMobExecutionConfig withBounds(int maxThreads, int queueSize) {
+        if(maxThreads < 1) throw new IllegalArgumentException("maxThreads must be at least 1");
+        if(queueSize < 0) throw new IllegalArgumentException("queueSize can't be negative");
+        this.maxThreads = maxThreads;
+        this.queueSize = queueSize;
+        return this;
+    }
+
+    /**
+     * set what happens to requests that don't fit in a bounded pool
+     * @param backPressure the policy
+     * @return the configuration with the policy set
+     */
+    public StackMobExecutionConfig withBackPressure(BackPressure backPressure) {
+        this.backPressure = backPressure;
+        return this;
+    }
+
+    /**
+     * run callbacks on a separate small pool so slow callbacks don't hold up requests
+     * @param callbackThreads the number of callback threads, or 0 to run callbacks on the request threads if
+     *                        they're unbounded and on a pool that grows with demand otherwise
+     * @return the configuration with the callback threads set
+     */
+    public StackMobExecutionConfig withCallbackThreads(int callbackThreads) {
+        if(callbackThreads < 0) throw new IllegalArgumentException("callbackThreads can't be negative");
+        this.callbackThreads = callbackThreads;
+        return this;
+    }
+
+    /**
+     * use a virtual thread per request when the JVM supports it. Thread bounds don't apply to virtual threads
+     * @param virtualThreads whether to use virtual threads
+     * @return the configuration with virtual threads set
+     */
+    public StackMobExecutionConfig withVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public BackPressure getBackPressure() {
+        return backPressure;
+    }
+
+    public int getCallbackThreads() {
+        return callbackThreads;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * whether the running JVM can create virtual threads
+     * @return true if virtual threads are available
+     */
+    public static boolean virtualThreadsSupported() {
+        return getVirtualThreadFactoryMethod() != null;
+    }
+
+    /**
+     * create the executor requests are sent from
+     * @return a new executor
+     */
+    public ExecutorService createRequestExecutor() {
+        if(virtualThreads) {
+            ExecutorService virtual = createVirtualThreadExecutor();
+            if(virtual != null) return virtual;
+        }
+        if(maxThreads == 0) return Executors.newCachedThreadPool();
+        BlockingQueue<Runnable> queue = queueSize == 0 ? new SynchronousQueue<Runnable>() : new LinkedBlockingQueue<Runnable>(queueSize);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                queue, new NamedThreadFactory("StackMob-request"), getRejectionHandler());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * create the executor callbacks run on
+     * @return a new executor, or null if callbacks should run on the request executor
+     */
+    public ExecutorService createCallbackExecutor() {
+        if(callbackThreads == 0) {
+            if(!isBounded()) return null;
+            // A callback that sends a request mustn't wait on the full pool it's sending through, or have the
+            // back-pressure policy run it on whichever thread handed it over
+            return new ThreadPoolExecutor(0, Integer.MAX_VALUE, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new NamedThreadFactory("StackMob-callback"));
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(callbackThreads, callbackThreads, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("StackMob-callback"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private boolean isBounded() {
+        return maxThreads != 0 && !(virtualThreads && virtualThreadsSupported());
+    }
+
+    private RejectedExecutionHandler getRejectionHandler() {
+        switch(backPressure) {
+            case FAIL_FAST: return new ThreadPoolExecutor.AbortPolicy();
+            case CALLER_RUNS: return new ThreadPoolExecutor.CallerRunsPolicy();
+            default: return new BlockPolicy();
+        }
+    }
+
+    private static Method getVirtualThreadFactoryMethod() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch(NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService createVirtualThreadExecutor() {
+        Method factory = getVirtualThreadFactoryMethod();
+        if(factory == null) return null;
+        try {
+            return (ExecutorService) factory.invoke(null);
+        } catch(Exception e) {
+            // Virtual threads may exist but be disabled, e.g. as a preview feature
+            return null;
+        }
+    }
+
+    /*
+     * Waits for room in the queue rather than rejecting
+     */
+    private static class BlockPolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if(executor.isShutdown()) throw new RejectedExecutionException("Executor has been shut down");
+            try {
+                executor.getQueue().put(r);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting to send a request");
+            }
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, prefix + "-" + count.incrementAndGet());
+        }
+    }
+}
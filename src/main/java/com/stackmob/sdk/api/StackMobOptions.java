@@ -15,6 +15,7 @@
  */
 package com.stackmob.sdk.api;
 
+import com.stackmob.sdk.net.StackMobTimeouts;
 import com.stackmob.sdk.util.ListHelpers;
 import com.stackmob.sdk.util.Pair;
 
@@ -50,6 +51,8 @@ public class StackMobOptions {
     private int expandDepth = 0;
 
     private Boolean https = null;
+    private StackMobRetryPolicy retryPolicy = null;
+    private StackMobTimeouts timeouts = null;
     private static final String SelectHeader = "X-StackMob-Select";
     private static final String ExpandHeader = "X-StackMob-Expand";
 
@@ -118,6 +121,24 @@ public class StackMobOptions {
         return none().withDepthOf(depth);
     }
 
+    /**
+     * retry the request under a policy, in place of the one set on {@link StackMob}
+     * @param retryPolicy the policy to use
+     * @return the new options with the retry policy set
+     */
+    public static StackMobOptions retryPolicy(StackMobRetryPolicy retryPolicy) {
+        return none().withRetryPolicy(retryPolicy);
+    }
+
+    /**
+     * limit how long the request can take, in place of the timeouts set on {@link StackMob}
+     * @param timeouts the timeouts to use
+     * @return the new options with the timeouts set
+     */
+    public static StackMobOptions timeouts(StackMobTimeouts timeouts) {
+        return none().withTimeouts(timeouts);
+    }
+
     /**
      * Force a method to be either http or https, overriding any defaults or previous settings
      * @param https if true, use https, otherwise http
@@ -139,6 +160,26 @@ public class StackMobOptions {
         return this;
     }
 
+    /**
+     * retry the request under a policy, in place of the one set on {@link StackMob}
+     * @param retryPolicy the policy to use
+     * @return options with the retry policy set
+     */
+    public StackMobOptions withRetryPolicy(StackMobRetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * limit how long the request can take, in place of the timeouts set on {@link StackMob}
+     * @param timeouts the timeouts to use
+     * @return options with the timeouts set
+     */
+    public StackMobOptions withTimeouts(StackMobTimeouts timeouts) {
+        this.timeouts = timeouts;
+        return this;
+    }
+
     /**
      * add a single header to a request
      * @param name the header name
@@ -197,6 +238,22 @@ public class StackMobOptions {
     }
 
 
+    /**
+     * copy these options, so the copy can have more added to it without changing them. Options gain headers as
+     * they're used, so use a copy for each request when sending several with the same options
+     * @return the copy
+     */
+    public StackMobOptions copy() {
+        StackMobOptions copy = new StackMobOptions();
+        copy.headers.addAll(headers);
+        copy.selection = selection;
+        copy.expandDepth = expandDepth;
+        copy.https = https;
+        copy.retryPolicy = retryPolicy;
+        copy.timeouts = timeouts;
+        return copy;
+    }
+
     /**
      * whether or not to use https
      * @return https
@@ -205,6 +262,22 @@ public class StackMobOptions {
         return https == null ? false : https;
     }
 
+    /**
+     * get the retry policy set by {@link #withRetryPolicy(StackMobRetryPolicy)}
+     * @return the policy, or null to use the one set on {@link StackMob}
+     */
+    public StackMobRetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * get the timeouts set by {@link #withTimeouts(StackMobTimeouts)}
+     * @return the timeouts, or null to use the ones set on {@link StackMob}
+     */
+    public StackMobTimeouts getTimeouts() {
+        return timeouts;
+    }
+
     /**
      * The headers specified in these options.
      * @return the headers
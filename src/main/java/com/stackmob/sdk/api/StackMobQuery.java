@@ -154,6 +154,13 @@ public class StackMobQuery {
         return new ArrayList<Map.Entry<String, String>>(this.args.entrySet());
     }
 
+    /*
+     * The arguments themselves, for copying them in and out of a query
+     */
+    Map<String, String> getArgumentMap() {
+        return this.args;
+    }
+
     /**
      * copy the constraints in a give query to this one
      * @param other the query to copy
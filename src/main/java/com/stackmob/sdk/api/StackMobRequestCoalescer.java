@@ -0,0 +1,158 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.api;
+
+import com.stackmob.sdk.callback.StackMobRawCallback;
+import com.stackmob.sdk.exception.StackMobException;
+import com.stackmob.sdk.net.HttpVerb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends only one of several identical datastore GETs that are in flight at the same time. The first one goes to the
+ * server, and any identical GET made before its response arrives waits for that response instead of sending its own.
+ * GETs are identical when they're for the same path, arguments and headers on behalf of the same user, so many threads
+ * fetching the same object or running the same {@link StackMobQuery} at once cost a single round trip.
+ * <p>
+ * Coalescing is off by default. Turn it on with
+ * <pre>
+ * {@code
+ * StackMob.getStackMob().getDatastore().setRequestCoalescer(new StackMobRequestCoalescer());
+ * }
+ * </pre>
+ * Waiting callbacks are called one after another on the thread that received the response, each with its own copy
+ * of the response body.
+ */
+public class StackMobRequestCoalescer {
+
+    private final Map<String, List<StackMobRawCallback>> inFlight = new HashMap<String, List<StackMobRawCallback>>();
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * the number of GETs that were sent to the server
+     * @return the sent count
+     */
+    public long getSent() {
+        return sent.get();
+    }
+
+    /**
+     * the number of GETs that waited on an identical one instead of being sent
+     * @return the coalesced count
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * the number of distinct GETs currently waiting on the server
+     * @return the in flight count
+     */
+    public synchronized int getInFlight() {
+        return inFlight.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StackMobRequestCoalescer(sent=%d, coalesced=%d, inFlight=%d)", getSent(), getCoalesced(), getInFlight());
+    }
+
+    /**
+     * wait on an identical GET if there's one in flight, otherwise become the one the others wait on
+     * @param key the request key
+     * @param callback the callback for the request
+     * @return null if the callback will be answered by a GET already in flight, otherwise the callback to send the request with
+     */
+    StackMobRawCallback join(final String key, StackMobRawCallback callback) {
+        synchronized(this) {
+            List<StackMobRawCallback> waiting = inFlight.get(key);
+            if(waiting != null) {
+                waiting.add(callback);
+                coalesced.incrementAndGet();
+                return null;
+            }
+            inFlight.put(key, new ArrayList<StackMobRawCallback>());
+        }
+        sent.incrementAndGet();
+        return new ForwardingCallback(callback) {
+            @Override
+            public void unsent(StackMobException e) {
+                List<StackMobRawCallback> waiting = finish(key);
+                super.unsent(e);
+                for(StackMobRawCallback callback : waiting) {
+                    callback.unsent(e);
+                }
+            }
+
+            @Override
+            public void temporaryPasswordResetRequired(StackMobException e) {
+                List<StackMobRawCallback> waiting = finish(key);
+                super.temporaryPasswordResetRequired(e);
+                for(StackMobRawCallback callback : waiting) {
+                    callback.temporaryPasswordResetRequired(e);
+                }
+            }
+
+            @Override
+            public void done(HttpVerb requestVerb, String requestURL, List<Map.Entry<String, String>> requestHeaders, String requestBody,
+                             Integer responseStatusCode, List<Map.Entry<String, String>> responseHeaders, byte[] responseBody) {
+                // Take the waiting callbacks first, so a GET made from inside a callback goes to the server again
+                List<StackMobRawCallback> waiting = finish(key);
+                List<byte[]> copies = new ArrayList<byte[]>(waiting.size());
+                for(int i = 0; i < waiting.size(); i++) {
+                    copies.add(responseBody == null ? null : responseBody.clone());
+                }
+                try {
+                    super.done(requestVerb, requestURL, requestHeaders, requestBody, responseStatusCode, responseHeaders, responseBody);
+                } finally {
+                    for(int i = 0; i < waiting.size(); i++) {
+                        try {
+                            waiting.get(i).setDone(requestVerb, requestURL, requestHeaders, requestBody, responseStatusCode, responseHeaders, copies.get(i));
+                        } catch(Throwable ignore) { }
+                    }
+                }
+            }
+
+            @Override
+            public boolean retry(int afterMilliseconds) {
+                // The request is shared, so it's retried if the callback it was sent with or any waiting on it wants
+                // it to be. A cancelled call says no, but that mustn't stop the retry for everyone else
+                boolean retry = super.retry(afterMilliseconds);
+                for(StackMobRawCallback callback : waiting(key)) {
+                    retry |= callback.retry(afterMilliseconds);
+                }
+                return retry;
+            }
+        };
+    }
+
+    private synchronized List<StackMobRawCallback> waiting(String key) {
+        List<StackMobRawCallback> waiting = inFlight.get(key);
+        return waiting == null ? new ArrayList<StackMobRawCallback>() : new ArrayList<StackMobRawCallback>(waiting);
+    }
+
+    private synchronized List<StackMobRawCallback> finish(String key) {
+        List<StackMobRawCallback> waiting = inFlight.remove(key);
+        return waiting == null ? new ArrayList<StackMobRawCallback>() : waiting;
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.api;
+
+import com.stackmob.sdk.callback.StackMobRawCallback;
+import com.stackmob.sdk.exception.StackMobException;
+import com.stackmob.sdk.net.HttpVerb;
+import com.stackmob.sdk.request.StackMobRequest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A call made through {@link StackMobDatastore}, which can be cancelled or waited on.
+ * <p>
+ * Cancelling closes the request's connection if it's out, or stops it from being sent or retried if it isn't, and
+ * the callback is never called. A GET that's being shared with identical GETs through a {@link StackMobRequestCoalescer}
+ * is left to finish for the others, and only its own callback is dropped. Once the callback has been called the call
+ * can't be cancelled.
+ */
+public class StackMobRequestHandle {
+
+    /**
+     * Where a call is at
+     */
+    public enum Status {
+        // The callback hasn't been called yet
+        RUNNING,
+        // The callback has been called
+        DONE,
+        // The call was cancelled, and the callback won't be called
+        CANCELLED
+    }
+
+    private final AtomicReference<Status> status = new AtomicReference<Status>(Status.RUNNING);
+    private final CountDownLatch finished = new CountDownLatch(1);
+    // Stops whatever the call is waiting on
+    private volatile Runnable stop;
+
+    StackMobRequestHandle() { }
+
+    /**
+     * stop the call and drop its callback
+     * @return true if the call was cancelled, false if it had already finished or been cancelled
+     */
+    public boolean cancel() {
+        if(!status.compareAndSet(Status.RUNNING, Status.CANCELLED)) return false;
+        Runnable current = stop;
+        if(current != null) current.run();
+        finished.countDown();
+        return true;
+    }
+
+    /**
+     * get where the call is at
+     * @return the status
+     */
+    public Status getStatus() {
+        return status.get();
+    }
+
+    /**
+     * check whether the call is over, either because the callback has been called or it was cancelled
+     * @return true if the call is over
+     */
+    public boolean isDone() {
+        return status.get() != Status.RUNNING;
+    }
+
+    /**
+     * wait for the callback to return or the call to be cancelled. Don't call this from a callback, which may be
+     * running on the thread the call needs to finish
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void await() throws InterruptedException {
+        finished.await();
+    }
+
+    /**
+     * wait for the callback to return or the call to be cancelled, for at most the given time
+     * @param timeout the most time to wait
+     * @param unit the unit of the timeout
+     * @return true if the call is over, false if the time ran out first
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StackMobRequestHandle(status=%s)", status.get());
+    }
+
+    /*
+     * Make the request sending the call the one to stop on cancel. A call made up of several requests attaches each in turn
+     */
+    void attach(final StackMobRequest request) {
+        stopWith(new Runnable() {
+            @Override
+            public void run() {
+                request.cancel();
+            }
+        });
+    }
+
+    /*
+     * Set what to run on cancel, running it now if the call has already been cancelled
+     */
+    void stopWith(Runnable stop) {
+        this.stop = stop;
+        if(status.get() == Status.CANCELLED) stop.run();
+    }
+
+    /*
+     * Claims the right to call the callback. False if the call was cancelled or the callback has already been called
+     */
+    boolean finish() {
+        return status.compareAndSet(Status.RUNNING, Status.DONE);
+    }
+
+    /*
+     * Lets anyone waiting go, once the callback has returned
+     */
+    void released() {
+        finished.countDown();
+    }
+
+    /*
+     * Passes the outcome on to the callback, unless the call has been cancelled
+     */
+    StackMobRawCallback wrap(StackMobRawCallback callback) {
+        return new ForwardingCallback(callback) {
+            @Override
+            public void unsent(StackMobException e) {
+                if(!finish()) return;
+                try {
+                    super.unsent(e);
+                } finally {
+                    released();
+                }
+            }
+
+            @Override
+            public void temporaryPasswordResetRequired(StackMobException e) {
+                if(!finish()) return;
+                try {
+                    super.temporaryPasswordResetRequired(e);
+                } finally {
+                    released();
+                }
+            }
+
+            @Override
+            public void done(HttpVerb requestVerb, String requestURL, List<Map.Entry<String, String>> requestHeaders, String requestBody,
+                             Integer responseStatusCode, List<Map.Entry<String, String>> responseHeaders, byte[] responseBody) {
+                if(!finish()) return;
+                try {
+                    super.done(requestVerb, requestURL, requestHeaders, requestBody, responseStatusCode, responseHeaders, responseBody);
+                } finally {
+                    released();
+                }
+            }
+
+            @Override
+            public boolean retry(int afterMilliseconds) {
+                return status.get() == Status.RUNNING && super.retry(afterMilliseconds);
+            }
+        };
+    }
+}
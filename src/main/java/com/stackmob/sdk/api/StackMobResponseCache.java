@@ -0,0 +1,456 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.api;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.stackmob.sdk.callback.StackMobRawCallback;
+import com.stackmob.sdk.exception.StackMobException;
+import com.stackmob.sdk.net.HttpVerb;
+import com.stackmob.sdk.net.HttpVerbWithoutPayload;
+import com.stackmob.sdk.util.Http;
+import com.stackmob.sdk.util.Pair;
+
+import java.net.HttpURLConnection;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the responses to datastore GETs in memory so that repeating the same query doesn't go back to the server.
+ * Responses are kept for a time to live, which can be set per schema, and the least recently used ones are dropped
+ * once the cache is full. Any post, put or delete to a schema through the same {@link StackMobDatastore} removes
+ * that schema's responses, and writes to a relation clear the whole cache since they can change more than one schema.
+ * Changes made by anyone else won't be seen until the responses expire.
+ * <p>
+ * The cache is off by default. Turn it on with
+ * <pre>
+ * {@code
+ * StackMob.getStackMob().getDatastore().setResponseCache(new StackMobResponseCache().setTimeToLiveMillis("game", 5000));
+ * }
+ * </pre>
+ * Responses are kept separately for each logged in user, and logging out clears the cache.
+ * <p>
+ * An expired response that came with an ETag or Last-Modified header, or a single object with a lastmoddate, isn't
+ * thrown away. The next GET for it is sent with If-None-Match or If-Modified-Since, and if the server answers 304 Not
+ * Modified the callback gets the stored response as if it had been sent again in full.
+ */
+public class StackMobResponseCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 100;
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 60000;
+
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+    private volatile long timeToLiveMillis = DEFAULT_TIME_TO_LIVE_MILLIS;
+    private final Map<String, Long> schemaTimeToLiveMillis = new HashMap<String, Long>();
+
+    // Access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    // Bumped whenever a schema is invalidated, so a GET that was in flight at the time doesn't store a stale response
+    private final Map<String, Long> generations = new HashMap<String, Long>();
+    private long clearGeneration = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+
+    private static final List<Map.Entry<String, String>> EmptyHeaders = Collections.emptyList();
+
+    /**
+     * set the most responses the cache will hold. Once it's full the least recently used response is dropped
+     * @param maxEntries the limit, at least 1
+     * @return the cache
+     */
+    public StackMobResponseCache setMaxEntries(int maxEntries) {
+        if(maxEntries < 1) throw new IllegalArgumentException("maxEntries must be at least 1");
+        this.maxEntries = maxEntries;
+        synchronized(this) {
+            trim();
+        }
+        return this;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * set how long responses are kept for schemas that don't have their own time to live
+     * @param timeToLiveMillis the time in milliseconds, 0 to not cache those schemas at all
+     * @return the cache
+     */
+    public StackMobResponseCache setTimeToLiveMillis(long timeToLiveMillis) {
+        if(timeToLiveMillis < 0) throw new IllegalArgumentException("timeToLiveMillis can't be negative");
+        this.timeToLiveMillis = timeToLiveMillis;
+        return this;
+    }
+
+    /**
+     * set how long responses are kept for one schema
+     * @param schema the schema name
+     * @param timeToLiveMillis the time in milliseconds, 0 to not cache the schema at all
+     * @return the cache
+     */
+    public synchronized StackMobResponseCache setTimeToLiveMillis(String schema, long timeToLiveMillis) {
+        if(timeToLiveMillis < 0) throw new IllegalArgumentException("timeToLiveMillis can't be negative");
+        schemaTimeToLiveMillis.put(schema.toLowerCase(), timeToLiveMillis);
+        return this;
+    }
+
+    /**
+     * get how long responses are kept for a schema
+     * @param schema the schema name
+     * @return the time to live in milliseconds
+     */
+    public synchronized long getTimeToLiveMillis(String schema) {
+        Long schemaTimeToLive = schemaTimeToLiveMillis.get(schema.toLowerCase());
+        return schemaTimeToLive == null ? timeToLiveMillis : schemaTimeToLive;
+    }
+
+    /**
+     * drop every response for a schema
+     * @param schema the schema name
+     */
+    public synchronized void invalidate(String schema) {
+        schema = schema.toLowerCase();
+        Long generation = generations.get(schema);
+        generations.put(schema, generation == null ? 1 : generation + 1);
+        Iterator<Entry> it = entries.values().iterator();
+        while(it.hasNext()) {
+            if(it.next().schema.equals(schema)) it.remove();
+        }
+    }
+
+    /**
+     * drop every response
+     */
+    public synchronized void clear() {
+        clearGeneration++;
+        entries.clear();
+    }
+
+    /**
+     * the number of GETs answered from the cache
+     * @return the hit count
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * the number of cacheable GETs that had to go to the server
+     * @return the miss count
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * the number of responses dropped because the cache was full
+     * @return the eviction count
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * the number of misses where the server said an expired response was still good, so only headers came back
+     * @return the revalidation count
+     */
+    public long getRevalidations() {
+        return revalidations.get();
+    }
+
+    /**
+     * the number of responses in the cache, including any that have expired but haven't been dropped yet
+     * @return the size
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StackMobResponseCache(hits=%d, misses=%d, revalidations=%d, evictions=%d, size=%d)",
+                getHits(), getMisses(), getRevalidations(), getEvictions(), getSize());
+    }
+
+    /**
+     * answer a GET from the cache if possible
+     * @param session the session the request is made with
+     * @param path the path being requested
+     * @param arguments the query string arguments
+     * @param headers the request headers
+     * @param callbackExecutor where to run the callback if the response is cached
+     * @param callback the callback for the request
+     * @return null if the callback has been given a cached response, otherwise how to send the request
+     */
+    Miss beforeGet(StackMobSession session, String path, List<Map.Entry<String, String>> arguments,
+                   List<Map.Entry<String, String>> headers, Executor callbackExecutor, final StackMobRawCallback callback) {
+        path = canonicalPath(path);
+        final String schema = schemaOf(path);
+        final long timeToLive = getTimeToLiveMillis(schema);
+        if(timeToLive == 0) return new Miss(callback, EmptyHeaders);
+        final String key = key(session, path, arguments, headers);
+        final boolean singleObject = path.indexOf('/') >= 0;
+        final Entry entry;
+        final Entry stale;
+        final long generation;
+        synchronized(this) {
+            Entry cached = entries.get(key);
+            Entry expired = null;
+            if(cached != null && cached.expiresAt <= System.currentTimeMillis()) {
+                // An expired response with a validator is kept so the server can tell us it's still good
+                if(cached.hasValidator()) {
+                    expired = cached;
+                } else {
+                    entries.remove(key);
+                }
+                cached = null;
+            }
+            entry = cached;
+            stale = expired;
+            generation = generationOf(schema);
+        }
+        if(entry != null) {
+            hits.incrementAndGet();
+            answer(callbackExecutor, callback, entry);
+            return null;
+        }
+        misses.incrementAndGet();
+        StackMobRawCallback storingCallback = new ForwardingCallback(callback) {
+            @Override
+            public void done(HttpVerb requestVerb, String requestURL, List<Map.Entry<String, String>> requestHeaders, String requestBody,
+                             Integer responseStatusCode, List<Map.Entry<String, String>> responseHeaders, byte[] responseBody) {
+                if(stale != null && responseStatusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    revalidations.incrementAndGet();
+                    synchronized(StackMobResponseCache.this) {
+                        stale.expiresAt = System.currentTimeMillis() + timeToLive;
+                    }
+                    super.done(requestVerb, stale.requestURL, stale.requestHeaders, requestBody, stale.responseStatusCode, stale.responseHeaders, stale.responseBody.clone());
+                    return;
+                }
+                if(Http.isSuccess(responseStatusCode) && responseBody != null) {
+                    String etag = getHeader(responseHeaders, "ETag");
+                    String lastModified = getHeader(responseHeaders, "Last-Modified");
+                    if(etag == null && lastModified == null && singleObject) lastModified = getLastModDate(responseBody);
+                    store(key, generation, new Entry(schema, System.currentTimeMillis() + timeToLive, requestURL, requestHeaders,
+                            responseStatusCode, responseHeaders, responseBody.clone(), etag, lastModified));
+                }
+                super.done(requestVerb, requestURL, requestHeaders, requestBody, responseStatusCode, responseHeaders, responseBody);
+            }
+        };
+        if(stale == null) return new Miss(storingCallback, EmptyHeaders);
+        List<Map.Entry<String, String>> validators = new ArrayList<Map.Entry<String, String>>(2);
+        if(stale.etag != null) validators.add(new Pair<String, String>("If-None-Match", stale.etag));
+        if(stale.lastModified != null) validators.add(new Pair<String, String>("If-Modified-Since", stale.lastModified));
+        return new Miss(storingCallback, validators);
+    }
+
+    private static void answer(Executor callbackExecutor, final StackMobRawCallback callback, final Entry entry) {
+        Runnable answer = new Runnable() {
+            @Override
+            public void run() {
+                callback.setDone(HttpVerbWithoutPayload.GET, entry.requestURL, entry.requestHeaders, "", entry.responseStatusCode, entry.responseHeaders, entry.responseBody.clone());
+            }
+        };
+        try {
+            callbackExecutor.execute(answer);
+        } catch(RejectedExecutionException e) {
+            answer.run();
+        }
+    }
+
+    private static String getHeader(List<Map.Entry<String, String>> headers, String name) {
+        if(headers == null) return null;
+        for(Map.Entry<String, String> header : headers) {
+            if(header.getKey() != null && header.getKey().equalsIgnoreCase(name)) return header.getValue();
+        }
+        return null;
+    }
+
+    /*
+     * Objects without an ETag or Last-Modified header can still be revalidated by when they were last modified
+     */
+    private static String getLastModDate(byte[] responseBody) {
+        try {
+            JsonElement json = new JsonParser().parse(new String(responseBody, "UTF-8"));
+            if(!json.isJsonObject()) return null;
+            JsonElement lastModDate = json.getAsJsonObject().get("lastmoddate");
+            if(lastModDate == null || !lastModDate.isJsonPrimitive()) return null;
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return format.format(new Date(lastModDate.getAsLong()));
+        } catch(Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * invalidate whatever a write to a path could change, both now and again once the write completes so that
+     * GETs sent in the meantime don't leave stale responses behind
+     * @param path the path being written to
+     * @param callback the callback for the request
+     * @return the callback to send the request with
+     */
+    StackMobRawCallback beforeWrite(String path, StackMobRawCallback callback) {
+        final String canonicalPath = canonicalPath(path);
+        invalidatePath(canonicalPath);
+        return new ForwardingCallback(callback) {
+            @Override
+            public void unsent(StackMobException e) {
+                invalidatePath(canonicalPath);
+                super.unsent(e);
+            }
+
+            @Override
+            public void done(HttpVerb requestVerb, String requestURL, List<Map.Entry<String, String>> requestHeaders, String requestBody,
+                             Integer responseStatusCode, List<Map.Entry<String, String>> responseHeaders, byte[] responseBody) {
+                invalidatePath(canonicalPath);
+                super.done(requestVerb, requestURL, requestHeaders, requestBody, responseStatusCode, responseHeaders, responseBody);
+            }
+        };
+    }
+
+    private void invalidatePath(String canonicalPath) {
+        // schema/id touches one schema, schema/id/relation can touch another
+        if(canonicalPath.indexOf('/', canonicalPath.indexOf('/') + 1) >= 0) {
+            clear();
+        } else {
+            invalidate(schemaOf(canonicalPath));
+        }
+    }
+
+    private synchronized void store(String key, long generation, Entry entry) {
+        if(generationOf(entry.schema) != generation) return;
+        entries.put(key, entry);
+        trim();
+    }
+
+    private void trim() {
+        Iterator<Entry> it = entries.values().iterator();
+        while(entries.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private long generationOf(String schema) {
+        Long generation = generations.get(schema);
+        // Both counters only go up, so the sum changes whenever either does
+        return clearGeneration + (generation == null ? 0 : generation);
+    }
+
+    static String canonicalPath(String path) {
+        int start = 0;
+        int end = path.length();
+        while(start < end && path.charAt(start) == '/') start++;
+        while(end > start && path.charAt(end - 1) == '/') end--;
+        return path.substring(start, end);
+    }
+
+    private static String schemaOf(String canonicalPath) {
+        int slash = canonicalPath.indexOf('/');
+        return (slash < 0 ? canonicalPath : canonicalPath.substring(0, slash)).toLowerCase();
+    }
+
+    /*
+     * The key for a GET made with a session
+     */
+    static String key(StackMobSession session, String canonicalPath, List<Map.Entry<String, String>> arguments, List<Map.Entry<String, String>> headers) {
+        return key(session.getLastUserLoginName(), canonicalPath, arguments, headers);
+    }
+
+    /*
+     * The same request always gives the same key, however its arguments and headers were ordered
+     */
+    static String key(String user, String canonicalPath, List<Map.Entry<String, String>> arguments, List<Map.Entry<String, String>> headers) {
+        StringBuilder key = new StringBuilder();
+        key.append(user == null ? "" : user).append('\n').append(canonicalPath);
+        appendSorted(key.append('?'), arguments, '=', '&', false);
+        appendSorted(key.append('\n'), headers, ':', '\n', true);
+        return key.toString();
+    }
+
+    private static void appendSorted(StringBuilder key, List<Map.Entry<String, String>> pairs, char separator, char terminator, final boolean caseInsensitiveNames) {
+        if(pairs == null || pairs.isEmpty()) return;
+        List<Map.Entry<String, String>> sorted = new ArrayList<Map.Entry<String, String>>(pairs);
+        Collections.sort(sorted, new Comparator<Map.Entry<String, String>>() {
+            @Override
+            public int compare(Map.Entry<String, String> a, Map.Entry<String, String> b) {
+                int byName = caseInsensitiveNames ? String.CASE_INSENSITIVE_ORDER.compare(a.getKey(), b.getKey()) : a.getKey().compareTo(b.getKey());
+                if(byName != 0) return byName;
+                return String.valueOf(a.getValue()).compareTo(String.valueOf(b.getValue()));
+            }
+        });
+        for(Map.Entry<String, String> pair : sorted) {
+            String name = caseInsensitiveNames ? pair.getKey().toLowerCase() : pair.getKey();
+            key.append(name).append(separator).append(pair.getValue()).append(terminator);
+        }
+    }
+
+    /*
+     * A stored response
+     */
+    private static class Entry {
+        final String schema;
+        long expiresAt;
+        final String requestURL;
+        final List<Map.Entry<String, String>> requestHeaders;
+        final Integer responseStatusCode;
+        final List<Map.Entry<String, String>> responseHeaders;
+        final byte[] responseBody;
+        final String etag;
+        final String lastModified;
+
+        Entry(String schema, long expiresAt, String requestURL, List<Map.Entry<String, String>> requestHeaders,
+              Integer responseStatusCode, List<Map.Entry<String, String>> responseHeaders, byte[] responseBody,
+              String etag, String lastModified) {
+            this.schema = schema;
+            this.expiresAt = expiresAt;
+            this.requestURL = requestURL;
+            this.requestHeaders = requestHeaders;
+            this.responseStatusCode = responseStatusCode;
+            this.responseHeaders = responseHeaders;
+            this.responseBody = responseBody;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        boolean hasValidator() {
+            return etag != null || lastModified != null;
+        }
+    }
+
+    /*
+     * A GET that has to go to the server, with the callback to send it with and any headers needed to revalidate
+     * an expired response
+     */
+    static class Miss {
+        final StackMobRawCallback callback;
+        final List<Map.Entry<String, String>> validators;
+
+        Miss(StackMobRawCallback callback, List<Map.Entry<String, String>> validators) {
+            this.callback = callback;
+            this.validators = validators;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.api;
+
+import com.stackmob.sdk.net.HttpVerb;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which failed requests are retried and how long to wait first. Without a policy only a 503 with a Retry-After
+ * header is retried. With one, set on {@link StackMob#setRetryPolicy(StackMobRetryPolicy)} or for a single call with
+ * {@link StackMobOptions#withRetryPolicy(StackMobRetryPolicy)}:
+ * <ul>
+ *     <li>502, 503 and 504 responses, connection resets and timeouts are retried</li>
+ *     <li>only idempotent verbs are retried when the server may have already acted on the request. A 503 or a
+ *     refused connection means it didn't, so those are retried whatever the verb</li>
+ *     <li>the wait doubles with each retry, with random jitter so clients don't all come back at once, and is never
+ *     less than the server's Retry-After</li>
+ *     <li>retries are limited to a share of the requests being sent, so an outage doesn't turn into a retry storm</li>
+ * </ul>
+ * The number of retries for a single request is still limited by {@link com.stackmob.sdk.callback.StackMobRawCallback#setRetriesRemaining(int)},
+ * three by default. A policy can be shared by any number of StackMob instances and requests.
+ */
+public class StackMobRetryPolicy {
+
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 100;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 10000;
+    public static final double DEFAULT_BUDGET_RATIO = 0.1;
+    public static final double DEFAULT_MAX_BUDGET = 10;
+
+    private static final int BAD_GATEWAY = 502;
+    private static final int UNAVAILABLE = 503;
+    private static final int GATEWAY_TIMEOUT = 504;
+
+    private final Random random = new Random();
+    private final Set<String> idempotentVerbs = new CopyOnWriteArraySet<String>();
+    private volatile long baseDelayMillis = DEFAULT_BASE_DELAY_MILLIS;
+    private volatile long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+    private volatile double jitter = 1;
+    private volatile double budgetRatio = DEFAULT_BUDGET_RATIO;
+    private volatile double maxBudget = DEFAULT_MAX_BUDGET;
+
+    // The retry budget, in retries. Each request sent adds budgetRatio, up to maxBudget, and each retry takes one
+    private double budget = DEFAULT_MAX_BUDGET;
+
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong budgetExhausted = new AtomicLong();
+
+    public StackMobRetryPolicy() {
+        idempotentVerbs.add("GET");
+        idempotentVerbs.add("PUT");
+        idempotentVerbs.add("DELETE");
+    }
+
+    /**
+     * set the wait before the first retry. Each retry after that waits twice as long as the one before
+     * @param millis the base delay in milliseconds
+     * @return this policy
+     */
+    public StackMobRetryPolicy setBaseDelayMillis(long millis) {
+        if(millis < 0) throw new IllegalArgumentException("The base delay can't be negative");
+        this.baseDelayMillis = millis;
+        return this;
+    }
+
+    /**
+     * set the longest a retry will wait, apart from a longer Retry-After from the server
+     * @param millis the maximum delay in milliseconds
+     * @return this policy
+     */
+    public StackMobRetryPolicy setMaxDelayMillis(long millis) {
+        if(millis < 0) throw new IllegalArgumentException("The max delay can't be negative");
+        this.maxDelayMillis = millis;
+        return this;
+    }
+
+    /**
+     * set how much of each delay is random. At 1, the default, a retry waits anywhere from nothing up to the full
+     * backoff; at 0 it always waits the full backoff
+     * @param jitter the random fraction, from 0 to 1
+     * @return this policy
+     */
+    public StackMobRetryPolicy setJitter(double jitter) {
+        if(jitter < 0 || jitter > 1) throw new IllegalArgumentException("Jitter must be from 0 to 1");
+        this.jitter = jitter;
+        return this;
+    }
+
+    /**
+     * set whether requests with a verb can safely be sent twice. GET, PUT and DELETE are by default, POST isn't
+     * @param verb the verb
+     * @param idempotent whether it's safe to retry after the server may have acted on the request
+     * @return this policy
+     */
+    public StackMobRetryPolicy setIdempotent(HttpVerb verb, boolean idempotent) {
+        if(idempotent) {
+            idempotentVerbs.add(verb.toString());
+        } else {
+            idempotentVerbs.remove(verb.toString());
+        }
+        return this;
+    }
+
+    /**
+     * limit retries to a share of the requests sent. Each request adds ratio to the budget, up to max, and each retry
+     * uses one. With the defaults, 0.1 and 10, retries are at most a tenth of requests once a burst of ten is used up
+     * @param ratio the retries allowed per request sent
+     * @param max the most retries that can be saved up
+     * @return this policy
+     */
+    public synchronized StackMobRetryPolicy setBudget(double ratio, double max) {
+        if(ratio < 0 || max < 1) throw new IllegalArgumentException("The budget ratio can't be negative and the max must be at least 1");
+        this.budgetRatio = ratio;
+        this.maxBudget = max;
+        this.budget = Math.min(budget, max);
+        return this;
+    }
+
+    /**
+     * whether a request can be retried after a response
+     * @param verb the request's verb
+     * @param statusCode the response status
+     * @return true for a 503, or a 502 or 504 to an idempotent request
+     */
+    public boolean isRetryable(HttpVerb verb, int statusCode) {
+        if(statusCode == UNAVAILABLE) return true;
+        return (statusCode == BAD_GATEWAY || statusCode == GATEWAY_TIMEOUT) && isIdempotent(verb);
+    }
+
+    /**
+     * whether a request can be retried after it failed without a response
+     * @param verb the request's verb
+     * @param failure why it failed
+     * @return true for a refused connection, or an io error such as a reset or timeout on an idempotent request
+     */
+    public boolean isRetryable(HttpVerb verb, Throwable failure) {
+        if(failure instanceof ConnectException) return true;
+        if(!(failure instanceof IOException) || failure instanceof SSLException || failure instanceof UnknownHostException) return false;
+        return isIdempotent(verb);
+    }
+
+    /**
+     * whether requests with a verb are safe to retry after the server may have acted on them
+     * @param verb the verb
+     * @return whether it's idempotent
+     */
+    public boolean isIdempotent(HttpVerb verb) {
+        return idempotentVerbs.contains(verb.toString());
+    }
+
+    /**
+     * get how long to wait before a retry
+     * @param retry which retry this is, starting at 0
+     * @param retryAfterMillis the server's Retry-After in milliseconds, or -1 if it didn't send one
+     * @return the delay in milliseconds
+     */
+    public long getDelayMillis(int retry, long retryAfterMillis) {
+        long backoff = maxDelayMillis;
+        if(retry < 62 && baseDelayMillis <= (maxDelayMillis >> retry)) backoff = baseDelayMillis << retry;
+        double random;
+        synchronized(this.random) {
+            random = this.random.nextDouble();
+        }
+        long delay = backoff - (long) (backoff * jitter * random);
+        return Math.max(delay, retryAfterMillis);
+    }
+
+    /**
+     * record a request being sent, adding to the retry budget. Called by the sdk once for each request
+     */
+    public synchronized void requestSent() {
+        budget = Math.min(maxBudget, budget + budgetRatio);
+    }
+
+    /**
+     * take a retry from the budget. Called by the sdk before each retry
+     * @return whether there was budget for it
+     */
+    public synchronized boolean tryAcquireRetry() {
+        if(budget < 1) {
+            budgetExhausted.incrementAndGet();
+            return false;
+        }
+        budget -= 1;
+        retries.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * get the number of retries this policy has allowed
+     * @return the number of retries
+     */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * get the number of retries turned down because the budget was used up
+     * @return the number of retries not made
+     */
+    public long getBudgetExhausted() {
+        return budgetExhausted.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StackMobRetryPolicy(retries=%d, budgetExhausted=%d)", getRetries(), getBudgetExhausted());
+    }
+}
@@ -18,9 +18,20 @@ package com.stackmob.sdk.api;
 
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.text.SimpleDateFormat;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import com.stackmob.sdk.api.StackMob.OAuthVersion;
+import com.stackmob.sdk.net.StackMobOAuth1Signer;
+import com.stackmob.sdk.net.StackMobScribeTransport;
+import com.stackmob.sdk.net.StackMobTimeouts;
+import com.stackmob.sdk.net.StackMobTransport;
 import com.stackmob.sdk.util.StackMobCookieManager;
 import com.stackmob.sdk.util.StackMobLogger;
 import org.apache.commons.codec.binary.Base64;
@@ -34,6 +45,7 @@ import javax.crypto.spec.SecretKeySpec;
 public class StackMobSession {
 
     private static String SIGNATURE_ALGORITHM = "HmacSHA1";
+    private static final StackMobTransport DEFAULT_TRANSPORT = new StackMobScribeTransport();
 
     private String key;
     private String secret;
@@ -50,7 +62,78 @@ public class StackMobSession {
     private Boolean httpsOverride = null;
     private StackMobCookieManager cookieManager = new StackMobCookieManager();
     private StackMobLogger logger = new StackMobLogger();
+    private StackMobTransport transport;
+    private ExecutorService callbackExecutor;
+    private volatile StackMobRetryPolicy retryPolicy;
+    private volatile StackMobCircuitBreaker circuitBreaker;
+    private volatile StackMobTimeouts timeouts;
     protected String userAgentName = "Java Client";
+    private volatile SessionHeaders sessionHeaders;
+    private volatile MacKey macKey;
+    private volatile StackMobOAuth1Signer oauth1Signer;
+
+    // Each thread gets its own generator for nonces so they don't contend on one
+    private static final ThreadLocal<SecureRandom> nonceRandom = new ThreadLocal<SecureRandom>() {
+        @Override
+        protected SecureRandom initialValue() {
+            try {
+                return SecureRandom.getInstance("SHA1PRNG");
+            } catch(NoSuchAlgorithmException e) {
+                return new SecureRandom();
+            }
+        }
+    };
+
+    /*
+     * An OAuth2 mac key, with a Mac already initialized with it for each thread that signs. A new MacKey is made
+     * whenever the key changes, so a thread's Mac is only ever built and keyed once per key
+     */
+    private static class MacKey {
+        final String key;
+        private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+            @Override
+            protected Mac initialValue() {
+                try {
+                    Mac mac = Mac.getInstance(SIGNATURE_ALGORITHM);
+                    mac.init(new SecretKeySpec(key.getBytes(), SIGNATURE_ALGORITHM));
+                    return mac;
+                } catch(NoSuchAlgorithmException e) {
+                    throw new IllegalStateException("This device doesn't have SHA1");
+                } catch(InvalidKeyException ike) {
+                    throw new IllegalStateException(ike);
+                }
+            }
+        };
+
+        MacKey(String key) {
+            this.key = key;
+        }
+
+        /*
+         * doFinal resets the Mac, so it's ready to use again
+         */
+        Mac mac() {
+            return macs.get();
+        }
+    }
+
+    /*
+     * The headers that are the same on every request made with a session, and the userAgentName they were built for
+     */
+    private static class SessionHeaders {
+        final String userAgentName;
+        final String userAgent;
+        final List<Map.Entry<String, String>> headers;
+
+        SessionHeaders(String userAgentName, int apiVersionNumber) {
+            this.userAgentName = userAgentName;
+            this.userAgent = "StackMob (" + userAgentName + "; " + StackMob.getVersion() + ")";
+            List<Map.Entry<String, String>> headers = new ArrayList<Map.Entry<String, String>>(2);
+            headers.add(new AbstractMap.SimpleImmutableEntry<String, String>("Accept", "application/vnd.stackmob+json; version=" + apiVersionNumber));
+            headers.add(new AbstractMap.SimpleImmutableEntry<String, String>("User-Agent", userAgent));
+            this.headers = Collections.unmodifiableList(headers);
+        }
+    }
 
     public StackMobSession(OAuthVersion oauthVersion, int apiVersionNumber, String key, String secret, String userObjectName, String userIdName) {
         this.oauthVersion = oauthVersion;
@@ -71,9 +154,16 @@ public class StackMobSession {
         this.serverTimeDiff = that.serverTimeDiff;
         this.oauth2Token = that.oauth2Token;
         this.oauth2MacKey = that.oauth2MacKey;
+        this.macKey = that.macKey;
+        this.oauth1Signer = that.oauth1Signer;
         this.oauth2TokenExpiration = that.oauth2TokenExpiration;
         this.cookieManager = that.cookieManager;
         this.logger = that.logger;
+        this.transport = that.transport;
+        this.callbackExecutor = that.callbackExecutor;
+        this.retryPolicy = that.retryPolicy;
+        this.circuitBreaker = that.circuitBreaker;
+        this.timeouts = that.timeouts;
         this.userAgentName = that.userAgentName;
     }
 
@@ -164,6 +254,12 @@ public class StackMobSession {
     protected void setOAuth2TokensAndExpiration(String accessToken, String macKey, String refreshToken, Date expiration) {
         oauth2Token = accessToken;
         oauth2MacKey = macKey;
+        MacKey current = this.macKey;
+        if(macKey == null) {
+            this.macKey = null;
+        } else if(current == null || !current.key.equals(macKey)) {
+            this.macKey = new MacKey(macKey);
+        }
         oauth2RefreshToken = refreshToken;
         oauth2TokenExpiration = expiration;
     }
@@ -209,31 +305,136 @@ public class StackMobSession {
         return logger;
     }
 
+    /**
+     * Set the transport used to send requests made with this session
+     * @param transport the transport to use, or null for the blocking scribe transport
+     */
+    public void setTransport(StackMobTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Access the current transport
+     * @return the transport requests are sent with
+     */
+    public StackMobTransport getTransport() {
+        return transport == null ? DEFAULT_TRANSPORT : transport;
+    }
+
+    /**
+     * Set a separate executor for running callbacks
+     * @param callbackExecutor the executor, or null to run callbacks on the request executor
+     */
+    public void setCallbackExecutor(ExecutorService callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Access the executor callbacks run on
+     * @return the callback executor, or null if callbacks run on the request executor
+     */
+    public ExecutorService getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * Set the policy failed requests made with this session are retried under
+     * @param retryPolicy the policy, or null to only retry a 503 with a Retry-After header
+     */
+    public void setRetryPolicy(StackMobRetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Access the retry policy
+     * @return the policy, or null if there isn't one
+     */
+    public StackMobRetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Set the circuit breaker requests made with this session go through
+     * @param circuitBreaker the breaker, or null to always send requests
+     */
+    public void setCircuitBreaker(StackMobCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Access the circuit breaker
+     * @return the breaker, or null if there isn't one
+     */
+    public StackMobCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Set the timeouts for requests made with this session
+     * @param timeouts the timeouts, or null for no limits
+     */
+    public void setTimeouts(StackMobTimeouts timeouts) {
+        this.timeouts = timeouts;
+    }
+
+    /**
+     * Access the timeouts
+     * @return the timeouts, or null if there aren't any
+     */
+    public StackMobTimeouts getTimeouts() {
+        return timeouts;
+    }
+
     public String getUserAgent() {
-        return String.format("StackMob (%s; %s)", userAgentName, StackMob.getVersion());
+        return sessionHeaders().userAgent;
     }
 
-    public String generateMacToken(String method, String uri, String host, String port) {
+    /**
+     * get the headers sent with every request made with this session, Accept and User-Agent. They're built once and
+     * shared by every request until the session changes
+     * @return an unmodifiable list of the headers
+     */
+    public List<Map.Entry<String, String>> getSessionHeaders() {
+        return sessionHeaders().headers;
+    }
 
-        String ts = String.valueOf(new Date().getTime()/1000);
-        String nonce = String.format("n%d", Math.round(Math.random() * 10000));
-        try {
-            String baseString = getNormalizedRequestString(ts, nonce, method, uri, host, port);
-            Mac mac = Mac.getInstance(SIGNATURE_ALGORITHM);
-            SecretKeySpec spec = new SecretKeySpec(oauth2MacKey.getBytes(), SIGNATURE_ALGORITHM);
-            try {
-                mac.init(spec);
-            } catch(InvalidKeyException ike) {
-                throw new IllegalStateException(ike);
-            }
-            byte[] rawMacBytes = mac.doFinal(baseString.getBytes());
-            byte[] b64Bytes = Base64.encodeBase64(rawMacBytes);
-            String calculatedMac = new String(b64Bytes);
-            return String.format("MAC id=\"%s\",ts=\"%s\",nonce=\"%s\",mac=\"%s\"", oauth2Token, ts, nonce, calculatedMac);
+    /*
+     * Subclasses set userAgentName directly, so the cached headers are rebuilt whenever it's no longer the one they
+     * were built for
+     */
+    private SessionHeaders sessionHeaders() {
+        SessionHeaders current = sessionHeaders;
+        if(current == null || current.userAgentName != userAgentName) {
+            current = new SessionHeaders(userAgentName, apiVersionNumber);
+            sessionHeaders = current;
+        }
+        return current;
+    }
 
-        } catch (NoSuchAlgorithmException e) {
-            throw new IllegalStateException("This device doesn't have SHA1");
+    /**
+     * get the signer for OAuth1 requests made with this session's key and secret. It's built the first time it's
+     * needed and shared by every request after that
+     * @return the OAuth1 signer
+     */
+    public StackMobOAuth1Signer getOAuth1Signer() {
+        StackMobOAuth1Signer signer = oauth1Signer;
+        if(signer == null) {
+            signer = new StackMobOAuth1Signer(key, secret);
+            oauth1Signer = signer;
         }
+        return signer;
+    }
+
+    public String generateMacToken(String method, String uri, String host, String port) {
+        MacKey key = macKey;
+        if(key == null) throw new IllegalStateException("There's no OAuth2 mac key to sign with");
+        String ts = String.valueOf(System.currentTimeMillis() / 1000);
+        String nonce = "n" + Long.toString(nonceRandom.get().nextLong() >>> 1, 36);
+        String baseString = getNormalizedRequestString(ts, nonce, method, uri, host, port);
+        byte[] rawMacBytes = key.mac().doFinal(baseString.getBytes());
+        String calculatedMac = new String(Base64.encodeBase64(rawMacBytes));
+        return new StringBuilder(96).append("MAC id=\"").append(oauth2Token).append("\",ts=\"").append(ts)
+                .append("\",nonce=\"").append(nonce).append("\",mac=\"").append(calculatedMac).append('"').toString();
     }
 
     private String getNormalizedRequestString(String timestamp, String nonce, String method,
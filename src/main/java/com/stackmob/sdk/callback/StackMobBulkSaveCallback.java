@@ -0,0 +1,53 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.callback;
+
+import com.stackmob.sdk.exception.StackMobException;
+import com.stackmob.sdk.model.StackMobModel;
+
+import java.util.List;
+
+/**
+ * A callback used by {@link com.stackmob.sdk.model.StackMobModel#saveMultiple(java.util.List, int, int, StackMobBulkSaveCallback)}.
+ * A failed chunk doesn't stop the others, so failures are reported chunk by chunk and the save carries on. An object
+ * the server leaves out of a chunk's response counts as failed even if the rest of the chunk was saved.
+ * Methods may be called from several threads, though never at the same time for the same save.
+ * @param <T> The type of the models being saved
+ */
+public abstract class StackMobBulkSaveCallback<T extends StackMobModel> {
+    /**
+     * override this method to follow the save as chunks finish
+     * @param saved the number of objects saved so far
+     * @param failed the number of objects that weren't saved so far
+     * @param total the number of objects being saved
+     */
+    public void progress(int saved, int failed, int total) { }
+
+    /**
+     * override this method to handle a chunk that couldn't be saved, in whole or in part
+     * @param chunk the objects in the chunk that weren't saved
+     * @param e a representation of the error that occurred
+     */
+    public void chunkFailure(List<T> chunk, StackMobException e) { }
+
+    /**
+     * override this method to handle the end of the save, once every chunk has succeeded or failed
+     * @param saved the number of objects saved
+     * @param failed the number of objects that weren't saved
+     */
+    public abstract void complete(int saved, int failed);
+}
@@ -105,14 +105,12 @@ public abstract class StackMobRawCallback {
      * The method that will be called when a retry is possible. This is triggered when there is a distinct
      * and short term reason your request failed, and it should be successful on retry after the specified
      * interval. By default at most three attempts are made before failing. Override to implement your own
-     * logic on retry, and return false to stop the request from being automatically retried.
-     * @param afterMilliseconds the number of milliseconds to wait until retrying the request.
+     * logic on retry, and return false to stop the request from being automatically retried. The request is resent
+     * once the interval has passed without holding a thread while it waits, so this shouldn't wait itself.
+     * @param afterMilliseconds the number of milliseconds until the request is retried.
      * @return whether or not to automatically retry
      */
     public boolean retry(int afterMilliseconds) {
-        try {
-            Thread.sleep(afterMilliseconds);
-        } catch (InterruptedException ignore) { }
         return true;
     }
 
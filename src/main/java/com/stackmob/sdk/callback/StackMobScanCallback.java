@@ -0,0 +1,50 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.callback;
+
+import com.stackmob.sdk.exception.StackMobException;
+
+/**
+ * A callback used by {@link com.stackmob.sdk.api.StackMobDatastore#scan(com.stackmob.sdk.api.StackMobQuery, int, int, boolean, StackMobScanCallback)}.
+ * Each page of results is handed to {@link #page(int, String)} as it's ready, then the scan ends with exactly one
+ * call to success or failure. Methods may be called from several threads, but never at the same time for the same scan.
+ */
+public abstract class StackMobScanCallback {
+    /**
+     * override this method to find out how many objects the scan will read before the first page arrives
+     * @param total the number of objects matching the query
+     */
+    public void total(long total) { }
+
+    /**
+     * override this method to handle a page of results
+     * @param start the position of the page's first object in the results
+     * @param responseBody the json array of objects in the page
+     */
+    public abstract void page(int start, String responseBody);
+
+    /**
+     * override this method to handle the end of a scan that read every page
+     */
+    public abstract void success();
+
+    /**
+     * override this method to handle errors. No more pages are delivered after a failure
+     * @param e a representation of the error that occurred
+     */
+    public abstract void failure(StackMobException e);
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.model;
+
+import com.google.gson.JsonElement;
+import com.stackmob.sdk.api.StackMobDatastore;
+import com.stackmob.sdk.callback.StackMobBulkSaveCallback;
+import com.stackmob.sdk.callback.StackMobCallback;
+import com.stackmob.sdk.exception.StackMobException;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves a large list of models as a series of bulk POSTs, with at most a fixed number of them in flight. A chunk is
+ * serialized when it's sent, and the next chunk isn't sent until one finishes, so the json held in memory is bounded
+ * by the chunk size and in flight limit rather than the length of the list. Each chunk's response is checked object by
+ * object, so an object the server didn't save counts as failed even when the request succeeded.
+ */
+class ChunkedSave<T extends StackMobModel> {
+
+    private final StackMobDatastore datastore;
+    private final String schemaName;
+    private final List<T> models;
+    private final int chunkSize;
+    private final StackMobBulkSaveCallback<T> callback;
+    private final int chunkCount;
+
+    // Guarded by this
+    private int nextChunk = 0;
+    private int finishedChunks = 0;
+    private int saved = 0;
+    private int failed = 0;
+    private boolean delivering = false;
+    // Callbacks waiting to be called, in order, once the lock is let go
+    private final LinkedList<Runnable> ready = new LinkedList<Runnable>();
+
+    ChunkedSave(StackMobDatastore datastore, List<T> models, int chunkSize, StackMobBulkSaveCallback<T> callback) {
+        this.datastore = datastore;
+        this.schemaName = models.get(0).getSchemaName();
+        this.models = models;
+        this.chunkSize = chunkSize;
+        this.callback = callback;
+        this.chunkCount = (models.size() + chunkSize - 1) / chunkSize;
+    }
+
+    void start(int maxInFlight) {
+        for(int i = 0; i < maxInFlight; i++) {
+            if(!sendNext()) break;
+        }
+    }
+
+    private boolean sendNext() {
+        final List<T> chunk;
+        synchronized(this) {
+            if(nextChunk == chunkCount) return false;
+            int start = nextChunk++ * chunkSize;
+            chunk = new ArrayList<T>(models.subList(start, Math.min(start + chunkSize, models.size())));
+        }
+        datastore.post(schemaName, StackMobModel.toJsonArray(chunk), new StackMobCallback() {
+            @Override
+            public void success(String responseBody) {
+                saved(chunk, responseBody);
+            }
+
+            @Override
+            public void failure(StackMobException e) {
+                finished(chunk, chunk, e);
+            }
+        });
+        return true;
+    }
+
+    /*
+     * Fills in the objects the server saved, and fails the rest
+     */
+    private void saved(List<T> chunk, String responseBody) {
+        Map<StackMobModel, JsonElement> savedObjects;
+        try {
+            savedObjects = StackMobSaveBatcher.matchResponse(chunk, responseBody);
+        } catch(StackMobException e) {
+            finished(chunk, chunk, e);
+            return;
+        }
+        List<T> unsaved = new ArrayList<T>();
+        for(T model : chunk) {
+            if(!savedObjects.containsKey(model)) {
+                unsaved.add(model);
+                continue;
+            }
+            JsonElement savedObject = savedObjects.get(model);
+            if(savedObject == null) continue;
+            try {
+                model.fillFromJson(savedObject, StackMobSaveBatcher.FilledFields);
+            } catch(StackMobException e) {
+                // It was saved, we just couldn't read back what the server filled in
+            }
+        }
+        StackMobException failure = unsaved.isEmpty() ? null :
+                new StackMobException(String.format("%d of %d %s objects weren't saved", unsaved.size(), chunk.size(), schemaName));
+        finished(chunk, unsaved, failure);
+    }
+
+    private void finished(List<T> chunk, final List<T> unsaved, final StackMobException e) {
+        boolean last;
+        synchronized(this) {
+            saved += chunk.size() - unsaved.size();
+            failed += unsaved.size();
+            if(!unsaved.isEmpty()) {
+                ready.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.chunkFailure(unsaved, e);
+                    }
+                });
+            }
+            final int savedNow = saved;
+            final int failedNow = failed;
+            ready.add(new Runnable() {
+                @Override
+                public void run() {
+                    callback.progress(savedNow, failedNow, models.size());
+                }
+            });
+            last = ++finishedChunks == chunkCount;
+            if(last) {
+                ready.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.complete(savedNow, failedNow);
+                    }
+                });
+            }
+        }
+        // Send first, so a slow callback on this thread doesn't hold up the next chunk
+        if(!last) sendNext();
+        deliver();
+    }
+
+    /*
+     * Calls the queued callbacks outside the lock, so a slow one doesn't hold up other chunks. They're called in order
+     * and never at once; a thread that finds another already delivering leaves its callbacks for that one
+     */
+    private void deliver() {
+        synchronized(this) {
+            if(delivering) return;
+            delivering = true;
+        }
+        boolean drained = false;
+        try {
+            while(true) {
+                Runnable next;
+                synchronized(this) {
+                    next = ready.poll();
+                    if(next == null) {
+                        delivering = false;
+                        drained = true;
+                        return;
+                    }
+                }
+                next.run();
+            }
+        } finally {
+            if(!drained) {
+                synchronized(this) {
+                    delivering = false;
+                }
+            }
+        }
+    }
+}
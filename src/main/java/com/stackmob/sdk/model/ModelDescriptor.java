@@ -0,0 +1,182 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.model;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonToken;
+import com.stackmob.sdk.util.SerializationMetadata;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Everything about a model class that serialization needs, worked out once per class. Fields are made accessible
+ * up front and indexed by both their java name and the lowercased name they have in json, so filling and
+ * serializing a model never has to go back to reflection.
+ */
+class ModelDescriptor {
+
+    private static final ConcurrentMap<Class<?>, ModelDescriptor> descriptors = new ConcurrentHashMap<Class<?>, ModelDescriptor>();
+
+    /**
+     * get the descriptor for a model class, building it the first time the class is seen
+     * @param modelClass the model class
+     * @return the descriptor
+     */
+    static ModelDescriptor forClass(Class<? extends StackMobModel> modelClass) {
+        ModelDescriptor descriptor = descriptors.get(modelClass);
+        if(descriptor == null) {
+            // Building twice in a race is harmless, the results are identical
+            ModelDescriptor built = new ModelDescriptor(modelClass);
+            descriptor = descriptors.putIfAbsent(modelClass, built);
+            if(descriptor == null) descriptor = built;
+        }
+        return descriptor;
+    }
+
+    /*
+     * A single field of a model
+     */
+    static class ModelField {
+        final Field field;
+        final String name;
+        final String jsonName;
+        final SerializationMetadata metadata;
+        final Class<?> type;
+        final Type genericType;
+        final Class<?> componentClass;
+        // The json token a scalar field can be read from directly, or null if the field goes through gson
+        final JsonToken scalarToken;
+        // Set the first time the field is serialized
+        volatile TypeAdapter<Object> adapter;
+
+        ModelField(Field field, SerializationMetadata metadata) {
+            field.setAccessible(true);
+            this.field = field;
+            this.name = field.getName();
+            this.jsonName = name.toLowerCase();
+            this.metadata = metadata;
+            this.type = field.getType();
+            this.genericType = field.getGenericType();
+            this.componentClass = SerializationMetadata.getComponentClass(field);
+            this.scalarToken = getScalarToken(type);
+        }
+
+        /*
+         * Whether gson would include the field when serializing the model
+         */
+        boolean isSerialized() {
+            int modifiers = field.getModifiers();
+            return !Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()
+                    && !type.isAnonymousClass() && !type.isLocalClass();
+        }
+
+        private static JsonToken getScalarToken(Class<?> type) {
+            if(type == String.class) return JsonToken.STRING;
+            if(type == int.class || type == Integer.class || type == long.class || type == Long.class || type == double.class || type == Double.class) return JsonToken.NUMBER;
+            if(type == boolean.class || type == Boolean.class) return JsonToken.BOOLEAN;
+            return null;
+        }
+    }
+
+    private final Class<? extends StackMobModel> modelClass;
+    private final String schemaName;
+    private final String idFieldName;
+    private final Map<String, ModelField> fieldsByName = new HashMap<String, ModelField>();
+    private final Map<String, ModelField> fieldsByJsonName = new HashMap<String, ModelField>();
+    private final List<ModelField> serializedFields = new ArrayList<ModelField>();
+
+    private ModelDescriptor(Class<? extends StackMobModel> modelClass) {
+        this.modelClass = modelClass;
+        this.schemaName = findSchemaName(modelClass);
+        this.idFieldName = schemaName + "_id";
+        SerializationMetadata.ensureMetadata(modelClass);
+        Class<?> currentClass = modelClass;
+        while(!currentClass.equals(StackMobModel.class)) {
+            for(Field field : currentClass.getDeclaredFields()) {
+                // A subclass field hides any superclass field with the same name
+                if(fieldsByName.containsKey(field.getName())) continue;
+                ModelField modelField = new ModelField(field, SerializationMetadata.getSerializationMetadata(modelClass, field.getName()));
+                fieldsByName.put(modelField.name, modelField);
+                if(!fieldsByJsonName.containsKey(modelField.jsonName)) fieldsByJsonName.put(modelField.jsonName, modelField);
+                if(modelField.isSerialized()) serializedFields.add(modelField);
+            }
+            currentClass = currentClass.getSuperclass();
+        }
+    }
+
+    private static String findSchemaName(Class<?> modelClass) {
+        try {
+            Method getSchemaName = modelClass.getDeclaredMethod("overrideSchemaName", new Class[]{});
+            Object result = getSchemaName.invoke(null);
+            return (String) result;
+        } catch (Exception e) {
+            return modelClass.getSimpleName().toLowerCase();
+        }
+    }
+
+    Class<? extends StackMobModel> getModelClass() {
+        return modelClass;
+    }
+
+    /**
+     * the schema name, either from overrideSchemaName or the lowercased class name
+     * @return the schema name
+     */
+    String getSchemaName() {
+        return schemaName;
+    }
+
+    /**
+     * the default name of the id field, the schema name plus "_id"
+     * @return the id field name
+     */
+    String getIDFieldName() {
+        return idFieldName;
+    }
+
+    /**
+     * the fields that get sent to the server, in the same order gson would write them
+     * @return the fields
+     */
+    List<ModelField> getSerializedFields() {
+        return serializedFields;
+    }
+
+    /**
+     * look up a field by its java name
+     * @param name the field name
+     * @return the field, or null if the model doesn't have one by that name
+     */
+    ModelField getField(String name) {
+        return fieldsByName.get(name);
+    }
+
+    /**
+     * look up a field by the name it has in json
+     * @param jsonName the lowercased field name
+     * @return the field, or null if the model doesn't have one by that name
+     */
+    ModelField getFieldForJsonName(String jsonName) {
+        return fieldsByJsonName.get(jsonName);
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.model;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes every object loaded from the server resolve to one canonical model instance per schema and id. With an
+ * identity map set on {@link com.stackmob.sdk.api.StackMob#setIdentityMap(StackMobIdentityMap)}, queries, fetches and
+ * expanded relations all fill in the same instance, so an author shared by 500 books is a single object. Objects
+ * that come back unchanged, judged by their lastmoddate, aren't filled in again.
+ * <p>
+ * Since instances are shared, a query running on one thread can fill in an object another thread is reading. Models
+ * aren't thread-safe, so if you query from several threads at once synchronize on the models you share.
+ * <pre>
+ * {@code
+ * StackMob.getStackMob().setIdentityMap(StackMobIdentityMap.weak());
+ * }
+ * </pre>
+ */
+public class StackMobIdentityMap {
+
+    /**
+     * a map that holds on to instances only as long as something else does
+     * @return the identity map
+     */
+    public static StackMobIdentityMap weak() {
+        return new StackMobIdentityMap(0);
+    }
+
+    /**
+     * a map that holds on to the most recently used instances, up to a limit
+     * @param maxEntries the most instances to hold
+     * @return the identity map
+     */
+    public static StackMobIdentityMap bounded(int maxEntries) {
+        if(maxEntries < 1) throw new IllegalArgumentException("maxEntries must be at least 1");
+        return new StackMobIdentityMap(maxEntries);
+    }
+
+    private final int maxEntries;
+    private final Map<String, Object> instances;
+    private final ReferenceQueue<StackMobModel> collected = new ReferenceQueue<StackMobModel>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private StackMobIdentityMap(int maxEntries) {
+        this.maxEntries = maxEntries;
+        if(maxEntries == 0) {
+            instances = new HashMap<String, Object>();
+        } else {
+            instances = new LeastRecentlyUsed(maxEntries);
+        }
+    }
+
+    /**
+     * find the canonical instance for an object
+     * @param modelClass the model class
+     * @param id the object's id
+     * @param <T> the model type
+     * @return the instance, or null if there isn't one
+     */
+    public <T extends StackMobModel> T get(Class<T> modelClass, String id) {
+        StackMobModel model = get(ModelDescriptor.forClass(modelClass).getSchemaName(), id);
+        return modelClass.isInstance(model) ? modelClass.cast(model) : null;
+    }
+
+    synchronized StackMobModel get(String schemaName, String id) {
+        expunge();
+        StackMobModel model = unwrap(instances.get(key(schemaName, id)));
+        if(model == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return model;
+    }
+
+    /**
+     * make a model the canonical instance for its schema and id, unless there already is one
+     * @param model the model, which must have an id
+     * @return the canonical instance
+     */
+    public synchronized StackMobModel putIfAbsent(StackMobModel model) {
+        if(model.getID() == null) throw new IllegalArgumentException("Only models with an id can be put in an identity map");
+        expunge();
+        String key = key(model.getSchemaName(), model.getID());
+        StackMobModel existing = unwrap(instances.get(key));
+        if(existing != null) return existing;
+        instances.put(key, maxEntries == 0 ? new KeyedReference(key, model, collected) : model);
+        return model;
+    }
+
+    /**
+     * forget the canonical instance for a model's schema and id
+     * @param model the model
+     */
+    public synchronized void remove(StackMobModel model) {
+        if(model.getID() == null) return;
+        String key = key(model.getSchemaName(), model.getID());
+        if(unwrap(instances.get(key)) == model) instances.remove(key);
+    }
+
+    /**
+     * forget every instance
+     */
+    public synchronized void clear() {
+        instances.clear();
+    }
+
+    /**
+     * the number of instances held, including any the garbage collector has taken but that haven't been noticed yet
+     * @return the size
+     */
+    public synchronized int getSize() {
+        expunge();
+        return instances.size();
+    }
+
+    /**
+     * the number of objects that resolved to an existing instance
+     * @return the hit count
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * the number of objects that needed a new instance
+     * @return the miss count
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StackMobIdentityMap(hits=%d, misses=%d, size=%d)", getHits(), getMisses(), getSize());
+    }
+
+    private static String key(String schemaName, String id) {
+        return schemaName + '\n' + id;
+    }
+
+    private static StackMobModel unwrap(Object held) {
+        if(held instanceof KeyedReference) return ((KeyedReference) held).get();
+        return (StackMobModel) held;
+    }
+
+    /*
+     * Drops the entries for instances the garbage collector has taken
+     */
+    private void expunge() {
+        KeyedReference reference;
+        while((reference = (KeyedReference) collected.poll()) != null) {
+            if(instances.get(reference.key) == reference) instances.remove(reference.key);
+        }
+    }
+
+    private static class KeyedReference extends WeakReference<StackMobModel> {
+        final String key;
+
+        KeyedReference(String key, StackMobModel model, ReferenceQueue<StackMobModel> queue) {
+            super(model, queue);
+            this.key = key;
+        }
+    }
+
+    /*
+     * Drops the least recently used instance once there are more than maxEntries
+     */
+    private static class LeastRecentlyUsed extends LinkedHashMap<String, Object> {
+        private static final long serialVersionUID = 1L;
+        private final int maxEntries;
+
+        LeastRecentlyUsed(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
@@ -17,25 +17,32 @@
 package com.stackmob.sdk.model;
 
 import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 import com.stackmob.sdk.api.StackMob;
+import com.stackmob.sdk.api.StackMobCursor;
 import com.stackmob.sdk.api.StackMobFile;
 import com.stackmob.sdk.api.StackMobOptions;
 import com.stackmob.sdk.api.StackMobQuery;
 import com.stackmob.sdk.callback.*;
 import com.stackmob.sdk.exception.StackMobException;
+import com.stackmob.sdk.model.ModelDescriptor.ModelField;
+import com.stackmob.sdk.net.HttpVerb;
+import com.stackmob.sdk.net.StackMobPayload;
+import com.stackmob.sdk.util.Http;
 import com.stackmob.sdk.util.Pair;
 import com.stackmob.sdk.util.RelationMapping;
 import com.stackmob.sdk.util.SerializationMetadata;
 
 import static com.stackmob.sdk.util.SerializationMetadata.*;
 
-import java.io.IOException;
+import java.io.*;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
 import java.util.*;
 
 /**
@@ -156,6 +163,8 @@ import java.util.*;
  */
 public abstract class StackMobModel {
 
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
     /**
      * run a query on the server to get all the instances of your model within certain constraints
      * @param theClass The class of your model
@@ -167,15 +176,46 @@ public abstract class StackMobModel {
     }
 
 
-    private static <T extends StackMobModel> String getSchemaName(Class<T> theClass) {
-        try {
-            Method getSchemaName = theClass.getDeclaredMethod("overrideSchemaName", new Class[]{});
-            Object result = getSchemaName.invoke(null);
-            return (String) result;
-        } catch (Exception e) {
-            return theClass.getSimpleName().toLowerCase();
+    /**
+     * work out everything needed to serialize the given model classes now rather than on first use. Call this at
+     * startup with your model classes so the first request that touches each one doesn't pay for the reflection.
+     * Related model classes are registered along with them.
+     * @param modelClasses the model classes to register. These are plain classes rather than model classes only so
+     *                     that calling this doesn't warn about generic array creation
+     * @throws IllegalArgumentException if one of the classes isn't a StackMobModel
+     */
+    public static void register(Class<?>... modelClasses) {
+        Set<Class<?>> seen = new HashSet<Class<?>>();
+        for(Class<?> modelClass : modelClasses) {
+            if(!StackMobModel.class.isAssignableFrom(modelClass)) {
+                throw new IllegalArgumentException(modelClass.getName() + " isn't a StackMobModel");
+            }
+            register(modelClass.asSubclass(StackMobModel.class), seen);
         }
     }
+
+    private static void register(Class<? extends StackMobModel> modelClass, Set<Class<?>> seen) {
+        if(!seen.add(modelClass)) return;
+        ModelDescriptor descriptor = ModelDescriptor.forClass(modelClass);
+        for(ModelField field : descriptor.getSerializedFields()) {
+            switch(field.metadata) {
+                case MODEL: register(field.type.asSubclass(StackMobModel.class), seen); break;
+                case MODEL_ARRAY: if(field.componentClass != null) register(field.componentClass.asSubclass(StackMobModel.class), seen); break;
+                case PRIMITIVE:
+                case GEOPOINT:
+                case PRIMITIVE_ARRAY:
+                case OBJECT_ARRAY: {
+                    if(field.adapter == null) field.adapter = (TypeAdapter<Object>) gson.getAdapter(TypeToken.get(field.genericType));
+                    break;
+                }
+                default: break;
+            }
+        }
+    }
+
+    private static <T extends StackMobModel> String getSchemaName(Class<T> theClass) {
+        return ModelDescriptor.forClass(theClass).getSchemaName();
+    }
     /**
      * run a query on the server to get all the instances of your model within certain constraints
      * @param theClass The class of your model
@@ -187,13 +227,32 @@ public abstract class StackMobModel {
         q.setObjectName(getSchemaName(theClass));
         StackMob.getStackMob().getDatastore().get(q, options, new StackMobCallback() {
             @Override
-            public void success(String responseBody) {
-                JsonArray array = new JsonParser().parse(responseBody).getAsJsonArray();
-                List<T> resultList = new ArrayList<T>();
-                for(JsonElement elt : array) {
+            public void done(HttpVerb requestVerb, String requestURL, List<Map.Entry<String, String>> requestHeaders, String requestBody,
+                             Integer responseStatusCode, List<Map.Entry<String, String>> responseHeaders, byte[] responseBody) {
+                if(Http.isSuccess(responseStatusCode)) {
+                    // Read the models straight out of the response bytes rather than building a string and a tree first
                     try {
-                        resultList.add(StackMobModel.newFromJson(theClass, elt.toString()));
-                    } catch (StackMobException ignore) { }
+                        succeed(new InputStreamReader(new ByteArrayInputStream(responseBody), "UTF-8"));
+                    } catch(UnsupportedEncodingException e) {
+                        failure(new StackMobException(e.getMessage()));
+                    }
+                } else {
+                    super.done(requestVerb, requestURL, requestHeaders, requestBody, responseStatusCode, responseHeaders, responseBody);
+                }
+            }
+
+            @Override
+            public void success(String responseBody) {
+                succeed(new StringReader(responseBody));
+            }
+
+            private void succeed(Reader responseBody) {
+                List<T> resultList;
+                try {
+                    resultList = readModelList(theClass, newJsonReader(responseBody));
+                } catch(Exception e) {
+                    failure(new StackMobException(e.getMessage()));
+                    return;
                 }
                 callback.success(resultList);
             }
@@ -216,6 +275,72 @@ public abstract class StackMobModel {
         StackMob.getStackMob().getDatastore().count(q, callback);
     }
 
+    /**
+     * create a cursor for reading the results of a query a page at a time, ordered by createddate. Pass it to
+     * {@link #query(Class, StackMobCursor, StackMobQueryCallback)} to get each page. See {@link StackMobCursor} for details
+     * @param theClass The class of your model
+     * @param q The query to run
+     * @param pageSize the number of results in each page
+     * @return the cursor
+     */
+    public static <T extends StackMobModel> StackMobCursor cursor(Class<T> theClass, StackMobQuery q, int pageSize) {
+        ModelDescriptor descriptor = ModelDescriptor.forClass(theClass);
+        StackMobQuery query = new StackMobQuery(descriptor.getSchemaName()).add(q);
+        return new StackMobCursor(query, "createddate", descriptor.getIDFieldName(), pageSize);
+    }
+
+    /**
+     * get the next page of results for a cursor, and move the cursor past it. If the request fails the cursor doesn't
+     * move, so the same page can be asked for again
+     * @param theClass The class of your model
+     * @param cursor a cursor from {@link #cursor(Class, StackMobQuery, int)}
+     * @param callback The callback to be invoked upon returning
+     */
+    public static <T extends StackMobModel> void query(final Class<T> theClass, StackMobCursor cursor, final StackMobQueryCallback<T> callback) {
+        StackMob.getStackMob().getDatastore().get(cursor, new StackMobCallback() {
+            @Override
+            public void success(String responseBody) {
+                List<T> resultList;
+                try {
+                    resultList = readModelList(theClass, newJsonReader(new StringReader(responseBody)));
+                } catch(Exception e) {
+                    failure(new StackMobException(e.getMessage()));
+                    return;
+                }
+                callback.success(resultList);
+            }
+
+            @Override
+            public void failure(StackMobException e) {
+                callback.failure(e);
+            }
+        });
+    }
+
+    /**
+     * iterate through every result of a query, loading them from the server a page at a time as they're needed.
+     * See {@link StackMobQueryIterator} for details
+     * @param theClass The class of your model
+     * @param q The query to run
+     * @return an iterator over the results
+     */
+    public static <T extends StackMobModel> StackMobQueryIterator<T> stream(Class<T> theClass, StackMobQuery q) {
+        return stream(theClass, q, new StackMobOptions(), DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * iterate through every result of a query, loading them from the server a page at a time as they're needed.
+     * See {@link StackMobQueryIterator} for details
+     * @param theClass The class of your model
+     * @param q The query to run
+     * @param options options, such as select and expand, to apply to each request
+     * @param pageSize the number of results to load in each request
+     * @return an iterator over the results
+     */
+    public static <T extends StackMobModel> StackMobQueryIterator<T> stream(Class<T> theClass, StackMobQuery q, StackMobOptions options, int pageSize) {
+        return new StackMobQueryIterator<T>(theClass, getSchemaName(theClass), q, options, pageSize);
+    }
+
     /**
      * create a new instance of the specified model class from a json string. Useful if you've serialized a model class for some
      * reason and now want to deserialize it.
@@ -230,6 +355,104 @@ public abstract class StackMobModel {
         return newObject;
     }
 
+    /*
+     * Reads a json array of models one element at a time. Elements that can't be filled in are dropped
+     */
+    static <T extends StackMobModel> List<T> readModelList(Class<T> classOfT, JsonReader reader) throws IOException {
+        List<T> resultList = new ArrayList<T>();
+        StackMobIdentityMap identityMap = getIdentityMap();
+        reader.beginArray();
+        while(reader.hasNext()) {
+            if(identityMap != null) {
+                // The id has to be known before we can pick the instance to fill, so read the whole object first
+                JsonElement json = new JsonParser().parse(reader);
+                try {
+                    resultList.add(classOfT.cast(resolve(identityMap, classOfT, null, json)));
+                } catch(StackMobException ignore) { }
+                continue;
+            }
+            T newObject = newInstance(classOfT);
+            try {
+                newObject.fillFromJson(reader, null);
+                resultList.add(newObject);
+            } catch(StackMobException ignore) { }
+        }
+        reader.endArray();
+        return resultList;
+    }
+
+    static JsonReader newJsonReader(Reader in) {
+        JsonReader reader = new JsonReader(in);
+        // Match the leniency of JsonParser
+        reader.setLenient(true);
+        return reader;
+    }
+
+    private static StackMobIdentityMap getIdentityMap() {
+        StackMob stackmob = StackMob.getStackMob();
+        return stackmob == null ? null : stackmob.getIdentityMap();
+    }
+
+    /*
+     * Fills an incoming object into its canonical instance if the identity map has one, otherwise into the existing
+     * instance or a new one, which then becomes canonical
+     */
+    static StackMobModel resolve(StackMobIdentityMap identityMap, Class<? extends StackMobModel> modelClass, StackMobModel existing, JsonElement json) throws StackMobException {
+        ModelDescriptor descriptor = ModelDescriptor.forClass(modelClass);
+        String id = getIDFromJson(descriptor, json);
+        StackMobModel canonical = id == null ? null : identityMap.get(descriptor.getSchemaName(), id);
+        StackMobModel model = canonical != null ? canonical : existing != null ? existing : newInstance(modelClass);
+        model.fillIfChanged(json);
+        if(canonical == null && model.getID() != null) {
+            StackMobModel winner = identityMap.putIfAbsent(model);
+            if(winner != model) {
+                // Another thread got there first
+                winner.fillIfChanged(json);
+                model = winner;
+            }
+        }
+        return model;
+    }
+
+    private static String getIDFromJson(ModelDescriptor descriptor, JsonElement json) {
+        if(json.isJsonPrimitive()) return json.getAsString();
+        if(!json.isJsonObject()) return null;
+        JsonElement id = json.getAsJsonObject().get(descriptor.getIDFieldName());
+        return id != null && id.isJsonPrimitive() ? id.getAsString() : null;
+    }
+
+    /*
+     * Skips the fill when this object already has the same version of every field in the json. Expanded relations
+     * are always filled since their own contents may have changed
+     */
+    private void fillIfChanged(JsonElement json) throws StackMobException {
+        if(!json.isJsonObject()) {
+            fillFromJson(json);
+            return;
+        }
+        JsonObject object = json.getAsJsonObject();
+        JsonElement lastModDate = object.get("lastmoddate");
+        long version = lastModDate != null && lastModDate.isJsonPrimitive() ? lastModDate.getAsLong() : -1;
+        Set<String> keys = new HashSet<String>();
+        boolean expanded = false;
+        for(Map.Entry<String, JsonElement> field : object.entrySet()) {
+            keys.add(field.getKey());
+            if(field.getValue().isJsonObject() || (field.getValue().isJsonArray() && containsObject(field.getValue().getAsJsonArray()))) expanded = true;
+        }
+        if(hasData && version >= 0 && version == filledVersion && filledKeys != null && filledKeys.containsAll(keys) && !expanded) return;
+        fillFromJson(json);
+        if(version >= 0 && version == filledVersion && filledKeys != null) keys.addAll(filledKeys);
+        filledVersion = version;
+        filledKeys = keys;
+    }
+
+    private static boolean containsObject(JsonArray array) {
+        for(JsonElement element : array) {
+            if(element.isJsonObject()) return true;
+        }
+        return false;
+    }
+
     private static <T extends StackMobModel> T newInstance(Class<T> classOfT) {
         T newObject = new Gson().fromJson("{}", classOfT);
         newObject.init(classOfT);
@@ -249,13 +472,26 @@ public abstract class StackMobModel {
 
     }
 
+    /**
+     * save a large list of objects as several batches sent in parallel. The list is split into chunks of at most
+     * chunkSize objects, each saved in its own request with no more than maxInFlight requests out at once, so lists
+     * far too big for one request can be saved without holding all of their json in memory
+     * @param models the objects to save, all of the same class
+     * @param chunkSize the most objects to save in one request
+     * @param maxInFlight the most requests to have out at once
+     * @param callback told about progress and failed chunks as the save goes, and when it's complete
+     * @param <T> the type of the objects
+     */
+    public static <T extends StackMobModel> void saveMultiple(List<T> models, int chunkSize, int maxInFlight, StackMobBulkSaveCallback<T> callback) {
+        if(models.size() == 0) throw new IllegalArgumentException("Empty list");
+        if(chunkSize < 1) throw new IllegalArgumentException("chunkSize must be at least 1");
+        if(maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be at least 1");
+        new ChunkedSave<T>(StackMob.getStackMob().getDatastore(), models, chunkSize, callback).start(maxInFlight);
+    }
 
-    private static <T extends StackMobModel> String toJsonArray(List<T> models) {
-        JsonArray array = new JsonArray();
-        for(T model : models) {
-            array.add(model.toJsonElement(0, new Selection(null), new RelationMapping()));
-        }
-        return array.toString();
+
+    static <T extends StackMobModel> StackMobPayload toJsonArray(List<T> models) {
+        return toJsonPayload(models, StackMobOptions.depthOf(0), new RelationMapping(), true);
     }
 
 
@@ -283,14 +519,19 @@ public abstract class StackMobModel {
     private static Gson getGson() {
         GsonBuilder gsonBuilder = new GsonBuilder();
         gsonBuilder.registerTypeAdapter(Date.class, new DateAsNumberTypeAdapter());
+        gsonBuilder.disableHtmlEscaping();
         return gsonBuilder.create();
     }
 
     
     private transient String id;
     private transient Class<? extends StackMobModel> actualClass;
+    private transient ModelDescriptor descriptor;
     private transient String schemaName;
     private transient boolean hasData;
+    // The lastmoddate and json fields of the last fill through the identity map, so unchanged objects can be skipped
+    private transient long filledVersion;
+    private transient Set<String> filledKeys;
     private static final Gson gson = getGson();
 
     /**
@@ -313,9 +554,9 @@ public abstract class StackMobModel {
 
     private void init(Class<? extends StackMobModel> actualClass) {
         this.actualClass = actualClass;
-        schemaName = getSchemaName(actualClass);
+        descriptor = ModelDescriptor.forClass(actualClass);
+        schemaName = descriptor.getSchemaName();
         ensureValidName(schemaName, "model");
-        ensureMetadata(actualClass);
     }
 
     private void ensureValidFieldName(String name) {
@@ -332,11 +573,8 @@ public abstract class StackMobModel {
     }
 
     private SerializationMetadata getMetadata(String fieldName) {
-        return getSerializationMetadata(actualClass, fieldName);
-    }
-
-    private String getFieldName(String jsonName) {
-        return getFieldNameFromJsonName(actualClass, jsonName);
+        ModelField field = descriptor.getField(fieldName);
+        return field == null ? null : field.metadata;
     }
 
     /**
@@ -362,6 +600,7 @@ public abstract class StackMobModel {
      */
     void setActualClass(Class<? extends StackMobModel> actualClass) {
         this.actualClass = actualClass;
+        this.descriptor = ModelDescriptor.forClass(actualClass);
     }
 
     /**
@@ -390,7 +629,7 @@ public abstract class StackMobModel {
      * @return the id field name
      */
     public String getIDFieldName() {
-        return schemaName +"_id";
+        return descriptor.getIDFieldName();
     }
 
     /**
@@ -405,6 +644,12 @@ public abstract class StackMobModel {
 
     private void fillModel(Field field, JsonElement json) throws StackMobException, IllegalAccessException { // Delegate any expanded relations to the appropriate object
         StackMobModel relatedModel = (StackMobModel) field.get(this);
+        StackMobIdentityMap identityMap = getIdentityMap();
+        if(identityMap != null) {
+            boolean sameID = relatedModel != null && relatedModel.hasSameID(json);
+            field.set(this, resolve(identityMap, (Class<? extends StackMobModel>) field.getType(), sameID ? relatedModel : null, json));
+            return;
+        }
         // If there's a model with the same id, keep it. Otherwise create a new one
         if(relatedModel == null || !relatedModel.hasSameID(json)) {
             relatedModel = newInstance((Class<? extends StackMobModel>) field.getType());
@@ -413,8 +658,9 @@ public abstract class StackMobModel {
         field.set(this, relatedModel);
     }
 
-    private void fillModelArray(Field field, JsonElement json) throws InstantiationException, IllegalAccessException, StackMobException {
-        Class<? extends StackMobModel> actualModelClass = (Class<? extends StackMobModel>) SerializationMetadata.getComponentClass(field);
+    private void fillModelArray(ModelField modelField, JsonElement json) throws InstantiationException, IllegalAccessException, StackMobException {
+        Field field = modelField.field;
+        Class<? extends StackMobModel> actualModelClass = (Class<? extends StackMobModel>) modelField.componentClass;
         Collection<StackMobModel> existingModels = getFieldAsCollection(field);
         List<StackMobModel> newModels = updateModelListFromJson(json.getAsJsonArray(), existingModels, actualModelClass);
         setFieldFromList(field, newModels, actualModelClass);
@@ -439,16 +685,16 @@ public abstract class StackMobModel {
                 setID(json.getAsJsonPrimitive().getAsString());
             } else {
                 // undo the toLowerCase we do when sending out the json
-                String fieldName = getFieldName(jsonName);
-                if(fieldName != null) {
-                    Field field = getField(fieldName);
-                    if(getMetadata(fieldName) == MODEL) {
+                ModelField modelField = descriptor.getFieldForJsonName(jsonName);
+                if(modelField != null) {
+                    Field field = modelField.field;
+                    if(modelField.metadata == MODEL) {
                         fillModel(field, json);
-                    } else if(getMetadata(fieldName) == MODEL_ARRAY) {
-                        fillModelArray(field, json);
-                    } else if(getMetadata(fieldName) == COUNTER) {
+                    } else if(modelField.metadata == MODEL_ARRAY) {
+                        fillModelArray(modelField, json);
+                    } else if(modelField.metadata == COUNTER) {
                         fillCounter(field, json);
-                    } else if(getMetadata(fieldName) == BINARY) {
+                    } else if(modelField.metadata == BINARY) {
                         StackMobFile file = (StackMobFile) field.get(this);
                         String url = json.getAsJsonPrimitive().getAsString();
                         if(file == null) {
@@ -459,12 +705,10 @@ public abstract class StackMobModel {
                         }
                     } else {
                         // Let gson do its thing
-                        field.set(this, gson.fromJson(json, field.getType()));
+                        field.set(this, gson.fromJson(json, modelField.type));
                     }
                 }
             }
-        } catch(NoSuchFieldException e) {
-            StackMob.getStackMob().getSession().getLogger().logDebug(String.format("Ignoring extraneous json field:\nfield: %s\ndata: %s", jsonName, json.toString()));
         } catch(JsonSyntaxException e) {
             StackMob.getStackMob().getSession().getLogger().logWarning(String.format("Incoming data does not match data model:\nfield: %s\ndata: %s", jsonName, json.toString()));
         } catch(IllegalAccessException e) {
@@ -526,8 +770,13 @@ public abstract class StackMobModel {
     
     static List<StackMobModel> updateModelListFromJson(JsonArray array, Collection<? extends StackMobModel> existingModels, Class<? extends StackMobModel> modelClass) throws IllegalAccessException, InstantiationException, StackMobException {
         List<StackMobModel> result = new ArrayList<StackMobModel>();
+        StackMobIdentityMap identityMap = getIdentityMap();
         for(JsonElement json : array) {
             StackMobModel model = getExistingModel(existingModels, json);
+            if(identityMap != null) {
+                result.add(resolve(identityMap, modelClass, model, json));
+                continue;
+            }
             if(model == null) model = newInstance(modelClass);
             model.fillFromJson(json);
             result.add(model);
@@ -561,16 +810,9 @@ public abstract class StackMobModel {
     }
     
     private Field getField(String fieldName) throws NoSuchFieldException {
-        Class<?> classToCheck = actualClass;
-        while(!classToCheck.equals(StackMobModel.class)) {
-            try {
-                Field field = classToCheck.getDeclaredField(fieldName);
-                field.setAccessible(true);
-                return field;
-            } catch (NoSuchFieldException ignored) { }
-            classToCheck = classToCheck.getSuperclass();
-        }
-        throw new NoSuchFieldException(fieldName);
+        ModelField field = descriptor.getField(fieldName);
+        if(field == null) throw new NoSuchFieldException(fieldName);
+        return field.field;
     }
 
     /**
@@ -580,7 +822,11 @@ public abstract class StackMobModel {
      * @throws StackMobException
      */
     public void fillFromJson(String jsonString) throws StackMobException {
-        fillFromJson(new JsonParser().parse(jsonString));
+        try {
+            fillFromJson(newJsonReader(new StringReader(jsonString)), null);
+        } catch(IOException e) {
+            throw new StackMobException(e.getMessage());
+        }
     }
 
     void fillFromJson(JsonElement json) throws StackMobException {
@@ -601,6 +847,135 @@ public abstract class StackMobModel {
         }
     }
 
+    /*
+     * The streaming equivalent of fillFromJson(JsonElement, List). Simple fields are read straight from the reader;
+     * expanded relations are read into a tree first since we need their ids to match them with existing objects.
+     * The whole value is always consumed, so on failure the reader is still positioned at the next value.
+     */
+    void fillFromJson(JsonReader reader, List<String> selection) throws IOException, StackMobException {
+        JsonToken token = reader.peek();
+        if(token == JsonToken.STRING || token == JsonToken.NUMBER) {
+            //This ought to be an unexpanded relation then
+            setID(reader.nextString());
+        } else if(token == JsonToken.BEGIN_OBJECT) {
+            StackMobException failure = null;
+            reader.beginObject();
+            while(reader.hasNext()) {
+                String jsonName = reader.nextName();
+                if(selection == null || selection.contains(jsonName) || getMetadata(jsonName) == BINARY) {
+                    try {
+                        fillFieldFromJson(jsonName, reader);
+                    } catch(StackMobException e) {
+                        if(failure == null) failure = e;
+                    }
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if(failure != null) throw failure;
+            hasData = true;
+        } else {
+            reader.skipValue();
+        }
+    }
+
+    private void fillFieldFromJson(String jsonName, JsonReader reader) throws IOException, StackMobException {
+        if(reader.peek() == JsonToken.NULL) {
+            // Nulls never carry anything we'd keep. Primitive fields couldn't hold them anyway
+            reader.nextNull();
+            if(jsonName.equals(getIDFieldName())) return;
+            ModelField modelField = descriptor.getFieldForJsonName(jsonName);
+            if(modelField == null) return;
+            try {
+                if(!modelField.type.isPrimitive()) modelField.field.set(this, null);
+            } catch(IllegalAccessException e) {
+                throw new StackMobException(e.getMessage());
+            }
+            return;
+        }
+        if(jsonName.equals(getIDFieldName())) {
+            // The id field is special, its name doesn't match the field
+            setID(reader.nextString());
+            return;
+        }
+        // undo the toLowerCase we do when sending out the json
+        ModelField modelField = descriptor.getFieldForJsonName(jsonName);
+        if(modelField == null) {
+            reader.skipValue();
+            return;
+        }
+        SerializationMetadata metadata = modelField.metadata;
+        if(metadata == MODEL || metadata == MODEL_ARRAY) {
+            fillFieldFromJson(jsonName, new JsonParser().parse(reader));
+            return;
+        }
+        Field field = modelField.field;
+        try {
+            if(metadata == COUNTER) {
+                StackMobCounter counter = (StackMobCounter) field.get(this);
+                int newValue = reader.nextInt();
+                if(counter == null) {
+                    counter = new StackMobCounter();
+                    field.set(this, counter);
+                }
+                counter.set(newValue);
+            } else if(metadata == BINARY) {
+                StackMobFile file = (StackMobFile) field.get(this);
+                String url = reader.nextString();
+                if(file == null) {
+                    field.set(this, new StackMobFile(url));
+                } else {
+                    file.setS3Url(url);
+                }
+            } else if(modelField.scalarToken != null && reader.peek() == modelField.scalarToken) {
+                field.set(this, readScalar(reader, modelField.type));
+            } else {
+                // Let gson do its thing. The value is always read off the reader before gson sees it, so a
+                // mismatch can't leave the reader halfway through a value
+                Object value = gson.fromJson(readValue(reader, metadata), modelField.type);
+                if(value != null || !modelField.type.isPrimitive()) field.set(this, value);
+            }
+        } catch(JsonSyntaxException e) {
+            StackMob.getStackMob().getSession().getLogger().logWarning(String.format("Incoming data does not match data model:\nfield: %s", jsonName));
+        } catch(NumberFormatException e) {
+            // The value wasn't consumed, skip it so the reader stays in step
+            reader.skipValue();
+            StackMob.getStackMob().getSession().getLogger().logWarning(String.format("Incoming data does not match data model:\nfield: %s", jsonName));
+        } catch(IllegalStateException e) {
+            reader.skipValue();
+            StackMob.getStackMob().getSession().getLogger().logWarning(String.format("Incoming data does not match data model:\nfield: %s", jsonName));
+        } catch(IllegalAccessException e) {
+            throw new StackMobException(e.getMessage());
+        }
+    }
+
+    /*
+     * Reads one of the common scalar types straight off the reader without going through gson
+     */
+    private static Object readScalar(JsonReader reader, Class<?> type) throws IOException {
+        if(type == String.class) return reader.nextString();
+        if(type == int.class || type == Integer.class) return reader.nextInt();
+        if(type == long.class || type == Long.class) return reader.nextLong();
+        if(type == double.class || type == Double.class) return reader.nextDouble();
+        return reader.nextBoolean();
+    }
+
+    /*
+     * Scalars become a single JsonPrimitive; anything structured is parsed into a tree
+     */
+    private static JsonElement readValue(JsonReader reader, SerializationMetadata metadata) throws IOException {
+        if(metadata == PRIMITIVE) {
+            switch(reader.peek()) {
+                case BOOLEAN: return new JsonPrimitive(reader.nextBoolean());
+                case STRING:
+                case NUMBER: return new JsonPrimitive(reader.nextString());
+                default: break;
+            }
+        }
+        return new JsonParser().parse(reader);
+    }
+
     /**
      * Checks if the current object has the same id as this json
      * @param json
@@ -623,108 +998,150 @@ public abstract class StackMobModel {
         }
     }
     
-    private List<String> getFieldNames(JsonObject json) {
-        List<String> list = new ArrayList<String>();
-        for(Map.Entry<String,JsonElement> entry : json.entrySet()) {
-            list.add(entry.getKey());
+    /*
+     * Writes the model in a single pass. Fields come out in the order gson would write them under their lowercased
+     * names, relations are expanded to the given depth and recorded in the mapping, counters are sent as increments
+     * or sets, and binary fields are only sent when there's new data to upload.
+     */
+    void writeJson(JsonWriter out, int depth, Selection selection, RelationMapping mapping) throws IOException {
+        // Set the id here as opposed to on the server to avoid a race condition
+        if(getID() == null) setID(UUID.randomUUID().toString().replace("-",""));
+        if(depth < 0) {
+            out.value(getID());
+            return;
         }
-        return list;
+        out.beginObject();
+        for(ModelField field : descriptor.getSerializedFields()) {
+            if(!selection.isSelected(field.name)) continue;
+            Object value;
+            try {
+                value = field.field.get(this);
+            } catch(IllegalAccessException ignore) { continue; } //Should never happen
+            if(value == null) continue;
+            ensureValidFieldName(field.name);
+            switch(field.metadata) {
+                case MODEL: writeModel(out, field, (StackMobModel) value, selection, mapping, depth); break;
+                case MODEL_ARRAY: writeModelArray(out, field, value, selection, mapping, depth); break;
+                case COUNTER: writeCounter(out, field, (StackMobCounter) value); break;
+                case BINARY: {
+                    //don't post the url
+                    String binary = ((StackMobFile) value).getBinaryString();
+                    if(binary != null) out.name(field.jsonName).value(binary);
+                    break;
+                }
+                case OBJECT: {
+                    //We don't support subobjects. Gson automatically converts a few types like
+                    //Date and BigInteger to primitive types, but anything else has to be an error.
+                    JsonElement json = gson.toJsonTree(value, getSerializedType(field, value));
+                    if(json.isJsonObject()) {
+                        throw new IllegalStateException("Field " + field.name + " is a subobject which is not supported at this time");
+                    }
+                    out.name(field.jsonName);
+                    gson.toJson(json, out);
+                    break;
+                }
+                default: {
+                    out.name(field.jsonName);
+                    getAdapter(field, value).write(out, value);
+                }
+            }
+        }
+        out.name(getIDFieldName()).value(getID());
+        out.endObject();
     }
 
-    private void replaceModelJson(JsonObject json, String fieldName, Selection selection, RelationMapping mapping, int depth) {
-        json.remove(fieldName);
-        try {
-            Field relationField = getField(fieldName);
-            StackMobModel relatedModel = (StackMobModel) relationField.get(this);
-            mapping.add(fieldName,relatedModel.getSchemaName());
-            JsonElement relatedJson = relatedModel.toJsonElement(depth - 1, selection.subSelection(fieldName), mapping);
-            mapping.leave();
-            if(relatedJson != null) json.add(fieldName, relatedJson);
-        } catch (Exception ignore) { } //Should never happen
+    private void writeModel(JsonWriter out, ModelField field, StackMobModel relatedModel, Selection selection, RelationMapping mapping, int depth) throws IOException {
+        mapping.add(field.name, relatedModel.getSchemaName());
+        out.name(field.jsonName);
+        relatedModel.writeJson(out, depth - 1, selection.subSelection(field.name), mapping);
+        mapping.leave();
     }
 
-    private void replaceModelArrayJson(JsonObject json, String fieldName, Selection selection, RelationMapping mapping, int depth) {
-        json.remove(fieldName);
-        try {
-            Field relationField = getField(fieldName);
-            JsonArray array = new JsonArray();
-            Collection<StackMobModel> relatedModels;
-            if(relationField.getType().isArray()) {
-                relatedModels = Arrays.asList((StackMobModel[])relationField.get(this));
-            } else {
-                relatedModels = (Collection<StackMobModel>) relationField.get(this);
-            }
-            boolean first = true;
-            for(StackMobModel relatedModel : relatedModels) {
-                if(first) {
-                    mapping.add(fieldName,relatedModel.getSchemaName());
-                    first = false;
-                }
-                JsonElement relatedJson = relatedModel.toJsonElement(depth - 1, selection.subSelection(fieldName), mapping);
-                if(relatedJson != null) array.add(relatedJson);
+    private void writeModelArray(JsonWriter out, ModelField field, Object value, Selection selection, RelationMapping mapping, int depth) throws IOException {
+        Collection<StackMobModel> relatedModels;
+        if(field.type.isArray()) {
+            relatedModels = Arrays.asList((StackMobModel[]) value);
+        } else {
+            relatedModels = (Collection<StackMobModel>) value;
+        }
+        Selection subSelection = selection.subSelection(field.name);
+        out.name(field.jsonName);
+        out.beginArray();
+        boolean first = true;
+        for(StackMobModel relatedModel : relatedModels) {
+            if(relatedModel == null) continue;
+            if(first) {
+                mapping.add(field.name, relatedModel.getSchemaName());
+                first = false;
             }
-            if(!first) mapping.leave();
-            json.add(fieldName, array);
-        } catch (Exception ignore) { } //Should never happen
+            relatedModel.writeJson(out, depth - 1, subSelection, mapping);
+        }
+        if(!first) mapping.leave();
+        out.endArray();
     }
 
-    private JsonElement toJsonElement(int depth, Selection selection, RelationMapping mapping) {
-        // Set the id here as opposed to on the server to avoid a race condition
-        if(getID() == null) setID(UUID.randomUUID().toString().replace("-",""));
-        if(depth < 0) return new JsonPrimitive(getID());
-        JsonObject json = gson.toJsonTree(this).getAsJsonObject();
-        JsonObject outgoing = new JsonObject();
-        for(String fieldName : getFieldNames(json)) {
-            if(!selection.isSelected(fieldName)) continue;
-            String newFieldName = fieldName;
-            ensureValidFieldName(fieldName);
-            JsonElement value = json.get(fieldName);
-            if(getMetadata(fieldName) == MODEL) {
-                replaceModelJson(json, fieldName, selection, mapping, depth);
-            } else if(getMetadata(fieldName) == MODEL_ARRAY) {
-                replaceModelArrayJson(json, fieldName, selection, mapping, depth);
-            } else if(getMetadata(fieldName) == OBJECT) {
-                //We don't support subobjects. Gson automatically converts a few types like
-                //Date and BigInteger to primitive types, but anything else has to be an error.
-                if(value.isJsonObject()) {
-                    throw new IllegalStateException("Field " + fieldName + " is a subobject which is not supported at this time");
-                }
-            } else if(getMetadata(fieldName) == COUNTER) {
-                json.remove(fieldName);
-                try {
-                    StackMobCounter counter = (StackMobCounter) getField(fieldName).get(this);
-                    switch(counter.getMode()) {
-                        case INCREMENT: {
-                            newFieldName += "[inc]";
-                            json.add(fieldName, new JsonPrimitive(counter.getIncrement()));
-                            break;
-                        }
-                        case SET: json.add(fieldName, new JsonPrimitive(counter.get())); break;
-                    }
-                    counter.reset();
+    private static void writeCounter(JsonWriter out, ModelField field, StackMobCounter counter) throws IOException {
+        switch(counter.getMode()) {
+            case INCREMENT: out.name(field.jsonName + "[inc]").value(counter.getIncrement()); break;
+            case SET: out.name(field.jsonName).value(counter.get()); break;
+        }
+        counter.reset();
+    }
 
-                } catch (Exception ignore) { } //Should never happen
-            } else if(getMetadata(fieldName) == BINARY) {
-                json.remove(fieldName);
-                try {
-                    StackMobFile file = (StackMobFile) getField(fieldName).get(this);
-                    if(file.getBinaryString() != null) {
-                        json.add(fieldName, new JsonPrimitive(file.getBinaryString()));
-                    } else {
-                        //don't post the url
-                        newFieldName = null;
-                    }
+    /*
+     * Mirrors gson's choice between the declared and runtime type: the runtime type only matters when the field is
+     * declared as something gson can't serialize on its own, like an interface or abstract class
+     */
+    private static Type getSerializedType(ModelField field, Object value) {
+        Class<?> type = field.type;
+        if(value.getClass() != type && !type.isPrimitive() && (type.isInterface() || Modifier.isAbstract(type.getModifiers()))
+                && !Collection.class.isAssignableFrom(type) && !Map.class.isAssignableFrom(type)) {
+            return value.getClass();
+        }
+        return field.genericType;
+    }
 
-                } catch(Exception e) {
-                    StackMob.getStackMob().getSession().getLogger().logWarning("Got exception while serializing binary file " + e);
-                } //Should never happen
-            }
-            if(newFieldName != null) outgoing.add(newFieldName.toLowerCase(), json.get(fieldName));
+    private static TypeAdapter<Object> getAdapter(ModelField field, Object value) {
+        Type type = getSerializedType(field, value);
+        if(type != field.genericType) return (TypeAdapter<Object>) gson.getAdapter(TypeToken.get(type));
+        TypeAdapter<Object> adapter = field.adapter;
+        if(adapter == null) {
+            adapter = (TypeAdapter<Object>) gson.getAdapter(TypeToken.get(type));
+            field.adapter = adapter;
         }
-        if(id != null) {
-            outgoing.addProperty(getIDFieldName(),id);
+        return adapter;
+    }
+
+    private static JsonWriter newJsonWriter(Writer writer) {
+        JsonWriter out = new JsonWriter(writer);
+        // Match what the old tree-based serialization produced
+        out.setSerializeNulls(false);
+        return out;
+    }
+
+    /*
+     * Serializes straight to utf-8 bytes, ready to be sent as a request body
+     */
+    private static <T extends StackMobModel> StackMobPayload toJsonPayload(List<T> models, StackMobOptions options, RelationMapping mapping, boolean asArray) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            Writer writer = new OutputStreamWriter(bytes, "UTF-8");
+            JsonWriter out = newJsonWriter(writer);
+            if(asArray) out.beginArray();
+            for(T model : models) {
+                model.writeJson(out, options.getExpandDepth(), new Selection(options.getSelection()), mapping);
+            }
+            if(asArray) out.endArray();
+            out.flush();
+        } catch(IOException e) {
+            throw new IllegalStateException(e); //Should never happen
         }
-        return outgoing;
+        return new StackMobPayload() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                bytes.writeTo(out);
+            }
+        };
     }
 
     /**
@@ -745,7 +1162,13 @@ public abstract class StackMobModel {
     }
 
     String toJson(StackMobOptions options, RelationMapping mapping) {
-        return toJsonElement(options.getExpandDepth(), new Selection(options.getSelection()), mapping).toString();
+        StringWriter writer = new StringWriter();
+        try {
+            writeJson(newJsonWriter(writer), options.getExpandDepth(), new Selection(options.getSelection()), mapping);
+        } catch(IOException e) {
+            throw new IllegalStateException(e); //Should never happen
+        }
+        return writer.toString();
     }
 
     /**
@@ -771,6 +1194,8 @@ public abstract class StackMobModel {
                 try {
                     StackMobModel.this.fillFromJson(new JsonParser().parse(responseBody));
                     fillSucceeded = true;
+                    StackMobIdentityMap identityMap = getIdentityMap();
+                    if(identityMap != null && id != null) identityMap.putIfAbsent(StackMobModel.this);
                 } catch (StackMobException e) {
                     failure(e);
                 }
@@ -808,8 +1233,14 @@ public abstract class StackMobModel {
      * @param callback invoked when the save is complete
      */
     public void save(StackMobOptions options, StackMobCallback callback) {
+        StackMob stackmob = StackMob.getStackMob();
+        StackMobSaveBatcher saveBatcher = stackmob == null ? null : stackmob.getSaveBatcher();
+        if(saveBatcher != null && StackMobSaveBatcher.accepts(options)) {
+            saveBatcher.add(this, callback);
+            return;
+        }
         RelationMapping mapping = new RelationMapping();
-        String json = toJson(options, mapping);
+        StackMobPayload json = toJsonPayload(Collections.singletonList(this), options, mapping, false);
         List<Map.Entry<String,String>> headers= new ArrayList<Map.Entry<String,String>>();
         headers.add(new Pair<String,String>("X-StackMob-Relations", mapping.toHeaderString()));
         StackMob.getStackMob().getDatastore().post(getSchemaName(), json, options.withHeaders(headers), new StackMobIntermediaryCallback(callback) {
@@ -839,6 +1270,8 @@ public abstract class StackMobModel {
      * @param callback invoked when the delete is complete
      */
     public void destroy(StackMobCallback callback) {
+        StackMobIdentityMap identityMap = getIdentityMap();
+        if(identityMap != null) identityMap.remove(this);
         StackMob.getStackMob().getDatastore().delete(getSchemaName(), id, callback);
     }
 
@@ -0,0 +1,197 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.model;
+
+import com.stackmob.sdk.api.StackMob;
+import com.stackmob.sdk.api.StackMobOptions;
+import com.stackmob.sdk.api.StackMobQuery;
+import com.stackmob.sdk.api.StackMobRequestHandle;
+import com.stackmob.sdk.callback.StackMobCallback;
+import com.stackmob.sdk.callback.StackMobRawCallback;
+import com.stackmob.sdk.exception.StackMobException;
+import com.stackmob.sdk.net.HttpVerb;
+import com.stackmob.sdk.util.Http;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Walks through every result of a query a page at a time. Each page is a separate request for the next range of
+ * results, and the page after the one being read is requested as soon as reading starts, so there's usually no wait
+ * between pages. At most two pages are held at once however many results there are.
+ * <p>
+ * Get one from {@link StackMobModel#stream(Class, StackMobQuery)}. {@link #hasNext()} and {@link #next()} block while
+ * a page loads, so don't use it from a callback. If a page fails to load they throw an IllegalStateException with the
+ * {@link StackMobException} as its cause. Call {@link #close()} if you stop early so no more pages are requested.
+ * <pre>
+ * {@code
+ * StackMobQueryIterator<Task> tasks = Task.stream(Task.class, new StackMobQuery().fieldIsEqualTo("done", false));
+ * while(tasks.hasNext()) {
+ *     process(tasks.next());
+ * }
+ * }
+ * </pre>
+ * If the query has a range, only results in that range are returned. Results are read by position, so objects
+ * created or deleted while the iterator is being read can shift results between pages; add an ordering to the query
+ * to keep pages consistent.
+ * @param <T> the type of the models
+ */
+public class StackMobQueryIterator<T extends StackMobModel> implements Iterator<T> {
+
+    private static final String RangeHeader = "Range";
+
+    private final Class<T> modelClass;
+    private final String schemaName;
+    private final StackMobQuery query;
+    private final StackMobOptions options;
+    private final int pageSize;
+    private final Integer end;
+
+    private Page<T> nextPage;
+    private Iterator<T> currentPage;
+    private boolean closed;
+
+    StackMobQueryIterator(Class<T> modelClass, String schemaName, StackMobQuery query, StackMobOptions options, int pageSize) {
+        if(pageSize < 1) throw new IllegalArgumentException("pageSize must be at least 1");
+        this.modelClass = modelClass;
+        this.schemaName = schemaName;
+        this.options = options;
+        this.pageSize = pageSize;
+        // The query's own range, if it has one, bounds the results
+        int start = 0;
+        Integer end = null;
+        String range = query.getHeaders().get(RangeHeader);
+        if(range != null && range.startsWith("objects=")) {
+            String[] bounds = range.substring("objects=".length()).split("-", -1);
+            start = Integer.parseInt(bounds[0].trim());
+            if(bounds.length > 1 && bounds[1].trim().length() > 0) end = Integer.parseInt(bounds[1].trim());
+        }
+        this.end = end;
+        this.query = new StackMobQuery(schemaName).add(query);
+        this.query.getHeaders().remove(RangeHeader);
+        if(end == null || start <= end) nextPage = fetch(start);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while(currentPage == null || !currentPage.hasNext()) {
+            if(closed || nextPage == null) return false;
+            Page<T> page = nextPage;
+            nextPage = null;
+            List<T> results = page.await();
+            // Fetch the following page while this one is read
+            if(!page.last) nextPage = fetch(page.start + page.count);
+            currentPage = results.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if(!hasNext()) throw new NoSuchElementException();
+        return currentPage.next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Use destroy to delete an object");
+    }
+
+    /**
+     * stop iterating and don't request any more pages. A page that's already loading is cancelled
+     */
+    public void close() {
+        closed = true;
+        if(nextPage != null) nextPage.request.cancel();
+        nextPage = null;
+        currentPage = null;
+    }
+
+    private Page<T> fetch(int start) {
+        int count = end == null ? pageSize : Math.min(pageSize, end - start + 1);
+        final Page<T> page = new Page<T>(start, count);
+        StackMobQuery pageQuery = new StackMobQuery(schemaName).add(query).isInRange(start, start + count - 1);
+        page.request = StackMob.getStackMob().getDatastore().get(pageQuery, options.copy(), new StackMobCallback() {
+            @Override
+            public void done(HttpVerb requestVerb, String requestURL, List<Map.Entry<String, String>> requestHeaders, String requestBody,
+                             Integer responseStatusCode, List<Map.Entry<String, String>> responseHeaders, byte[] responseBody) {
+                if(!Http.isSuccess(responseStatusCode)) {
+                    super.done(requestVerb, requestURL, requestHeaders, requestBody, responseStatusCode, responseHeaders, responseBody);
+                    return;
+                }
+                List<T> results;
+                try {
+                    results = StackMobModel.readModelList(modelClass, StackMobModel.newJsonReader(new InputStreamReader(new ByteArrayInputStream(responseBody), "UTF-8")));
+                } catch(Exception e) {
+                    failure(new StackMobException(e.getMessage()));
+                    return;
+                }
+                int total = StackMobRawCallback.getTotalNumberOfItemsFromContentRange(responseHeaders);
+                boolean last = results.size() < page.count || (total >= 0 && page.start + page.count >= total) || (end != null && page.start + page.count > end);
+                page.succeed(results, last);
+            }
+
+            @Override
+            public void success(String responseBody) { }
+
+            @Override
+            public void failure(StackMobException e) {
+                page.fail(e);
+            }
+        });
+        return page;
+    }
+
+    private static class Page<T> {
+        final int start;
+        final int count;
+        StackMobRequestHandle request;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private List<T> results;
+        private boolean last;
+        private StackMobException failure;
+
+        Page(int start, int count) {
+            this.start = start;
+            this.count = count;
+        }
+
+        void succeed(List<T> results, boolean last) {
+            this.results = results;
+            this.last = last;
+            latch.countDown();
+        }
+
+        void fail(StackMobException e) {
+            this.failure = e;
+            latch.countDown();
+        }
+
+        List<T> await() {
+            try {
+                latch.await();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for a page of results", e);
+            }
+            if(failure != null) throw new IllegalStateException(failure.getMessage(), failure);
+            return results;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.model;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.stackmob.sdk.api.StackMob;
+import com.stackmob.sdk.api.StackMobOptions;
+import com.stackmob.sdk.callback.StackMobCallback;
+import com.stackmob.sdk.exception.StackMobException;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends saves of the same schema together in one bulk POST. With a batcher set on
+ * {@link com.stackmob.sdk.api.StackMob#setSaveBatcher(StackMobSaveBatcher)}, {@link StackMobModel#save(StackMobCallback)}
+ * holds on to the object for a short window, and every object of the same schema saved in that window goes to the
+ * server in the same request. A batch is sent early once it reaches the size limit. When the response comes back each
+ * object gets its lastmoddate and createddate filled in and its own callback called, just like an ordinary save.
+ * <p>
+ * Only saves without options are batched. Saves to a depth, with headers or over https are sent on their own. Saving
+ * an object that's already waiting to be sent doesn't add it to the batch twice; it's sent once, as it is when the
+ * batch goes out, and both callbacks are called.
+ * <pre>
+ * {@code
+ * StackMob.getStackMob().setSaveBatcher(new StackMobSaveBatcher().setWindowMillis(50).setMaxBatchSize(100));
+ * }
+ * </pre>
+ */
+public class StackMobSaveBatcher {
+
+    private static final long DEFAULT_WINDOW_MILLIS = 50;
+    private static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    static final List<String> FilledFields = Arrays.asList("lastmoddate", "createddate");
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "StackMob-save-batcher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    // The timer is shared by every batcher, so it hands batches off to here. Sending can block on a full request
+    // pool, and that mustn't hold up other batches' windows
+    private static final ExecutorService sender = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "StackMob-save-batcher-send");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private volatile long windowMillis = DEFAULT_WINDOW_MILLIS;
+    private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private final Map<String, Map<StackMobModel, PendingSave>> pending = new HashMap<String, Map<StackMobModel, PendingSave>>();
+
+    private final AtomicLong saves = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    /**
+     * set how long a save waits for others to join its batch
+     * @param windowMillis the window in milliseconds
+     * @return this batcher
+     */
+    public StackMobSaveBatcher setWindowMillis(long windowMillis) {
+        if(windowMillis < 0) throw new IllegalArgumentException("windowMillis can't be negative");
+        this.windowMillis = windowMillis;
+        return this;
+    }
+
+    /**
+     * get how long a save waits for others to join its batch
+     * @return the window in milliseconds
+     */
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * set the most objects sent in one request. A batch that reaches this size is sent right away
+     * @param maxBatchSize the batch size limit
+     * @return this batcher
+     */
+    public StackMobSaveBatcher setMaxBatchSize(int maxBatchSize) {
+        if(maxBatchSize < 1) throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * get the most objects sent in one request
+     * @return the batch size limit
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * send every waiting save now
+     */
+    public void flush() {
+        List<String> schemas;
+        synchronized(this) {
+            schemas = new ArrayList<String>(pending.keySet());
+        }
+        for(String schema : schemas) {
+            flush(schema, null);
+        }
+    }
+
+    /**
+     * the number of saves that went through this batcher
+     * @return the save count
+     */
+    public long getSaves() {
+        return saves.get();
+    }
+
+    /**
+     * the number of requests this batcher has sent
+     * @return the batch count
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * the number of objects waiting to be sent
+     * @return the pending count
+     */
+    public synchronized int getPending() {
+        int count = 0;
+        for(Map<StackMobModel, PendingSave> waiting : pending.values()) {
+            count += waiting.size();
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StackMobSaveBatcher(saves=%d, batches=%d, pending=%d)", getSaves(), getBatches(), getPending());
+    }
+
+    /*
+     * Whether a save made with these options can be sent as part of a batch
+     */
+    static boolean accepts(StackMobOptions options) {
+        return options.getHeaders().isEmpty() && options.getExpandDepth() == 0 && !options.isHTTPS();
+    }
+
+    void add(StackMobModel model, StackMobCallback callback) {
+        final String schema = model.getSchemaName();
+        boolean full;
+        synchronized(this) {
+            Map<StackMobModel, PendingSave> waiting = pending.get(schema);
+            if(waiting == null) {
+                // Keyed by identity, in case a model class overrides equals
+                waiting = new IdentityHashMap<StackMobModel, PendingSave>();
+                pending.put(schema, waiting);
+                final Map<StackMobModel, PendingSave> batch = waiting;
+                timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        sender.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                flush(schema, batch);
+                            }
+                        });
+                    }
+                }, windowMillis, TimeUnit.MILLISECONDS);
+            }
+            PendingSave save = waiting.get(model);
+            if(save == null) {
+                save = new PendingSave(model);
+                waiting.put(model, save);
+            }
+            save.callbacks.add(callback);
+            full = waiting.size() >= maxBatchSize;
+        }
+        saves.incrementAndGet();
+        if(full) flush(schema, null);
+    }
+
+    /*
+     * Sends the batch waiting for a schema. The timer passes the batch it was started for, so a timer whose batch
+     * already went out because it filled up doesn't cut the next batch's window short
+     */
+    private void flush(String schema, Map<StackMobModel, PendingSave> expected) {
+        Map<StackMobModel, PendingSave> waiting;
+        synchronized(this) {
+            if(expected != null && pending.get(schema) != expected) return;
+            waiting = pending.remove(schema);
+        }
+        if(waiting == null || waiting.isEmpty()) return;
+        final List<PendingSave> batch = new ArrayList<PendingSave>(waiting.values());
+        List<StackMobModel> models = new ArrayList<StackMobModel>(batch.size());
+        for(PendingSave save : batch) {
+            models.add(save.model);
+        }
+        batches.incrementAndGet();
+        StackMob.getStackMob().getDatastore().post(schema, StackMobModel.toJsonArray(models), new StackMobCallback() {
+            @Override
+            public void success(String responseBody) {
+                complete(batch, responseBody);
+            }
+
+            @Override
+            public void failure(StackMobException e) {
+                for(PendingSave save : batch) {
+                    save.failure(e);
+                }
+            }
+        });
+    }
+
+    /*
+     * Hands each object in the batch its part of the response
+     */
+    private static void complete(List<PendingSave> batch, String responseBody) {
+        List<StackMobModel> models = new ArrayList<StackMobModel>(batch.size());
+        for(PendingSave save : batch) {
+            models.add(save.model);
+        }
+        Map<StackMobModel, JsonElement> saved;
+        try {
+            saved = matchResponse(models, responseBody);
+        } catch(StackMobException e) {
+            for(PendingSave save : batch) {
+                save.failure(e);
+            }
+            return;
+        }
+        for(PendingSave save : batch) {
+            if(!saved.containsKey(save.model)) {
+                save.failure(new StackMobException(String.format("%s %s wasn't saved", save.model.getSchemaName(), save.model.getID())));
+                continue;
+            }
+            JsonElement savedObject = saved.get(save.model);
+            if(savedObject == null) {
+                save.success(responseBody);
+                continue;
+            }
+            try {
+                save.model.fillFromJson(savedObject, FilledFields);
+            } catch(StackMobException e) {
+                save.failure(e);
+                continue;
+            }
+            save.success(savedObject.toString());
+        }
+    }
+
+    /*
+     * Works out which objects a bulk POST saved. The server either echoes the saved objects back as an array, or lists
+     * the ids that succeeded. Every saved model is in the result, mapped to its echoed object or to null if it was
+     * only listed; the ones that are missing weren't saved
+     */
+    static Map<StackMobModel, JsonElement> matchResponse(List<? extends StackMobModel> models, String responseBody) throws StackMobException {
+        Map<String, JsonElement> savedObjects = new HashMap<String, JsonElement>();
+        Set<String> succeeded = new HashSet<String>();
+        try {
+            JsonElement json = new JsonParser().parse(responseBody);
+            String idField = models.get(0).getIDFieldName();
+            if(json.isJsonArray()) {
+                for(JsonElement object : json.getAsJsonArray()) {
+                    JsonElement id = object.isJsonObject() ? object.getAsJsonObject().get(idField) : null;
+                    if(id != null && id.isJsonPrimitive()) savedObjects.put(id.getAsString(), object);
+                }
+            } else if(json.isJsonObject() && json.getAsJsonObject().has("succeeded")) {
+                for(JsonElement id : json.getAsJsonObject().getAsJsonArray("succeeded")) {
+                    succeeded.add(id.getAsString());
+                }
+            } else if(models.size() == 1 && json.isJsonObject()) {
+                savedObjects.put(models.get(0).getID(), json);
+            }
+        } catch(JsonParseException e) {
+            throw new StackMobException(e.getMessage());
+        } catch(RuntimeException e) {
+            throw new StackMobException("Unexpected response to a bulk save: " + responseBody);
+        }
+        // Keyed by identity, in case a model class overrides equals
+        Map<StackMobModel, JsonElement> saved = new IdentityHashMap<StackMobModel, JsonElement>();
+        for(StackMobModel model : models) {
+            String id = model.getID();
+            if(savedObjects.containsKey(id)) {
+                saved.put(model, savedObjects.get(id));
+            } else if(succeeded.contains(id)) {
+                saved.put(model, null);
+            }
+        }
+        return saved;
+    }
+
+    private static class PendingSave {
+        final StackMobModel model;
+        final List<StackMobCallback> callbacks = new ArrayList<StackMobCallback>(1);
+
+        PendingSave(StackMobModel model) {
+            this.model = model;
+        }
+
+        void success(String responseBody) {
+            for(StackMobCallback callback : callbacks) {
+                callback.success(responseBody);
+            }
+        }
+
+        void failure(StackMobException e) {
+            for(StackMobCallback callback : callbacks) {
+                callback.failure(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Incrementally parses an HTTP/1.x response as bytes arrive from a non-blocking socket. Handles fixed length,
+ * chunked and read-until-close bodies.
+ */
+public class HttpResponseParser {
+
+    private enum State {
+        STATUS_LINE,
+        HEADERS,
+        FIXED_BODY,
+        CHUNK_SIZE,
+        CHUNK_DATA,
+        CHUNK_END,
+        TRAILERS,
+        BODY_UNTIL_CLOSE,
+        DONE
+    }
+
+    private final boolean headRequest;
+    private State state = State.STATUS_LINE;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+    private ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+    private int code = -1;
+    private String httpVersion;
+    private Map<String, String> headers = new LinkedHashMap<String, String>();
+    private long remaining;
+
+    public HttpResponseParser(boolean headRequest) {
+        this.headRequest = headRequest;
+    }
+
+    /**
+     * consume as many bytes from the buffer as belong to this response
+     * @param buf bytes read from the socket, in read mode
+     * @return true once the response is complete. Any bytes left in the buffer belong to the next response
+     * @throws IOException if the response is malformed
+     */
+    public boolean feed(ByteBuffer buf) throws IOException {
+        while(state != State.DONE && buf.hasRemaining()) {
+            switch(state) {
+                case STATUS_LINE: {
+                    String statusLine = readLine(buf);
+                    if(statusLine != null && statusLine.length() > 0) parseStatusLine(statusLine);
+                    break;
+                }
+                case HEADERS: {
+                    String header = readLine(buf);
+                    if(header != null) {
+                        if(header.length() == 0) {
+                            headersDone();
+                        } else {
+                            parseHeader(header);
+                        }
+                    }
+                    break;
+                }
+                case FIXED_BODY: {
+                    copyBody(buf);
+                    if(remaining == 0) state = State.DONE;
+                    break;
+                }
+                case CHUNK_SIZE: {
+                    String size = readLine(buf);
+                    if(size != null) {
+                        int semicolon = size.indexOf(';');
+                        if(semicolon >= 0) size = size.substring(0, semicolon);
+                        try {
+                            remaining = Long.parseLong(size.trim(), 16);
+                        } catch(NumberFormatException e) {
+                            throw new IOException("Malformed chunk size: " + size);
+                        }
+                        state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+                    }
+                    break;
+                }
+                case CHUNK_DATA: {
+                    copyBody(buf);
+                    if(remaining == 0) state = State.CHUNK_END;
+                    break;
+                }
+                case CHUNK_END: {
+                    if(readLine(buf) != null) state = State.CHUNK_SIZE;
+                    break;
+                }
+                case TRAILERS: {
+                    String trailer = readLine(buf);
+                    if(trailer != null && trailer.length() == 0) state = State.DONE;
+                    break;
+                }
+                case BODY_UNTIL_CLOSE: {
+                    body.write(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+                    buf.position(buf.limit());
+                    break;
+                }
+            }
+        }
+        return state == State.DONE;
+    }
+
+    /**
+     * tell the parser the connection was closed by the server
+     * @throws IOException if the response was cut short
+     */
+    public void endOfStream() throws IOException {
+        if(state == State.BODY_UNTIL_CLOSE) {
+            state = State.DONE;
+        } else if(state != State.DONE) {
+            throw new IOException("Connection closed before the response was complete");
+        }
+    }
+
+    public boolean isDone() {
+        return state == State.DONE;
+    }
+
+    /**
+     * whether the connection can carry another request once this response is done
+     * @return true if the server allows the connection to be reused
+     */
+    public boolean isKeepAlive() {
+        String connection = getHeader("Connection");
+        if("HTTP/1.0".equals(httpVersion)) {
+            return connection != null && connection.equalsIgnoreCase("keep-alive");
+        }
+        return connection == null || !connection.equalsIgnoreCase("close");
+    }
+
+    public StackMobHttpResponse getResponse() {
+        return new StackMobHttpResponse(code, headers, body.toByteArray());
+    }
+
+    private void parseStatusLine(String statusLine) throws IOException {
+        String[] parts = statusLine.split(" ", 3);
+        if(parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+        httpVersion = parts[0];
+        try {
+            code = Integer.parseInt(parts[1]);
+        } catch(NumberFormatException e) {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+        state = State.HEADERS;
+    }
+
+    private void parseHeader(String header) {
+        int colon = header.indexOf(':');
+        if(colon > 0) {
+            headers.put(header.substring(0, colon).trim(), header.substring(colon + 1).trim());
+        }
+    }
+
+    private void headersDone() throws IOException {
+        if(code >= 100 && code < 200) {
+            // Informational responses are followed by the real one
+            headers = new LinkedHashMap<String, String>();
+            state = State.STATUS_LINE;
+            return;
+        }
+        String transferEncoding = getHeader("Transfer-Encoding");
+        String contentLength = getHeader("Content-Length");
+        if(headRequest || code == 204 || code == 304) {
+            state = State.DONE;
+        } else if(transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+            state = State.CHUNK_SIZE;
+        } else if(contentLength != null) {
+            try {
+                remaining = Long.parseLong(contentLength);
+            } catch(NumberFormatException e) {
+                throw new IOException("Malformed Content-Length: " + contentLength);
+            }
+            if(remaining > Integer.MAX_VALUE) throw new IOException("Response too large: " + contentLength);
+            body = new ByteArrayOutputStream((int) remaining);
+            state = remaining == 0 ? State.DONE : State.FIXED_BODY;
+        } else {
+            state = State.BODY_UNTIL_CLOSE;
+        }
+    }
+
+    private String getHeader(String name) {
+        for(Map.Entry<String, String> header : headers.entrySet()) {
+            if(header.getKey().equalsIgnoreCase(name)) return header.getValue();
+        }
+        return null;
+    }
+
+    private void copyBody(ByteBuffer buf) {
+        int count = (int) Math.min(remaining, buf.remaining());
+        body.write(buf.array(), buf.arrayOffset() + buf.position(), count);
+        buf.position(buf.position() + count);
+        remaining -= count;
+    }
+
+    /*
+     * Returns the next CRLF terminated line, or null if the buffer ran out first. Partial lines are kept
+     * until the rest arrives.
+     */
+    private String readLine(ByteBuffer buf) throws IOException {
+        while(buf.hasRemaining()) {
+            byte b = buf.get();
+            if(b == '\n') {
+                byte[] bytes = line.toByteArray();
+                line.reset();
+                int length = bytes.length;
+                if(length > 0 && bytes[length - 1] == '\r') length--;
+                return new String(bytes, 0, length, "ISO-8859-1");
+            }
+            line.write(b);
+        }
+        return null;
+    }
+}
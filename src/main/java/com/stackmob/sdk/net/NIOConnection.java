@@ -0,0 +1,94 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A non-blocking plain text connection used by {@link StackMobNIOTransport}. All methods must be called from the
+ * selector thread.
+ */
+public class NIOConnection {
+
+    protected final SocketChannel channel;
+
+    public NIOConnection(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * advance any handshake the connection needs before carrying data
+     * @return true once the connection is ready for data
+     * @throws IOException if the handshake failed
+     */
+    public boolean finishHandshake() throws IOException {
+        return true;
+    }
+
+    /**
+     * read whatever is available without blocking
+     * @param dst the buffer to read into
+     * @return the number of bytes read, or -1 at end of stream
+     * @throws IOException if the read failed
+     */
+    public int read(ByteBuffer dst) throws IOException {
+        return channel.read(dst);
+    }
+
+    /**
+     * write as much as possible without blocking
+     * @param src the bytes to write
+     * @return the number of bytes consumed from src
+     * @throws IOException if the write failed
+     */
+    public int write(ByteBuffer src) throws IOException {
+        return channel.write(src);
+    }
+
+    /**
+     * push out bytes buffered by the connection itself
+     * @return true if nothing is left buffered
+     * @throws IOException if the write failed
+     */
+    public boolean flush() throws IOException {
+        return true;
+    }
+
+    public boolean hasPendingOutput() {
+        return false;
+    }
+
+    /**
+     * whether bytes have already been read off the socket that nobody has consumed yet
+     * @return true if there is unread input
+     */
+    public boolean hasBufferedInput() {
+        return false;
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch(IOException ignore) { }
+    }
+}
@@ -0,0 +1,245 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.net;
+
+import javax.net.ssl.*;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A non-blocking TLS connection driven by an {@link SSLEngine}. Buffers are always kept in write mode between calls.
+ */
+public class NIOSSLConnection extends NIOConnection {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SSLEngine engine;
+    private final String host;
+    private final boolean engineVerifiesHost;
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private ByteBuffer appIn;
+    private boolean handshakeStarted = false;
+    private boolean handshakeDone = false;
+    private boolean inboundClosed = false;
+
+    public NIOSSLConnection(SocketChannel channel, SSLContext context, String host, int port) {
+        super(channel);
+        this.host = host;
+        this.engine = context.createSSLEngine(host, port);
+        this.engine.setUseClientMode(true);
+        this.engineVerifiesHost = enableHostnameVerification(engine);
+        SSLSession session = engine.getSession();
+        netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+        netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+        appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+    }
+
+    /*
+     * SSLParameters.setEndpointIdentificationAlgorithm only exists from Java 7 and recent Androids. Where it's
+     * missing we check the certificate against the host ourselves once the handshake is done.
+     */
+    private static boolean enableHostnameVerification(SSLEngine engine) {
+        try {
+            SSLParameters params = engine.getSSLParameters();
+            Method setAlgorithm = SSLParameters.class.getMethod("setEndpointIdentificationAlgorithm", String.class);
+            setAlgorithm.invoke(params, "HTTPS");
+            engine.setSSLParameters(params);
+            return true;
+        } catch(Exception e) {
+            return false;
+        }
+    }
+
+    public SSLSession getSession() {
+        return engine.getSession();
+    }
+
+    @Override
+    public boolean finishHandshake() throws IOException {
+        if(handshakeDone) return true;
+        if(!handshakeStarted) {
+            engine.beginHandshake();
+            handshakeStarted = true;
+        }
+        while(true) {
+            if(!flush()) return false;
+            switch(engine.getHandshakeStatus()) {
+                case NEED_TASK: {
+                    runTasks();
+                    break;
+                }
+                case NEED_WRAP: {
+                    wrap(EMPTY);
+                    break;
+                }
+                case NEED_UNWRAP: {
+                    if(!unwrap()) return false;
+                    if(inboundClosed) throw new SSLException("Connection closed during handshake");
+                    break;
+                }
+                default: {
+                    if(!engineVerifiesHost && !HttpsURLConnection.getDefaultHostnameVerifier().verify(host, engine.getSession())) {
+                        throw new SSLPeerUnverifiedException("Certificate doesn't match host " + host);
+                    }
+                    handshakeDone = true;
+                    return true;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        while(appIn.position() == 0) {
+            if(inboundClosed) return -1;
+            SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+            if(status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runTasks();
+            } else if(status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                // Post-handshake messages such as key updates
+                wrap(EMPTY);
+                flush();
+            } else if(!unwrap()) {
+                return 0;
+            }
+        }
+        appIn.flip();
+        int count = Math.min(appIn.remaining(), dst.remaining());
+        int limit = appIn.limit();
+        appIn.limit(appIn.position() + count);
+        dst.put(appIn);
+        appIn.limit(limit);
+        appIn.compact();
+        return count;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int consumed = 0;
+        while(src.hasRemaining()) {
+            if(!flush()) break;
+            consumed += wrap(src);
+        }
+        flush();
+        return consumed;
+    }
+
+    @Override
+    public boolean flush() throws IOException {
+        netOut.flip();
+        try {
+            while(netOut.hasRemaining()) {
+                if(channel.write(netOut) == 0) break;
+            }
+        } finally {
+            netOut.compact();
+        }
+        return netOut.position() == 0;
+    }
+
+    @Override
+    public boolean hasPendingOutput() {
+        return netOut.position() > 0;
+    }
+
+    @Override
+    public boolean hasBufferedInput() {
+        return appIn.position() > 0 || netIn.position() > 0;
+    }
+
+    @Override
+    public void close() {
+        try {
+            engine.closeOutbound();
+            if(handshakeDone) {
+                wrap(EMPTY);
+                flush();
+            }
+        } catch(Exception ignore) { }
+        super.close();
+    }
+
+    private int wrap(ByteBuffer src) throws IOException {
+        SSLEngineResult result = engine.wrap(src, netOut);
+        switch(result.getStatus()) {
+            case BUFFER_OVERFLOW: {
+                // Only grow if the buffer is empty, otherwise a flush makes room
+                if(netOut.position() == 0) netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+                break;
+            }
+            case CLOSED: {
+                if(src.hasRemaining()) throw new SSLException("Connection closed");
+                break;
+            }
+            default: break;
+        }
+        return result.bytesConsumed();
+    }
+
+    /*
+     * Returns false if more bytes are needed from the network and none are available right now
+     */
+    private boolean unwrap() throws IOException {
+        while(true) {
+            netIn.flip();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                netIn.compact();
+            }
+            switch(result.getStatus()) {
+                case OK: return true;
+                case CLOSED: {
+                    inboundClosed = true;
+                    return true;
+                }
+                case BUFFER_OVERFLOW: {
+                    appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+                    break;
+                }
+                case BUFFER_UNDERFLOW: {
+                    if(!netIn.hasRemaining()) netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+                    int count = channel.read(netIn);
+                    if(count < 0) {
+                        inboundClosed = true;
+                        return true;
+                    }
+                    if(count == 0) return false;
+                    break;
+                }
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    private static ByteBuffer enlarge(ByteBuffer buffer, int minimumExtra) {
+        ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() + Math.max(minimumExtra, buffer.capacity()));
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+}
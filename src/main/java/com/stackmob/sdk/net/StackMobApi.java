@@ -19,6 +19,7 @@ package com.stackmob.sdk.net;
 import com.stackmob.sdk.api.StackMob;
 import org.scribe.builder.api.DefaultApi10a;
 import org.scribe.model.Token;
+import org.scribe.services.SignatureService;
 import org.scribe.services.TimestampService;
 import org.scribe.services.TimestampServiceImpl;
 
@@ -40,6 +41,10 @@ public class StackMobApi extends DefaultApi10a {
 
     }
 
+    // Both services are thread-safe, so one of each is shared by every request signed through this api
+    private final TimestampService timestampService = new StackMobTimeService();
+    private final SignatureService signatureService = new StackMobSignatureService();
+
     @Override
     public String getRequestTokenEndpoint() {
         return null;
@@ -58,6 +63,11 @@ public class StackMobApi extends DefaultApi10a {
     @Override
     public TimestampService getTimestampService()
     {
-        return new StackMobTimeService();
+        return timestampService;
+    }
+
+    @Override
+    public SignatureService getSignatureService() {
+        return signatureService;
     }
 }
\ No newline at end of file
@@ -0,0 +1,305 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.net;
+
+import javax.net.ssl.SSLContext;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps connections to the StackMob hosts open between requests made through {@link StackMobNIOTransport}, so
+ * consecutive requests skip the TCP and TLS handshakes. Connections are limited per host and closed after they've
+ * been idle for a while. All https connections are created from the same SSLContext, which lets new connections
+ * resume a cached TLS session instead of doing a full handshake.
+ * <p>
+ * A StackMob object owns one pool, which is shared with any {@link com.stackmob.sdk.push.StackMobPush} created from it.
+ */
+public class StackMobConnectionPool {
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 6;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30000;
+
+    private volatile int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+    private volatile long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+    private volatile boolean keepAlive = true;
+    private volatile SSLContext sslContext;
+
+    private final Map<String, Integer> openConnections = new HashMap<String, Integer>();
+    private final Map<String, LinkedList<PooledConnection>> idleConnections = new HashMap<String, LinkedList<PooledConnection>>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * set the most connections that will be open to a single host at once. Requests beyond that wait for a
+     * connection to free up
+     * @param maxConnectionsPerHost the limit, at least 1
+     * @return the pool
+     */
+    public StackMobConnectionPool setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        if(maxConnectionsPerHost < 1) throw new IllegalArgumentException("maxConnectionsPerHost must be at least 1");
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        return this;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * set how long a connection can sit unused before it's closed
+     * @param idleTimeoutMillis the timeout in milliseconds
+     * @return the pool
+     */
+    public StackMobConnectionPool setIdleTimeoutMillis(long idleTimeoutMillis) {
+        if(idleTimeoutMillis < 0) throw new IllegalArgumentException("idleTimeoutMillis can't be negative");
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * turn connection reuse on or off. With keep-alive off every request opens a new connection and closes it after
+     * @param keepAlive whether to reuse connections
+     * @return the pool
+     */
+    public StackMobConnectionPool setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * set the context used to create https connections
+     * @param sslContext the context, or null to use the default
+     * @return the pool
+     */
+    public StackMobConnectionPool setSSLContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+        return this;
+    }
+
+    public SSLContext getSSLContext() throws NoSuchAlgorithmException {
+        return sslContext == null ? SSLContext.getDefault() : sslContext;
+    }
+
+    /**
+     * the number of requests sent over a connection that was already open
+     * @return the hit count
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * the number of requests that had to open a new connection
+     * @return the miss count
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * the number of requests that had to wait because the host was at its connection limit
+     * @return the wait count
+     */
+    public long getWaits() {
+        return waits.get();
+    }
+
+    /**
+     * the number of idle connections that were closed, either because they timed out or the server closed them
+     * @return the eviction count
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * the number of connections currently sitting idle across all hosts
+     * @return the idle count
+     */
+    public synchronized int getIdleCount() {
+        int count = 0;
+        for(LinkedList<PooledConnection> idle : idleConnections.values()) {
+            count += idle.size();
+        }
+        return count;
+    }
+
+    /**
+     * the number of connections currently open across all hosts, idle or not
+     * @return the open count
+     */
+    public synchronized int getOpenCount() {
+        int count = 0;
+        for(Integer open : openConnections.values()) {
+            count += open;
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StackMobConnectionPool(hits=%d, misses=%d, waits=%d, evictions=%d, open=%d, idle=%d)",
+                getHits(), getMisses(), getWaits(), getEvictions(), getOpenCount(), getIdleCount());
+    }
+
+    /**
+     * take the most recently used idle connection to a host
+     * @param host the host key
+     * @return the connection, or null if there wasn't one
+     */
+    synchronized PooledConnection takeIdle(String host) {
+        LinkedList<PooledConnection> idle = idleConnections.get(host);
+        if(idle == null || idle.isEmpty()) return null;
+        hits.incrementAndGet();
+        return idle.removeFirst();
+    }
+
+    /**
+     * claim room for a new connection to a host
+     * @param host the host key
+     * @return true if the host is under its limit and a new connection may be opened
+     */
+    synchronized boolean reserve(String host) {
+        int open = getOpen(host);
+        if(open >= maxConnectionsPerHost) return false;
+        openConnections.put(host, open + 1);
+        misses.incrementAndGet();
+        return true;
+    }
+
+    void recordWait() {
+        waits.incrementAndGet();
+    }
+
+    /**
+     * hand an open connection over to another request without it going idle
+     */
+    void recordHandoff() {
+        hits.incrementAndGet();
+    }
+
+    /**
+     * return a healthy connection so it can be reused
+     * @param connection the connection
+     */
+    synchronized void release(PooledConnection connection) {
+        connection.idleSince = System.currentTimeMillis();
+        LinkedList<PooledConnection> idle = idleConnections.get(connection.host);
+        if(idle == null) {
+            idle = new LinkedList<PooledConnection>();
+            idleConnections.put(connection.host, idle);
+        }
+        idle.addFirst(connection);
+    }
+
+    /**
+     * forget a connection that was closed or is about to be
+     * @param connection the connection
+     */
+    synchronized void discard(PooledConnection connection) {
+        int open = getOpen(connection.host) - 1;
+        if(open > 0) {
+            openConnections.put(connection.host, open);
+        } else {
+            openConnections.remove(connection.host);
+        }
+    }
+
+    /**
+     * remove an idle connection the server has closed
+     * @param connection the connection
+     * @return true if the connection was idle in this pool
+     */
+    synchronized boolean evict(PooledConnection connection) {
+        LinkedList<PooledConnection> idle = idleConnections.get(connection.host);
+        if(idle == null || !idle.remove(connection)) return false;
+        evictions.incrementAndGet();
+        discard(connection);
+        return true;
+    }
+
+    /**
+     * remove every idle connection that has timed out
+     * @param now the current time in milliseconds
+     * @return the connections to close
+     */
+    synchronized List<PooledConnection> evictExpired(long now) {
+        List<PooledConnection> expired = new ArrayList<PooledConnection>();
+        for(LinkedList<PooledConnection> idle : idleConnections.values()) {
+            Iterator<PooledConnection> it = idle.iterator();
+            while(it.hasNext()) {
+                PooledConnection connection = it.next();
+                if(now - connection.idleSince >= idleTimeoutMillis) {
+                    it.remove();
+                    expired.add(connection);
+                }
+            }
+        }
+        for(PooledConnection connection : expired) {
+            evictions.incrementAndGet();
+            discard(connection);
+        }
+        return expired;
+    }
+
+    /**
+     * remove every idle connection, for shutdown
+     * @return the connections to close
+     */
+    synchronized List<PooledConnection> drain() {
+        List<PooledConnection> drained = new ArrayList<PooledConnection>();
+        for(LinkedList<PooledConnection> idle : idleConnections.values()) {
+            drained.addAll(idle);
+        }
+        idleConnections.clear();
+        for(PooledConnection connection : drained) {
+            discard(connection);
+        }
+        return drained;
+    }
+
+    private int getOpen(String host) {
+        Integer open = openConnections.get(host);
+        return open == null ? 0 : open;
+    }
+
+    /*
+     * A connection along with the host it belongs to
+     */
+    static class PooledConnection {
+        final String host;
+        final NIOConnection connection;
+        long idleSince;
+
+        PooledConnection(String host, NIOConnection connection) {
+            this.host = host;
+            this.connection = connection;
+        }
+    }
+}
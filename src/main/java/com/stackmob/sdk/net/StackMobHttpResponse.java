@@ -0,0 +1,66 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.net;
+
+import java.util.Map;
+
+/**
+ * A transport independent HTTP response
+ */
+public class StackMobHttpResponse {
+
+    private final int code;
+    private final Map<String, String> headers;
+    private final byte[] body;
+
+    public StackMobHttpResponse(int code, Map<String, String> headers, byte[] body) {
+        this.code = code;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * the response headers. With repeated headers only the last value is kept
+     * @return the headers
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * look up a header ignoring case
+     * @param name the header name
+     * @return the value, or null if the header wasn't sent
+     */
+    public String getHeader(String name) {
+        if(headers == null) return null;
+        for(Map.Entry<String, String> header : headers.entrySet()) {
+            if(header.getKey() != null && header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+}
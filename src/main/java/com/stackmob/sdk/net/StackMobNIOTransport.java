@@ -0,0 +1,601 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.net;
+
+import com.stackmob.sdk.net.StackMobConnectionPool.PooledConnection;
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Verb;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A transport that multiplexes every request over non-blocking sockets driven by a single selector thread.
+ * No thread is held while waiting on the network; the executor is only used to run the response handlers.
+ * The selector never calls the executor itself, since a full executor may block the caller. Finished requests are
+ * handed to a pool of threads owned by the transport, which passes them on to the executor.
+ * Connections are kept alive and reused through a {@link StackMobConnectionPool}.
+ * Plain HTTP and HTTPS are supported, HTTP proxies are not. If you need a proxy use {@link StackMobScribeTransport}.
+ * Timeouts are enforced by the selector thread, which closes the connection of a request that runs out of time or
+ * is cancelled.
+ */
+public class StackMobNIOTransport implements StackMobTransport {
+
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final long SELECT_TIMEOUT_MILLIS = 1000;
+    // Scribe's default when no content type is set
+    private static final String DEFAULT_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+    private final StackMobConnectionPool pool;
+    private final Object startLock = new Object();
+    private final ConcurrentLinkedQueue<Exchange> pending = new ConcurrentLinkedQueue<Exchange>();
+    private final ConcurrentLinkedQueue<Exchange> cancelled = new ConcurrentLinkedQueue<Exchange>();
+    // Requests waiting for a host to drop below its connection limit. Only touched by the selector thread
+    private final Map<String, LinkedList<Exchange>> waiting = new HashMap<String, LinkedList<Exchange>>();
+    // Started requests that will run out of time, soonest first. Only touched by the selector thread
+    private final TreeSet<Exchange> timed = new TreeSet<Exchange>(new Comparator<Exchange>() {
+        @Override
+        public int compare(Exchange a, Exchange b) {
+            long diff = a.expiresAt - b.expiresAt;
+            if(diff != 0) return diff < 0 ? -1 : 1;
+            return a.order < b.order ? -1 : (a.order == b.order ? 0 : 1);
+        }
+    });
+    private final AtomicLong exchanges = new AtomicLong();
+    // Hands handlers to their executors, so only these threads ever wait on a full one
+    private final ExecutorService handoff = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "StackMob-NIO-handoff");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private volatile Selector selector;
+    private volatile boolean shutdown = false;
+
+    /**
+     * create a transport with its own connection pool
+     */
+    public StackMobNIOTransport() {
+        this(new StackMobConnectionPool());
+    }
+
+    /**
+     * create a transport that takes its connections from the given pool
+     * @param pool the pool to use
+     */
+    public StackMobNIOTransport(StackMobConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    public StackMobConnectionPool getConnectionPool() {
+        return pool;
+    }
+
+    @Override
+    public Cancellable send(OAuthRequest request, StackMobTimeouts timeouts, ExecutorService executor, Handler handler) {
+        Exchange exchange;
+        try {
+            exchange = new Exchange(request, timeouts, executor, handler);
+            if(shutdown) throw new IOException("Transport has been shut down");
+            ensureStarted();
+        } catch(Throwable t) {
+            dispatchFailure(executor, handler, t);
+            return NotCancellable;
+        }
+        pending.add(exchange);
+        selector.wakeup();
+        return exchange;
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        Selector sel = selector;
+        if(sel != null) sel.wakeup();
+    }
+
+    private void ensureStarted() throws IOException {
+        if(selector != null) return;
+        synchronized(startLock) {
+            if(selector != null) return;
+            Selector sel = Selector.open();
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runSelector();
+                }
+            }, "StackMob-NIO");
+            thread.setDaemon(true);
+            selector = sel;
+            thread.start();
+        }
+    }
+
+    private void runSelector() {
+        while(!shutdown) {
+            try {
+                selector.select(selectTimeout(System.nanoTime()));
+                cancelPending();
+                startPending();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if(!key.isValid()) continue;
+                    Object attachment = key.attachment();
+                    if(attachment instanceof Exchange) {
+                        Exchange exchange = (Exchange) attachment;
+                        try {
+                            exchange.handle(key);
+                        } catch(Throwable t) {
+                            exchange.fail(t);
+                        }
+                    } else if(attachment instanceof PooledConnection) {
+                        // An idle connection has nothing to say, so the server either closed it or misbehaved
+                        PooledConnection idle = (PooledConnection) attachment;
+                        if(pool.evict(idle)) closeIdle(idle);
+                    }
+                }
+                for(PooledConnection expired : pool.evictExpired(System.currentTimeMillis())) {
+                    closeIdle(expired);
+                }
+                expireTimed(System.nanoTime());
+            } catch(Throwable ignore) {
+                // Keep the selector alive no matter what a single exchange does
+            }
+        }
+        IOException closed = new IOException("Transport has been shut down");
+        for(SelectionKey key : selector.keys()) {
+            if(key.attachment() instanceof Exchange) ((Exchange) key.attachment()).fail(closed);
+        }
+        for(LinkedList<Exchange> queue : waiting.values()) {
+            for(Exchange exchange : new ArrayList<Exchange>(queue)) {
+                exchange.fail(closed);
+            }
+        }
+        waiting.clear();
+        Exchange exchange;
+        while((exchange = pending.poll()) != null) {
+            exchange.fail(closed);
+        }
+        cancelled.clear();
+        for(PooledConnection idle : pool.drain()) {
+            closeIdle(idle);
+        }
+        try {
+            selector.close();
+        } catch(IOException ignore) { }
+        handoff.shutdown();
+    }
+
+    /*
+     * Wake up in time for the next request to run out of time
+     */
+    private long selectTimeout(long now) {
+        if(timed.isEmpty()) return SELECT_TIMEOUT_MILLIS;
+        return Math.max(Math.min(SELECT_TIMEOUT_MILLIS, (timed.first().expiresAt - now) / 1000000 + 1), 1);
+    }
+
+    /*
+     * Fail every request that has run out of time
+     */
+    private void expireTimed(long now) {
+        while(!timed.isEmpty() && now - timed.first().expiresAt >= 0) {
+            Exchange exchange = timed.pollFirst();
+            exchange.fail(new SocketTimeoutException(exchange.expiryReason));
+        }
+    }
+
+    private void cancelPending() {
+        Exchange exchange;
+        while((exchange = cancelled.poll()) != null) {
+            exchange.abort();
+        }
+    }
+
+    private void startPending() {
+        Exchange exchange;
+        while((exchange = pending.poll()) != null) {
+            exchange.start();
+        }
+    }
+
+    private void closeIdle(PooledConnection idle) {
+        SelectionKey key = idle.connection.getChannel().keyFor(selector);
+        if(key != null) key.cancel();
+        idle.connection.close();
+    }
+
+    /*
+     * Give a connection that just finished a request to the next request waiting on its host, or park it in the pool
+     */
+    private void recycle(PooledConnection connection, SelectionKey key) {
+        Exchange next = pollWaiting(connection.host);
+        if(next != null) {
+            pool.recordHandoff();
+            next.attach(connection);
+        } else {
+            pool.release(connection);
+            key.attach(connection);
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /*
+     * Close a connection that can't be reused, and let a waiting request open a new one in its place
+     */
+    private void retire(PooledConnection connection, SelectionKey key) {
+        if(key != null) key.cancel();
+        connection.connection.close();
+        pool.discard(connection);
+        if(shutdown) return;
+        Exchange next = pollWaiting(connection.host);
+        if(next != null) next.start();
+    }
+
+    private Exchange pollWaiting(String host) {
+        LinkedList<Exchange> queue = waiting.get(host);
+        if(queue == null) return null;
+        Exchange next = queue.poll();
+        if(queue.isEmpty()) waiting.remove(host);
+        return next;
+    }
+
+    /*
+     * Run a handler on its executor without waiting on it. The handoff pool never blocks, and the callback must still
+     * happen if either pool is gone, but never on the selector thread
+     */
+    private void dispatch(final ExecutorService executor, final Runnable runnable) {
+        Runnable handOver = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    executor.execute(runnable);
+                } catch(RejectedExecutionException e) {
+                    runnable.run();
+                }
+            }
+        };
+        try {
+            handoff.execute(handOver);
+        } catch(RejectedExecutionException e) {
+            Thread thread = new Thread(handOver, "StackMob-NIO-handoff");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void dispatchFailure(ExecutorService executor, final Handler handler, final Throwable t) {
+        dispatch(executor, new Runnable() {
+            @Override
+            public void run() {
+                handler.failed(t);
+            }
+        });
+    }
+
+    /**
+     * serialize the request line, headers and body of a request
+     * @param request the request
+     * @param uri the parsed url of the request
+     * @param keepAlive whether to ask the server to keep the connection open
+     * @return the bytes to write, in read mode
+     * @throws IOException if the request charset isn't supported or the payload couldn't be written
+     */
+    static ByteBuffer serialize(OAuthRequest request, URI uri, boolean keepAlive) throws IOException {
+        String path = uri.getRawPath();
+        if(path == null || path.length() == 0) path = "/";
+        if(uri.getRawQuery() != null) path += "?" + uri.getRawQuery();
+
+        StringBuilder head = new StringBuilder(256);
+        head.append(request.getVerb().name()).append(' ').append(path).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(uri.getHost());
+        if(uri.getPort() != -1) head.append(':').append(uri.getPort());
+        head.append("\r\n");
+        boolean hasContentType = false;
+        for(Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            if(header.getKey().equalsIgnoreCase("Content-Type")) hasContentType = true;
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        byte[] body = null;
+        if(request.getVerb() == Verb.POST || request.getVerb() == Verb.PUT) {
+            if(request instanceof StackMobPayloadRequest) {
+                body = ((StackMobPayloadRequest) request).getPayloadBytes();
+            } else {
+                body = request.getBodyContents().getBytes(request.getCharset());
+            }
+            if(!hasContentType) head.append("Content-Type: ").append(DEFAULT_CONTENT_TYPE).append("\r\n");
+            head.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        head.append(keepAlive ? "Connection: keep-alive\r\n\r\n" : "Connection: close\r\n\r\n");
+
+        byte[] headBytes = head.toString().getBytes("UTF-8");
+        ByteBuffer buffer = ByteBuffer.allocate(headBytes.length + (body == null ? 0 : body.length));
+        buffer.put(headBytes);
+        if(body != null) buffer.put(body);
+        buffer.flip();
+        return buffer;
+    }
+
+    /*
+     * A single request/response. Everything but the constructor, which runs on the sending thread and so is where
+     * any blocking work like the name lookup goes, runs on the selector thread.
+     */
+    private class Exchange implements Cancellable {
+        private final ExecutorService executor;
+        private final Handler handler;
+        private final String host;
+        private final int port;
+        // Resolved up front, since a slow name lookup on the selector thread would stall every request
+        private final InetSocketAddress address;
+        private final boolean secure;
+        private final String poolKey;
+        private final boolean idempotent;
+        private final ByteBuffer requestBytes;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private HttpResponseParser parser = new HttpResponseParser(false);
+        private PooledConnection pooled;
+        private SelectionKey key;
+        private boolean reused = false;
+        private boolean connected = false;
+        private boolean received = false;
+        private boolean retried = false;
+        private boolean finished = false;
+        private boolean aborted = false;
+        private final long connectTimeoutNanos;
+        private final long readTimeoutNanos;
+        private final boolean hasDeadline;
+        private final long deadlineAt;
+        // Breaks ties between exchanges that expire at the same time
+        private final long order = exchanges.incrementAndGet();
+        private boolean limited = false;
+        // When the current phase, connecting or waiting on the server, or the whole exchange runs out of time
+        private boolean expires = false;
+        private long expiresAt;
+        private String expiryReason;
+
+        Exchange(OAuthRequest request, StackMobTimeouts timeouts, ExecutorService executor, Handler handler) throws URISyntaxException, IOException {
+            this.executor = executor;
+            this.handler = handler;
+            this.connectTimeoutNanos = timeouts.getConnectTimeoutMillis() * 1000000L;
+            this.readTimeoutNanos = timeouts.getReadTimeoutMillis() * 1000000L;
+            this.hasDeadline = timeouts.getDeadlineMillis() != 0;
+            this.deadlineAt = System.nanoTime() + timeouts.getDeadlineMillis() * 1000000L;
+            URI uri = new URI(request.getCompleteUrl());
+            this.secure = "https".equalsIgnoreCase(uri.getScheme());
+            this.host = uri.getHost();
+            this.port = uri.getPort() != -1 ? uri.getPort() : (secure ? 443 : 80);
+            this.address = new InetSocketAddress(host, port);
+            this.poolKey = (secure ? "https://" : "http://") + host + ":" + port;
+            this.idempotent = request.getVerb() != Verb.POST;
+            this.requestBytes = serialize(request, uri, pool.isKeepAlive());
+        }
+
+        /*
+         * Get a connection from the pool, open a new one, or wait for one to free up
+         */
+        void start() {
+            // Cancelled before it got going
+            if(finished) return;
+            if(hasDeadline || connectTimeoutNanos != 0 || readTimeoutNanos != 0) {
+                limited = true;
+                arm(0, null);
+            }
+            try {
+                PooledConnection idle = pool.takeIdle(poolKey);
+                if(idle != null) {
+                    attach(idle);
+                } else if(pool.reserve(poolKey)) {
+                    open();
+                } else {
+                    pool.recordWait();
+                    LinkedList<Exchange> queue = waiting.get(poolKey);
+                    if(queue == null) {
+                        queue = new LinkedList<Exchange>();
+                        waiting.put(poolKey, queue);
+                    }
+                    queue.add(this);
+                }
+            } catch(Throwable t) {
+                fail(t);
+            }
+        }
+
+        private void open() throws IOException, NoSuchAlgorithmException {
+            SocketChannel channel = null;
+            NIOConnection connection = null;
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                channel.socket().setKeepAlive(true);
+                connection = secure ? new NIOSSLConnection(channel, pool.getSSLContext(), host, port) : new NIOConnection(channel);
+            } finally {
+                if(connection == null) {
+                    if(channel != null) channel.close();
+                    pool.discard(new PooledConnection(poolKey, null));
+                }
+            }
+            pooled = new PooledConnection(poolKey, connection);
+            reused = false;
+            connected = false;
+            arm(connectTimeoutNanos, "Connect timed out");
+            boolean connectedNow = channel.connect(address);
+            key = channel.register(selector, connectedNow ? 0 : SelectionKey.OP_CONNECT, this);
+            if(connectedNow) process();
+        }
+
+        void attach(PooledConnection connection) {
+            pooled = connection;
+            reused = true;
+            connected = true;
+            arm(readTimeoutNanos, "Read timed out");
+            try {
+                key = connection.connection.getChannel().keyFor(selector);
+                key.attach(this);
+                process();
+            } catch(Throwable t) {
+                fail(t);
+            }
+        }
+
+        void handle(SelectionKey key) throws IOException {
+            if(key.isConnectable()) {
+                if(!pooled.connection.getChannel().finishConnect()) return;
+            }
+            process();
+        }
+
+        private void process() throws IOException {
+            NIOConnection connection = pooled.connection;
+            if(!connection.finishHandshake()) {
+                key.interestOps(connection.hasPendingOutput() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+                return;
+            }
+            if(!connected) {
+                connected = true;
+                arm(readTimeoutNanos, "Read timed out");
+            }
+            if(requestBytes.hasRemaining()) {
+                int unwritten = requestBytes.remaining();
+                connection.write(requestBytes);
+                // A slow upload is still progress, so it doesn't count against the read timeout
+                if(requestBytes.remaining() != unwritten) arm(readTimeoutNanos, "Read timed out");
+            }
+            if(requestBytes.hasRemaining() || (connection.hasPendingOutput() && !connection.flush())) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            while(true) {
+                readBuffer.clear();
+                int count = connection.read(readBuffer);
+                if(count < 0) {
+                    parser.endOfStream();
+                    complete(false);
+                    return;
+                }
+                if(count == 0) {
+                    key.interestOps(connection.hasPendingOutput() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+                    return;
+                }
+                received = true;
+                arm(readTimeoutNanos, "Read timed out");
+                readBuffer.flip();
+                if(parser.feed(readBuffer)) {
+                    boolean reusable = pool.isKeepAlive() && parser.isKeepAlive() && !readBuffer.hasRemaining() && !connection.hasBufferedInput();
+                    complete(reusable);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled.add(this);
+            Selector sel = selector;
+            if(sel != null) sel.wakeup();
+        }
+
+        /*
+         * Stop the exchange wherever it's at, closing its connection. Runs on the selector thread
+         */
+        void abort() {
+            if(finished) return;
+            aborted = true;
+            fail(new IOException("Request was cancelled"));
+        }
+
+        /*
+         * Start the clock on a phase of the exchange, keeping to the deadline for the whole of it
+         */
+        private void arm(long timeoutNanos, String reason) {
+            if(!limited) return;
+            // The set is ordered on expiresAt, so take the exchange out before changing it
+            timed.remove(this);
+            long now = System.nanoTime();
+            expires = hasDeadline;
+            expiresAt = deadlineAt;
+            expiryReason = "Request deadline passed";
+            if(timeoutNanos != 0 && (!hasDeadline || now + timeoutNanos - deadlineAt < 0)) {
+                expires = true;
+                expiresAt = now + timeoutNanos;
+                expiryReason = reason;
+            }
+            if(expires) timed.add(this);
+        }
+
+        private void complete(boolean reusable) {
+            if(finished) return;
+            finished = true;
+            timed.remove(this);
+            if(reusable) {
+                recycle(pooled, key);
+            } else {
+                retire(pooled, key);
+            }
+            final StackMobHttpResponse response = parser.getResponse();
+            dispatch(executor, new Runnable() {
+                @Override
+                public void run() {
+                    handler.completed(response);
+                }
+            });
+        }
+
+        void fail(Throwable t) {
+            if(finished) return;
+            if(pooled != null) {
+                PooledConnection broken = pooled;
+                SelectionKey brokenKey = key;
+                pooled = null;
+                key = null;
+                retire(broken, brokenKey);
+                // A kept-alive connection may have been closed by the server just as we picked it up
+                if(reused && !received && idempotent && !retried && !shutdown && !aborted && !(t instanceof SocketTimeoutException)) {
+                    retried = true;
+                    requestBytes.rewind();
+                    parser = new HttpResponseParser(false);
+                    start();
+                    return;
+                }
+            } else {
+                LinkedList<Exchange> queue = waiting.get(poolKey);
+                if(queue != null) queue.remove(this);
+            }
+            finished = true;
+            timed.remove(this);
+            dispatchFailure(executor, handler, t);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.net;
+
+import com.stackmob.sdk.util.URLBuilder;
+import org.scribe.model.OAuthRequest;
+import org.scribe.services.SignatureService;
+import org.scribe.services.TimestampService;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Signs requests with OAuth1 in the Authorization header, with an empty token. The signature and header are the same
+ * as scribe's OAuth10aServiceImpl produces, but without the regular expressions, String.format calls and debug log
+ * strings it builds for every request. A signer holds nothing per request, so one can be shared by every thread.
+ */
+public class StackMobOAuth1Signer {
+
+    private static final String VERSION = "1.0";
+    private static final String HEADER_PREFIX = "OAuth ";
+
+    private final String apiKey;
+    private final String apiSecret;
+    private final TimestampService timestampService;
+    private final SignatureService signatureService;
+
+    public StackMobOAuth1Signer(String apiKey, String apiSecret) {
+        this(apiKey, apiSecret, new StackMobApi.StackMobTimeService(), new StackMobSignatureService());
+    }
+
+    public StackMobOAuth1Signer(String apiKey, String apiSecret, TimestampService timestampService, SignatureService signatureService) {
+        this.apiKey = apiKey;
+        this.apiSecret = apiSecret;
+        this.timestampService = timestampService;
+        this.signatureService = signatureService;
+    }
+
+    /**
+     * add the OAuth parameters and the Authorization header to a request
+     * @param request the request to sign
+     */
+    public void sign(OAuthRequest request) {
+        request.addOAuthParameter("oauth_token", "");
+        request.addOAuthParameter("oauth_timestamp", timestampService.getTimestampInSeconds());
+        request.addOAuthParameter("oauth_nonce", timestampService.getNonce());
+        request.addOAuthParameter("oauth_consumer_key", apiKey);
+        request.addOAuthParameter("oauth_signature_method", signatureService.getSignatureMethod());
+        request.addOAuthParameter("oauth_version", VERSION);
+        request.addOAuthParameter("oauth_signature", signatureService.getSignature(baseString(request), apiSecret, ""));
+
+        StringBuilder header = new StringBuilder(256).append(HEADER_PREFIX);
+        for(Map.Entry<String, String> param : request.getOauthParameters().entrySet()) {
+            if(header.length() > HEADER_PREFIX.length()) header.append(", ");
+            header.append(param.getKey()).append("=\"").append(URLBuilder.oauthEncode(param.getValue())).append('"');
+        }
+        request.addHeader("Authorization", header.toString());
+    }
+
+    /*
+     * The signature base string: the verb, the url without its query string, and the query string and OAuth parameters
+     * sorted by name then value. The sdk puts every parameter in the url, so ones added to the request separately aren't
+     * included. scribe encodes the joined parameters a second time with URLEncoder rather than OAuthEncoder, so this
+     * does too
+     */
+    private static String baseString(OAuthRequest request) {
+        String url = request.getUrl();
+        int queryStart = url.indexOf('?');
+        List<Parameter> params = new ArrayList<Parameter>();
+        if(queryStart >= 0) {
+            int fragment = url.indexOf('#', queryStart);
+            addQueryString(params, url.substring(queryStart + 1, fragment < 0 ? url.length() : fragment));
+        }
+        for(Map.Entry<String, String> param : request.getOauthParameters().entrySet()) {
+            params.add(new Parameter(param.getKey(), param.getValue()));
+        }
+        Collections.sort(params);
+
+        StringBuilder encodedParams = new StringBuilder(256);
+        for(Parameter param : params) {
+            if(encodedParams.length() > 0) encodedParams.append('&');
+            encodedParams.append(URLBuilder.oauthEncode(param.key)).append('=').append(URLBuilder.oauthEncode(param.value));
+        }
+        return new StringBuilder(512).append(URLBuilder.oauthEncode(request.getVerb().name())).append('&')
+                .append(URLBuilder.oauthEncode(queryStart >= 0 ? url.substring(0, queryStart) : url)).append('&')
+                .append(URLBuilder.formEncode(encodedParams.toString())).toString();
+    }
+
+    /*
+     * Parses a query string the way scribe's ParameterList.addQuerystring does
+     */
+    private static void addQueryString(List<Parameter> params, String query) {
+        if(query.length() == 0) return;
+        try {
+            for(String pair : query.split("&")) {
+                String[] parts = pair.split("=");
+                params.add(new Parameter(URLDecoder.decode(parts[0], "UTF-8"), parts.length > 1 ? URLDecoder.decode(parts[1], "UTF-8") : ""));
+            }
+        } catch(UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Parameter implements Comparable<Parameter> {
+        final String key;
+        final String value;
+
+        Parameter(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(Parameter that) {
+            int keyOrder = key.compareTo(that.key);
+            return keyOrder != 0 ? keyOrder : value.compareTo(that.value);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.net;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A request body that writes itself out as bytes, so it can go to the connection without first being built up as
+ * a String. Pass one to any {@link com.stackmob.sdk.api.StackMobDatastore} method that takes a request object and
+ * it will be sent as-is instead of being serialized with gson.
+ */
+public interface StackMobPayload {
+
+    /**
+     * write the body. This can be called more than once for the same request, since redirects, resends on a
+     * kept-alive connection the server closed, and retries all write the body again, so a payload must write the
+     * same bytes every time rather than consuming a one-shot source
+     * @param out the stream to write the utf-8 encoded body to
+     * @throws IOException if writing fails
+     */
+    void writeTo(OutputStream out) throws IOException;
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.net;
+
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Verb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A request whose body comes from a {@link StackMobPayload}. The payload is written out once, the first time the
+ * body is needed, and the bytes are kept for any resends. Transports should use {@link #getPayloadBytes()} rather
+ * than {@link #getBodyContents()}, which only exists for logging and callbacks.
+ */
+public class StackMobPayloadRequest extends OAuthRequest {
+
+    private final StackMobPayload payload;
+    private byte[] payloadBytes;
+    private String bodyContents;
+
+    public StackMobPayloadRequest(Verb verb, String url, StackMobPayload payload) {
+        super(verb, url);
+        this.payload = payload;
+    }
+
+    public StackMobPayload getPayload() {
+        return payload;
+    }
+
+    /**
+     * get the body, writing out the payload if it hasn't been already
+     * @return the utf-8 encoded body
+     * @throws IOException if the payload couldn't be written
+     */
+    public synchronized byte[] getPayloadBytes() throws IOException {
+        if(payloadBytes == null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            payload.writeTo(out);
+            payloadBytes = out.toByteArray();
+            // Lets scribe's own send() find the body too
+            addPayload(payloadBytes);
+        }
+        return payloadBytes;
+    }
+
+    @Override
+    public synchronized String getBodyContents() {
+        if(bodyContents == null) {
+            try {
+                bodyContents = new String(getPayloadBytes(), "UTF-8");
+            } catch(UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            } catch(IOException e) {
+                return "";
+            }
+        }
+        return bodyContents;
+    }
+}
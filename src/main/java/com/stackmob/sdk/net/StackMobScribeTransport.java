@@ -0,0 +1,93 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.net;
+
+import org.scribe.exceptions.OAuthException;
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Response;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends requests with scribe's blocking {@link OAuthRequest#send()}, holding the calling request thread for the
+ * whole round trip. Use this if the non-blocking transport doesn't work in your environment.
+ * <p>
+ * Timeouts are left to {@link java.net.HttpURLConnection}, which has no deadline for the whole exchange. The deadline
+ * instead caps the connect and read timeouts, so a request can overrun it by up to the time it spends receiving data.
+ */
+public class StackMobScribeTransport implements StackMobTransport {
+
+    @Override
+    public Cancellable send(OAuthRequest request, StackMobTimeouts timeouts, ExecutorService executor, final Handler handler) {
+        Runnable result;
+        try {
+            long connectTimeout = cap(timeouts.getConnectTimeoutMillis(), timeouts.getDeadlineMillis());
+            long readTimeout = cap(timeouts.getReadTimeoutMillis(), timeouts.getDeadlineMillis());
+            if(connectTimeout > 0) request.setConnectTimeout((int) connectTimeout, TimeUnit.MILLISECONDS);
+            if(readTimeout > 0) request.setReadTimeout((int) readTimeout, TimeUnit.MILLISECONDS);
+            // Write the payload out so scribe finds it
+            if(request instanceof StackMobPayloadRequest) ((StackMobPayloadRequest) request).getPayloadBytes();
+            Response ret = request.send();
+            String body;
+            try {
+                // Apparently sometime this just NPEs
+                body = ret.getBody();
+            } catch(Exception e) {
+                body = "{}";
+            }
+            final StackMobHttpResponse response = new StackMobHttpResponse(ret.getCode(), ret.getHeaders(), body.getBytes("UTF-8"));
+            result = new Runnable() {
+                @Override
+                public void run() {
+                    handler.completed(response);
+                }
+            };
+        } catch(Throwable t) {
+            // Scribe wraps io errors, timeouts included, in its own exception
+            final Throwable failure = t instanceof OAuthException && t.getCause() instanceof IOException ? t.getCause() : t;
+            result = new Runnable() {
+                @Override
+                public void run() {
+                    handler.failed(failure);
+                }
+            };
+        }
+        try {
+            executor.execute(result);
+        } catch(RejectedExecutionException e) {
+            result.run();
+        }
+        // The request is over by the time there's anything to cancel
+        return NotCancellable;
+    }
+
+    /*
+     * The smaller of two limits where 0 means none, capped to what HttpURLConnection takes
+     */
+    private static long cap(long timeout, long deadline) {
+        long limit = timeout == 0 ? deadline : (deadline == 0 ? timeout : Math.min(timeout, deadline));
+        return Math.min(limit, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void shutdown() {
+        // Nothing is held between requests
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.net;
+
+import org.apache.commons.codec.binary.Base64;
+import org.scribe.exceptions.OAuthSignatureException;
+import org.scribe.services.SignatureService;
+import org.scribe.utils.OAuthEncoder;
+import org.scribe.utils.Preconditions;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * HMAC-SHA1 OAuth1 signatures, the same as scribe's HMACSha1SignatureService, but each thread keeps a Mac already
+ * keyed with the last secret it signed with rather than getting and keying a new one for every request. Safe to share
+ * between threads.
+ */
+public class StackMobSignatureService implements SignatureService {
+
+    private static final String HMAC_SHA1 = "HmacSHA1";
+    private static final String METHOD = "HMAC-SHA1";
+
+    /*
+     * A Mac and the signing key it was initialized with
+     */
+    private static class KeyedMac {
+        final String key;
+        final Mac mac;
+
+        KeyedMac(String key) throws Exception {
+            this.key = key;
+            this.mac = Mac.getInstance(HMAC_SHA1);
+            this.mac.init(new SecretKeySpec(key.getBytes("UTF-8"), HMAC_SHA1));
+        }
+    }
+
+    private final ThreadLocal<KeyedMac> macs = new ThreadLocal<KeyedMac>();
+
+    @Override
+    public String getSignature(String baseString, String apiSecret, String tokenSecret) {
+        Preconditions.checkEmptyString(baseString, "Base string cant be null or empty string");
+        Preconditions.checkEmptyString(apiSecret, "Api secret cant be null or empty string");
+        String key = OAuthEncoder.encode(apiSecret) + '&' + OAuthEncoder.encode(tokenSecret);
+        try {
+            KeyedMac keyed = macs.get();
+            if(keyed == null || !keyed.key.equals(key)) {
+                keyed = new KeyedMac(key);
+                macs.set(keyed);
+            }
+            // doFinal resets the Mac, so it's ready for the next signature
+            byte[] bytes = keyed.mac.doFinal(baseString.getBytes("UTF-8"));
+            return new String(Base64.encodeBase64(bytes)).replace("\r\n", "");
+        } catch(Exception e) {
+            throw new OAuthSignatureException(baseString, e);
+        }
+    }
+
+    @Override
+    public String getSignatureMethod() {
+        return METHOD;
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.net;
+
+/**
+ * How long a request may take. Set defaults for every request with
+ * {@link com.stackmob.sdk.api.StackMob#setTimeouts(StackMobTimeouts)}, or for a single call with
+ * {@link com.stackmob.sdk.api.StackMobOptions#timeouts(StackMobTimeouts)}. A value of 0, the default, means no limit.
+ * <ul>
+ *     <li>the connect timeout limits how long opening a connection to the server can take</li>
+ *     <li>the read timeout limits how long the server can go without sending anything once the request is written</li>
+ *     <li>the deadline limits the whole call, including redirects, retries and refreshing an expired access token.
+ *     It starts when the request is first sent</li>
+ * </ul>
+ * A request that runs out of time fails with a {@link java.net.SocketTimeoutException}.
+ */
+public class StackMobTimeouts {
+
+    private volatile long connectTimeoutMillis = 0;
+    private volatile long readTimeoutMillis = 0;
+    private volatile long deadlineMillis = 0;
+
+    /**
+     * set how long opening a connection can take
+     * @param connectTimeoutMillis the timeout in milliseconds, or 0 for no limit
+     * @return these timeouts
+     */
+    public StackMobTimeouts setConnectTimeoutMillis(long connectTimeoutMillis) {
+        if(connectTimeoutMillis < 0) throw new IllegalArgumentException("connectTimeoutMillis can't be negative");
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * set how long the server can go without sending anything
+     * @param readTimeoutMillis the timeout in milliseconds, or 0 for no limit
+     * @return these timeouts
+     */
+    public StackMobTimeouts setReadTimeoutMillis(long readTimeoutMillis) {
+        if(readTimeoutMillis < 0) throw new IllegalArgumentException("readTimeoutMillis can't be negative");
+        this.readTimeoutMillis = readTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * set how long the whole call can take
+     * @param deadlineMillis the deadline in milliseconds, or 0 for no limit
+     * @return these timeouts
+     */
+    public StackMobTimeouts setDeadlineMillis(long deadlineMillis) {
+        if(deadlineMillis < 0) throw new IllegalArgumentException("deadlineMillis can't be negative");
+        this.deadlineMillis = deadlineMillis;
+        return this;
+    }
+
+    public long getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public long getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * check whether any limit is set
+     * @return true if there's no limit at all
+     */
+    public boolean isUnlimited() {
+        return connectTimeoutMillis == 0 && readTimeoutMillis == 0 && deadlineMillis == 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StackMobTimeouts(connect=%d, read=%d, deadline=%d)", connectTimeoutMillis, readTimeoutMillis, deadlineMillis);
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.net;
+
+import org.scribe.model.OAuthRequest;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Moves a fully built and signed request over the wire and hands the response back asynchronously. The sdk ships
+ * with {@link StackMobNIOTransport}, which multiplexes every request over a single selector thread, and
+ * {@link StackMobScribeTransport}, which blocks an executor thread per request the way the sdk always has.
+ */
+public interface StackMobTransport {
+
+    /**
+     * Receives the outcome of a request sent through a transport. Exactly one of the methods is called, always
+     * from a thread of the executor passed to {@link StackMobTransport#send(OAuthRequest, StackMobTimeouts, ExecutorService, Handler)}
+     */
+    public interface Handler {
+        /**
+         * the server returned a response, whatever its status code
+         * @param response the response
+         */
+        void completed(StackMobHttpResponse response);
+
+        /**
+         * the request could not be completed
+         * @param t the reason why
+         */
+        void failed(Throwable t);
+    }
+
+    /**
+     * A request handed to a transport, which can be stopped before it finishes
+     */
+    public interface Cancellable {
+        /**
+         * stop the request, closing its connection. The handler may still be called if the request is already
+         * finishing, so callers that cancel have to ignore it themselves
+         */
+        void cancel();
+    }
+
+    /**
+     * A request that can't be stopped, for transports that finish the whole request before send returns
+     */
+    public static final Cancellable NotCancellable = new Cancellable() {
+        @Override
+        public void cancel() { }
+    };
+
+    /**
+     * send a request. This is called from one of the sdk's request threads; blocking transports may do their
+     * network io on it, non-blocking ones should return right away
+     * @param request the request, with all headers and signatures already added
+     * @param timeouts the limits for this attempt. The deadline is what's left of the call's, not the whole of it
+     * @param executor the executor on which the handler should be invoked
+     * @param handler receives the response
+     * @return a way to stop the request
+     */
+    Cancellable send(OAuthRequest request, StackMobTimeouts timeouts, ExecutorService executor, Handler handler);
+
+    /**
+     * release any threads and connections held by this transport. Requests in flight are failed
+     */
+    void shutdown();
+}
@@ -21,6 +21,8 @@ import com.stackmob.sdk.api.StackMobSession;
 import com.stackmob.sdk.callback.StackMobRawCallback;
 import com.stackmob.sdk.callback.StackMobRedirectedCallback;
 import com.stackmob.sdk.net.HttpVerbWithoutPayload;
+import com.stackmob.sdk.net.StackMobNIOTransport;
+import com.stackmob.sdk.net.StackMobTransport;
 import com.stackmob.sdk.request.StackMobPushRequest;
 import com.stackmob.sdk.request.StackMobRequest;
 import com.stackmob.sdk.request.StackMobRequestWithoutPayload;
@@ -64,6 +66,8 @@ public class StackMobPush {
     }
 
     private ExecutorService executor;
+    // Only set when this object made its own, rather than sharing a StackMob's
+    private StackMobTransport ownTransport;
     private StackMobSession session;
     private String host;
     private StackMobRedirectedCallback redirectedCallback;
@@ -124,6 +128,8 @@ public class StackMobPush {
     public StackMobPush(int apiVersionNumber, String apiKey, String apiSecret, String host, StackMobRedirectedCallback redirectedCallback) {
         this.executor = Executors.newCachedThreadPool();
         this.session = new StackMobSession(StackMob.OAuthVersion.One, apiVersionNumber, apiKey, apiSecret, StackMob.DEFAULT_USER_SCHEMA_NAME, StackMob.DEFAULT_USER_ID);
+        this.ownTransport = new StackMobNIOTransport();
+        this.session.setTransport(ownTransport);
         this.host = host;
         this.redirectedCallback = redirectedCallback;
         if(push == null) push = this;
@@ -150,6 +156,17 @@ public class StackMobPush {
         if(push == null) push = this;
     }
 
+    /**
+     * release the threads and connections this object created. A StackMobPush made from a {@link StackMob} shares
+     * its threads, so shut down the StackMob instead
+     */
+    public void shutdown() {
+        if(ownTransport != null) {
+            ownTransport.shutdown();
+            executor.shutdown();
+        }
+    }
+
     ////////////////////
     //Push Notifications
     ////////////////////
@@ -28,24 +28,24 @@ import com.stackmob.sdk.push.StackMobPushToken;
 import com.stackmob.sdk.push.StackMobPushTokenDeserializer;
 import com.stackmob.sdk.push.StackMobPushTokenSerializer;
 import com.stackmob.sdk.util.*;
-import org.scribe.builder.ServiceBuilder;
 import org.scribe.model.OAuthRequest;
-import org.scribe.model.Response;
-import org.scribe.model.Token;
 import org.scribe.model.Verb;
-import org.scribe.oauth.OAuthService;
 
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Modifier;
 import java.net.HttpURLConnection;
-import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URLEncoder;
 import java.util.*;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The base class for StackMob's internal representation of a request. This class is only meant to be used inside the sdk
@@ -74,10 +74,48 @@ public abstract class StackMobRequest {
     protected List<Map.Entry<String, String>> params = new ArrayList<Map.Entry<String, String>>();
     protected List<Map.Entry<String, String>> headers = new ArrayList<Map.Entry<String, String>>();
     private AtomicBoolean triedRefreshToken = new AtomicBoolean(false);
-
-    protected Gson gson;
-
-    private OAuthService oAuthService;
+    private final StackMobRetryPolicy optionsRetryPolicy;
+    private final AtomicBoolean countedForRetryBudget = new AtomicBoolean(false);
+    private final AtomicInteger retries = new AtomicInteger();
+    private final StackMobTimeouts optionsTimeouts;
+    // Set the first time the request is sent and kept through redirects, retries and token refreshes
+    private volatile boolean deadlineStarted = false;
+    private volatile boolean hasDeadline = false;
+    private volatile long deadlineNanos;
+    private static final StackMobTimeouts NoTimeouts = new StackMobTimeouts();
+    private volatile boolean cancelled = false;
+    private volatile StackMobTransport.Cancellable inFlight;
+    private volatile ScheduledFuture<?> pendingRetry;
+
+    // Gson is thread-safe and none of its settings depend on the request, so every request shares one
+    private static final Gson sharedGson = new GsonBuilder()
+                                           .registerTypeAdapter(StackMobPushToken.class, new StackMobPushTokenDeserializer())
+                                           .registerTypeAdapter(StackMobPushToken.class, new StackMobPushTokenSerializer())
+                                           .registerTypeAdapter(StackMobNull.class, new StackMobNull.Adapter())
+                                           .excludeFieldsWithModifiers(Modifier.PRIVATE, Modifier.PROTECTED, Modifier.TRANSIENT, Modifier.STATIC)
+                                           .create();
+
+    protected Gson gson = sharedGson;
+
+    // Retries wait for their Retry-After here rather than on a request thread, so a run of 503s doesn't tie up the pool
+    private static final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "StackMob-retry");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    // The scheduler thread is shared by every StackMob, so it hands resends off to here. Sending can block on a full
+    // request pool, or do the network io itself, and that mustn't hold up anyone else's retries
+    private static final ExecutorService retrySender = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "StackMob-retry-send");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
 
 
@@ -99,16 +137,8 @@ public abstract class StackMobRequest {
         this.methodName = method;
         this.callback = cb;
         this.redirectedCallback = redirCb;
-
-        GsonBuilder gsonBuilder = new GsonBuilder()
-                                  .registerTypeAdapter(StackMobPushToken.class, new StackMobPushTokenDeserializer())
-                                  .registerTypeAdapter(StackMobPushToken.class, new StackMobPushTokenSerializer())
-                                  .registerTypeAdapter(StackMobNull.class, new StackMobNull.Adapter())
-                                  .excludeFieldsWithModifiers(Modifier.PRIVATE, Modifier.PROTECTED, Modifier.TRANSIENT, Modifier.STATIC);
-        gson = gsonBuilder.create();
-
-        if(!session.isOAuth2()) oAuthService = new ServiceBuilder().provider(StackMobApi.class).apiKey(session.getKey()).apiSecret(session.getSecret()).build();
-
+        this.optionsRetryPolicy = options.getRetryPolicy();
+        this.optionsTimeouts = options.getTimeouts();
     }
 
     public StackMobRequest setUrlFormat(String urlFmt) {
@@ -116,8 +146,33 @@ public abstract class StackMobRequest {
         return this;
     }
 
+    /**
+     * stop the request. Its connection is closed if it's out, it isn't sent, redirected or retried from here on,
+     * and the callback isn't called
+     */
+    public void cancel() {
+        cancelled = true;
+        StackMobTransport.Cancellable current = inFlight;
+        if(current != null) current.cancel();
+        ScheduledFuture<?> retry = pendingRetry;
+        if(retry != null) retry.cancel(false);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
     protected abstract String getRequestBody();
 
+    /**
+     * get the body as a payload to be written straight to the connection. Requests that return null here send
+     * {@link #getRequestBody()} instead
+     * @return the payload, or null
+     */
+    protected StackMobPayload getRequestPayload() {
+        return null;
+    }
+
     public void sendRequest() {
         try {
             if(HttpVerbWithoutPayload.GET == httpVerb) {
@@ -144,9 +199,8 @@ public abstract class StackMobRequest {
 
     protected void sendGetRequest() throws StackMobException {
         try {
-            String query = formatQueryString(this.params);
-            URI uri = createURI(getScheme(), urlFormat, getPath(), query);
-            OAuthRequest req = getOAuthRequest(HttpVerbWithoutPayload.GET, uri.toString());
+            String url = URLBuilder.url(getScheme(), urlFormat, getPath(), this.params);
+            OAuthRequest req = getOAuthRequest(HttpVerbWithoutPayload.GET, url);
             sendRequest(req);
         }
         catch (URISyntaxException e) {
@@ -162,9 +216,10 @@ public abstract class StackMobRequest {
 
     protected void sendPostRequest() throws StackMobException {
         try {
-            URI uri = createURI(getScheme(), urlFormat, getPath(), "");
-            String payload = getRequestBody();
-            OAuthRequest req = getOAuthRequest(HttpVerbWithPayload.POST, uri.toString(), payload);
+            String url = URLBuilder.url(getScheme(), urlFormat, getPath(), null);
+            StackMobPayload payload = getRequestPayload();
+            OAuthRequest req = payload == null ? getOAuthRequest(HttpVerbWithPayload.POST, url, getRequestBody())
+                                               : getOAuthRequest(HttpVerbWithPayload.POST, url, payload);
             sendRequest(req);
         }
         catch (URISyntaxException e) {
@@ -180,9 +235,10 @@ public abstract class StackMobRequest {
 
     protected void sendPutRequest() throws StackMobException {
         try {
-            URI uri = createURI(getScheme(), urlFormat, getPath(), "");
-            String payload = getRequestBody();
-            OAuthRequest req = getOAuthRequest(HttpVerbWithPayload.PUT, uri.toString(), payload);
+            String url = URLBuilder.url(getScheme(), urlFormat, getPath(), null);
+            StackMobPayload payload = getRequestPayload();
+            OAuthRequest req = payload == null ? getOAuthRequest(HttpVerbWithPayload.PUT, url, getRequestBody())
+                                               : getOAuthRequest(HttpVerbWithPayload.PUT, url, payload);
             sendRequest(req);
         }
         catch (URISyntaxException e) {
@@ -198,9 +254,8 @@ public abstract class StackMobRequest {
 
     protected void sendDeleteRequest() throws StackMobException {
         try {
-            String query = formatQueryString(this.params);
-            URI uri = createURI(getScheme(), urlFormat, getPath(), query);
-            OAuthRequest req = getOAuthRequest(HttpVerbWithoutPayload.DELETE, uri.toString());
+            String url = URLBuilder.url(getScheme(), urlFormat, getPath(), this.params);
+            OAuthRequest req = getOAuthRequest(HttpVerbWithoutPayload.DELETE, url);
             sendRequest(req);
         }
         catch (URISyntaxException e) {
@@ -214,44 +269,6 @@ public abstract class StackMobRequest {
         }
     }
 
-    protected URI createURI(String scheme, String host, String path, String query) throws URISyntaxException {
-        StringBuilder uriBuilder = new StringBuilder().append(scheme).append("://").append(host);
-        if(!path.startsWith("/")) {
-            uriBuilder.append("/");
-        }
-        uriBuilder.append(escapePath(path));
-
-        if(query != null && query.length() > 0) {
-            uriBuilder.append("?").append(query);
-        }
-
-        return new URI(uriBuilder.toString());
-    }
-
-    private String escapePath(String path) throws URISyntaxException {
-        String[] parts = path.split("/");
-
-        StringBuilder sb = new StringBuilder();
-
-        for(int i = 0; i < parts.length; i++) {
-            try {
-                if(i == parts.length-1) {
-                    sb.append(URLEncoder.encode(parts[i], "utf-8"));
-                } else {
-                    sb.append(parts[i]);
-                }
-            } catch(UnsupportedEncodingException e) {
-                throw new URISyntaxException(parts[i], "could not be URL-encoded as UTF-8");
-            }
-
-            if(i != parts.length-1) {
-                sb.append("/");
-            }
-        }
-
-        return sb.toString();
-    }
-
     protected String getPath() {
         if(methodName.startsWith("/")) {
             return methodName;
@@ -270,22 +287,11 @@ public abstract class StackMobRequest {
     }
 
     protected static String percentEncode(String s) throws UnsupportedEncodingException {
-        return URLEncoder.encode(s, "UTF-8").replace("+", "%20");
+        return URLBuilder.percentEncode(s);
     }
 
     protected static String formatQueryString(List<Map.Entry<String, String>> params) {
-        List<String> paramList = new LinkedList<String>();
-        for(Map.Entry<String, String> pair : params) {
-            String key = pair.getKey();
-            String value = pair.getValue();
-            try {
-                paramList.add(String.format("%s=%s", percentEncode(key), percentEncode(value)));
-            }
-            catch(UnsupportedEncodingException e) {
-                //do nothing
-            }
-        }
-        return ListHelpers.join(paramList, "&");
+        return URLBuilder.queryString(params);
     }
 
 
@@ -301,36 +307,31 @@ public abstract class StackMobRequest {
 
 
     protected OAuthRequest getOAuthRequest(HttpVerb method, String url) {
-        Verb verb = Verb.valueOf(method.toString());
-        OAuthRequest oReq = new OAuthRequest(verb, url);
-        int apiVersion = session.getApiVersionNumber();
-        final String accept = "application/vnd.stackmob+json; version="+apiVersion;
+        return prepareOAuthRequest(new OAuthRequest(Verb.valueOf(method.toString()), url), method, url);
+    }
 
-        List<Map.Entry<String, String>> headerList = new ArrayList<Map.Entry<String, String>>();
+    private OAuthRequest prepareOAuthRequest(OAuthRequest oReq, HttpVerb method, String url) {
+        Verb verb = oReq.getVerb();
 
-        //build basic headers
+        //add basic headers, the session's are built once and shared
         if(!verb.equals(Verb.GET) && !verb.equals(Verb.DELETE)) {
-            headerList.add(new Pair<String, String>("Content-Type", getContentType()));
+            oReq.addHeader("Content-Type", getContentType());
+        }
+        for(Map.Entry<String, String> header : session.getSessionHeaders()) {
+            oReq.addHeader(header.getKey(), header.getValue());
         }
-        headerList.add(new Pair<String, String>("Accept", accept));
-        headerList.add(new Pair<String, String>("User-Agent", session.getUserAgent()));
         String cookieHeader = session.getCookieManager().cookieHeader();
-        if(cookieHeader.length() > 0) headerList.add(new Pair<String, String>("Cookie", cookieHeader));
+        if(cookieHeader.length() > 0) oReq.addHeader("Cookie", cookieHeader);
 
-        //build user headers
+        //add user headers
         if(this.headers != null) {
             for(Map.Entry<String, String> header : this.headers) {
-                headerList.add(new Pair<String, String>(header.getKey(), header.getValue()));
+                oReq.addHeader(header.getKey(), header.getValue());
             }
         }
 
-        //add headers to request
-        for(Map.Entry<String, String> header: headerList) {
-            oReq.addHeader(header.getKey(), header.getValue());
-        }
-
         switch(getOAuthVersion()) {
-            case One: oAuthService.signRequest(new Token("", ""), oReq); break;
+            case One: session.getOAuth1Signer().sign(oReq); break;
             case Two: {
                 oReq.addHeader(API_KEY_HEADER, session.getKey());
                 if(session.oauth2TokenValid()) {
@@ -364,6 +365,10 @@ public abstract class StackMobRequest {
         return req;
     }
 
+    protected OAuthRequest getOAuthRequest(HttpVerb method, String url, StackMobPayload payload) {
+        return prepareOAuthRequest(new StackMobPayloadRequest(Verb.valueOf(method.toString()), url, payload), method, url);
+    }
+
     protected static HttpVerb getRequestVerb(OAuthRequest req) {
         HttpVerb requestVerb = HttpVerbWithoutPayload.GET;
         if(req.getVerb() == Verb.POST) requestVerb = HttpVerbWithPayload.POST;
@@ -390,7 +395,7 @@ public abstract class StackMobRequest {
 
     protected void refreshTokenAndResend() {
         triedRefreshToken.set(true);
-        StackMobAccessTokenRequest.newRefreshTokenRequest(executor, session, redirectedCallback, new StackMobRawCallback() {
+        StackMobRequest refresh = StackMobAccessTokenRequest.newRefreshTokenRequest(executor, session, redirectedCallback, new StackMobRawCallback() {
             @Override
             public void unsent(StackMobException e) {
                sendRequest();
@@ -405,105 +410,286 @@ public abstract class StackMobRequest {
             public void done(HttpVerb requestVerb, String requestURL, List<Map.Entry<String, String>> requestHeaders, String requestBody, Integer responseStatusCode, List<Map.Entry<String, String>> responseHeaders, byte[] responseBody) {
                 sendRequest();
             }
-        }).setUrlFormat(urlFormat).sendRequest();
+        });
+        // The refresh is part of this call, so it has to finish within what's left of the deadline
+        if(hasDeadline) {
+            refresh.deadlineNanos = deadlineNanos;
+            refresh.hasDeadline = true;
+            refresh.deadlineStarted = true;
+        }
+        refresh.setUrlFormat(urlFormat).sendRequest();
     }
     
     protected void sendRequest(final OAuthRequest req) throws InterruptedException, ExecutionException {
-        final StackMobRawCallback cb = this.callback;
-
+        if(cancelled) return;
+        startDeadline();
         if(session.isOAuth2() && !session.oauth2TokenValid() && canDoRefreshToken()) {
             refreshTokenAndResend();
         } else {
-            executor.submit(new Callable<Object>() {
+            final StackMobRawCallback cb = this.callback;
+            final StackMobTimeouts timeouts = getAttemptTimeouts();
+            if(timeouts == null) {
+                cb.unsent(new StackMobException("The request deadline passed before it could be sent"));
+                return;
+            }
+            StackMobCircuitBreaker breaker = session.getCircuitBreaker();
+            final StackMobCircuitBreaker.Permit permit = breaker == null ? null : breaker.tryAcquire(circuitHost(req.getUrl()), circuitSchema(req.getUrl()));
+            if(breaker != null && permit == null) {
+                cb.unsent(new StackMobException("The circuit to " + circuitHost(req.getUrl()) + " is open, request was not sent"));
+                return;
+            }
+            StackMobRetryPolicy policy = getRetryPolicy();
+            if(policy != null && countedForRetryBudget.compareAndSet(false, true)) policy.requestSent();
+            if(session.getLogger().isLoggingEnabled()) session.getLogger().logInfo("%s", "Request URL: " + req.getUrl() + "\nRequest Verb: " + getRequestVerb(req) + "\nRequest Headers: " + getRequestHeaders(req) + "\nRequest Body: " + req.getBodyContents());
+            final StackMobTransport.Handler handler = new StackMobTransport.Handler() {
                 @Override
-                public String call() throws Exception {
+                public void completed(StackMobHttpResponse response) {
+                    if(cancelled) {
+                        if(permit != null) permit.cancelled();
+                        return;
+                    }
+                    if(permit != null) permit.completed(response.getCode());
                     try {
-                        session.getLogger().logInfo("%s", "Request URL: " + req.getUrl() + "\nRequest Verb: " + getRequestVerb(req) + "\nRequest Headers: " + getRequestHeaders(req) + "\nRequest Body: " + req.getBodyContents());
-                        Response ret = req.send();
-                        String body;
-                        try {
-                           // Apparently sometime this just NPEs
-                           body = ret.getBody();
-                        } catch(Exception e) {
-                           body = "{}";
-                        }
-                        String trimmedBody = body.length() < 1000 ? body : (body.subSequence(0, 1000) + " (truncated)");
-                        session.getLogger().logInfo("%s", "Response StatusCode: " + ret.getCode() + "\nResponse Headers: " + ret.getHeaders() + "\nResponse: " + trimmedBody);
-                        if(!session.isOAuth2() && ret.getHeaders() != null) session.recordServerTimeDiff(ret.getHeader("Date"));
-                        if(HttpRedirectHelper.isRedirected(ret.getCode())) {
-                            session.getLogger().logInfo("Response was redirected");
-                            String newLocation = HttpRedirectHelper.getNewLocation(ret.getHeaders());
-                            HttpVerb verb = HttpVerbHelper.valueOf(req.getVerb().toString());
-                            OAuthRequest newReq = getOAuthRequest(verb, newLocation);
-                            if(req.getBodyContents() != null && req.getBodyContents().length() > 0) {
-                                newReq = getOAuthRequest(verb, newLocation, req.getBodyContents());
-                            }
-                            //does NOT protect against circular redirects
-                            redirectedCallback.redirected(req.getUrl(), ret.getHeaders(), body, newReq.getUrl());
-                            sendRequest(newReq);
-                        }
-                        else {
-                            List<Map.Entry<String, String>> headers = new ArrayList<Map.Entry<String, String>>();
-                            if(ret.getHeaders() != null) {
-                                for(Map.Entry<String, String> header : ret.getHeaders().entrySet()) {
-                                    headers.add(header);
-                                }
-                            }
-                            if(Http.isSuccess(ret.getCode())) {
-                                session.getCookieManager().storeCookies(ret);
-                            }
-                            boolean retried = false;
-                            if(Http.isUnavailable(ret.getCode())) {
-                                int afterMilliseconds = -1;
-                                for(Map.Entry<String, String> headerPair : headers) {
-                                    if(Http.isRetryAfterHeader(headerPair.getKey())) {
-                                        try {
-                                            int candidateMilliseconds = Integer.parseInt(headerPair.getValue()) * 1000;
-                                            if(candidateMilliseconds > 0) {
-                                                afterMilliseconds = candidateMilliseconds;
-                                            }
-                                        } catch(Throwable ignore) { }
-                                    }
-                                }
-                                if(afterMilliseconds != -1 && cb.getRetriesRemaining() > 0 && cb.retry(afterMilliseconds)) {
-                                    cb.setRetriesRemaining(cb.getRetriesRemaining() - 1);
-                                    sendRequest();
-                                    retried = true;
-                                }
-                            }
-                            if(!retried) {
-                                if(ret.getCode() == HttpURLConnection.HTTP_UNAUTHORIZED && canDoRefreshToken()) {
-                                    refreshTokenAndResend();
-                                } else {
-                                    try {
-                                        cb.setDone(getRequestVerb(req),
-                                                req.getUrl(),
-                                                getRequestHeaders(req),
-                                                req.getBodyContents(),
-                                                ret.getCode(),
-                                                headers,
-                                                body.getBytes());
-                                    }
-                                    catch(Throwable t) {
-                                        session.getLogger().logError("Callback threw error %s", StackMobLogger.getStackTrace(t));
-                                    }
-                                }
-                            }
-                        }
+                        handleResponse(req, response, cb);
                     }
                     catch(Throwable t) {
-                        session.getLogger().logWarning("Invoking callback after unexpected exception %s", StackMobLogger.getStackTrace(t));
-                        cb.setDone(getRequestVerb(req),
-                                req.getUrl(),
-                                getRequestHeaders(req),
-                                req.getBodyContents(),
-                                -1,
-                                EmptyHeaders,
-                                t.getMessage().getBytes());
+                        failed(t);
+                    }
+                }
+
+                @Override
+                public void failed(Throwable t) {
+                    if(cancelled) {
+                        if(permit != null) permit.cancelled();
+                        return;
                     }
-                    return null;
+                    if(permit != null) permit.failed();
+                    StackMobRetryPolicy policy = getRetryPolicy();
+                    if(policy != null && policy.isRetryable(getRequestVerb(req), t) && retryUnderPolicy(policy, cb, -1)) {
+                        session.getLogger().logWarning("Retrying after %s", t.toString());
+                        return;
+                    }
+                    session.getLogger().logWarning("Invoking callback after unexpected exception %s", StackMobLogger.getStackTrace(t));
+                    String message = t.getMessage() == null ? t.toString() : t.getMessage();
+                    cb.setDone(getRequestVerb(req),
+                            req.getUrl(),
+                            getRequestHeaders(req),
+                            req.getBodyContents(),
+                            -1,
+                            EmptyHeaders,
+                            message.getBytes());
                 }
-            });
+            };
+            final ExecutorService callbackExecutor = session.getCallbackExecutor() == null ? executor : session.getCallbackExecutor();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(cancelled) {
+                            if(permit != null) permit.cancelled();
+                            return;
+                        }
+                        inFlight = session.getTransport().send(req, timeouts, callbackExecutor, handler);
+                        // Cancelled while it was being handed over, before there was anything to cancel
+                        if(cancelled) inFlight.cancel();
+                    }
+                });
+            } catch(RejectedExecutionException e) {
+                if(permit != null) permit.cancelled();
+                cb.unsent(new StackMobException("Too many requests in progress, request was not sent"));
+            }
+        }
+    }
+
+    /*
+     * The host of a url, without scheme or path
+     */
+    private static String circuitHost(String url) {
+        int start = url.indexOf("://");
+        start = start < 0 ? 0 : start + 3;
+        int end = url.indexOf('/', start);
+        return end < 0 ? url.substring(start) : url.substring(start, end);
+    }
+
+    /*
+     * The first segment of a url's path, which is the schema for datastore requests
+     */
+    private static String circuitSchema(String url) {
+        int start = url.indexOf("://");
+        start = url.indexOf('/', start < 0 ? 0 : start + 3);
+        if(start < 0) return null;
+        start++;
+        int end = start;
+        while(end < url.length() && "/?#".indexOf(url.charAt(end)) < 0) end++;
+        return end == start ? null : url.substring(start, end);
+    }
+
+    private StackMobTimeouts getTimeouts() {
+        return optionsTimeouts != null ? optionsTimeouts : session.getTimeouts();
+    }
+
+    private void startDeadline() {
+        if(deadlineStarted) return;
+        StackMobTimeouts timeouts = getTimeouts();
+        if(timeouts != null && timeouts.getDeadlineMillis() > 0) {
+            deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeouts.getDeadlineMillis());
+            hasDeadline = true;
+        }
+        deadlineStarted = true;
+    }
+
+    /*
+     * Milliseconds left before the deadline, or -1 if there isn't one
+     */
+    private long millisToDeadline() {
+        if(!hasDeadline) return -1;
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+
+    /*
+     * The timeouts for the next attempt, with the deadline cut down to what's left of it. Null if it has passed
+     */
+    private StackMobTimeouts getAttemptTimeouts() {
+        StackMobTimeouts timeouts = getTimeouts();
+        long left = millisToDeadline();
+        if(left == 0) return null;
+        if(timeouts == null) timeouts = NoTimeouts;
+        if(left < 0) return timeouts;
+        return new StackMobTimeouts()
+                .setConnectTimeoutMillis(timeouts.getConnectTimeoutMillis())
+                .setReadTimeoutMillis(timeouts.getReadTimeoutMillis())
+                .setDeadlineMillis(left);
+    }
+
+    /*
+     * Whether a retry after the given delay would still be sent before the deadline
+     */
+    private boolean hasTimeToRetry(long delayMillis) {
+        long left = millisToDeadline();
+        return left < 0 || delayMillis < left;
+    }
+
+    private StackMobRetryPolicy getRetryPolicy() {
+        return optionsRetryPolicy != null ? optionsRetryPolicy : session.getRetryPolicy();
+    }
+
+    /*
+     * Schedules a retry if the callback has retries left, agrees to it, and the policy has budget for it
+     */
+    private boolean retryUnderPolicy(StackMobRetryPolicy policy, StackMobRawCallback cb, long retryAfterMillis) {
+        if(cb.getRetriesRemaining() <= 0) return false;
+        long delay = Math.min(Integer.MAX_VALUE, policy.getDelayMillis(retries.get(), retryAfterMillis));
+        if(!hasTimeToRetry(delay) || !cb.retry((int) delay) || !policy.tryAcquireRetry()) return false;
+        cb.setRetriesRemaining(cb.getRetriesRemaining() - 1);
+        retries.incrementAndGet();
+        scheduleRetry((int) delay);
+        return true;
+    }
+
+    private static long retryAfterMillis(List<Map.Entry<String, String>> headers) {
+        for(Map.Entry<String, String> header : headers) {
+            if(Http.isRetryAfterHeader(header.getKey())) {
+                try {
+                    long seconds = Long.parseLong(header.getValue().trim());
+                    if(seconds > 0) return seconds * 1000;
+                } catch(NumberFormatException ignore) { }
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Resends the request once the delay is up. Nothing is held while waiting, the resend goes back through the executor
+     */
+    private void scheduleRetry(int afterMilliseconds) {
+        final Runnable resend = new Runnable() {
+            @Override
+            public void run() {
+                sendRequest();
+            }
+        };
+        try {
+            pendingRetry = retryScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        retrySender.execute(resend);
+                    } catch(RejectedExecutionException e) {
+                        callback.unsent(new StackMobException("The request couldn't be scheduled to retry"));
+                    }
+                }
+            }, afterMilliseconds, TimeUnit.MILLISECONDS);
+        } catch(RejectedExecutionException e) {
+            callback.unsent(new StackMobException("The request couldn't be scheduled to retry"));
+        }
+    }
+
+    private void handleResponse(OAuthRequest req, StackMobHttpResponse ret, StackMobRawCallback cb) throws Exception {
+        String body = new String(ret.getBody(), "UTF-8");
+        String trimmedBody = body.length() < 1000 ? body : (body.subSequence(0, 1000) + " (truncated)");
+        session.getLogger().logInfo("%s", "Response StatusCode: " + ret.getCode() + "\nResponse Headers: " + ret.getHeaders() + "\nResponse: " + trimmedBody);
+        if(!session.isOAuth2()) session.recordServerTimeDiff(ret.getHeader("Date"));
+        if(HttpRedirectHelper.isRedirected(ret.getCode())) {
+            session.getLogger().logInfo("Response was redirected");
+            String newLocation = HttpRedirectHelper.getNewLocation(ret.getHeaders());
+            HttpVerb verb = HttpVerbHelper.valueOf(req.getVerb().toString());
+            OAuthRequest newReq = getOAuthRequest(verb, newLocation);
+            if(req instanceof StackMobPayloadRequest) {
+                newReq = getOAuthRequest(verb, newLocation, ((StackMobPayloadRequest) req).getPayload());
+            } else if(req.getBodyContents() != null && req.getBodyContents().length() > 0) {
+                newReq = getOAuthRequest(verb, newLocation, req.getBodyContents());
+            }
+            //does NOT protect against circular redirects
+            redirectedCallback.redirected(req.getUrl(), ret.getHeaders(), body, newReq.getUrl());
+            sendRequest(newReq);
+            return;
+        }
+
+        List<Map.Entry<String, String>> headers = new ArrayList<Map.Entry<String, String>>();
+        if(ret.getHeaders() != null) {
+            for(Map.Entry<String, String> header : ret.getHeaders().entrySet()) {
+                headers.add(header);
+            }
+        }
+        if(Http.isSuccess(ret.getCode())) {
+            session.getCookieManager().storeCookies(ret.getHeaders());
+        }
+        StackMobRetryPolicy policy = getRetryPolicy();
+        if(policy != null) {
+            if(policy.isRetryable(getRequestVerb(req), ret.getCode()) && retryUnderPolicy(policy, cb, retryAfterMillis(headers))) return;
+        } else if(Http.isUnavailable(ret.getCode())) {
+            int afterMilliseconds = -1;
+            for(Map.Entry<String, String> headerPair : headers) {
+                if(Http.isRetryAfterHeader(headerPair.getKey())) {
+                    try {
+                        int candidateMilliseconds = Integer.parseInt(headerPair.getValue()) * 1000;
+                        if(candidateMilliseconds > 0) {
+                            afterMilliseconds = candidateMilliseconds;
+                        }
+                    } catch(Throwable ignore) { }
+                }
+            }
+            if(afterMilliseconds != -1 && cb.getRetriesRemaining() > 0 && hasTimeToRetry(afterMilliseconds) && cb.retry(afterMilliseconds)) {
+                cb.setRetriesRemaining(cb.getRetriesRemaining() - 1);
+                scheduleRetry(afterMilliseconds);
+                return;
+            }
+        }
+        if(ret.getCode() == HttpURLConnection.HTTP_UNAUTHORIZED && canDoRefreshToken()) {
+            refreshTokenAndResend();
+        } else {
+            try {
+                cb.setDone(getRequestVerb(req),
+                        req.getUrl(),
+                        getRequestHeaders(req),
+                        req.getBodyContents(),
+                        ret.getCode(),
+                        headers,
+                        ret.getBody());
+            }
+            catch(Throwable t) {
+                session.getLogger().logError("Callback threw error %s", StackMobLogger.getStackTrace(t));
+            }
         }
     }
 
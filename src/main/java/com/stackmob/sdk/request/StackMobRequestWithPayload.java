@@ -21,7 +21,12 @@ import com.stackmob.sdk.api.StackMobSession;
 import com.stackmob.sdk.callback.StackMobRawCallback;
 import com.stackmob.sdk.callback.StackMobRedirectedCallback;
 import com.stackmob.sdk.net.HttpVerbWithPayload;
+import com.stackmob.sdk.net.StackMobPayload;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
@@ -69,4 +74,24 @@ public class StackMobRequestWithPayload extends StackMobRequest {
         }
         return "";
     }
+
+    /*
+     * Request objects are written straight to the connection rather than going through a String first
+     */
+    @Override protected StackMobPayload getRequestPayload() {
+        if(this.body != null || this.requestObject == null) {
+            return null;
+        }
+        if(this.requestObject instanceof StackMobPayload) {
+            return (StackMobPayload) this.requestObject;
+        }
+        return new StackMobPayload() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                Writer writer = new OutputStreamWriter(out, "UTF-8");
+                gson.toJson(requestObject, writer);
+                writer.flush();
+            }
+        };
+    }
 }
@@ -29,6 +29,8 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * This class stores some information about classes in an easily queriable form
@@ -45,34 +47,56 @@ public enum SerializationMetadata {
     MODEL_ARRAY;
 
     public static SerializationMetadata getSerializationMetadata(Class<?> actualClass, String fieldName) {
-        ensureMetadata(actualClass);
-        return metadataForClasses.get(actualClass).get(fieldName);
+        return forClass(actualClass).metadata.get(fieldName);
     }
     
     public static String getFieldNameFromJsonName(Class<?> actualClass, String jsonName) {
-        ensureMetadata(actualClass);
-        return jsonNamesForClasses.get(actualClass).get(jsonName);
+        return forClass(actualClass).jsonNames.get(jsonName);
     }
 
-    private static Map<Class<?>,Map<String,SerializationMetadata>> metadataForClasses = new HashMap<Class<?>, Map<String, SerializationMetadata>>();
-    private static Map<Class<?>,Map<String,String>> jsonNamesForClasses = new HashMap<Class<?>, Map<String, String>>();
+    /*
+     * The metadata for one class. It's fully built before it's published and never modified afterwards, so
+     * any number of threads can read it without locking.
+     */
+    private static class ClassMetadata {
+        final Map<String,SerializationMetadata> metadata = new HashMap<String, SerializationMetadata>();
+        final Map<String,String> jsonNames = new HashMap<String, String>();
 
-    public static synchronized void ensureMetadata(Class<?> actualClass) {
-        if(!metadataForClasses.containsKey(actualClass)) {
-            metadataForClasses.put(actualClass,new HashMap<String, SerializationMetadata>());
-            jsonNamesForClasses.put(actualClass, new HashMap<String, String>());
+        ClassMetadata(Class<?> actualClass) {
             Class<?> currentClass = actualClass;
             //Sort the fields into groupings we care about for serialization
             while(!currentClass.equals(StackMobModel.class)) {
                 for(Field field : currentClass.getDeclaredFields()) {
-                    jsonNamesForClasses.get(actualClass).put(field.getName().toLowerCase(), field.getName());
-                    metadataForClasses.get(actualClass).put(field.getName(), determineMetadata(field));
+                    jsonNames.put(field.getName().toLowerCase(), field.getName());
+                    metadata.put(field.getName(), determineMetadata(field));
                 }
                 currentClass = currentClass.getSuperclass();
             }
         }
     }
 
+    private static final ConcurrentMap<Class<?>,ClassMetadata> metadataForClasses = new ConcurrentHashMap<Class<?>, ClassMetadata>();
+
+    /**
+     * work out the metadata for a class if it hasn't been already. After the first call for a class this is a
+     * single uncontended map lookup.
+     * @param actualClass the model class
+     */
+    public static void ensureMetadata(Class<?> actualClass) {
+        forClass(actualClass);
+    }
+
+    private static ClassMetadata forClass(Class<?> actualClass) {
+        ClassMetadata classMetadata = metadataForClasses.get(actualClass);
+        if(classMetadata == null) {
+            // Two threads may both build it, but only the first one is ever published
+            ClassMetadata built = new ClassMetadata(actualClass);
+            classMetadata = metadataForClasses.putIfAbsent(actualClass, built);
+            if(classMetadata == null) classMetadata = built;
+        }
+        return classMetadata;
+    }
+
     private static SerializationMetadata determineMetadata(Field field) {
         if(isArray(field.getType())) {
             Class<?> componentClass = getComponentClass(field);
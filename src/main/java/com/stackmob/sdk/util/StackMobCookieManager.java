@@ -51,7 +51,14 @@ public class StackMobCookieManager {
     }
 
     public void storeCookies(Response resp) {
-        storeCookie(resp.getHeaders().get(SetCookieHeaderKey));
+        storeCookies(resp.getHeaders());
+    }
+
+    public void storeCookies(Map<String, String> headers) {
+        if(headers == null) return;
+        for(Map.Entry<String, String> header : headers.entrySet()) {
+            if(SetCookieHeaderKey.equalsIgnoreCase(header.getKey())) storeCookie(header.getValue());
+        }
     }
     
     protected void storeCookie(String cookieString) {
@@ -113,6 +120,8 @@ public class StackMobCookieManager {
     }
 
     public String cookieHeader() {
+        // Most requests have no cookies to send, skip building an empty header for them
+        if(cookies.isEmpty()) return "";
         return cookieMapToHeaderString(cookies);
     }
 }
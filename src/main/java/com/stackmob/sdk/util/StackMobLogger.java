@@ -35,6 +35,15 @@ public class StackMobLogger {
         enableLogging = logging;
     }
 
+    /**
+     * whether messages are being logged. The sdk checks this before building expensive messages, so subclasses
+     * that decide for themselves whether to log should override it too
+     * @return whether to log
+     */
+    public boolean isLoggingEnabled() {
+        return enableLogging;
+    }
+
 
     /**
      * log a message with debug priority
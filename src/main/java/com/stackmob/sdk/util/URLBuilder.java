@@ -0,0 +1,196 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.util;
+
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds request urls and query strings in a single pass. Everything is written into one buffer per thread, which is
+ * reused from request to request, and percent encoding is done a character at a time straight into that buffer
+ * rather than through {@link java.net.URLEncoder} and intermediate strings.
+ */
+public class URLBuilder {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    // How characters are encoded: URLEncoder's safe characters with space as %20 or +, or OAuth's (RFC 3986)
+    private static final int QUERY = 0;
+    private static final int FORM = 1;
+    private static final int OAUTH = 2;
+    // Buffers that grew past this for an unusually long url aren't kept
+    private static final int MAX_KEPT_CAPACITY = 8192;
+
+    private static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    /**
+     * build a url. Only the last segment of the path is encoded, so ids with unusual characters in them are safe
+     * @param scheme the scheme, such as http
+     * @param host the host, with the port if there is one
+     * @param path the path
+     * @param params the query string parameters, or null for none
+     * @return the url
+     * @throws URISyntaxException if the path has characters in it that can't appear in a url
+     */
+    public static String url(String scheme, String host, String path, List<Map.Entry<String, String>> params) throws URISyntaxException {
+        StringBuilder out = buffer();
+        out.append(scheme).append("://").append(host);
+        appendPath(out, path);
+        if(params != null && !params.isEmpty()) {
+            out.append('?');
+            appendQueryString(out, params);
+        }
+        return release(out);
+    }
+
+    /**
+     * build a query string, with each name and value percent encoded
+     * @param params the parameters
+     * @return the query string, without a leading ?
+     */
+    public static String queryString(List<Map.Entry<String, String>> params) {
+        StringBuilder out = buffer();
+        appendQueryString(out, params);
+        return release(out);
+    }
+
+    /**
+     * percent encode a string as UTF-8, with spaces as %20
+     * @param s the string to encode
+     * @return the encoded string
+     */
+    public static String percentEncode(String s) {
+        return encode(s, QUERY);
+    }
+
+    /**
+     * percent encode a string exactly as {@link java.net.URLEncoder} does with UTF-8, with spaces as +
+     * @param s the string to encode
+     * @return the encoded string
+     */
+    public static String formEncode(String s) {
+        return encode(s, FORM);
+    }
+
+    /**
+     * percent encode a string for an OAuth1 signature, the way scribe's OAuthEncoder does. Only letters, digits and
+     * .-_~ are left alone
+     * @param s the string to encode
+     * @return the encoded string
+     */
+    public static String oauthEncode(String s) {
+        return encode(s, OAUTH);
+    }
+
+    private static String encode(String s, int style) {
+        StringBuilder out = buffer();
+        appendEncoded(out, s, 0, s.length(), style);
+        return release(out);
+    }
+
+    private static StringBuilder buffer() {
+        StringBuilder buffer = buffers.get();
+        buffer.setLength(0);
+        return buffer;
+    }
+
+    private static String release(StringBuilder buffer) {
+        String result = buffer.toString();
+        if(buffer.capacity() > MAX_KEPT_CAPACITY) buffers.remove();
+        return result;
+    }
+
+    private static void appendQueryString(StringBuilder out, List<Map.Entry<String, String>> params) {
+        boolean first = true;
+        for(Map.Entry<String, String> param : params) {
+            if(!first) out.append('&');
+            first = false;
+            appendEncoded(out, param.getKey(), 0, param.getKey().length(), QUERY);
+            out.append('=');
+            appendEncoded(out, param.getValue(), 0, param.getValue().length(), QUERY);
+        }
+    }
+
+    /*
+     * Appends the path with a leading slash and without trailing ones. The segments before the last are checked
+     * rather than encoded, and the last is encoded the way URLEncoder would
+     */
+    private static void appendPath(StringBuilder out, String path) throws URISyntaxException {
+        if(!path.startsWith("/")) out.append('/');
+        int end = path.length();
+        while(end > 0 && path.charAt(end - 1) == '/') end--;
+        int lastSegment = path.lastIndexOf('/', end - 1) + 1;
+        for(int i = 0; i < lastSegment; i++) {
+            char c = path.charAt(i);
+            if(c <= ' ' || c == 0x7F || "\"<>\\^`{|}".indexOf(c) >= 0) {
+                throw new URISyntaxException(path, "Illegal character in path", i);
+            }
+            out.append(c);
+        }
+        appendEncoded(out, path, lastSegment, end, FORM);
+    }
+
+    /*
+     * Percent encodes part of a string as UTF-8, leaving the same characters alone as URLEncoder, or as OAuth
+     */
+    private static void appendEncoded(StringBuilder out, String s, int start, int end, int style) {
+        for(int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '_') {
+                out.append(c);
+            } else if(c == '*' && style != OAUTH) {
+                out.append(c);
+            } else if(c == '~' && style == OAUTH) {
+                out.append(c);
+            } else if(c == ' ') {
+                if(style == FORM) {
+                    out.append('+');
+                } else {
+                    out.append("%20");
+                }
+            } else if(c < 0x80) {
+                appendByte(out, c);
+            } else if(c < 0x800) {
+                appendByte(out, 0xC0 | (c >> 6));
+                appendByte(out, 0x80 | (c & 0x3F));
+            } else if(Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                appendByte(out, 0xF0 | (codePoint >> 18));
+                appendByte(out, 0x80 | ((codePoint >> 12) & 0x3F));
+                appendByte(out, 0x80 | ((codePoint >> 6) & 0x3F));
+                appendByte(out, 0x80 | (codePoint & 0x3F));
+            } else if(c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // A lone surrogate can't be encoded, URLEncoder writes a ? in its place
+                appendByte(out, '?');
+            } else {
+                appendByte(out, 0xE0 | (c >> 12));
+                appendByte(out, 0x80 | ((c >> 6) & 0x3F));
+                appendByte(out, 0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static void appendByte(StringBuilder out, int b) {
+        out.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.stackmob.sdk.api;
+
+import com.stackmob.sdk.serverutils.LatchedCallback;
+import com.stackmob.sdk.serverutils.LocalServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StackMobCircuitBreakerTests {
+
+    private LocalServer server;
+    private final AtomicInteger served = new AtomicInteger();
+    // The status to answer requests for the failing schema with, and how long to wait before answering any request
+    private volatile int failingStatus = 500;
+    private volatile long delayMillis = 0;
+    private StackMob stackmob;
+    private String host;
+
+    @Before public void setUp() throws Exception {
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public String respond(LocalServer.Request request) throws Exception {
+                served.incrementAndGet();
+                if(delayMillis > 0) Thread.sleep(delayMillis);
+                if(request.getTarget().contains("/failing")) return LocalServer.response(failingStatus, "");
+                return LocalServer.response(200, "{}");
+            }
+        });
+        host = server.getHost();
+        stackmob = server.createStackMob();
+    }
+
+    @After public void tearDown() throws Exception {
+        server.close();
+    }
+
+    private LatchedCallback get(String schema) throws InterruptedException {
+        LatchedCallback result = new LatchedCallback();
+        stackmob.getDatastore().get(schema, result);
+        result.await();
+        return result;
+    }
+
+    private static StackMobCircuitBreaker smallBreaker() {
+        return new StackMobCircuitBreaker().setWindowSize(4).setMinimumRequests(4).setFailureRate(0.5).setProbes(1);
+    }
+
+    @Test public void errorsOpenTheCircuitAndProbesCloseIt() throws Exception {
+        StackMobCircuitBreaker breaker = smallBreaker().setOpenMillis(200);
+        stackmob.setCircuitBreaker(breaker);
+        for(int i = 0; i < 4; i++) assertFalse(get("failing").hasSucceeded());
+        assertEquals(4, served.get());
+        assertEquals(StackMobCircuitBreaker.State.OPEN, breaker.getState(host, "failing"));
+        assertEquals(1, breaker.getTrips());
+
+        // Requests fail without reaching the server while the circuit's open
+        LatchedCallback result = get("other");
+        assertFalse(result.hasSucceeded());
+        assertTrue(result.getException().getMessage().contains("circuit"));
+        assertEquals(4, served.get());
+        assertEquals(1, breaker.getRejected());
+
+        Thread.sleep(250);
+        assertEquals(StackMobCircuitBreaker.State.HALF_OPEN, breaker.getState(host, "failing"));
+        assertTrue(get("other").hasSucceeded());
+        assertEquals(5, served.get());
+        assertEquals(StackMobCircuitBreaker.State.CLOSED, breaker.getState(host, "failing"));
+    }
+
+    @Test public void aFailedProbeReopensTheCircuit() throws Exception {
+        StackMobCircuitBreaker breaker = smallBreaker().setOpenMillis(200);
+        stackmob.setCircuitBreaker(breaker);
+        for(int i = 0; i < 4; i++) get("failing");
+        Thread.sleep(250);
+        assertFalse(get("failing").hasSucceeded());
+        assertEquals(5, served.get());
+        assertEquals(StackMobCircuitBreaker.State.OPEN, breaker.getState(host, "failing"));
+        assertEquals(2, breaker.getTrips());
+        get("failing");
+        assertEquals(5, served.get());
+    }
+
+    @Test public void schemasCanHaveTheirOwnCircuits() throws Exception {
+        StackMobCircuitBreaker breaker = smallBreaker().setPerSchema(true);
+        stackmob.setCircuitBreaker(breaker);
+        for(int i = 0; i < 4; i++) get("failing");
+        assertEquals(StackMobCircuitBreaker.State.OPEN, breaker.getState(host, "failing"));
+        assertEquals(StackMobCircuitBreaker.State.CLOSED, breaker.getState(host, "other"));
+        assertTrue(get("other").hasSucceeded());
+        assertFalse(get("failing").hasSucceeded());
+        assertEquals(5, served.get());
+    }
+
+    @Test public void slowRequestsOpenTheCircuit() throws Exception {
+        StackMobCircuitBreaker breaker = smallBreaker().setSlowCalls(50, 0.5);
+        stackmob.setCircuitBreaker(breaker);
+        delayMillis = 100;
+        for(int i = 0; i < 4; i++) assertTrue(get("other").hasSucceeded());
+        assertEquals(StackMobCircuitBreaker.State.OPEN, breaker.getState(host, "other"));
+    }
+
+    @Test public void clientErrorsDontOpenTheCircuit() throws Exception {
+        StackMobCircuitBreaker breaker = smallBreaker();
+        stackmob.setCircuitBreaker(breaker);
+        failingStatus = 404;
+        for(int i = 0; i < 8; i++) get("failing");
+        assertEquals(StackMobCircuitBreaker.State.CLOSED, breaker.getState(host, "failing"));
+        assertEquals(8, served.get());
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.api;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.stackmob.sdk.callback.StackMobCallback;
+import com.stackmob.sdk.exception.StackMobException;
+import com.stackmob.sdk.serverutils.LocalServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.URLDecoder;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class StackMobCursorTests {
+
+    // Sort values with a few ties, and one run of ties longer than a page
+    private static final int[] CREATED = { 1, 2, 2, 3, 4, 4, 4, 5, 6, 6, 6, 6, 6, 6, 6, 6, 7, 8, 9, 9 };
+
+    private LocalServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private StackMob stackmob;
+
+    /*
+     * Answers queries on the createddate and thing_id of the objects in CREATED, in createddate then id order
+     */
+    @Before public void setUp() throws Exception {
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public String respond(LocalServer.Request request) throws Exception {
+                requests.incrementAndGet();
+                Map<String, String> args = new HashMap<String, String>();
+                String target = request.getTarget();
+                if(target.indexOf('?') >= 0) {
+                    for(String arg : target.substring(target.indexOf('?') + 1).split("&")) {
+                        String[] pair = arg.split("=");
+                        args.put(URLDecoder.decode(pair[0], "UTF-8"), URLDecoder.decode(pair[1], "UTF-8"));
+                    }
+                }
+                String[] bounds = request.getHeader("Range").substring("objects=".length()).split("-");
+                int first = Integer.parseInt(bounds[0]);
+                int last = Integer.parseInt(bounds[1]);
+                StringBuilder body = new StringBuilder("[");
+                int matched = 0;
+                for(int i = 0; i < CREATED.length; i++) {
+                    String id = String.format("id%02d", i);
+                    if(args.containsKey("createddate[gte]") && CREATED[i] < Integer.parseInt(args.get("createddate[gte]"))) continue;
+                    if(args.containsKey("createddate[gt]") && CREATED[i] <= Integer.parseInt(args.get("createddate[gt]"))) continue;
+                    if(args.containsKey("createddate") && CREATED[i] != Integer.parseInt(args.get("createddate"))) continue;
+                    if(args.containsKey("thing_id[gt]") && id.compareTo(args.get("thing_id[gt]")) <= 0) continue;
+                    if(matched >= first && matched <= last) {
+                        if(body.length() > 1) body.append(',');
+                        body.append("{\"thing_id\":\"").append(id).append("\",\"createddate\":").append(CREATED[i]).append('}');
+                    }
+                    matched++;
+                }
+                body.append(']');
+                return LocalServer.response(200, body.toString());
+            }
+        });
+        stackmob = server.createStackMob();
+    }
+
+    @After public void tearDown() throws Exception {
+        server.close();
+    }
+
+    private List<String> nextPage(StackMobCursor cursor) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<String> page = new AtomicReference<String>();
+        stackmob.getDatastore().get(cursor, new StackMobCallback() {
+            @Override
+            public void success(String responseBody) {
+                page.set(responseBody);
+                latch.countDown();
+            }
+
+            @Override
+            public void failure(StackMobException e) {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertNotNull(page.get());
+        List<String> ids = new ArrayList<String>();
+        for(JsonElement object : new JsonParser().parse(page.get()).getAsJsonArray()) {
+            ids.add(object.getAsJsonObject().get("thing_id").getAsString());
+        }
+        return ids;
+    }
+
+    private static List<String> allIDs() {
+        List<String> ids = new ArrayList<String>();
+        for(int i = 0; i < CREATED.length; i++) {
+            ids.add(String.format("id%02d", i));
+        }
+        return ids;
+    }
+
+    @Test public void readsEveryObjectOnce() throws Exception {
+        StackMobCursor cursor = new StackMobCursor(new StackMobQuery("thing"), "createddate", "thing_id", 5);
+        List<String> ids = new ArrayList<String>();
+        while(cursor.hasMore()) {
+            ids.addAll(nextPage(cursor));
+        }
+        assertEquals(allIDs(), ids);
+    }
+
+    @Test public void resumesAfterSerialization() throws Exception {
+        StackMobCursor cursor = new StackMobCursor(new StackMobQuery("thing").isInRange(0, 2), "createddate", "thing_id", 3);
+        List<String> ids = new ArrayList<String>();
+        ids.addAll(nextPage(cursor));
+        ids.addAll(nextPage(cursor));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(cursor);
+        out.close();
+        StackMobCursor resumed = (StackMobCursor) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+        while(resumed.hasMore()) {
+            ids.addAll(nextPage(resumed));
+        }
+        assertEquals(allIDs(), ids);
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.api;
+
+import com.stackmob.sdk.api.StackMobExecutionConfig.BackPressure;
+import com.stackmob.sdk.callback.StackMobCallback;
+import com.stackmob.sdk.exception.StackMobException;
+import com.stackmob.sdk.serverutils.LocalServer;
+import org.junit.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class StackMobExecutionConfigTests {
+
+    private static Runnable await(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await();
+                } catch(InterruptedException ignore) { }
+            }
+        };
+    }
+
+    @Test public void failFastRejects() throws Exception {
+        ExecutorService executor = StackMobExecutionConfig.bounded(1, 1).withBackPressure(BackPressure.FAIL_FAST).createRequestExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.execute(await(release));
+            executor.execute(await(release));
+            try {
+                executor.execute(await(release));
+                fail("a full pool should reject");
+            } catch(RejectedExecutionException expected) { }
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test public void callerRuns() throws Exception {
+        ExecutorService executor = StackMobExecutionConfig.bounded(1, 0).withBackPressure(BackPressure.CALLER_RUNS).createRequestExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<Thread> ranOn = new AtomicReference<Thread>();
+        try {
+            executor.execute(await(release));
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ranOn.set(Thread.currentThread());
+                }
+            });
+            assertSame(Thread.currentThread(), ranOn.get());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test public void blockWaitsForRoom() throws Exception {
+        final ExecutorService executor = StackMobExecutionConfig.bounded(1, 0).withBackPressure(BackPressure.BLOCK).createRequestExecutor();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch secondRan = new CountDownLatch(1);
+        try {
+            executor.execute(await(release));
+            Thread submitter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            secondRan.countDown();
+                        }
+                    });
+                }
+            });
+            submitter.start();
+            submitter.join(200);
+            assertTrue("submitter should be blocked", submitter.isAlive());
+            release.countDown();
+            assertTrue(secondRan.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test public void separateCallbackPool() throws Exception {
+        assertNull(StackMobExecutionConfig.unbounded().createCallbackExecutor());
+        ExecutorService callbacks = StackMobExecutionConfig.unbounded().withCallbackThreads(2).createCallbackExecutor();
+        assertNotNull(callbacks);
+        callbacks.shutdown();
+        // A bounded request pool always gets a callback pool
+        callbacks = StackMobExecutionConfig.bounded(1, 0).createCallbackExecutor();
+        assertNotNull(callbacks);
+        callbacks.shutdown();
+    }
+
+    @Test public void callbacksCanSendRequestsFromAFullPool() throws Exception {
+        LocalServer server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public String respond(LocalServer.Request request) {
+                return LocalServer.response(200, "{}");
+            }
+        });
+        final StackMob stackmob = server.createStackMob(StackMobExecutionConfig.bounded(1, 0).withBackPressure(BackPressure.BLOCK));
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<String> callbackThread = new AtomicReference<String>();
+        try {
+            stackmob.getDatastore().get("game", new StackMobCallback() {
+                @Override
+                public void success(String responseBody) {
+                    callbackThread.set(Thread.currentThread().getName());
+                    stackmob.getDatastore().get("game", new StackMobCallback() {
+                        @Override
+                        public void success(String responseBody) {
+                            done.countDown();
+                        }
+
+                        @Override
+                        public void failure(StackMobException e) { }
+                    });
+                }
+
+                @Override
+                public void failure(StackMobException e) { }
+            });
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertTrue(callbackThread.get(), callbackThread.get().startsWith("StackMob-callback"));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test public void virtualThreadsFallBack() throws Exception {
+        ExecutorService executor = StackMobExecutionConfig.virtualThreads().createRequestExecutor();
+        assertNotNull(executor);
+        final CountDownLatch ran = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        });
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test public void fullPoolCallsUnsent() throws Exception {
+        StackMob stackmob = new StackMob(StackMob.OAuthVersion.One, 0, "API_KEY", "API_SECRET", StackMob.DEFAULT_API_HOST,
+                StackMob.DEFAULT_USER_SCHEMA_NAME, StackMob.DEFAULT_USER_ID, StackMob.DEFAULT_PASSWORD_FIELD,
+                StackMob.DEFAULT_REDIRECTED_CALLBACK, StackMobExecutionConfig.bounded(1, 0).withBackPressure(BackPressure.FAIL_FAST));
+        CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<StackMobException> unsent = new AtomicReference<StackMobException>();
+        try {
+            stackmob.getExecutor().execute(await(release));
+            stackmob.getDatastore().get("game", new StackMobCallback() {
+                @Override
+                public void unsent(StackMobException e) {
+                    unsent.set(e);
+                    done.countDown();
+                }
+
+                @Override
+                public void success(String responseBody) {
+                    done.countDown();
+                }
+
+                @Override
+                public void failure(StackMobException e) {
+                    done.countDown();
+                }
+            });
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertNotNull(unsent.get());
+        } finally {
+            release.countDown();
+            stackmob.shutdown();
+        }
+    }
+}
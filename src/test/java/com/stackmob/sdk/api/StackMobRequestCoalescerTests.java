@@ -0,0 +1,109 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.api;
+
+import com.stackmob.sdk.callback.StackMobRawCallback;
+import com.stackmob.sdk.exception.StackMobException;
+import com.stackmob.sdk.net.HttpVerb;
+import com.stackmob.sdk.serverutils.LocalServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StackMobRequestCoalescerTests {
+
+    private LocalServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private StackMob stackmob;
+    private StackMobRequestCoalescer coalescer;
+
+    /*
+     * Holds every response until the test releases them
+     */
+    @Before public void setUp() throws Exception {
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public String respond(LocalServer.Request request) throws Exception {
+                String body = "[{\"n\":" + requests.incrementAndGet() + "}]";
+                release.await(10, TimeUnit.SECONDS);
+                return LocalServer.response(200, body);
+            }
+        });
+        stackmob = server.createStackMob();
+        coalescer = new StackMobRequestCoalescer();
+        stackmob.getDatastore().setRequestCoalescer(coalescer);
+    }
+
+    @After public void tearDown() throws Exception {
+        release.countDown();
+        server.close();
+    }
+
+    private StackMobRawCallback collect(final ConcurrentLinkedQueue<String> bodies, final CountDownLatch done) {
+        return new StackMobRawCallback() {
+            @Override
+            public void unsent(StackMobException e) {
+                done.countDown();
+            }
+
+            @Override
+            public void temporaryPasswordResetRequired(StackMobException e) {
+                done.countDown();
+            }
+
+            @Override
+            public void done(HttpVerb requestVerb, String requestURL, List<Map.Entry<String, String>> requestHeaders, String requestBody,
+                             Integer responseStatusCode, List<Map.Entry<String, String>> responseHeaders, byte[] responseBody) {
+                bodies.add(new String(responseBody));
+                done.countDown();
+            }
+        };
+    }
+
+    @Test public void identicalGetsShareOneRequest() throws Exception {
+        ConcurrentLinkedQueue<String> bodies = new ConcurrentLinkedQueue<String>();
+        CountDownLatch done = new CountDownLatch(6);
+        for(int i = 0; i < 5; i++) {
+            stackmob.getDatastore().get(new StackMobQuery("game").fieldIsEqualTo("name", "chess"), collect(bodies, done));
+        }
+        stackmob.getDatastore().get(new StackMobQuery("game").fieldIsEqualTo("name", "go"), collect(bodies, done));
+        assertEquals(2, coalescer.getInFlight());
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(2, requests.get());
+        assertEquals(2, coalescer.getSent());
+        assertEquals(4, coalescer.getCoalesced());
+        assertEquals(0, coalescer.getInFlight());
+        assertEquals(6, bodies.size());
+
+        // Once the response is in, the next GET goes to the server again
+        CountDownLatch again = new CountDownLatch(1);
+        stackmob.getDatastore().get(new StackMobQuery("game").fieldIsEqualTo("name", "chess"), collect(bodies, again));
+        assertTrue(again.await(10, TimeUnit.SECONDS));
+        assertEquals(3, requests.get());
+    }
+}
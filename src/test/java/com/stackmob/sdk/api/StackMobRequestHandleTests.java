@@ -0,0 +1,134 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.stackmob.sdk.api;
+
+import com.stackmob.sdk.serverutils.LatchedCallback;
+import com.stackmob.sdk.serverutils.LocalServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StackMobRequestHandleTests {
+
+    private LocalServer server;
+    private final AtomicInteger served = new AtomicInteger();
+    private final CountDownLatch received = new CountDownLatch(1);
+    private final CountDownLatch closed = new CountDownLatch(1);
+    // What to answer with: 0 to never answer, otherwise a status code. Read when the request comes in
+    private volatile int status = 200;
+    private volatile long delayMillis = 0;
+    private StackMob stackmob;
+
+    @Before public void setUp() throws Exception {
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public String respond(LocalServer.Request request) throws Exception {
+                int answer = status;
+                served.incrementAndGet();
+                received.countDown();
+                if(answer == 0) return "";
+                if(delayMillis > 0) Thread.sleep(delayMillis);
+                return answer == 200 ? LocalServer.response(200, "{}") : LocalServer.response(answer, "", "Retry-After: 1");
+            }
+
+            @Override
+            public void closed() {
+                closed.countDown();
+            }
+        });
+        stackmob = server.createStackMob();
+    }
+
+    @After public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test public void finishedCallsCantBeCancelled() throws Exception {
+        LatchedCallback result = new LatchedCallback();
+        StackMobRequestHandle handle = stackmob.getDatastore().get("thing", result);
+        assertTrue(handle.await(5, TimeUnit.SECONDS));
+        assertEquals(StackMobRequestHandle.Status.DONE, handle.getStatus());
+        assertEquals(1, result.getCalls());
+        assertFalse(handle.cancel());
+    }
+
+    @Test public void cancellingClosesTheConnection() throws Exception {
+        status = 0;
+        LatchedCallback result = new LatchedCallback();
+        StackMobRequestHandle handle = stackmob.getDatastore().get("thing", result);
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        assertTrue(handle.cancel());
+        assertEquals(StackMobRequestHandle.Status.CANCELLED, handle.getStatus());
+        assertTrue(handle.await(1, TimeUnit.SECONDS));
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(0, result.getCalls());
+    }
+
+    @Test public void cancellingStopsRetries() throws Exception {
+        status = 503;
+        LatchedCallback result = new LatchedCallback();
+        StackMobRequestHandle handle = stackmob.getDatastore().post("thing", "{}", result);
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        // The 503 asks for a retry in a second
+        Thread.sleep(200);
+        assertTrue(handle.cancel());
+        Thread.sleep(1500);
+        assertEquals(1, served.get());
+        assertEquals(0, result.getCalls());
+    }
+
+    @Test public void cancellingACoalescedGetLeavesItToTheOthers() throws Exception {
+        stackmob.getDatastore().setRequestCoalescer(new StackMobRequestCoalescer());
+        delayMillis = 300;
+        LatchedCallback first = new LatchedCallback();
+        LatchedCallback second = new LatchedCallback();
+        StackMobRequestHandle firstHandle = stackmob.getDatastore().get("thing", first);
+        StackMobRequestHandle secondHandle = stackmob.getDatastore().get("thing", second);
+        assertTrue(firstHandle.cancel());
+        assertTrue(secondHandle.await(5, TimeUnit.SECONDS));
+        assertEquals(StackMobRequestHandle.Status.DONE, secondHandle.getStatus());
+        assertEquals(0, first.getCalls());
+        assertEquals(1, second.getCalls());
+        assertEquals(1, served.get());
+    }
+
+    @Test public void cancellingACoalescedGetKeepsItsRetries() throws Exception {
+        stackmob.getDatastore().setRequestCoalescer(new StackMobRequestCoalescer());
+        status = 503;
+        delayMillis = 300;
+        LatchedCallback first = new LatchedCallback();
+        LatchedCallback second = new LatchedCallback();
+        StackMobRequestHandle firstHandle = stackmob.getDatastore().get("thing", first);
+        StackMobRequestHandle secondHandle = stackmob.getDatastore().get("thing", second);
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        // Cancelled before the 503 comes back asking for a retry
+        assertTrue(firstHandle.cancel());
+        status = 200;
+        assertTrue(secondHandle.await(10, TimeUnit.SECONDS));
+        assertTrue(second.hasSucceeded());
+        assertEquals(0, first.getCalls());
+        assertEquals(2, served.get());
+    }
+}
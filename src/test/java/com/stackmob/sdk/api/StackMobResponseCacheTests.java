@@ -0,0 +1,201 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.api;
+
+import com.stackmob.sdk.callback.StackMobRawCallback;
+import com.stackmob.sdk.exception.StackMobException;
+import com.stackmob.sdk.net.HttpVerb;
+import com.stackmob.sdk.serverutils.LocalServer;
+import com.stackmob.sdk.util.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class StackMobResponseCacheTests {
+
+    private LocalServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile String etag;
+    private volatile String responseBody;
+    private final AtomicReference<String> ifModifiedSince = new AtomicReference<String>();
+    private StackMob stackmob;
+    private StackMobResponseCache cache;
+
+    /*
+     * Answers every request with the number of requests the server has seen so far, or with 304 if the client
+     * already has the current etag
+     */
+    @Before public void setUp() throws Exception {
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public String respond(LocalServer.Request request) {
+                if(request.getHeader("If-Modified-Since") != null) ifModifiedSince.set(request.getHeader("If-Modified-Since"));
+                int n = requests.incrementAndGet();
+                String currentEtag = etag;
+                if(currentEtag != null && currentEtag.equals(request.getHeader("If-None-Match"))) {
+                    return "HTTP/1.1 304 Not Modified\r\n\r\n";
+                }
+                String body = responseBody == null ? "[{\"n\":" + n + "}]" : responseBody;
+                return currentEtag == null ? LocalServer.response(200, body) : LocalServer.response(200, body, "ETag: " + currentEtag);
+            }
+        });
+        stackmob = server.createStackMob();
+        cache = new StackMobResponseCache();
+        stackmob.getDatastore().setResponseCache(cache);
+    }
+
+    @After public void tearDown() throws Exception {
+        server.close();
+    }
+
+    private static class Result extends StackMobRawCallback {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<String> body = new AtomicReference<String>();
+
+        @Override
+        public void unsent(StackMobException e) {
+            latch.countDown();
+        }
+
+        @Override
+        public void temporaryPasswordResetRequired(StackMobException e) {
+            latch.countDown();
+        }
+
+        @Override
+        public void done(HttpVerb requestVerb, String requestURL, List<Map.Entry<String, String>> requestHeaders, String requestBody,
+                         Integer responseStatusCode, List<Map.Entry<String, String>> responseHeaders, byte[] responseBody) {
+            body.set(new String(responseBody));
+            latch.countDown();
+        }
+
+        String await() throws InterruptedException {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            return body.get();
+        }
+    }
+
+    private String get(StackMobQuery query) throws InterruptedException {
+        Result result = new Result();
+        stackmob.getDatastore().get(query, result);
+        return result.await();
+    }
+
+    private String post(String path) throws InterruptedException {
+        Result result = new Result();
+        stackmob.getDatastore().post(path, "{}", result);
+        return result.await();
+    }
+
+    @Test public void repeatedQueryIsCached() throws Exception {
+        String first = get(new StackMobQuery("game").fieldIsEqualTo("name", "chess").fieldIsEqualTo("owner", "bob").isInRange(0, 9));
+        String second = get(new StackMobQuery("game").fieldIsEqualTo("owner", "bob").fieldIsEqualTo("name", "chess").isInRange(0, 9));
+        assertEquals(first, second);
+        assertEquals(1, requests.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        // A different range is a different response
+        get(new StackMobQuery("game").fieldIsEqualTo("name", "chess").fieldIsEqualTo("owner", "bob").isInRange(10, 19));
+        assertEquals(2, requests.get());
+    }
+
+    @Test public void writesInvalidateTheirSchema() throws Exception {
+        get(new StackMobQuery("game"));
+        get(new StackMobQuery("player"));
+        post("game");
+        get(new StackMobQuery("game"));
+        get(new StackMobQuery("player"));
+        assertEquals(4, requests.get());
+        assertEquals(1, cache.getHits());
+        // Writing to a relation can change any schema
+        post("game/1/players");
+        get(new StackMobQuery("player"));
+        assertEquals(6, requests.get());
+    }
+
+    @Test public void entriesExpire() throws Exception {
+        cache.setTimeToLiveMillis("game", 1);
+        get(new StackMobQuery("game"));
+        Thread.sleep(10);
+        get(new StackMobQuery("game"));
+        assertEquals(2, requests.get());
+        cache.setTimeToLiveMillis("game", 0);
+        get(new StackMobQuery("game"));
+        get(new StackMobQuery("game"));
+        assertEquals(4, requests.get());
+    }
+
+    @Test public void leastRecentlyUsedIsEvicted() throws Exception {
+        cache.setMaxEntries(2);
+        get(new StackMobQuery("game"));
+        get(new StackMobQuery("player"));
+        get(new StackMobQuery("game"));
+        get(new StackMobQuery("score"));
+        assertEquals(1, cache.getEvictions());
+        get(new StackMobQuery("game"));
+        assertEquals(3, requests.get());
+        get(new StackMobQuery("player"));
+        assertEquals(4, requests.get());
+    }
+
+    @Test public void expiredResponsesAreRevalidated() throws Exception {
+        etag = "\"v1\"";
+        cache.setTimeToLiveMillis(1);
+        String first = get(new StackMobQuery("game"));
+        Thread.sleep(10);
+        assertEquals(first, get(new StackMobQuery("game")));
+        assertEquals(2, requests.get());
+        assertEquals(1, cache.getRevalidations());
+        // Once the server has a new version the body comes back in full
+        etag = "\"v2\"";
+        Thread.sleep(10);
+        assertFalse(first.equals(get(new StackMobQuery("game"))));
+        assertEquals(1, cache.getRevalidations());
+    }
+
+    @Test public void singleObjectsRevalidateByLastModDate() throws Exception {
+        responseBody = "{\"game_id\":\"1\",\"lastmoddate\":1360000000000}";
+        cache.setTimeToLiveMillis(1);
+        get(new StackMobQuery("game/1"));
+        assertNull(ifModifiedSince.get());
+        Thread.sleep(10);
+        get(new StackMobQuery("game/1"));
+        assertEquals("Mon, 04 Feb 2013 17:46:40 GMT", ifModifiedSince.get());
+    }
+
+    @Test public void keyIgnoresOrdering() throws Exception {
+        List<Map.Entry<String, String>> args = new ArrayList<Map.Entry<String, String>>();
+        args.add(new Pair<String, String>("b", "2"));
+        args.add(new Pair<String, String>("a", "1"));
+        List<Map.Entry<String, String>> headers = new ArrayList<Map.Entry<String, String>>();
+        headers.add(new Pair<String, String>("Range", "objects=0-9"));
+        headers.add(new Pair<String, String>("X-StackMob-OrderBy", "name:asc"));
+        String key = StackMobResponseCache.key("bob", "game", args, headers);
+        Collections.reverse(args);
+        Collections.reverse(headers);
+        assertEquals(key, StackMobResponseCache.key("bob", "game", args, headers));
+        assertFalse(key.equals(StackMobResponseCache.key("alice", "game", args, headers)));
+    }
+}
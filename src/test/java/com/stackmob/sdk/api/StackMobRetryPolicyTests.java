@@ -0,0 +1,150 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.api;
+
+import com.stackmob.sdk.net.HttpVerbWithPayload;
+import com.stackmob.sdk.net.HttpVerbWithoutPayload;
+import com.stackmob.sdk.serverutils.LatchedCallback;
+import com.stackmob.sdk.serverutils.LocalServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StackMobRetryPolicyTests {
+
+    private LocalServer server;
+    private final AtomicInteger served = new AtomicInteger();
+    // What to do with each of the first requests: a status code to answer with, or 0 to close the connection
+    private volatile int[] failures = new int[0];
+    private StackMob stackmob;
+
+    @Before public void setUp() throws Exception {
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public String respond(LocalServer.Request request) {
+                int n = served.getAndIncrement();
+                int[] failures = StackMobRetryPolicyTests.this.failures;
+                if(n < failures.length) {
+                    return failures[n] == 0 ? null : LocalServer.response(failures[n], "");
+                }
+                return LocalServer.response(200, "{}");
+            }
+        });
+        stackmob = server.createStackMob();
+    }
+
+    @After public void tearDown() throws Exception {
+        server.close();
+    }
+
+    private static StackMobRetryPolicy fastPolicy() {
+        return new StackMobRetryPolicy().setBaseDelayMillis(10).setMaxDelayMillis(50);
+    }
+
+    @Test public void backoffDoublesWithinBounds() {
+        StackMobRetryPolicy policy = new StackMobRetryPolicy().setBaseDelayMillis(100).setMaxDelayMillis(1000).setJitter(0);
+        assertEquals(100, policy.getDelayMillis(0, -1));
+        assertEquals(200, policy.getDelayMillis(1, -1));
+        assertEquals(800, policy.getDelayMillis(3, -1));
+        assertEquals(1000, policy.getDelayMillis(4, -1));
+        assertEquals(1000, policy.getDelayMillis(100, -1));
+        assertEquals(3000, policy.getDelayMillis(0, 3000));
+        policy.setJitter(1);
+        for(int i = 0; i < 100; i++) {
+            long delay = policy.getDelayMillis(2, -1);
+            assertTrue(delay >= 0 && delay <= 400);
+        }
+    }
+
+    @Test public void onlyIdempotentVerbsRetryAmbiguousFailures() {
+        StackMobRetryPolicy policy = new StackMobRetryPolicy();
+        assertTrue(policy.isRetryable(HttpVerbWithoutPayload.GET, 502));
+        assertTrue(policy.isRetryable(HttpVerbWithPayload.PUT, 504));
+        assertFalse(policy.isRetryable(HttpVerbWithPayload.POST, 502));
+        assertTrue(policy.isRetryable(HttpVerbWithPayload.POST, 503));
+        assertFalse(policy.isRetryable(HttpVerbWithoutPayload.GET, 500));
+        assertTrue(policy.isRetryable(HttpVerbWithoutPayload.GET, new SocketTimeoutException()));
+        assertFalse(policy.isRetryable(HttpVerbWithPayload.POST, new SocketTimeoutException()));
+        assertTrue(policy.isRetryable(HttpVerbWithPayload.POST, new ConnectException()));
+        assertFalse(policy.isRetryable(HttpVerbWithoutPayload.GET, new IllegalStateException()));
+        policy.setIdempotent(HttpVerbWithPayload.POST, true);
+        assertTrue(policy.isRetryable(HttpVerbWithPayload.POST, 502));
+    }
+
+    @Test public void budgetLimitsRetries() {
+        StackMobRetryPolicy policy = new StackMobRetryPolicy().setBudget(0.5, 2);
+        assertTrue(policy.tryAcquireRetry());
+        assertTrue(policy.tryAcquireRetry());
+        assertFalse(policy.tryAcquireRetry());
+        policy.requestSent();
+        assertFalse(policy.tryAcquireRetry());
+        policy.requestSent();
+        assertTrue(policy.tryAcquireRetry());
+        assertEquals(3, policy.getRetries());
+        assertEquals(2, policy.getBudgetExhausted());
+    }
+
+    @Test public void gatewayErrorsAndResetsAreRetried() throws Exception {
+        stackmob.setRetryPolicy(fastPolicy());
+        // The reset comes first, on a new connection, since the transport resends on its own when a reused one resets
+        failures = new int[] { 0, 502, 504 };
+        LatchedCallback result = new LatchedCallback();
+        stackmob.getDatastore().get("thing", result);
+        result.await();
+        assertTrue(result.hasSucceeded());
+        assertEquals(4, served.get());
+        assertEquals(0, result.getRetriesRemaining());
+    }
+
+    @Test public void postsAreNotRetriedAfterGatewayErrors() throws Exception {
+        stackmob.setRetryPolicy(fastPolicy());
+        failures = new int[] { 502 };
+        LatchedCallback result = new LatchedCallback();
+        Map<String, String> object = new HashMap<String, String>();
+        object.put("name", "bob");
+        stackmob.getDatastore().post("thing", object, result);
+        result.await();
+        assertFalse(result.hasSucceeded());
+        assertEquals(1, served.get());
+    }
+
+    @Test public void optionsOverrideThePolicy() throws Exception {
+        failures = new int[] { 502 };
+        LatchedCallback result = new LatchedCallback();
+        stackmob.getDatastore().get("thing", StackMobOptions.retryPolicy(fastPolicy()), result);
+        result.await();
+        assertTrue(result.hasSucceeded());
+        assertEquals(2, served.get());
+    }
+
+    @Test public void withoutAPolicyGatewayErrorsFail() throws Exception {
+        failures = new int[] { 502 };
+        LatchedCallback result = new LatchedCallback();
+        stackmob.getDatastore().get("thing", result);
+        result.await();
+        assertFalse(result.hasSucceeded());
+        assertEquals(1, served.get());
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.api;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.stackmob.sdk.callback.StackMobScanCallback;
+import com.stackmob.sdk.exception.StackMobException;
+import com.stackmob.sdk.serverutils.LocalServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class StackMobScanTests {
+
+    private static final int TOTAL = 95;
+
+    private LocalServer server;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger mostActive = new AtomicInteger();
+    private volatile int failAt = -1;
+    private StackMob stackmob;
+
+    /*
+     * Serves the requested range of TOTAL numbered objects. Early pages are slower, so they arrive out of order
+     */
+    @Before public void setUp() throws Exception {
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public String respond(LocalServer.Request request) throws Exception {
+                String[] bounds = request.getHeader("Range").substring("objects=".length()).split("-");
+                int start = Integer.parseInt(bounds[0]);
+                int end = Math.min(Integer.parseInt(bounds[1]), TOTAL - 1);
+                boolean counting = start == 0 && end == 0;
+                int now = active.incrementAndGet();
+                if(!counting) {
+                    while(mostActive.get() < now && !mostActive.compareAndSet(mostActive.get(), now)) { }
+                    Thread.sleep(Math.max(0, 40 - start / 2));
+                }
+                String response;
+                if(start == failAt) {
+                    response = LocalServer.response(500, "{\"error\":\"nope\"}");
+                } else {
+                    StringBuilder body = new StringBuilder("[");
+                    for(int i = start; i <= end; i++) {
+                        if(i > start) body.append(',');
+                        body.append("{\"n\":").append(i).append('}');
+                    }
+                    body.append(']');
+                    response = LocalServer.response(200, body.toString(), "Content-Range: objects " + start + "-" + end + "/" + TOTAL);
+                }
+                active.decrementAndGet();
+                return response;
+            }
+        });
+        stackmob = server.createStackMob();
+    }
+
+    @After public void tearDown() throws Exception {
+        server.close();
+    }
+
+    private static class Sink extends StackMobScanCallback {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<Integer> starts = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> objects = Collections.synchronizedList(new ArrayList<Integer>());
+        volatile long total = -1;
+        volatile StackMobException failure;
+        volatile boolean succeeded;
+
+        @Override
+        public void total(long total) {
+            this.total = total;
+        }
+
+        @Override
+        public void page(int start, String responseBody) {
+            starts.add(start);
+            for(JsonElement object : new JsonParser().parse(responseBody).getAsJsonArray()) {
+                objects.add(object.getAsJsonObject().get("n").getAsInt());
+            }
+        }
+
+        @Override
+        public void success() {
+            succeeded = true;
+            latch.countDown();
+        }
+
+        @Override
+        public void failure(StackMobException e) {
+            failure = e;
+            latch.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test public void orderedScanDeliversPagesInOrder() throws Exception {
+        Sink sink = new Sink();
+        stackmob.getDatastore().scan(new StackMobQuery("thing"), 4, 10, true, sink);
+        sink.await();
+        assertTrue(sink.succeeded);
+        assertEquals(TOTAL, sink.total);
+        assertEquals(10, sink.starts.size());
+        for(int i = 0; i < TOTAL; i++) {
+            assertEquals(i, (int) sink.objects.get(i));
+        }
+        assertTrue(mostActive.get() > 1);
+        assertTrue(mostActive.get() <= 4);
+    }
+
+    @Test public void unorderedScanDeliversEveryPage() throws Exception {
+        Sink sink = new Sink();
+        stackmob.getDatastore().scan(new StackMobQuery("thing").isInRange(0, 4), 3, 20, false, sink);
+        sink.await();
+        assertTrue(sink.succeeded);
+        assertEquals(5, sink.starts.size());
+        List<Integer> objects = new ArrayList<Integer>(sink.objects);
+        Collections.sort(objects);
+        assertEquals(TOTAL, objects.size());
+        assertEquals(TOTAL - 1, (int) objects.get(TOTAL - 1));
+        assertTrue(mostActive.get() <= 3);
+    }
+
+    @Test public void failedPageEndsTheScan() throws Exception {
+        failAt = 30;
+        Sink sink = new Sink();
+        stackmob.getDatastore().scan(new StackMobQuery("thing"), 2, 10, true, sink);
+        sink.await();
+        assertFalse(sink.succeeded);
+        assertNotNull(sink.failure);
+        assertFalse(sink.starts.contains(30));
+    }
+
+    @Test public void callbacksDontHoldTheScan() throws Exception {
+        final AtomicReference<StackMobRequestHandle> handle = new AtomicReference<StackMobRequestHandle>();
+        final AtomicBoolean cancelReturned = new AtomicBoolean();
+        final CountDownLatch firstPage = new CountDownLatch(1);
+        Sink sink = new Sink() {
+            @Override
+            public void page(int start, String responseBody) {
+                super.page(start, responseBody);
+                if(firstPage.getCount() == 0) return;
+                // Cancelling takes the scan's lock, so this only returns if the callback isn't holding it
+                Thread canceller = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        handle.get().cancel();
+                        cancelReturned.set(true);
+                    }
+                });
+                canceller.start();
+                try {
+                    canceller.join(5000);
+                } catch(InterruptedException ignore) { }
+                firstPage.countDown();
+            }
+        };
+        handle.set(stackmob.getDatastore().scan(new StackMobQuery("thing"), 2, 10, true, sink));
+        assertTrue(firstPage.await(10, TimeUnit.SECONDS));
+        assertTrue(cancelReturned.get());
+        assertEquals(StackMobRequestHandle.Status.CANCELLED, handle.get().getStatus());
+    }
+}
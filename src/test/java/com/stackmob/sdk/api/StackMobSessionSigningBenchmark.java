@@ -0,0 +1,101 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.api;
+
+import org.apache.commons.codec.binary.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures OAuth2 mac token signing throughput with several threads signing at once, with the session's cached
+ * per-thread Mac and with the Mac.getInstance, init and String.format per token code it replaced. Not run as part of
+ * the tests, run it directly with the test classpath:
+ * <pre>
+ * {@code
+ * java -cp <test classes>:<classes>:<dependencies> com.stackmob.sdk.api.StackMobSessionSigningBenchmark [threads] [tokens per thread]
+ * }
+ * </pre>
+ */
+public class StackMobSessionSigningBenchmark {
+
+    private static final String MAC_KEY = "0123456789abcdef0123456789abcdef";
+
+    private static final AtomicLong sink = new AtomicLong();
+
+    private static String oldToken(String method, String uri, String host, String port) throws Exception {
+        String ts = String.valueOf(new Date().getTime()/1000);
+        String nonce = String.format("n%d", Math.round(Math.random() * 10000));
+        String baseString = new StringBuilder(ts).append("\n").append(nonce).append("\n").append(method).append("\n")
+                .append(uri).append("\n").append(host).append("\n").append(port).append("\n\n").toString();
+        Mac mac = Mac.getInstance("HmacSHA1");
+        mac.init(new SecretKeySpec(MAC_KEY.getBytes(), "HmacSHA1"));
+        String calculatedMac = new String(Base64.encodeBase64(mac.doFinal(baseString.getBytes())));
+        return String.format("MAC id=\"%s\",ts=\"%s\",nonce=\"%s\",mac=\"%s\"", "token", ts, nonce, calculatedMac);
+    }
+
+    /*
+     * Tokens signed per second with every thread signing tokensPerThread tokens at once
+     */
+    private static double tokensPerSecond(final boolean cached, int threads, final int tokensPerThread) throws Exception {
+        final StackMobSession session = new StackMobSession(StackMob.OAuthVersion.Two, 0, "API_KEY", "API_SECRET", "user", "username");
+        session.setOAuth2TokensAndExpiration("token", MAC_KEY, "refresh", 3600);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for(int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        long length = 0;
+                        for(int i = 0; i < tokensPerThread; i++) {
+                            String token = cached ? session.generateMacToken("GET", "/game?score[gte]=100", "api.stackmob.com", "443")
+                                                  : oldToken("GET", "/game?score[gte]=100", "api.stackmob.com", "443");
+                            length += token.length();
+                        }
+                        sink.addAndGet(length);
+                    } catch(Exception e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return threads * (double) tokensPerThread / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int tokensPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+        // Warm up so the JIT has compiled the paths we're measuring
+        for(int i = 0; i < 5; i++) {
+            tokensPerSecond(true, threads, tokensPerThread / 5);
+            tokensPerSecond(false, threads, tokensPerThread / 5);
+        }
+        System.out.println(String.format("Cached Mac (%d threads):     %.0f tokens/s", threads, tokensPerSecond(true, threads, tokensPerThread)));
+        System.out.println(String.format("Mac per token (%d threads):  %.0f tokens/s", threads, tokensPerSecond(false, threads, tokensPerThread)));
+        System.out.println(sink.get() == 42 ? "" : "done");
+    }
+}
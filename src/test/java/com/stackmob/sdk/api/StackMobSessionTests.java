@@ -0,0 +1,104 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.api;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class StackMobSessionTests {
+
+    private static class NamedSession extends StackMobSession {
+        NamedSession() {
+            super(StackMob.OAuthVersion.One, 3, "API_KEY", "API_SECRET", "user", "username");
+        }
+
+        void setName(String name) {
+            userAgentName = name;
+        }
+    }
+
+    @Test public void sessionHeadersAreBuiltOnce() {
+        NamedSession session = new NamedSession();
+        List<Map.Entry<String, String>> headers = session.getSessionHeaders();
+        assertSame(headers, session.getSessionHeaders());
+        assertEquals("Accept", headers.get(0).getKey());
+        assertEquals("application/vnd.stackmob+json; version=3", headers.get(0).getValue());
+        assertEquals("User-Agent", headers.get(1).getKey());
+        assertEquals(String.format("StackMob (Java Client; %s)", StackMob.getVersion()), headers.get(1).getValue());
+        assertEquals(headers.get(1).getValue(), session.getUserAgent());
+        try {
+            headers.clear();
+            fail("the shared headers shouldn't be modifiable");
+        } catch(UnsupportedOperationException expected) { }
+    }
+
+    @Test public void sessionHeadersFollowUserAgentName() {
+        NamedSession session = new NamedSession();
+        List<Map.Entry<String, String>> before = session.getSessionHeaders();
+        session.setName("Android");
+        List<Map.Entry<String, String>> after = session.getSessionHeaders();
+        assertNotSame(before, after);
+        assertEquals(String.format("StackMob (Android; %s)", StackMob.getVersion()), after.get(1).getValue());
+        assertSame(after, session.getSessionHeaders());
+    }
+
+    private static final Pattern MAC_TOKEN = Pattern.compile("MAC id=\"(.*)\",ts=\"(.*)\",nonce=\"(.*)\",mac=\"(.*)\"");
+
+    private static String expectedMac(String key, Matcher token) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA1");
+        mac.init(new SecretKeySpec(key.getBytes(), "HmacSHA1"));
+        String base = token.group(2) + "\n" + token.group(3) + "\nGET\n/thing\napi.stackmob.com\n443\n\n";
+        return new String(Base64.encodeBase64(mac.doFinal(base.getBytes())));
+    }
+
+    @Test public void macTokensAreSignedWithTheCurrentKey() throws Exception {
+        NamedSession session = new NamedSession();
+        session.setOAuth2TokensAndExpiration("token", "first key", "refresh", 3600);
+        Set<String> nonces = new HashSet<String>();
+        for(int i = 0; i < 3; i++) {
+            Matcher token = MAC_TOKEN.matcher(session.generateMacToken("GET", "/thing", "api.stackmob.com", "443"));
+            assertTrue(token.matches());
+            assertEquals("token", token.group(1));
+            assertEquals(expectedMac("first key", token), token.group(4));
+            nonces.add(token.group(3));
+        }
+        assertEquals(3, nonces.size());
+
+        session.setOAuth2TokensAndExpiration("token2", "second key", "refresh", 3600);
+        Matcher token = MAC_TOKEN.matcher(session.generateMacToken("GET", "/thing", "api.stackmob.com", "443"));
+        assertTrue(token.matches());
+        assertEquals("token2", token.group(1));
+        assertEquals(expectedMac("second key", token), token.group(4));
+    }
+
+    @Test public void oauth1SignerIsShared() {
+        NamedSession session = new NamedSession();
+        assertSame(session.getOAuth1Signer(), session.getOAuth1Signer());
+        assertSame(session.getOAuth1Signer(), new StackMobSession(session).getOAuth1Signer());
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.model;
+
+import com.stackmob.sdk.api.StackMob;
+import com.stackmob.sdk.exception.StackMobException;
+
+import java.util.List;
+
+/**
+ * Measures how long it takes to fill a model from json and serialize it back. Not run as part of the tests, run
+ * it directly with the test classpath:
+ * <pre>
+ * {@code
+ * java -cp <test classes>:<classes>:<dependencies> com.stackmob.sdk.model.StackMobModelBenchmark [iterations]
+ * }
+ * </pre>
+ */
+public class StackMobModelBenchmark {
+
+    private static class Task extends StackMobModel {
+        private String name;
+        private String description;
+        private int priority;
+        private long estimate;
+        private double progress;
+        private boolean done;
+        private String owner;
+        private List<String> tags;
+        private StackMobCounter views = new StackMobCounter();
+
+        public Task() {
+            super(Task.class);
+        }
+    }
+
+    private static final String TASK_JSON = "{\"task_id\":\"abc123\",\"name\":\"write benchmark\",\"description\":\"measure fill cost\"," +
+            "\"priority\":3,\"estimate\":120000,\"progress\":0.5,\"done\":false,\"owner\":\"bodie\",\"tags\":[\"perf\",\"model\"]," +
+            "\"views\":17,\"createddate\":1360000000000,\"lastmoddate\":1360000000001}";
+
+    private static long sink;
+
+    private static double nanosPerFill(int iterations) throws StackMobException {
+        long start = System.nanoTime();
+        for(int i = 0; i < iterations; i++) {
+            Task task = new Task();
+            task.fillFromJson(TASK_JSON);
+            sink += task.priority;
+        }
+        return (System.nanoTime() - start) / (double) iterations;
+    }
+
+    private static double nanosPerSerialize(int iterations) {
+        Task task = new Task();
+        try {
+            task.fillFromJson(TASK_JSON);
+        } catch(StackMobException e) {
+            throw new IllegalStateException(e);
+        }
+        long start = System.nanoTime();
+        for(int i = 0; i < iterations; i++) {
+            sink += task.toJson().length();
+        }
+        return (System.nanoTime() - start) / (double) iterations;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        StackMob.setStackMob(new StackMob(StackMob.OAuthVersion.One, 0, "API_KEY", "API_SECRET"));
+        // Warm up so the JIT has compiled the paths we're measuring
+        for(int i = 0; i < 5; i++) {
+            nanosPerFill(iterations / 5);
+            nanosPerSerialize(iterations / 5);
+        }
+        System.out.println(String.format("fill:      %.0f ns/object", nanosPerFill(iterations)));
+        System.out.println(String.format("serialize: %.0f ns/object", nanosPerSerialize(iterations)));
+        System.out.println(sink == 42 ? "" : "done");
+    }
+}
@@ -29,6 +29,7 @@ import com.stackmob.sdk.testobjects.Author;
 import com.stackmob.sdk.testobjects.Book;
 import com.stackmob.sdk.testobjects.Library;
 import com.stackmob.sdk.util.RelationMapping;
+import com.stackmob.sdk.util.SerializationMetadata;
 import org.junit.Ignore;
 import org.junit.Test;
 
@@ -195,6 +196,88 @@ public class StackMobModelTests extends StackMobTestCommon {
         assertEquals(new Date(0), c.date);
     }
     
+    @Test public void testStreamComplicatedJSON() throws Exception {
+        String json = "{\"number\":1338,\"strings\":[\"hello!\",\"world!\"],\"test\":true,\"mybytes\":[1,2,3],\"foo\":\"testpassed\",\"bar\":27,\"uuid\":\"00000000-0000-0003-0000-000000000005\",\"date\":0,\"extra\":{\"a\":[1]}}";
+        Complicated c = new Complicated();
+        c.fillFromJson(json);
+        assertEquals(c.foo,"testpassed");
+        assertEquals(c.bar, 27);
+        assertEquals(c.number, 1338);
+        assertEquals(c.uuid.toString(), "00000000-0000-0003-0000-000000000005");
+        assertEquals(c.strings[1], "world!");
+        assertEquals(c.test,true);
+        assertEquals(c.myBytes[2], 3);
+        assertEquals(new Date(0), c.date);
+    }
+
+    @Test public void testReadModelList() throws Exception {
+        String json = "[{\"title\":\"" + bookName1 + "\",\"book_id\":\"one\",\"author\":{\"author_id\":\"KnR\",\"name\":\"Kernighan and Ritchie\"}}," +
+                       "{\"title\":null,\"book_id\":\"two\",\"publisher\":[\"wrong\"],\"author\":\"KnR\"}," +
+                       "{\"title\":\"third\",\"book_id\":\"three\"}]";
+        List<Book> books = StackMobModel.readModelList(Book.class, new com.google.gson.stream.JsonReader(new java.io.StringReader(json)));
+        assertEquals(3, books.size());
+        assertEquals("one", books.get(0).getID());
+        assertEquals(bookName1, books.get(0).getTitle());
+        assertEquals("Kernighan and Ritchie", books.get(0).getAuthor().getName());
+        assertEquals("two", books.get(1).getID());
+        assertNull(books.get(1).getTitle());
+        assertEquals("KnR", books.get(1).getAuthor().getID());
+        assertEquals("third", books.get(2).getTitle());
+    }
+
+    @Test public void testIdentityMap() throws Exception {
+        StackMobIdentityMap identityMap = StackMobIdentityMap.bounded(10);
+        com.stackmob.sdk.api.StackMob.getStackMob().setIdentityMap(identityMap);
+        try {
+            String json = "[{\"book_id\":\"one\",\"author\":{\"author_id\":\"KnR\",\"name\":\"Kernighan\",\"lastmoddate\":1}}," +
+                           "{\"book_id\":\"two\",\"author\":\"KnR\"}," +
+                           "{\"book_id\":\"three\",\"author\":{\"author_id\":\"KnR\",\"name\":\"Kernighan\",\"lastmoddate\":1}}]";
+            List<Book> books = StackMobModel.readModelList(Book.class, new com.google.gson.stream.JsonReader(new java.io.StringReader(json)));
+            Author author = books.get(0).getAuthor();
+            assertSame(author, books.get(1).getAuthor());
+            assertSame(author, books.get(2).getAuthor());
+            assertSame(author, identityMap.get(Author.class, "KnR"));
+            assertEquals("Kernighan", author.getName());
+
+            // The same version isn't filled in again, a new one is
+            author.setName("local change");
+            List<Book> again = StackMobModel.readModelList(Book.class, new com.google.gson.stream.JsonReader(new java.io.StringReader(json)));
+            assertSame(books.get(0), again.get(0));
+            assertEquals("local change", author.getName());
+            String changed = "[{\"book_id\":\"one\",\"author\":{\"author_id\":\"KnR\",\"name\":\"Ritchie\",\"lastmoddate\":2}}]";
+            StackMobModel.readModelList(Book.class, new com.google.gson.stream.JsonReader(new java.io.StringReader(changed)));
+            assertEquals("Ritchie", author.getName());
+        } finally {
+            com.stackmob.sdk.api.StackMob.getStackMob().setIdentityMap(null);
+        }
+    }
+
+    @Test public void testModelDescriptor() throws Exception {
+        ModelDescriptor descriptor = ModelDescriptor.forClass(Library.class);
+        assertSame(descriptor, ModelDescriptor.forClass(Library.class));
+        assertEquals("library", descriptor.getSchemaName());
+        assertEquals("library_id", descriptor.getIDFieldName());
+        ModelDescriptor.ModelField field = descriptor.getFieldForJsonName("booklist");
+        assertEquals("bookList", field.name);
+        assertSame(field, descriptor.getField("bookList"));
+        assertEquals(SerializationMetadata.MODEL_ARRAY, field.metadata);
+        assertEquals(Book.class, field.componentClass);
+        assertNull(descriptor.getFieldForJsonName("nothere"));
+    }
+
+    @Test public void testRegister() throws Exception {
+        StackMobModel.register(Book.class);
+        ModelDescriptor book = ModelDescriptor.forClass(Book.class);
+        assertNotNull(book.getField("title").adapter);
+        // Related models are registered too
+        assertNotNull(ModelDescriptor.forClass(Author.class).getField("name").adapter);
+        assertNull(book.getField("author").adapter);
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void testRegisterRejectsOtherClasses() throws Exception {
+        StackMobModel.register(Book.class, String.class);
+    }
+
     private class REALLY_SUPER_LONG_NAME_THAT_IS_SIMPLY_TOO_LONG extends StackMobModel {
         public REALLY_SUPER_LONG_NAME_THAT_IS_SIMPLY_TOO_LONG() {
             super(REALLY_SUPER_LONG_NAME_THAT_IS_SIMPLY_TOO_LONG.class);
@@ -297,7 +380,37 @@ public class StackMobModelTests extends StackMobTestCommon {
         assertEquals("books=book&books.author=author",mapping.toHeaderString());
 
     }
-    
+
+    private static class Upload extends StackMobModel {
+        public Upload() {
+            super(Upload.class);
+        }
+        String name;
+        StackMobCounter views = new StackMobCounter();
+        StackMobFile photo;
+        Date created = new Date(1000);
+    }
+
+    @Test public void testSpecialFieldsToJSON() throws Exception {
+        Upload upload = new Upload();
+        upload.setID("up");
+        upload.views.updateAtomicallyBy(2);
+        upload.photo = new StackMobFile("http://s3.amazonaws.com/photo.jpg");
+        JsonObject json = new JsonParser().parse(upload.toJson()).getAsJsonObject();
+        assertNull(json.get("name"));
+        assertEquals(2, json.get("views[inc]").getAsInt());
+        assertNull(json.get("photo"));
+        assertEquals(1000, json.get("created").getAsLong());
+        assertEquals("up", json.get("upload_id").getAsString());
+
+        upload.views.forceTo(5);
+        upload.photo = new StackMobFile("image/jpeg", "photo.jpg", new byte[] {1, 2, 3});
+        json = new JsonParser().parse(upload.toJson()).getAsJsonObject();
+        assertEquals(5, json.get("views").getAsInt());
+        assertNull(json.get("views[inc]"));
+        assertEquals(upload.photo.getBinaryString(), json.get("photo").getAsString());
+    }
+
     @Test public void testModelArrayFromJSON() throws Exception {
         String json = "{\"name\":\"SF Public Library\",\"books\":[{\"title\":\"foo\",\"publisher\":\"bar\",\"author\":{\"name\":\"baz\",\"author_id\":\"baz\"},\"book_id\":\"foobar\"},{\"title\":\"foo2\",\"publisher\":\"bar2\",\"author\":{\"name\":\"baz\",\"author_id\":\"baz\"},\"book_id\":\"foo2bar2\"}]}";
         Library lib = new Library();
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.model;
+
+import com.stackmob.sdk.api.StackMob;
+import com.stackmob.sdk.api.StackMobOptions;
+import com.stackmob.sdk.api.StackMobQuery;
+import com.stackmob.sdk.serverutils.LocalServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StackMobQueryIteratorTests {
+
+    public static class Item extends StackMobModel {
+        private int position;
+
+        public Item() {
+            super(Item.class);
+        }
+    }
+
+    private static final int TOTAL = 25;
+
+    private LocalServer server;
+    private final List<String> ranges = new CopyOnWriteArrayList<String>();
+    private volatile int failAt = -1;
+    private volatile int holdAt = -1;
+    private final CountDownLatch held = new CountDownLatch(1);
+    private final CountDownLatch closedConnection = new CountDownLatch(1);
+    private StackMob stackmob;
+
+    /*
+     * Serves the requested range of TOTAL items, with a Content-Range header. The page at holdAt is never answered
+     */
+    @Before public void setUp() throws Exception {
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public String respond(LocalServer.Request request) {
+                String range = request.getHeader("Range");
+                ranges.add(range);
+                String[] bounds = range.substring("objects=".length()).split("-");
+                int start = Integer.parseInt(bounds[0]);
+                int end = Math.min(Integer.parseInt(bounds[1]), TOTAL - 1);
+                if(start == failAt) {
+                    return LocalServer.response(500, "{\"error\":\"nope\"}");
+                }
+                if(start == holdAt) {
+                    held.countDown();
+                    return "";
+                }
+                StringBuilder body = new StringBuilder("[");
+                for(int i = start; i <= end; i++) {
+                    if(i > start) body.append(',');
+                    body.append("{\"item_id\":\"").append(i).append("\",\"position\":").append(i).append('}');
+                }
+                body.append(']');
+                return LocalServer.response(200, body.toString(), "Content-Range: objects " + start + "-" + end + "/" + TOTAL);
+            }
+
+            @Override
+            public void closed() {
+                closedConnection.countDown();
+            }
+        });
+        stackmob = server.createDefaultStackMob();
+    }
+
+    @After public void tearDown() throws Exception {
+        server.close();
+    }
+
+    private static List<Integer> positions(StackMobQueryIterator<Item> items) {
+        List<Integer> positions = new ArrayList<Integer>();
+        while(items.hasNext()) {
+            positions.add(items.next().position);
+        }
+        return positions;
+    }
+
+    @Test public void walksEveryPage() throws Exception {
+        List<Integer> positions = positions(StackMobModel.stream(Item.class, new StackMobQuery(), StackMobOptions.none(), 10));
+        assertEquals(TOTAL, positions.size());
+        for(int i = 0; i < TOTAL; i++) {
+            assertEquals(i, (int) positions.get(i));
+        }
+        assertEquals(3, ranges.size());
+        assertTrue(ranges.contains("objects=20-29"));
+    }
+
+    @Test public void queryRangeBoundsTheResults() throws Exception {
+        List<Integer> positions = positions(StackMobModel.stream(Item.class, new StackMobQuery().isInRange(5, 16), StackMobOptions.none(), 5));
+        assertEquals(12, positions.size());
+        assertEquals(5, (int) positions.get(0));
+        assertEquals(16, (int) positions.get(11));
+        assertTrue(ranges.contains("objects=15-16"));
+    }
+
+    @Test public void closeStopsFetching() throws Exception {
+        StackMobQueryIterator<Item> items = StackMobModel.stream(Item.class, new StackMobQuery(), StackMobOptions.none(), 5);
+        assertEquals(0, items.next().position);
+        items.close();
+        assertFalse(items.hasNext());
+        Thread.sleep(200);
+        // The first page and maybe the prefetched second one, if it got out before it was cancelled, but nothing after
+        assertTrue(ranges.size() <= 2);
+        assertEquals("objects=0-4", ranges.get(0));
+    }
+
+    @Test public void closeCancelsTheLoadingPage() throws Exception {
+        holdAt = 5;
+        StackMobQueryIterator<Item> items = StackMobModel.stream(Item.class, new StackMobQuery(), StackMobOptions.none(), 5);
+        assertEquals(0, items.next().position);
+        assertTrue(held.await(5, TimeUnit.SECONDS));
+        items.close();
+        // Cancelling the request closes its connection
+        assertTrue(closedConnection.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test public void failedPageIsThrown() throws Exception {
+        failAt = 10;
+        StackMobQueryIterator<Item> items = StackMobModel.stream(Item.class, new StackMobQuery(), StackMobOptions.none(), 10);
+        for(int i = 0; i < 10; i++) {
+            items.next();
+        }
+        try {
+            items.hasNext();
+            fail("the failed page should have been thrown");
+        } catch(IllegalStateException e) {
+            assertNotNull(e.getCause());
+        }
+    }
+}
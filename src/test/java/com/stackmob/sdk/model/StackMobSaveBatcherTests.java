@@ -0,0 +1,251 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.model;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.stackmob.sdk.api.StackMob;
+import com.stackmob.sdk.api.StackMobOptions;
+import com.stackmob.sdk.callback.StackMobBulkSaveCallback;
+import com.stackmob.sdk.exception.StackMobException;
+import com.stackmob.sdk.serverutils.LatchedCallback;
+import com.stackmob.sdk.serverutils.LocalServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StackMobSaveBatcherTests {
+
+    public static class Note extends StackMobModel {
+        private String text;
+        private Long createddate;
+        private Long lastmoddate;
+
+        public Note(String text) {
+            super(Note.class);
+            this.text = text;
+        }
+    }
+
+    private LocalServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger savedObjects = new AtomicInteger();
+    private volatile boolean failing;
+    private StackMob stackmob;
+    private StackMobSaveBatcher batcher;
+
+    /*
+     * Echoes the saved objects back with their dates filled in, leaving out any with the text "skip"
+     */
+    @Before public void setUp() throws Exception {
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public String respond(LocalServer.Request request) {
+                requests.incrementAndGet();
+                if(failing || request.getBody().contains("\"bad\"")) {
+                    return LocalServer.response(500, "{\"error\":\"nope\"}");
+                }
+                JsonElement json = new JsonParser().parse(request.getBody());
+                JsonArray objects = json.isJsonArray() ? json.getAsJsonArray() : new JsonArray();
+                if(!json.isJsonArray()) objects.add(json);
+                JsonArray saved = new JsonArray();
+                for(JsonElement object : objects) {
+                    JsonElement text = ((JsonObject) object).get("text");
+                    if(text != null && "skip".equals(text.getAsString())) continue;
+                    int n = savedObjects.incrementAndGet();
+                    ((JsonObject) object).addProperty("createddate", 1000 + n);
+                    ((JsonObject) object).addProperty("lastmoddate", 2000 + n);
+                    saved.add(object);
+                }
+                return LocalServer.response(200, (json.isJsonArray() ? saved : json).toString());
+            }
+        });
+        stackmob = server.createDefaultStackMob();
+        batcher = new StackMobSaveBatcher();
+        stackmob.setSaveBatcher(batcher);
+    }
+
+    @After public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test public void fullBatchIsSentAtOnce() throws Exception {
+        batcher.setWindowMillis(60000).setMaxBatchSize(3);
+        Note[] notes = { new Note("a"), new Note("b"), new Note("c") };
+        LatchedCallback result = new LatchedCallback(3);
+        for(Note note : notes) {
+            note.save(result);
+        }
+        result.await();
+        assertEquals(3, result.getSuccesses());
+        assertEquals(1, requests.get());
+        assertEquals(1, batcher.getBatches());
+        assertEquals(0, batcher.getPending());
+        for(Note note : notes) {
+            assertNotNull(note.getID());
+            assertNotNull(note.createddate);
+            assertEquals(note.createddate + 1000, (long) note.lastmoddate);
+        }
+    }
+
+    @Test public void windowSendsWhatsWaiting() throws Exception {
+        batcher.setWindowMillis(20);
+        Note first = new Note("first");
+        Note second = new Note("second");
+        LatchedCallback result = new LatchedCallback(3);
+        first.save(result);
+        second.save(result);
+        // Saving an object that's already waiting sends it once
+        first.save(result);
+        assertEquals(2, batcher.getPending());
+        result.await();
+        assertEquals(3, result.getSuccesses());
+        assertEquals(1, requests.get());
+        assertEquals(2, savedObjects.get());
+        assertEquals(3, batcher.getSaves());
+    }
+
+    @Test public void failureReachesEveryCallback() throws Exception {
+        failing = true;
+        LatchedCallback result = new LatchedCallback(2);
+        new Note("a").save(result);
+        new Note("b").save(result);
+        batcher.flush();
+        result.await();
+        assertEquals(2, result.getFailures());
+        assertEquals(1, requests.get());
+    }
+
+    @Test public void savesWithOptionsAreSentAlone() throws Exception {
+        Note note = new Note("deep");
+        LatchedCallback result = new LatchedCallback(1);
+        note.save(StackMobOptions.depthOf(1), result);
+        result.await();
+        assertEquals(1, result.getSuccesses());
+        assertEquals(0, batcher.getSaves());
+        assertNotNull(note.createddate);
+    }
+
+    @Test public void largeListsAreSavedInChunks() throws Exception {
+        List<Note> notes = new ArrayList<Note>();
+        for(int i = 0; i < 25; i++) {
+            notes.add(new Note(i == 12 ? "bad" : "note" + i));
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<Integer> progress = new ArrayList<Integer>();
+        final List<Integer> failedChunks = new ArrayList<Integer>();
+        final int[] result = new int[2];
+        StackMobModel.saveMultiple(notes, 10, 2, new StackMobBulkSaveCallback<Note>() {
+            @Override
+            public void progress(int saved, int failed, int total) {
+                assertEquals(25, total);
+                progress.add(saved + failed);
+            }
+
+            @Override
+            public void chunkFailure(List<Note> chunk, StackMobException e) {
+                failedChunks.add(chunk.size());
+            }
+
+            @Override
+            public void complete(int saved, int failed) {
+                result[0] = saved;
+                result[1] = failed;
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(3, requests.get());
+        assertEquals(15, result[0]);
+        assertEquals(10, result[1]);
+        assertEquals(1, failedChunks.size());
+        assertEquals(10, (int) failedChunks.get(0));
+        assertEquals(3, progress.size());
+        assertEquals(25, (int) progress.get(2));
+        assertEquals(0, batcher.getSaves());
+    }
+
+    @Test public void objectsLeftOutOfTheResponseCountAsFailed() throws Exception {
+        List<Note> notes = new ArrayList<Note>();
+        for(int i = 0; i < 5; i++) {
+            notes.add(new Note(i == 3 ? "skip" : "note" + i));
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<Note> unsaved = new ArrayList<Note>();
+        final int[] result = new int[2];
+        StackMobModel.saveMultiple(notes, 10, 1, new StackMobBulkSaveCallback<Note>() {
+            @Override
+            public void chunkFailure(List<Note> chunk, StackMobException e) {
+                unsaved.addAll(chunk);
+            }
+
+            @Override
+            public void complete(int saved, int failed) {
+                result[0] = saved;
+                result[1] = failed;
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(4, result[0]);
+        assertEquals(1, result[1]);
+        assertEquals(1, unsaved.size());
+        assertSame(notes.get(3), unsaved.get(0));
+        assertNotNull(notes.get(0).createddate);
+        assertNull(notes.get(3).createddate);
+    }
+
+    @Test public void aSlowCallbackDoesntHoldUpTheNextChunk() throws Exception {
+        List<Note> notes = new ArrayList<Note>();
+        for(int i = 0; i < 30; i++) {
+            notes.add(new Note("note" + i));
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicInteger requestsSeen = new AtomicInteger();
+        StackMobModel.saveMultiple(notes, 10, 2, new StackMobBulkSaveCallback<Note>() {
+            @Override
+            public void progress(int saved, int failed, int total) {
+                // The first callback waits for the last chunk, which only goes out if the lock isn't held
+                if(saved + failed > 10) return;
+                long deadline = System.currentTimeMillis() + 5000;
+                while(requests.get() < 3 && System.currentTimeMillis() < deadline) {
+                    try {
+                        Thread.sleep(10);
+                    } catch(InterruptedException ignore) { }
+                }
+                requestsSeen.set(requests.get());
+            }
+
+            @Override
+            public void complete(int saved, int failed) {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(3, requestsSeen.get());
+    }
+}
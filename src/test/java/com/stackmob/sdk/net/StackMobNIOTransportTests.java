@@ -0,0 +1,452 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.net;
+
+import com.stackmob.sdk.api.StackMob;
+import com.stackmob.sdk.api.StackMobExecutionConfig;
+import com.stackmob.sdk.api.StackMobExecutionConfig.BackPressure;
+import com.stackmob.sdk.serverutils.LocalServer;
+import org.junit.Test;
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Verb;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class StackMobNIOTransportTests {
+
+    private static StackMobHttpResponse parse(String raw, int pieceSize) throws IOException {
+        HttpResponseParser parser = new HttpResponseParser(false);
+        byte[] bytes = raw.getBytes("UTF-8");
+        for(int i = 0; i < bytes.length; i += pieceSize) {
+            parser.feed(ByteBuffer.wrap(bytes, i, Math.min(pieceSize, bytes.length - i)).slice());
+        }
+        if(!parser.isDone()) parser.endOfStream();
+        return parser.getResponse();
+    }
+
+    @Test public void parseFixedLength() throws Exception {
+        StackMobHttpResponse response = parse("HTTP/1.1 200 OK\r\nContent-Length: 5\r\nX-Test: yes\r\n\r\nhello", 3);
+        assertEquals(200, response.getCode());
+        assertEquals("yes", response.getHeader("x-test"));
+        assertEquals("hello", new String(response.getBody(), "UTF-8"));
+    }
+
+    @Test public void parseChunked() throws Exception {
+        StackMobHttpResponse response = parse("HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 201 Created\r\nTransfer-Encoding: chunked\r\n\r\n4\r\nWiki\r\n5;ext=1\r\npedia\r\n0\r\n\r\n", 1);
+        assertEquals(201, response.getCode());
+        assertEquals("Wikipedia", new String(response.getBody(), "UTF-8"));
+    }
+
+    @Test public void parseUntilClose() throws Exception {
+        StackMobHttpResponse response = parse("HTTP/1.0 404 Not Found\r\n\r\n{\"error\":\"nope\"}", 100);
+        assertEquals(404, response.getCode());
+        assertEquals("{\"error\":\"nope\"}", new String(response.getBody(), "UTF-8"));
+    }
+
+    @Test(expected = IOException.class) public void parseTruncated() throws Exception {
+        parse("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\nhello", 100);
+    }
+
+    @Test public void serializePayload() throws Exception {
+        final AtomicInteger writes = new AtomicInteger();
+        StackMobPayloadRequest request = new StackMobPayloadRequest(Verb.PUT, "http://localhost/game/1", new StackMobPayload() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                writes.incrementAndGet();
+                out.write("{\"name\":\"\u00e9checs\"}".getBytes("UTF-8"));
+            }
+        });
+        ByteBuffer buffer = StackMobNIOTransport.serialize(request, new URI(request.getUrl()), true);
+        String sent = new String(buffer.array(), 0, buffer.limit(), "UTF-8");
+        assertTrue(sent, sent.startsWith("PUT /game/1 HTTP/1.1\r\n"));
+        assertTrue(sent, sent.contains("Content-Length: 18\r\n"));
+        assertTrue(sent, sent.endsWith("\r\n\r\n{\"name\":\"\u00e9checs\"}"));
+        assertEquals("{\"name\":\"\u00e9checs\"}", request.getBodyContents());
+        assertEquals(1, writes.get());
+    }
+
+    @Test public void sendPost() throws Exception {
+        final ServerSocket server = new ServerSocket(0);
+        final AtomicReference<String> received = new AtomicReference<String>();
+        Thread serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = server.accept();
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                    StringBuilder request = new StringBuilder();
+                    int contentLength = 0;
+                    String line;
+                    while((line = in.readLine()) != null && line.length() > 0) {
+                        request.append(line).append("\n");
+                        if(line.toLowerCase().startsWith("content-length:")) contentLength = Integer.parseInt(line.substring(15).trim());
+                    }
+                    char[] body = new char[contentLength];
+                    int read = 0;
+                    while(read < contentLength) read += in.read(body, read, contentLength - read);
+                    request.append(body);
+                    received.set(request.toString());
+                    OutputStream out = socket.getOutputStream();
+                    out.write("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\nContent-Type: application/json\r\n\r\n7\r\n{\"a\":1}\r\n0\r\n\r\n".getBytes("UTF-8"));
+                    out.flush();
+                    socket.close();
+                } catch(IOException ignore) { }
+            }
+        });
+        serverThread.start();
+
+        StackMobNIOTransport transport = new StackMobNIOTransport();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        try {
+            OAuthRequest request = new OAuthRequest(Verb.POST, "http://localhost:" + server.getLocalPort() + "/game?x=1");
+            request.addHeader("Content-Type", "application/json");
+            request.addPayload("{\"name\":\"chess\"}");
+            transport.send(request, new StackMobTimeouts(), executor, new StackMobTransport.Handler() {
+                @Override
+                public void completed(StackMobHttpResponse response) {
+                    result.set(response);
+                    latch.countDown();
+                }
+
+                @Override
+                public void failed(Throwable t) {
+                    result.set(t);
+                    latch.countDown();
+                }
+            });
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertTrue(String.valueOf(result.get()), result.get() instanceof StackMobHttpResponse);
+            StackMobHttpResponse response = (StackMobHttpResponse) result.get();
+            assertEquals(200, response.getCode());
+            assertEquals("{\"a\":1}", new String(response.getBody(), "UTF-8"));
+            String sent = received.get();
+            assertTrue(sent, sent.startsWith("POST /game?x=1 HTTP/1.1\n"));
+            assertTrue(sent, sent.contains("Content-Length: 16\n"));
+            assertTrue(sent, sent.endsWith("{\"name\":\"chess\"}"));
+        } finally {
+            transport.shutdown();
+            executor.shutdown();
+            server.close();
+        }
+    }
+
+    @Test public void connectionRefused() throws Exception {
+        ServerSocket server = new ServerSocket(0);
+        int port = server.getLocalPort();
+        server.close();
+
+        StackMobNIOTransport transport = new StackMobNIOTransport();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        try {
+            transport.send(new OAuthRequest(Verb.GET, "http://localhost:" + port + "/"), new StackMobTimeouts(), executor, new StackMobTransport.Handler() {
+                @Override
+                public void completed(StackMobHttpResponse response) {
+                    latch.countDown();
+                }
+
+                @Override
+                public void failed(Throwable t) {
+                    failure.set(t);
+                    latch.countDown();
+                }
+            });
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertNotNull(failure.get());
+        } finally {
+            transport.shutdown();
+            executor.shutdown();
+        }
+    }
+
+    /*
+     * Answers any number of GETs on each accepted connection until the client hangs up
+     */
+    private static Thread keepAliveServer(final ServerSocket server) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while(!server.isClosed()) {
+                    try {
+                        final Socket socket = server.accept();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                                    OutputStream out = socket.getOutputStream();
+                                    String line;
+                                    while((line = in.readLine()) != null) {
+                                        if(line.length() == 0) {
+                                            out.write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\n{}".getBytes("UTF-8"));
+                                            out.flush();
+                                        }
+                                    }
+                                    socket.close();
+                                } catch(IOException ignore) { }
+                            }
+                        }).start();
+                    } catch(IOException ignore) { }
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void sendAndWait(StackMobNIOTransport transport, ExecutorService executor, String url, int count) throws Exception {
+        final CountDownLatch latch = new CountDownLatch(count);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        for(int i = 0; i < count; i++) {
+            transport.send(new OAuthRequest(Verb.GET, url), new StackMobTimeouts(), executor, new StackMobTransport.Handler() {
+                @Override
+                public void completed(StackMobHttpResponse response) {
+                    latch.countDown();
+                }
+
+                @Override
+                public void failed(Throwable t) {
+                    failure.set(t);
+                    latch.countDown();
+                }
+            });
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertNull(String.valueOf(failure.get()), failure.get());
+    }
+
+    @Test public void reuseConnections() throws Exception {
+        ServerSocket server = new ServerSocket(0);
+        keepAliveServer(server);
+        StackMobConnectionPool pool = new StackMobConnectionPool();
+        StackMobNIOTransport transport = new StackMobNIOTransport(pool);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            String url = "http://localhost:" + server.getLocalPort() + "/game";
+            for(int i = 0; i < 3; i++) {
+                sendAndWait(transport, executor, url, 1);
+            }
+            assertEquals(1, pool.getMisses());
+            assertEquals(2, pool.getHits());
+            assertEquals(1, pool.getIdleCount());
+        } finally {
+            transport.shutdown();
+            executor.shutdown();
+            server.close();
+        }
+    }
+
+    @Test public void limitConnectionsPerHost() throws Exception {
+        ServerSocket server = new ServerSocket(0);
+        keepAliveServer(server);
+        StackMobConnectionPool pool = new StackMobConnectionPool().setMaxConnectionsPerHost(2);
+        StackMobNIOTransport transport = new StackMobNIOTransport(pool);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            sendAndWait(transport, executor, "http://localhost:" + server.getLocalPort() + "/game", 10);
+            assertTrue(pool.getMisses() <= 2);
+            assertEquals(10, pool.getHits() + pool.getMisses());
+            assertTrue(pool.getOpenCount() <= 2);
+        } finally {
+            transport.shutdown();
+            executor.shutdown();
+            server.close();
+        }
+    }
+
+    @Test public void evictIdleConnections() throws Exception {
+        ServerSocket server = new ServerSocket(0);
+        keepAliveServer(server);
+        StackMobConnectionPool pool = new StackMobConnectionPool().setIdleTimeoutMillis(0);
+        StackMobNIOTransport transport = new StackMobNIOTransport(pool);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            sendAndWait(transport, executor, "http://localhost:" + server.getLocalPort() + "/game", 1);
+            long deadline = System.currentTimeMillis() + 5000;
+            while(pool.getEvictions() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(1, pool.getEvictions());
+            assertEquals(0, pool.getOpenCount());
+        } finally {
+            transport.shutdown();
+            executor.shutdown();
+            server.close();
+        }
+    }
+
+    /*
+     * Sends a request to a server that accepts the connection and then never answers, returning how it failed
+     */
+    private static Throwable sendToSilentServer(StackMobTimeouts timeouts) throws Exception {
+        final ServerSocket server = new ServerSocket(0);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.accept();
+                } catch(IOException ignore) { }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        StackMobNIOTransport transport = new StackMobNIOTransport();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        try {
+            transport.send(new OAuthRequest(Verb.GET, "http://localhost:" + server.getLocalPort() + "/game"), timeouts, executor, new StackMobTransport.Handler() {
+                @Override
+                public void completed(StackMobHttpResponse response) {
+                    latch.countDown();
+                }
+
+                @Override
+                public void failed(Throwable t) {
+                    failure.set(t);
+                    latch.countDown();
+                }
+            });
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            return failure.get();
+        } finally {
+            transport.shutdown();
+            executor.shutdown();
+            server.close();
+        }
+    }
+
+    @Test public void readTimeout() throws Exception {
+        Throwable failure = sendToSilentServer(new StackMobTimeouts().setReadTimeoutMillis(200));
+        assertTrue(String.valueOf(failure), failure instanceof SocketTimeoutException);
+        assertEquals("Read timed out", failure.getMessage());
+    }
+
+    @Test public void deadlineComesBeforeALongerReadTimeout() throws Exception {
+        Throwable failure = sendToSilentServer(new StackMobTimeouts().setReadTimeoutMillis(60000).setDeadlineMillis(200));
+        assertTrue(String.valueOf(failure), failure instanceof SocketTimeoutException);
+        assertEquals("Request deadline passed", failure.getMessage());
+    }
+
+    @Test public void replacedTransportIsShutDown() throws Exception {
+        StackMob stackmob = new StackMob(StackMob.OAuthVersion.One, 0, "API_KEY", "API_SECRET");
+        StackMobTransport original = stackmob.getTransport();
+        stackmob.setTransport(new StackMobScribeTransport());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        try {
+            original.send(new OAuthRequest(Verb.GET, "http://localhost:1/"), new StackMobTimeouts(), executor, new StackMobTransport.Handler() {
+                @Override
+                public void completed(StackMobHttpResponse response) {
+                    latch.countDown();
+                }
+
+                @Override
+                public void failed(Throwable t) {
+                    failure.set(t);
+                    latch.countDown();
+                }
+            });
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertEquals("Transport has been shut down", failure.get().getMessage());
+        } finally {
+            stackmob.shutdown();
+            executor.shutdown();
+        }
+        assertTrue(stackmob.getExecutor().isShutdown());
+    }
+
+    @Test public void shuttingDownACopyLeavesTheOriginalAlone() throws Exception {
+        LocalServer server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public String respond(LocalServer.Request request) {
+                return LocalServer.response(200, "{}");
+            }
+        });
+        StackMob original = new StackMob(StackMob.OAuthVersion.One, 0, "API_KEY", "API_SECRET");
+        try {
+            new StackMob(original).shutdown();
+            assertFalse(original.getExecutor().isShutdown());
+            sendAndWait((StackMobNIOTransport) original.getTransport(), original.getExecutor(), "http://" + server.getHost() + "/game", 1);
+        } finally {
+            original.shutdown();
+            server.close();
+        }
+    }
+
+    @Test public void aFullExecutorDoesntHoldUpOtherRequests() throws Exception {
+        LocalServer server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public String respond(LocalServer.Request request) {
+                return LocalServer.response(200, "{}");
+            }
+        });
+        StackMobNIOTransport transport = new StackMobNIOTransport();
+        // One thread and no queue, so handing it anything while the thread is taken blocks
+        ExecutorService full = StackMobExecutionConfig.bounded(1, 0).withBackPressure(BackPressure.BLOCK).createRequestExecutor();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch stuck = new CountDownLatch(1);
+        try {
+            full.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch(InterruptedException ignore) { }
+                }
+            });
+            transport.send(new OAuthRequest(Verb.GET, "http://" + server.getHost() + "/stuck"), new StackMobTimeouts(), full, new StackMobTransport.Handler() {
+                @Override
+                public void completed(StackMobHttpResponse response) {
+                    stuck.countDown();
+                }
+
+                @Override
+                public void failed(Throwable t) {
+                    stuck.countDown();
+                }
+            });
+            Thread.sleep(200);
+            sendAndWait(transport, executor, "http://" + server.getHost() + "/other", 1);
+            assertEquals(1, stuck.getCount());
+            release.countDown();
+            assertTrue(stuck.await(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            transport.shutdown();
+            full.shutdown();
+            executor.shutdown();
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.net;
+
+import org.junit.Test;
+import org.scribe.builder.ServiceBuilder;
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Token;
+import org.scribe.model.Verb;
+import org.scribe.services.HMACSha1SignatureService;
+import org.scribe.services.TimestampService;
+
+import static org.junit.Assert.*;
+
+public class StackMobOAuth1SignerTests {
+
+    private static class FixedTimeService implements TimestampService {
+        @Override
+        public String getTimestampInSeconds() {
+            return "1357000000";
+        }
+
+        @Override
+        public String getNonce() {
+            return "a nonce~with*odd+chars";
+        }
+    }
+
+    public static class FixedTimeApi extends StackMobApi {
+        @Override
+        public TimestampService getTimestampService() {
+            return new FixedTimeService();
+        }
+    }
+
+    /*
+     * Signs the same request with scribe and with the signer, and checks the Authorization headers match
+     */
+    private static void assertSignedLikeScribe(Verb verb, String url, String payload) {
+        OAuthRequest scribeRequest = new OAuthRequest(verb, url);
+        OAuthRequest signerRequest = new OAuthRequest(verb, url);
+        if(payload != null) {
+            scribeRequest.addPayload(payload);
+            signerRequest.addPayload(payload);
+        }
+        new ServiceBuilder().provider(FixedTimeApi.class).apiKey("API_KEY").apiSecret("API SECRET*").build().signRequest(new Token("", ""), scribeRequest);
+        new StackMobOAuth1Signer("API_KEY", "API SECRET*", new FixedTimeService(), new StackMobSignatureService()).sign(signerRequest);
+        assertEquals(scribeRequest.getOauthParameters(), signerRequest.getOauthParameters());
+        assertEquals(scribeRequest.getHeaders().get("Authorization"), signerRequest.getHeaders().get("Authorization"));
+    }
+
+    @Test public void signaturesMatchScribe() {
+        assertSignedLikeScribe(Verb.GET, "http://api.stackmob.com/thing", null);
+        assertSignedLikeScribe(Verb.GET, "https://api.stackmob.com:8443/thing/some+id?name=a%20b&score%5Bgte%5D=10&name=a&flag", null);
+        assertSignedLikeScribe(Verb.GET, "http://api.stackmob.com/thing?q=%E2%98%83~*&empty=", null);
+        assertSignedLikeScribe(Verb.POST, "http://api.stackmob.com/thing", "{\"name\":\"bob\"}");
+        assertSignedLikeScribe(Verb.DELETE, "http://api.stackmob.com/thing/1?", null);
+    }
+
+    @Test public void signatureServiceMatchesScribe() {
+        StackMobSignatureService signer = new StackMobSignatureService();
+        HMACSha1SignatureService scribe = new HMACSha1SignatureService();
+        String base = "GET&http%3A%2F%2Fapi.stackmob.com%2Fthing&oauth_nonce%3Dabc";
+        assertEquals(scribe.getSignature(base, "secret", ""), signer.getSignature(base, "secret", ""));
+        assertEquals(scribe.getSignature(base, "other secret", "token"), signer.getSignature(base, "other secret", "token"));
+        assertEquals(scribe.getSignature(base + "2", "secret", ""), signer.getSignature(base + "2", "secret", ""));
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.stackmob.sdk.net;
+
+import com.stackmob.sdk.api.StackMob;
+import com.stackmob.sdk.api.StackMobOptions;
+import com.stackmob.sdk.api.StackMobRetryPolicy;
+import com.stackmob.sdk.serverutils.LatchedCallback;
+import com.stackmob.sdk.serverutils.LocalServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StackMobTimeoutsTests {
+
+    private LocalServer server;
+    private final AtomicInteger served = new AtomicInteger();
+    // How long to wait before answering, and what to answer with
+    private volatile long delayMillis = 0;
+    private volatile int status = 200;
+    private StackMob stackmob;
+
+    @Before public void setUp() throws Exception {
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public String respond(LocalServer.Request request) throws Exception {
+                served.incrementAndGet();
+                if(delayMillis > 0) Thread.sleep(delayMillis);
+                return LocalServer.response(status, status == 200 ? "{}" : "");
+            }
+        });
+        stackmob = server.createStackMob();
+    }
+
+    @After public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test public void slowResponsesTimeOut() throws Exception {
+        stackmob.setTimeouts(new StackMobTimeouts().setReadTimeoutMillis(100));
+        delayMillis = 1000;
+        LatchedCallback result = new LatchedCallback();
+        stackmob.getDatastore().get("thing", result);
+        result.await();
+        assertFalse(result.hasSucceeded());
+        assertTrue(result.getException().getMessage(), result.getException().getMessage().contains("timed out"));
+    }
+
+    @Test public void optionsOverrideTheTimeouts() throws Exception {
+        stackmob.setTimeouts(new StackMobTimeouts().setReadTimeoutMillis(100));
+        delayMillis = 300;
+        LatchedCallback result = new LatchedCallback();
+        stackmob.getDatastore().get("thing", StackMobOptions.timeouts(new StackMobTimeouts().setReadTimeoutMillis(5000)), result);
+        result.await();
+        assertTrue(result.hasSucceeded());
+    }
+
+    @Test public void theDeadlineCoversRetries() throws Exception {
+        stackmob.setRetryPolicy(new StackMobRetryPolicy().setBaseDelayMillis(100).setMaxDelayMillis(100).setJitter(0));
+        stackmob.setTimeouts(new StackMobTimeouts().setDeadlineMillis(1000));
+        status = 503;
+        delayMillis = 500;
+        LatchedCallback result = new LatchedCallback();
+        stackmob.getDatastore().get("thing", result);
+        result.await();
+        assertFalse(result.hasSucceeded());
+        // The second attempt can't be answered before the deadline, and there's no time for a third
+        String message = result.getException().getMessage();
+        assertTrue(message, message.contains("deadline") || message.contains("timed out"));
+        assertTrue(served.get() < 4);
+    }
+
+    @Test public void theScribeTransportTimesOut() throws Exception {
+        stackmob.setTransport(new StackMobScribeTransport());
+        stackmob.setTimeouts(new StackMobTimeouts().setReadTimeoutMillis(100));
+        delayMillis = 1000;
+        LatchedCallback result = new LatchedCallback();
+        stackmob.getDatastore().get("thing", result);
+        result.await();
+        assertFalse(result.hasSucceeded());
+        assertTrue(result.getException().getMessage(), result.getException().getMessage().contains("timed out"));
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.request;
+
+import com.stackmob.sdk.api.StackMob;
+import com.stackmob.sdk.api.StackMobOptions;
+import com.stackmob.sdk.api.StackMobSession;
+import com.stackmob.sdk.callback.StackMobNoopCallback;
+import com.stackmob.sdk.net.HttpVerbWithoutPayload;
+import com.stackmob.sdk.util.Pair;
+import org.scribe.model.OAuthRequest;
+import org.scribe.model.Verb;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the time and memory allocated to put the headers on a request, with the session's shared headers and with
+ * the per request Accept, User-Agent and header list it replaced. OAuth2 without a token is used so no signing is
+ * included. Allocation is read from the HotSpot thread bean, so it's only reported on JVMs that have one. Not run as
+ * part of the tests, run it directly with the test classpath:
+ * <pre>
+ * {@code
+ * java -cp <test classes>:<classes>:<dependencies> com.stackmob.sdk.request.StackMobRequestHeadersBenchmark [iterations]
+ * }
+ * </pre>
+ */
+public class StackMobRequestHeadersBenchmark {
+
+    private static final String URL = "https://api.stackmob.com/game";
+
+    private static final StackMobSession session = new StackMobSession(StackMob.OAuthVersion.Two, 0, "API_KEY", "API_SECRET", "user", "username");
+    private static final StackMobRequest request = new StackMobRequestWithoutPayload(null, session, HttpVerbWithoutPayload.GET,
+            StackMobOptions.header("X-Custom", "value"), StackMobRequest.EmptyParams, "game", new StackMobNoopCallback(),
+            StackMob.DEFAULT_REDIRECTED_CALLBACK);
+    private static final List<Map.Entry<String, String>> userHeaders = StackMobOptions.header("X-Custom", "value").getHeaders();
+
+    private static long sink;
+
+    private static void sessionHeaders(int iterations) {
+        for(int i = 0; i < iterations; i++) {
+            sink += request.getOAuthRequest(HttpVerbWithoutPayload.GET, URL).getHeaders().size();
+        }
+    }
+
+    private static void oldHeaders(int iterations) {
+        for(int i = 0; i < iterations; i++) {
+            OAuthRequest req = new OAuthRequest(Verb.GET, URL);
+            List<Map.Entry<String, String>> headerList = new ArrayList<Map.Entry<String, String>>();
+            headerList.add(new Pair<String, String>("Accept", "application/vnd.stackmob+json; version=" + session.getApiVersionNumber()));
+            headerList.add(new Pair<String, String>("User-Agent", String.format("StackMob (%s; %s)", "Java Client", StackMob.getVersion())));
+            // What the cookie manager used to do with no cookies
+            StringBuilder cookies = new StringBuilder();
+            for(Map.Entry<String, ?> cookie : session.getCookieManager().getCookies().entrySet()) {
+                cookies.append(cookie.getKey());
+            }
+            if(cookies.toString().length() > 0) headerList.add(new Pair<String, String>("Cookie", cookies.toString()));
+            for(Map.Entry<String, String> header : userHeaders) {
+                headerList.add(new Pair<String, String>(header.getKey(), header.getValue()));
+            }
+            for(Map.Entry<String, String> header : headerList) {
+                req.addHeader(header.getKey(), header.getValue());
+            }
+            req.addHeader("X-StackMob-API-Key", session.getKey());
+            sink += req.getHeaders().size();
+        }
+    }
+
+    /*
+     * Bytes allocated by this thread so far, or -1 if the JVM can't say
+     */
+    private static long allocatedBytes() {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if(bean instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        } catch(Throwable ignore) { }
+        return -1;
+    }
+
+    private static String measure(boolean shared, int iterations) {
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        if(shared) {
+            sessionHeaders(iterations);
+        } else {
+            oldHeaders(iterations);
+        }
+        double nanos = (System.nanoTime() - start) / (double) iterations;
+        long allocated = allocatedBytes() - bytes;
+        return bytes < 0 ? String.format("%.0f ns/request", nanos)
+                         : String.format("%.0f ns/request, %.0f bytes/request", nanos, allocated / (double) iterations);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        // Warm up so the JIT has compiled the paths we're measuring
+        for(int i = 0; i < 5; i++) {
+            sessionHeaders(iterations / 5);
+            oldHeaders(iterations / 5);
+        }
+        System.out.println("Session headers:    " + measure(true, iterations));
+        System.out.println("Per request headers: " + measure(false, iterations));
+        System.out.println(sink == 42 ? "" : "done");
+    }
+}
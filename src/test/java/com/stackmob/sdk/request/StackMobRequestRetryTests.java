@@ -0,0 +1,145 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.request;
+
+import com.stackmob.sdk.api.StackMob;
+import com.stackmob.sdk.api.StackMobExecutionConfig;
+import com.stackmob.sdk.api.StackMobExecutionConfig.BackPressure;
+import com.stackmob.sdk.net.HttpVerbWithoutPayload;
+import com.stackmob.sdk.serverutils.LatchedCallback;
+import com.stackmob.sdk.serverutils.LocalServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StackMobRequestRetryTests {
+
+    private LocalServer server;
+    private final AtomicInteger unavailable = new AtomicInteger();
+    private final CountDownLatch firstUnavailable = new CountDownLatch(1);
+    private volatile int unavailableCount = 2;
+    private volatile int retryAfterSeconds = 1;
+    private StackMob stackmob;
+    private ExecutorService executor;
+
+    /*
+     * /busy answers 503 with a Retry-After of retryAfterSeconds until it's been asked unavailableCount times, everything else 200
+     */
+    @Before public void setUp() throws Exception {
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public String respond(LocalServer.Request request) {
+                if(request.getTarget().contains("/busy") && unavailable.getAndIncrement() < unavailableCount) {
+                    firstUnavailable.countDown();
+                    return LocalServer.response(503, "", "Retry-After: " + retryAfterSeconds);
+                }
+                return LocalServer.response(200, "{}");
+            }
+        });
+        stackmob = server.createStackMob();
+        // One thread, so a retry that held it would hold up every other request
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After public void tearDown() throws Exception {
+        server.close();
+        executor.shutdown();
+    }
+
+    private void send(String method, LatchedCallback result) {
+        send(executor, method, result);
+    }
+
+    private void send(ExecutorService executor, String method, LatchedCallback result) {
+        new StackMobRequestWithoutPayload(executor, stackmob.getSession(), HttpVerbWithoutPayload.GET, method, result, StackMob.DEFAULT_REDIRECTED_CALLBACK)
+                .setUrlFormat(server.getHost()).sendRequest();
+    }
+
+    @Test public void retriesDontHoldAThread() throws Exception {
+        // Long enough that the other request is done well before the busy one could be
+        retryAfterSeconds = 2;
+        LatchedCallback busy = new LatchedCallback();
+        send("busy", busy);
+        assertTrue(firstUnavailable.await(5, TimeUnit.SECONDS));
+
+        LatchedCallback other = new LatchedCallback();
+        send("other", other);
+        assertTrue(other.await(3, TimeUnit.SECONDS));
+        assertTrue(other.hasSucceeded());
+        assertEquals(1, busy.getCount());
+
+        busy.await();
+        assertTrue(busy.hasSucceeded());
+        assertEquals(3, unavailable.get());
+        assertEquals(1, busy.getRetriesRemaining());
+    }
+
+    @Test public void aRetryWaitingForRoomDoesntHoldUpOthers() throws Exception {
+        ExecutorService full = StackMobExecutionConfig.bounded(1, 0).withBackPressure(BackPressure.BLOCK).createRequestExecutor();
+        // Responses go elsewhere, so full's thread is only ever wanted by the sends
+        ExecutorService callbacks = Executors.newCachedThreadPool();
+        stackmob.getSession().setCallbackExecutor(callbacks);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            LatchedCallback stuck = new LatchedCallback();
+            send(full, "busy", stuck);
+            assertTrue(firstUnavailable.await(5, TimeUnit.SECONDS));
+            // Take the only thread, so the retry has to wait for room
+            full.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch(InterruptedException ignore) { }
+                }
+            });
+
+            LatchedCallback other = new LatchedCallback();
+            send("busy", other);
+            other.await();
+            assertTrue(other.hasSucceeded());
+            assertEquals(1, stuck.getCount());
+
+            release.countDown();
+            stuck.await();
+            assertTrue(stuck.hasSucceeded());
+        } finally {
+            release.countDown();
+            full.shutdown();
+            callbacks.shutdown();
+        }
+    }
+
+    @Test public void retriesStopWhenNoneRemain() throws Exception {
+        unavailableCount = 10;
+        LatchedCallback busy = new LatchedCallback();
+        busy.setRetriesRemaining(1);
+        send("busy", busy);
+        assertTrue(busy.await(5, TimeUnit.SECONDS));
+        assertFalse(busy.hasSucceeded());
+        assertEquals(2, unavailable.get());
+        assertEquals(0, busy.getRetriesRemaining());
+    }
+}
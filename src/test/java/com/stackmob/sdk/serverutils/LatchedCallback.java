@@ -0,0 +1,111 @@
+package com.stackmob.sdk.serverutils;
+
+import com.stackmob.sdk.callback.StackMobCallback;
+import com.stackmob.sdk.exception.StackMobException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A callback that records how its calls turned out and counts down a latch for each one, for tests that send
+ * requests and wait on the outcome
+ */
+public class LatchedCallback extends StackMobCallback {
+
+    private final CountDownLatch latch;
+    private final AtomicInteger successes = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile boolean succeeded;
+    private volatile StackMobException exception;
+
+    /**
+     * wait for a single call
+     */
+    public LatchedCallback() {
+        this(1);
+    }
+
+    /**
+     * wait for several calls, when one callback is shared by several requests
+     * @param count the number of calls to wait for
+     */
+    public LatchedCallback(int count) {
+        latch = new CountDownLatch(count);
+    }
+
+    @Override
+    public void success(String responseBody) {
+        succeeded = true;
+        successes.incrementAndGet();
+        latch.countDown();
+    }
+
+    @Override
+    public void failure(StackMobException e) {
+        exception = e;
+        failures.incrementAndGet();
+        latch.countDown();
+    }
+
+    /**
+     * wait for every call, failing the test if they don't all come within 10 seconds
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void await() throws InterruptedException {
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * wait for every call
+     * @param timeout how long to wait
+     * @param unit the unit of the timeout
+     * @return true if every call came in time
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return latch.await(timeout, unit);
+    }
+
+    /**
+     * the number of calls still to come
+     * @return the latch count
+     */
+    public long getCount() {
+        return latch.getCount();
+    }
+
+    /**
+     * whether any call was a success
+     * @return true if success was called
+     */
+    public boolean hasSucceeded() {
+        return succeeded;
+    }
+
+    /**
+     * the exception from the last failure
+     * @return the exception, or null if failure wasn't called
+     */
+    public StackMobException getException() {
+        return exception;
+    }
+
+    public int getSuccesses() {
+        return successes.get();
+    }
+
+    public int getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * the number of times success or failure was called
+     * @return the call count
+     */
+    public int getCalls() {
+        return successes.get() + failures.get();
+    }
+}
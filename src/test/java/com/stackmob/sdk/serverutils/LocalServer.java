@@ -0,0 +1,219 @@
+package com.stackmob.sdk.serverutils;
+
+import com.stackmob.sdk.api.StackMob;
+import com.stackmob.sdk.api.StackMobExecutionConfig;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A bare-bones HTTP/1.1 server on a local port for tests that need real responses. Each connection gets its own
+ * thread and every request on it is answered by the {@link Responder}
+ */
+public class LocalServer {
+
+    /**
+     * decides what the server sends back
+     */
+    public static abstract class Responder {
+        /**
+         * answer a request
+         * @param request the request
+         * @return the raw response to write, "" to write nothing and wait for the next request, or null to close the connection
+         * @throws Exception to close the connection
+         */
+        public abstract String respond(Request request) throws Exception;
+
+        /**
+         * called once a connection is closed, by either side
+         */
+        public void closed() { }
+    }
+
+    public static class Request {
+        private final String method;
+        private final String target;
+        private final Map<String, String> headers;
+        private final String body;
+
+        Request(String method, String target, Map<String, String> headers, String body) {
+            this.method = method;
+            this.target = target;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        /**
+         * get a header
+         * @param name the header name, in any case
+         * @return the header value, or null if it wasn't sent
+         */
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase());
+        }
+
+        public String getBody() {
+            return body;
+        }
+    }
+
+    private final ServerSocket server;
+    private final Responder responder;
+    private final List<StackMob> created = new CopyOnWriteArrayList<StackMob>();
+    private volatile boolean replacedDefault = false;
+    private volatile StackMob previousDefault;
+
+    public LocalServer(Responder responder) throws IOException {
+        this.responder = responder;
+        this.server = new ServerSocket(0);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while(!server.isClosed()) {
+                    try {
+                        final Socket socket = server.accept();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }).start();
+                    } catch(IOException ignore) { }
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * the host to point a StackMob object at
+     * @return localhost and the server's port
+     */
+    public String getHost() {
+        return "localhost:" + server.getLocalPort();
+    }
+
+    /**
+     * create a StackMob object that talks plain HTTP to this server. It's shut down when the server is closed
+     * @return the new StackMob
+     */
+    public StackMob createStackMob() {
+        return createStackMob(StackMobExecutionConfig.unbounded());
+    }
+
+    /**
+     * create a StackMob object that talks plain HTTP to this server. It's shut down when the server is closed
+     * @param executionConfig the thread configuration
+     * @return the new StackMob
+     */
+    public StackMob createStackMob(StackMobExecutionConfig executionConfig) {
+        StackMob stackmob = new StackMob(StackMob.OAuthVersion.One, 0, "API_KEY", "API_SECRET", getHost(),
+                StackMob.DEFAULT_USER_SCHEMA_NAME, StackMob.DEFAULT_USER_ID, StackMob.DEFAULT_PASSWORD_FIELD,
+                StackMob.DEFAULT_REDIRECTED_CALLBACK, executionConfig);
+        stackmob.getSession().setEnableHTTPS(false);
+        created.add(stackmob);
+        return stackmob;
+    }
+
+    /**
+     * create a StackMob object that talks plain HTTP to this server and make it the one returned by
+     * {@link StackMob#getStackMob()}, for code that goes through the default. The previous default is put back when
+     * the server is closed
+     * @return the new StackMob
+     */
+    public StackMob createDefaultStackMob() {
+        StackMob stackmob = createStackMob();
+        if(!replacedDefault) {
+            previousDefault = StackMob.getStackMob();
+            replacedDefault = true;
+        }
+        StackMob.setStackMob(stackmob);
+        return stackmob;
+    }
+
+    /**
+     * stop accepting connections, shut down every StackMob created from this server and put back the default
+     * StackMob if {@link #createDefaultStackMob()} replaced it
+     * @throws IOException if the server socket can't be closed
+     */
+    public void close() throws IOException {
+        server.close();
+        if(replacedDefault) StackMob.setStackMob(previousDefault);
+        for(StackMob stackmob : created) {
+            stackmob.shutdown();
+        }
+    }
+
+    /**
+     * build a response with a Content-Length
+     * @param status the status code
+     * @param body the body
+     * @param headers extra header lines, without line endings
+     * @return the raw response
+     */
+    public static String response(int status, String body, String... headers) {
+        StringBuilder response = new StringBuilder("HTTP/1.1 ").append(status).append(status == 200 ? " OK" : " Failed").append("\r\n");
+        for(String header : headers) {
+            response.append(header).append("\r\n");
+        }
+        return response.append("Content-Length: ").append(body.length()).append("\r\n\r\n").append(body).toString();
+    }
+
+    /*
+     * Reads requests off the connection until the client closes it or the responder gives up on it
+     */
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            String requestLine;
+            while((requestLine = readLine(in)) != null) {
+                if(requestLine.length() == 0) continue;
+                Map<String, String> headers = new HashMap<String, String>();
+                String line;
+                while((line = readLine(in)) != null && line.length() > 0) {
+                    int colon = line.indexOf(':');
+                    if(colon > 0) headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+                }
+                int contentLength = headers.containsKey("content-length") ? Integer.parseInt(headers.get("content-length")) : 0;
+                byte[] body = new byte[contentLength];
+                for(int i = 0; i < contentLength; i++) body[i] = (byte) in.read();
+                String[] parts = requestLine.split(" ");
+                String response = responder.respond(new Request(parts[0], parts.length > 1 ? parts[1] : "", headers, new String(body, "UTF-8")));
+                if(response == null) break;
+                out.write(response.getBytes("UTF-8"));
+                out.flush();
+            }
+        } catch(Exception ignore) {
+        } finally {
+            try {
+                socket.close();
+            } catch(IOException ignore) { }
+            responder.closed();
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while((c = in.read()) != -1 && c != '\n') {
+            if(c != '\r') line.append((char) c);
+        }
+        return c == -1 && line.length() == 0 ? null : line.toString();
+    }
+}
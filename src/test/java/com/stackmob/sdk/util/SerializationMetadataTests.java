@@ -28,6 +28,8 @@ import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.stackmob.sdk.concurrencyutils.CountDownLatchUtils.latchOne;
 
@@ -68,4 +70,40 @@ public class SerializationMetadataTests extends StackMobTestCommon {
         assertEquals(PRIMITIVE_ARRAY,getSerializationMetadata(CrazyStuff.class,"stringList"));
         assertEquals(OBJECT_ARRAY,getSerializationMetadata(CrazyStuff.class,"latchList"));
     }
+
+    private class Racy extends StackMobModel {
+        public Racy() {
+            super(Racy.class);
+        }
+        private String name;
+        private Author author;
+    }
+
+    @Test public void testConcurrentLookups() throws Exception {
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger wrong = new AtomicInteger();
+        for(int i = 0; i < threads; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for(int j = 0; j < 1000; j++) {
+                            if(getSerializationMetadata(Racy.class, "author") != MODEL) wrong.incrementAndGet();
+                            if(!"name".equals(getFieldNameFromJsonName(Racy.class, "name"))) wrong.incrementAndGet();
+                        }
+                    } catch(InterruptedException e) {
+                        wrong.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, wrong.get());
+    }
 }
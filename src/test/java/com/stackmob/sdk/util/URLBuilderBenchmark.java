@@ -0,0 +1,88 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.util;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures how long it takes to build the url for a datastore GET with 16 query arguments, with URLBuilder and with
+ * the URLEncoder, String.format and URI based code it replaced. Not run as part of the tests, run it directly with the
+ * test classpath:
+ * <pre>
+ * {@code
+ * java -cp <test classes>:<classes>:<dependencies> com.stackmob.sdk.util.URLBuilderBenchmark [iterations]
+ * }
+ * </pre>
+ */
+public class URLBuilderBenchmark {
+
+    private static final String PATH = "/game";
+    private static final List<Map.Entry<String, String>> PARAMS = new ArrayList<Map.Entry<String, String>>();
+    static {
+        for(int i = 0; i < 8; i++) {
+            PARAMS.add(new Pair<String, String>("score" + i + "[gte]", String.valueOf(i * 100)));
+            PARAMS.add(new Pair<String, String>("name" + i, "player number " + i));
+        }
+    }
+
+    private static long sink;
+
+    private static double nanosPerURLBuilder(int iterations) throws Exception {
+        long start = System.nanoTime();
+        for(int i = 0; i < iterations; i++) {
+            sink += URLBuilder.url("https", "api.stackmob.com", PATH, PARAMS).length();
+        }
+        return (System.nanoTime() - start) / (double) iterations;
+    }
+
+    private static double nanosPerOldURL(int iterations) throws Exception {
+        long start = System.nanoTime();
+        for(int i = 0; i < iterations; i++) {
+            List<String> paramList = new LinkedList<String>();
+            for(Map.Entry<String, String> pair : PARAMS) {
+                paramList.add(String.format("%s=%s", URLEncoder.encode(pair.getKey(), "UTF-8").replace("+", "%20"),
+                        URLEncoder.encode(pair.getValue(), "UTF-8").replace("+", "%20")));
+            }
+            String query = ListHelpers.join(paramList, "&");
+            String[] parts = PATH.split("/");
+            StringBuilder path = new StringBuilder();
+            for(int j = 0; j < parts.length; j++) {
+                path.append(j == parts.length - 1 ? URLEncoder.encode(parts[j], "utf-8") : parts[j]);
+                if(j != parts.length - 1) path.append("/");
+            }
+            sink += new URI("https://api.stackmob.com" + path + "?" + query).toString().length();
+        }
+        return (System.nanoTime() - start) / (double) iterations;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        // Warm up so the JIT has compiled the paths we're measuring
+        for(int i = 0; i < 5; i++) {
+            nanosPerURLBuilder(iterations / 5);
+            nanosPerOldURL(iterations / 5);
+        }
+        System.out.println(String.format("URLBuilder:         %.0f ns/url", nanosPerURLBuilder(iterations)));
+        System.out.println(String.format("URLEncoder and URI: %.0f ns/url", nanosPerOldURL(iterations)));
+        System.out.println(sink == 42 ? "" : "done");
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2013 StackMob
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.stackmob.sdk.util;
+
+import org.junit.Test;
+import org.scribe.utils.OAuthEncoder;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class URLBuilderTests {
+
+    private static final String[] STRINGS = { "", "plain", "with space", "a+b=c&d", "100%", "[gte]", "*.-_~!'()",
+            "café", "日本語", "emoji 😀", "lone \ud83d surrogate", "slash/in/value", "tab\tnewline\n" };
+
+    @Test public void encodesLikeURLEncoder() throws Exception {
+        for(String s : STRINGS) {
+            assertEquals(s, URLEncoder.encode(s, "UTF-8").replace("+", "%20"), URLBuilder.percentEncode(s));
+            assertEquals(s, URLEncoder.encode(s, "UTF-8"), URLBuilder.formEncode(s));
+            assertEquals(s, OAuthEncoder.encode(s), URLBuilder.oauthEncode(s));
+        }
+    }
+
+    @Test public void buildsQueryStrings() throws Exception {
+        List<Map.Entry<String, String>> params = new ArrayList<Map.Entry<String, String>>();
+        params.add(new Pair<String, String>("age[gte]", "20"));
+        params.add(new Pair<String, String>("name", "joe smith"));
+        assertEquals("age%5Bgte%5D=20&name=joe%20smith", URLBuilder.queryString(params));
+        assertEquals("http://api.stackmob.com/user?age%5Bgte%5D=20&name=joe%20smith", URLBuilder.url("http", "api.stackmob.com", "/user", params));
+        assertEquals("http://api.stackmob.com/user", URLBuilder.url("http", "api.stackmob.com", "user", new ArrayList<Map.Entry<String, String>>()));
+    }
+
+    @Test public void onlyTheLastPathSegmentIsEncoded() throws Exception {
+        assertEquals("https://h/game/1/players/a+b%252Fc", URLBuilder.url("https", "h", "game/1/players/a b%2Fc", null));
+        assertEquals("https://h/game/caf%C3%A9", URLBuilder.url("https", "h", "/game/café/", null));
+        assertEquals("https://h", URLBuilder.url("https", "h", "/", null));
+        assertEquals("https://h//a", URLBuilder.url("https", "h", "//a", null));
+        // The result is always something URI accepts as it is
+        for(String s : STRINGS) {
+            String url = URLBuilder.url("https", "h", "/game/" + s, null);
+            assertEquals(url, new URI(url).toString());
+        }
+    }
+
+    @Test public void illegalPathCharactersAreRejected() throws Exception {
+        try {
+            URLBuilder.url("https", "h", "/bad path/1", null);
+            fail("the space should have been rejected");
+        } catch(URISyntaxException expected) { }
+    }
+}